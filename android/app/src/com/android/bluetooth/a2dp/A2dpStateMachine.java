@@ -56,8 +56,10 @@ import android.bluetooth.BluetoothProtoEnums;
 import android.content.Intent;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.android.bluetooth.BluetoothMetricsProto.LatencyMetric;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
@@ -95,6 +97,8 @@ final class A2dpStateMachine extends StateMachine {
     private Connected mConnected;
     private int mConnectionState = BluetoothProfile.STATE_DISCONNECTED;
     private int mLastConnectionState = -1;
+    // Time the device entered Connecting, to measure the connection latency
+    private long mConnectingStartNanos;
 
     private A2dpService mA2dpService;
     private A2dpNativeInterface mA2dpNativeInterface;
@@ -274,6 +278,7 @@ final class A2dpStateMachine extends StateMachine {
                     : messageWhatToString(currentMessage.what)));
             sendMessageDelayed(CONNECT_TIMEOUT, sConnectTimeoutMs);
             mConnectionState = BluetoothProfile.STATE_CONNECTING;
+            mConnectingStartNanos = SystemClock.elapsedRealtimeNanos();
             broadcastConnectionState(mConnectionState, mLastConnectionState);
         }
 
@@ -476,6 +481,10 @@ final class A2dpStateMachine extends StateMachine {
             Log.i(TAG, "Enter Connected(" + mDevice + "): " + (currentMessage == null ? "null"
                     : messageWhatToString(currentMessage.what)));
             mConnectionState = BluetoothProfile.STATE_CONNECTED;
+            if (mLastConnectionState == BluetoothProfile.STATE_CONNECTING) {
+                MetricsLogger.logLatencySince(LatencyMetric.LATENCY_PROFILE_CONNECTION,
+                        mConnectingStartNanos);
+            }
 
             removeDeferredMessages(CONNECT);
 
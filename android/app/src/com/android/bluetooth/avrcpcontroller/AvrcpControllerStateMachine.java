@@ -26,6 +26,7 @@ import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.v4.media.MediaBrowserCompat.MediaItem;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
@@ -136,9 +137,19 @@ class AvrcpControllerStateMachine extends StateMachine {
     private int mVolumeNotificationLabel = -1;
 
     GetFolderList mGetFolderList = null;
+    // Number of items requested per fetch after the first one of a folder, and the most items
+    // the remote returned in a truncated response
+    private int mItemPageSize = ITEM_PAGE_SIZE;
+    private int mItemPageSizeLimit = MAX_ITEM_PAGE_SIZE;
 
-    //Number of items to get in a single fetch
+    //Number of items to get in the first fetch of a folder
     static final int ITEM_PAGE_SIZE = 20;
+    // Upper bound of the number of items to get in a single fetch. The page size grows up to it
+    // while the remote returns every item requested, i.e. while its browsing MTU allows.
+    static final int MAX_ITEM_PAGE_SIZE = 200;
+    // Argument of MESSAGE_GET_FOLDER_ITEMS to fetch the contents of a cached folder again,
+    // keeping the current contents until the new ones are received.
+    static final int FETCH_REFRESH = 1;
     static final int CMD_TIMEOUT_MILLIS = 10000;
     static final int ABS_VOL_TIMEOUT_MILLIS = 1000; //1s
 
@@ -270,6 +281,7 @@ class AvrcpControllerStateMachine extends StateMachine {
             queue = mBrowseTree.mNowPlayingNode.getContents();
         }
         ProfileService.println(sb, "Queue (" + (queue == null ? 0 : queue.size()) + "): " + queue);
+        ProfileService.println(sb, "Browse Tree: " + mBrowseTree.getUsageSummary());
     }
 
     @VisibleForTesting
@@ -297,6 +309,9 @@ class AvrcpControllerStateMachine extends StateMachine {
 
     synchronized void onBrowsingConnected() {
         mBrowsingConnected = true;
+        // The browsing MTU may differ from the previous connection
+        mItemPageSize = ITEM_PAGE_SIZE;
+        mItemPageSizeLimit = MAX_ITEM_PAGE_SIZE;
         requestContents(mBrowseTree.mRootNode);
     }
 
@@ -403,9 +418,14 @@ class AvrcpControllerStateMachine extends StateMachine {
     }
 
     void nowPlayingContentChanged() {
-        mBrowseTree.mNowPlayingNode.setCached(false);
-        removeUnusedArtworkFromBrowseTree();
-        sendMessage(MESSAGE_GET_FOLDER_ITEMS, mBrowseTree.mNowPlayingNode);
+        // The current list is kept until the new one is received, so the queue does not go
+        // empty while fetching it and the unchanged items keep their media IDs
+        sendMessage(MESSAGE_GET_FOLDER_ITEMS, FETCH_REFRESH, 0, mBrowseTree.mNowPlayingNode);
+    }
+
+    @VisibleForTesting
+    int getItemPageSize() {
+        return mItemPageSize;
     }
 
     protected class Disconnected extends State {
@@ -765,6 +785,15 @@ class AvrcpControllerStateMachine extends StateMachine {
         boolean mAbort;
         BrowseTree.BrowseNode mBrowseNode;
         BrowseTree.BrowseNode mNextStep;
+        // Items received while refreshing mBrowseNode, null when not refreshing
+        List<AvrcpItem> mRefreshItems;
+        // Number of items asked by the last fetch, and received if fewer
+        int mRequestedItems;
+        int mShortResponseItems;
+        // Statistics of the current listing
+        long mStartTimeMs;
+        long mFirstItemsTimeMs;
+        int mFetchCount;
 
         @Override
         public void enter() {
@@ -773,11 +802,19 @@ class AvrcpControllerStateMachine extends StateMachine {
             sendMessageDelayed(MESSAGE_INTERNAL_CMD_TIMEOUT, CMD_TIMEOUT_MILLIS);
             super.enter();
             mAbort = false;
+            mRefreshItems = null;
+            mStartTimeMs = SystemClock.elapsedRealtime();
+            mFirstItemsTimeMs = -1;
+            mFetchCount = 0;
+            mShortResponseItems = 0;
             Message msg = getCurrentMessage();
             if (msg.what == MESSAGE_GET_FOLDER_ITEMS) {
                 {
                     logD(STATE_TAG + " new Get Request");
                     mBrowseNode = (BrowseTree.BrowseNode) msg.obj;
+                    if (msg.arg1 == FETCH_REFRESH) {
+                        mRefreshItems = new ArrayList<>();
+                    }
                 }
             }
 
@@ -797,6 +834,10 @@ class AvrcpControllerStateMachine extends StateMachine {
                     int endIndicator = mBrowseNode.getExpectedChildren() - 1;
                     logD("GetFolderItems: End " + endIndicator
                             + " received " + folderList.size());
+                    if (mFirstItemsTimeMs < 0 && folderList.size() > 0) {
+                        mFirstItemsTimeMs = SystemClock.elapsedRealtime();
+                    }
+                    updatePageSize(folderList.size());
 
                     // Queue up image download if the item has an image and we don't have it yet
                     // Only do this if the feature is enabled.
@@ -808,25 +849,33 @@ class AvrcpControllerStateMachine extends StateMachine {
                         }
                     }
 
-                    // Always update the node so that the user does not wait forever
-                    // for the list to populate.
-                    int newSize = mBrowseNode.addChildren(folderList);
-                    logD("Added " + newSize + " items to the browse tree");
-                    notifyChanged(mBrowseNode);
+                    if (mRefreshItems != null) {
+                        mRefreshItems.addAll(folderList);
+                    } else {
+                        int newSize = mBrowseNode.addChildren(folderList);
+                        logD("Added " + newSize + " items to the browse tree");
+                    }
 
-                    if (mBrowseNode.getChildrenCount() >= endIndicator || folderList.size() == 0
-                            || mAbort) {
+                    if (getFetchedCount(mBrowseNode) >= endIndicator || folderList.size() == 0) {
                         // If we have fetched all the elements or if the remotes sends us 0 elements
                         // (which can lead us into a loop since mCurrInd does not proceed) we simply
                         // abort.
-                        mBrowseNode.setCached(true);
-                        transitionTo(mConnected);
+                        finishFetch(true);
+                    } else if (mAbort) {
+                        // The items of an aborted refresh are partial, keep the previous ones
+                        finishFetch(mRefreshItems == null);
                     } else {
-                        // Fetch the next set of items.
+                        // Fetch the next set of items before notifying this one, so that the
+                        // remote prepares it while the clients update.
                         fetchContents(mBrowseNode);
                         // Reset the timeout message since we are doing a new fetch now.
                         removeMessages(MESSAGE_INTERNAL_CMD_TIMEOUT);
                         sendMessageDelayed(MESSAGE_INTERNAL_CMD_TIMEOUT, CMD_TIMEOUT_MILLIS);
+                        // Always update the node so that the user does not wait forever
+                        // for the list to populate.
+                        if (mRefreshItems == null) {
+                            notifyChanged(mBrowseNode);
+                        }
                     }
                     break;
                 case MESSAGE_PROCESS_SET_BROWSED_PLAYER:
@@ -919,15 +968,14 @@ class AvrcpControllerStateMachine extends StateMachine {
                     // We have timed out to execute the request, we should simply send
                     // whatever listing we have gotten until now.
                     Log.w(TAG, "TIMEOUT");
-                    transitionTo(mConnected);
+                    finishFetch(false);
                     break;
 
                 case MESSAGE_PROCESS_GET_FOLDER_ITEMS_OUT_OF_RANGE:
                     // If we have gotten an error for OUT OF RANGE we have
                     // already sent all the items to the client hence simply
                     // transition to Connected state here.
-                    mBrowseNode.setCached(true);
-                    transitionTo(mConnected);
+                    finishFetch(true);
                     break;
 
                 case MESSAGE_GET_FOLDER_ITEMS:
@@ -938,6 +986,12 @@ class AvrcpControllerStateMachine extends StateMachine {
                         }
                         deferMessage(msg);
                         logD("GetFolderItems: Go Get Another Directory");
+                    } else if (msg.arg1 == FETCH_REFRESH) {
+                        // The contents changed while being fetched, start over once the fetch
+                        // in progress returns
+                        mAbort = true;
+                        deferMessage(msg);
+                        logD("GetFolderItems: Refresh The Same Directory");
                     } else {
                         logD("GetFolderItems: Get The Same Directory, ignore");
                     }
@@ -967,10 +1021,66 @@ class AvrcpControllerStateMachine extends StateMachine {
             return false;
         }
 
+        /**
+         * Adapt the number of items requested per fetch to what the remote returns.
+         *
+         * The remote truncates a response to fit its browsing MTU, so the page size grows while
+         * the responses are complete and is limited to the size of the first truncated one.
+         */
+        private void updatePageSize(int receivedItems) {
+            if (receivedItems > 0 && mShortResponseItems > 0) {
+                // The listing went on after a short response, the remote truncated it
+                mItemPageSizeLimit = Math.max(mShortResponseItems, ITEM_PAGE_SIZE);
+                mItemPageSize = Math.min(mItemPageSize, mItemPageSizeLimit);
+            }
+            mShortResponseItems = 0;
+            if (receivedItems >= mRequestedItems) {
+                if (mRequestedItems >= mItemPageSize) {
+                    mItemPageSize = Math.min(mItemPageSize * 2, mItemPageSizeLimit);
+                }
+            } else if (receivedItems > 0) {
+                // Either truncated or the end of the listing, known with the next response
+                mShortResponseItems = receivedItems;
+            }
+        }
+
+        private int getFetchedCount(BrowseTree.BrowseNode target) {
+            return mRefreshItems != null ? mRefreshItems.size() : target.getChildrenCount();
+        }
+
+        private void finishFetch(boolean cached) {
+            if (mRefreshItems != null) {
+                if (cached) {
+                    int kept = mBrowseNode.replaceChildren(mRefreshItems);
+                    logD("Refreshed " + mBrowseNode + ", kept " + kept + " of "
+                            + mRefreshItems.size() + " items");
+                    notifyChanged(mBrowseNode);
+                } else {
+                    // A partial listing would replace a complete one, keep the previous items
+                    logD("Refresh of " + mBrowseNode + " failed, dropped "
+                            + mRefreshItems.size() + " items");
+                }
+            } else if (cached) {
+                mBrowseNode.setCached(true);
+                notifyChanged(mBrowseNode);
+            }
+            // Items were replaced, or folders evicted to make room for the new ones
+            removeUnusedArtworkFromBrowseTree();
+            logD("GetFolderItems: fetched " + getFetchedCount(mBrowseNode) + " items in "
+                    + mFetchCount + " requests, first items after "
+                    + (mFirstItemsTimeMs < 0 ? "-" : (mFirstItemsTimeMs - mStartTimeMs))
+                    + " ms, done after " + (SystemClock.elapsedRealtime() - mStartTimeMs)
+                    + " ms");
+            transitionTo(mConnected);
+        }
+
         private void fetchContents(BrowseTree.BrowseNode target) {
-            int start = target.getChildrenCount();
-            int end = Math.min(target.getExpectedChildren(), target.getChildrenCount()
-                    + ITEM_PAGE_SIZE) - 1;
+            int start = getFetchedCount(target);
+            // Keep the first page small so that the first items show up fast
+            int pageSize = start == 0 ? ITEM_PAGE_SIZE : mItemPageSize;
+            int end = Math.min(target.getExpectedChildren(), start + pageSize) - 1;
+            mRequestedItems = end - start + 1;
+            mFetchCount++;
             logD("fetchContents(title=" + target.getID() + ", scope=" + target.getScope()
                     + ", start=" + start + ", end=" + end + ", expected="
                     + target.getExpectedChildren() + ")");
@@ -1048,6 +1158,7 @@ class AvrcpControllerStateMachine extends StateMachine {
         public void exit() {
             removeMessages(MESSAGE_INTERNAL_CMD_TIMEOUT);
             mBrowseNode = null;
+            mRefreshItems = null;
             super.exit();
         }
     }
@@ -22,15 +22,22 @@ import android.support.v4.media.MediaBrowserCompat.MediaItem;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
+import com.android.internal.annotations.GuardedBy;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An object that holds the browse tree of available media from a remote device.
@@ -58,6 +65,12 @@ public class BrowseTree {
     public static final String NOW_PLAYING_PREFIX = "NOW_PLAYING";
     public static final String PLAYER_PREFIX = "PLAYER";
 
+    // Number of nodes above which the contents of the least recently used folders are dropped,
+    // to be fetched again when needed
+    @VisibleForTesting
+    static final int MAX_NODES = 5000;
+    private static final int NODE_BASE_SIZE_BYTES = 200;
+
     // Static instance of Folder ID <-> Folder Instance (for navigation purposes)
     @VisibleForTesting
     final HashMap<String, BrowseNode> mBrowseMap = new HashMap<String, BrowseNode>();
@@ -73,7 +86,22 @@ public class BrowseTree {
     private final HashMap<String, ArrayList<String>> mCoverArtMap =
             new HashMap<String, ArrayList<String>>();
 
+    // Nodes having children, candidates for eviction
+    @GuardedBy("this")
+    private final Set<BrowseNode> mFoldersWithChildren =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    private final AtomicLong mAccessClock = new AtomicLong();
+    private final int mMaxNodes;
+    @GuardedBy("this")
+    private int mEvictedFolderCount;
+
     BrowseTree(BluetoothDevice device) {
+        this(device, MAX_NODES);
+    }
+
+    @VisibleForTesting
+    BrowseTree(BluetoothDevice device, int maxNodes) {
+        mMaxNodes = maxNodes;
         if (device == null) {
             mRootNode = new BrowseNode(new AvrcpItem.Builder()
                     .setUuid(ROOT).setTitle(ROOT).setBrowsable(true).build());
@@ -101,10 +129,11 @@ public class BrowseTree {
         mCurrentBrowseNode = mRootNode;
     }
 
-    public void clear() {
+    public synchronized void clear() {
         // Clearing the map should garbage collect everything.
         mBrowseMap.clear();
         mCoverArtMap.clear();
+        mFoldersWithChildren.clear();
     }
 
     void onConnected(BluetoothDevice device) {
@@ -117,9 +146,12 @@ public class BrowseTree {
     }
 
     // Each node of the tree is represented by Folder ID, Folder Name and the children.
+    //
+    // The children list is immutable and replaced on each change, so that it can be read without
+    // locking. Changes to the tree are made holding the BrowseTree lock.
     class BrowseNode {
         // AvrcpItem to store the media related details.
-        AvrcpItem mItem;
+        final AvrcpItem mItem;
 
         // Type of this browse node.
         // Since Media APIs do not define the player separately we define that
@@ -128,14 +160,17 @@ public class BrowseTree {
 
         // If this folder is currently cached, can be useful to return the contents
         // without doing another fetch.
-        boolean mCached = false;
+        volatile boolean mCached = false;
 
-        byte mBrowseScope = AvrcpControllerService.BROWSE_SCOPE_VFS;
+        volatile byte mBrowseScope = AvrcpControllerService.BROWSE_SCOPE_VFS;
 
         // List of children.
-        private BrowseNode mParent;
-        private final List<BrowseNode> mChildren = new ArrayList<BrowseNode>();
-        private int mExpectedChildrenCount;
+        private volatile BrowseNode mParent;
+        private volatile List<BrowseNode> mChildren = Collections.emptyList();
+        private volatile int mExpectedChildrenCount;
+
+        // Value of mAccessClock when the contents of this node were last used, for eviction
+        private volatile long mLastAccess;
 
         BrowseNode(AvrcpItem item) {
             mItem = item;
@@ -176,88 +211,160 @@ public class BrowseTree {
             mItem = aid.build();
         }
 
-        synchronized void setExpectedChildren(int count) {
+        void setExpectedChildren(int count) {
             mExpectedChildrenCount = count;
         }
 
-        synchronized int getExpectedChildren() {
+        int getExpectedChildren() {
             return mExpectedChildrenCount;
         }
 
-        synchronized <E> int addChildren(List<E> newChildren) {
-            for (E child : newChildren) {
-                BrowseNode currentNode = null;
-                if (child instanceof AvrcpItem) {
-                    currentNode = new BrowseNode((AvrcpItem) child);
-                } else if (child instanceof AvrcpPlayer) {
-                    currentNode = new BrowseNode((AvrcpPlayer) child);
+        <E> int addChildren(List<E> newChildren) {
+            synchronized (BrowseTree.this) {
+                List<BrowseNode> children = new ArrayList<>(mChildren);
+                for (E child : newChildren) {
+                    BrowseNode currentNode = null;
+                    if (child instanceof AvrcpItem) {
+                        currentNode = new BrowseNode((AvrcpItem) child);
+                    } else if (child instanceof AvrcpPlayer) {
+                        currentNode = new BrowseNode((AvrcpPlayer) child);
+                    }
+                    if (currentNode != null) {
+                        attachChild(currentNode);
+                        children.add(currentNode);
+                    }
                 }
-                addChild(currentNode);
+                setChildren(children);
+                return newChildren.size();
             }
-            return newChildren.size();
         }
 
-        synchronized boolean addChild(BrowseNode node) {
-            if (node != null) {
-                node.mParent = this;
-                if (this.mBrowseScope == AvrcpControllerService.BROWSE_SCOPE_NOW_PLAYING) {
-                    node.mBrowseScope = this.mBrowseScope;
+        /**
+         * Replace the children with the given items. The children whose item did not change
+         * are kept, so that their IDs and artwork stay valid for the clients.
+         *
+         * @return the number of children kept
+         */
+        int replaceChildren(List<AvrcpItem> items) {
+            synchronized (BrowseTree.this) {
+                // Items are matched by UID, which a remote may use for several items
+                Map<Long, ArrayDeque<BrowseNode>> previousChildren = new HashMap<>();
+                for (BrowseNode child : mChildren) {
+                    previousChildren.computeIfAbsent(child.mItem.getUid(),
+                            k -> new ArrayDeque<>()).add(child);
                 }
-                mChildren.add(node);
-                mBrowseMap.put(node.getID(), node);
-
-                // Each time we add a node to the tree, check for an image handle so we can add
-                // the artwork URI once it has been downloaded
-                String imageUuid = node.getCoverArtUuid();
-                if (imageUuid != null) {
-                    indicateCoverArtUsed(node.getID(), imageUuid);
+                List<BrowseNode> children = new ArrayList<>(items.size());
+                int kept = 0;
+                for (AvrcpItem item : items) {
+                    ArrayDeque<BrowseNode> candidates = previousChildren.get(item.getUid());
+                    BrowseNode child = candidates == null ? null : candidates.peek();
+                    if (child != null && isSameItem(child.mItem, item)) {
+                        candidates.poll();
+                        kept++;
+                    } else {
+                        child = new BrowseNode(item);
+                        attachChild(child);
+                    }
+                    children.add(child);
                 }
+                for (ArrayDeque<BrowseNode> removedChildren : previousChildren.values()) {
+                    for (BrowseNode child : removedChildren) {
+                        detachSubtree(child);
+                    }
+                }
+                setChildren(children);
+                return kept;
+            }
+        }
+
+        boolean addChild(BrowseNode node) {
+            if (node == null) {
+                return false;
+            }
+            synchronized (BrowseTree.this) {
+                attachChild(node);
+                List<BrowseNode> children = new ArrayList<>(mChildren);
+                children.add(node);
+                setChildren(children);
                 return true;
             }
-            return false;
         }
 
-        synchronized void removeChild(BrowseNode node) {
-            mChildren.remove(node);
-            mBrowseMap.remove(node.getID());
-            indicateCoverArtUnused(node.getID(), node.getCoverArtUuid());
+        void removeChild(BrowseNode node) {
+            synchronized (BrowseTree.this) {
+                List<BrowseNode> children = new ArrayList<>(mChildren);
+                children.remove(node);
+                setChildren(children);
+                detachSubtree(node);
+            }
+        }
+
+        @GuardedBy("BrowseTree.this")
+        private void attachChild(BrowseNode node) {
+            node.mParent = this;
+            if (this.mBrowseScope == AvrcpControllerService.BROWSE_SCOPE_NOW_PLAYING) {
+                node.mBrowseScope = this.mBrowseScope;
+            }
+            mBrowseMap.put(node.getID(), node);
+
+            // Each time we add a node to the tree, check for an image handle so we can add
+            // the artwork URI once it has been downloaded
+            String imageUuid = node.getCoverArtUuid();
+            if (imageUuid != null) {
+                indicateCoverArtUsed(node.getID(), imageUuid);
+            }
         }
 
-        synchronized int getChildrenCount() {
+        @GuardedBy("BrowseTree.this")
+        private void setChildren(List<BrowseNode> children) {
+            mChildren = Collections.unmodifiableList(children);
+            if (children.isEmpty()) {
+                mFoldersWithChildren.remove(this);
+            } else {
+                mFoldersWithChildren.add(this);
+                touch();
+                evictIfNeeded(this);
+            }
+        }
+
+        int getChildrenCount() {
             return mChildren.size();
         }
 
-        synchronized List<BrowseNode> getChildren() {
+        List<BrowseNode> getChildren() {
             return mChildren;
         }
 
-        synchronized BrowseNode getChild(int index) {
-            if (index < 0 || index >= mChildren.size()) {
+        BrowseNode getChild(int index) {
+            List<BrowseNode> children = mChildren;
+            if (index < 0 || index >= children.size()) {
                 return null;
             }
-            return mChildren.get(index);
+            return children.get(index);
         }
 
-        synchronized BrowseNode getParent() {
+        BrowseNode getParent() {
             return mParent;
         }
 
-        synchronized BluetoothDevice getDevice() {
+        BluetoothDevice getDevice() {
             return mItem.getDevice();
         }
 
-        synchronized String getCoverArtUuid() {
+        String getCoverArtUuid() {
             return mItem.getCoverArtUuid();
         }
 
-        synchronized void setCoverArtUri(Uri uri) {
+        void setCoverArtUri(Uri uri) {
             mItem.setCoverArtLocation(uri);
         }
 
-        synchronized List<MediaItem> getContents() {
-            if (mChildren.size() > 0 || mCached) {
-                List<MediaItem> contents = new ArrayList<MediaItem>(mChildren.size());
-                for (BrowseNode child : mChildren) {
+        List<MediaItem> getContents() {
+            List<BrowseNode> children = mChildren;
+            if (children.size() > 0 || mCached) {
+                touch();
+                List<MediaItem> contents = new ArrayList<MediaItem>(children.size());
+                for (BrowseNode child : children) {
                     contents.add(child.getMediaItem());
                 }
                 return contents;
@@ -265,64 +372,85 @@ public class BrowseTree {
             return null;
         }
 
-        synchronized boolean isChild(BrowseNode node) {
+        boolean isChild(BrowseNode node) {
             return mChildren.contains(node);
         }
 
-        synchronized boolean isCached() {
+        boolean isCached() {
             return mCached;
         }
 
-        synchronized boolean isBrowsable() {
+        boolean isBrowsable() {
             return mItem.isBrowsable();
         }
 
-        synchronized void setCached(boolean cached) {
+        void setCached(boolean cached) {
             if (DBG) Log.d(TAG, "Set Cache" + cached + "Node" + toString());
-            mCached = cached;
-            if (!cached) {
-                for (BrowseNode child : mChildren) {
-                    mBrowseMap.remove(child.getID());
-                    indicateCoverArtUnused(child.getID(), child.getCoverArtUuid());
+            synchronized (BrowseTree.this) {
+                mCached = cached;
+                if (!cached) {
+                    clearChildren();
                 }
-                mChildren.clear();
             }
         }
 
+        // Forget the children and their own subtrees.
+        @GuardedBy("BrowseTree.this")
+        private void clearChildren() {
+            List<BrowseNode> children = mChildren;
+            mChildren = Collections.emptyList();
+            mFoldersWithChildren.remove(this);
+            for (BrowseNode child : children) {
+                detachSubtree(child);
+            }
+        }
+
+        private void touch() {
+            mLastAccess = mAccessClock.incrementAndGet();
+        }
+
+        // Rough number of bytes used by this node and its item.
+        int getEstimatedSize() {
+            return NODE_BASE_SIZE_BYTES + 2 * (length(mItem.getUuid()) + length(mItem.getTitle())
+                    + length(mItem.getDisplayableName()) + length(mItem.getArtistName())
+                    + length(mItem.getAlbumName()) + length(mItem.getGenre())
+                    + length(mItem.getCoverArtHandle()) + length(mItem.getCoverArtUuid()));
+        }
+
         // Fetch the Unique UID for this item, this is unique across all elements in the tree.
-        synchronized String getID() {
+        String getID() {
             return mItem.getUuid();
         }
 
         // Get the BT Player ID associated with this node.
-        synchronized int getPlayerID() {
+        int getPlayerID() {
             return Integer.parseInt(getID().replace(PLAYER_PREFIX, ""));
         }
 
-        synchronized byte getScope() {
+        byte getScope() {
             return mBrowseScope;
         }
 
         // Fetch the Folder UID that can be used to fetch folder listing via bluetooth.
         // This may not be unique hence this combined with direction will define the
         // browsing here.
-        synchronized String getFolderUID() {
+        String getFolderUID() {
             return getID();
         }
 
-        synchronized long getBluetoothID() {
+        long getBluetoothID() {
             return mItem.getUid();
         }
 
-        synchronized MediaItem getMediaItem() {
+        MediaItem getMediaItem() {
             return mItem.toMediaItem();
         }
 
-        synchronized boolean isPlayer() {
+        boolean isPlayer() {
             return mIsPlayer;
         }
 
-        synchronized boolean isNowPlaying() {
+        boolean isNowPlaying() {
             return getID().startsWith(NOW_PLAYING_PREFIX);
         }
 
@@ -336,7 +464,7 @@ public class BrowseTree {
         }
 
         @Override
-        public synchronized String toString() {
+        public String toString() {
             if (VDBG) {
                 String serialized = "[ Name: " + mItem.getTitle()
                         + " Scope:" + mBrowseScope + " expected Children: "
@@ -351,11 +479,99 @@ public class BrowseTree {
         }
 
         // Returns true if target is a descendant of this.
-        synchronized boolean isDescendant(BrowseNode target) {
+        boolean isDescendant(BrowseNode target) {
             return getEldestChild(this, target) == null ? false : true;
         }
     }
 
+    // Whether two items received from the remote describe the same media, their local UUIDs
+    // being random
+    private static boolean isSameItem(AvrcpItem item, AvrcpItem other) {
+        return item.getUid() == other.getUid()
+                && item.getItemType() == other.getItemType()
+                && Objects.equals(item.getTitle(), other.getTitle())
+                && Objects.equals(item.getArtistName(), other.getArtistName())
+                && Objects.equals(item.getAlbumName(), other.getAlbumName())
+                && item.getPlayingTime() == other.getPlayingTime()
+                && Objects.equals(item.getCoverArtHandle(), other.getCoverArtHandle());
+    }
+
+    // Remove a node and its subtree from the tree. The Now Playing list is kept, as it is only
+    // replaced when the remote reports a change.
+    @GuardedBy("this")
+    private void detachSubtree(BrowseNode node) {
+        mBrowseMap.remove(node.getID());
+        indicateCoverArtUnused(node.getID(), node.getCoverArtUuid());
+        if (node != mNowPlayingNode) {
+            node.mCached = false;
+            node.clearChildren();
+        }
+    }
+
+    // Drop the contents of the least recently used folders until the tree is within its node
+    // budget. The root, the Now Playing list and the folders on the path to the current folder or
+    // to the folder just filled are kept.
+    @GuardedBy("this")
+    private void evictIfNeeded(BrowseNode filledNode) {
+        while (mBrowseMap.size() > mMaxNodes) {
+            BrowseNode eldest = null;
+            for (BrowseNode folder : mFoldersWithChildren) {
+                if (isEvictable(folder, filledNode)
+                        && (eldest == null || folder.mLastAccess < eldest.mLastAccess)) {
+                    eldest = folder;
+                }
+            }
+            if (eldest == null) {
+                Log.w(TAG, "Over node budget with only folders in use: " + mBrowseMap.size());
+                return;
+            }
+            if (DBG) Log.d(TAG, "Evicting contents of " + eldest);
+            eldest.mCached = false;
+            eldest.clearChildren();
+            mEvictedFolderCount++;
+        }
+    }
+
+    @GuardedBy("this")
+    private boolean isEvictable(BrowseNode folder, BrowseNode filledNode) {
+        return folder != mRootNode && folder != mNowPlayingNode
+                && !isAncestorOrSelf(folder, filledNode)
+                && !isAncestorOrSelf(folder, mCurrentBrowseNode);
+    }
+
+    private static boolean isAncestorOrSelf(BrowseNode node, BrowseNode descendant) {
+        for (BrowseNode current = descendant; current != null; current = current.mParent) {
+            if (current == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    @VisibleForTesting
+    synchronized int getEvictedFolderCount() {
+        return mEvictedFolderCount;
+    }
+
+    /**
+     * Get the number of nodes and the memory they use, for dumpsys.
+     */
+    synchronized String getUsageSummary() {
+        long sizeBytes = 0;
+        for (BrowseNode node : mBrowseMap.values()) {
+            sizeBytes += node.getEstimatedSize();
+        }
+        return "Nodes: " + mBrowseMap.size() + "/" + mMaxNodes
+                + ", folders with contents: " + mFoldersWithChildren.size()
+                + ", evicted folders: " + mEvictedFolderCount
+                + ", estimated size: " + (sizeBytes / 1024) + " KB"
+                + ", image handles: " + mCoverArtMap.size();
+    }
+
     synchronized BrowseNode findBrowseNodeByID(String parentID) {
         BrowseNode bn = mBrowseMap.get(parentID);
         if (bn == null) {
@@ -415,7 +631,9 @@ public class BrowseTree {
         if (bn == null) {
             if (DBG) Log.d(TAG, "Setting an unknown addressed player, ignoring bn " + uid);
             mRootNode.setCached(false);
-            mRootNode.mChildren.add(mNowPlayingNode);
+            List<BrowseNode> children = new ArrayList<>(mRootNode.mChildren);
+            children.add(mNowPlayingNode);
+            mRootNode.setChildren(children);
             mBrowseMap.put(NOW_PLAYING_PREFIX, mNowPlayingNode);
             return false;
         }
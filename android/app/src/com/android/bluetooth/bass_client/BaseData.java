@@ -18,15 +18,16 @@ package com.android.bluetooth.bass_client;
 
 import android.util.Log;
 import android.util.Pair;
+import android.util.SparseArray;
 
-import java.nio.ByteBuffer;
+import com.android.bluetooth.le_audio.LtvReader;
+
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Locale;
-import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.Set;
 
@@ -42,27 +43,9 @@ class BaseData {
     private static final int METADATA_PRESENTATIONDELAY_LENGTH = 3;
     private static final int METADATA_CODEC_LENGTH = 5;
     private static final int METADATA_UNKNOWN_CODEC_LENGTH = 1;
-    private static final int CODEC_CAPABILITIES_SAMPLE_RATE_TYPE = 1;
-    private static final int CODEC_CAPABILITIES_FRAME_DURATION_TYPE = 2;
-    private static final int CODEC_CAPABILITIES_CHANNEL_COUNT_TYPE = 3;
-    private static final int CODEC_CAPABILITIES_OCTETS_PER_FRAME_TYPE = 4;
-    private static final int CODEC_CAPABILITIES_MAX_FRAMES_PER_SDU_TYPE = 5;
-    private static final int CODEC_CONFIGURATION_SAMPLE_RATE_TYPE = 0x01;
-    private static final int CODEC_CONFIGURATION_FRAME_DURATION_TYPE = 0x02;
-    private static final int CODEC_CONFIGURATION_CHANNEL_ALLOCATION_TYPE = 0x03;
-    private static final int CODEC_CONFIGURATION_OCTETS_PER_FRAME_TYPE = 0x04;
-    private static final int CODEC_CONFIGURATION_BLOCKS_PER_SDU_TYPE = 0x05;
-    private static final int METADATA_PREFERRED_CONTEXTS_TYPE = 0x01;
-    private static final int METADATA_STREAMING_CONTEXTS_TYPE = 0x02;
-    private static final int METADATA_PROGRAM_INFO_TYPE = 0x03;
-    private static final int METADATA_LANGUAGE_TYPE = 0x04;
-    private static final int METADATA_CCID_LIST_TYPE = 0x05;
-    private static final int METADATA_PARENTAL_RATING_TYPE = 0x06;
-    private static final int METADATA_PROGRAM_INFO_URI_TYPE = 0x07;
-    private static final int METADATA_EXTENDED_TYPE = 0xFE;
-    private static final int METADATA_VENDOR_TYPE = 0xFF;
-    private static final int CODEC_AUDIO_LOCATION_FRONT_LEFT = 0x01000000;
-    private static final int CODEC_AUDIO_LOCATION_FRONT_RIGHT = 0x02000000;
+    private static final int METADATA_LANGUAGE_LENGTH = 3;
+    private static final long CODEC_AUDIO_LOCATION_FRONT_LEFT = 0x00000001;
+    private static final long CODEC_AUDIO_LOCATION_FRONT_RIGHT = 0x00000002;
     private static final int CODEC_AUDIO_SAMPLE_RATE_8K = 0x01;
     private static final int CODEC_AUDIO_SAMPLE_RATE_16K = 0x03;
     private static final int CODEC_AUDIO_SAMPLE_RATE_24K = 0x05;
@@ -97,8 +80,9 @@ class BaseData {
         public byte[] consolidatedCodecId;
         public Set<String> consolidatedMetadata;
         public Set<String> consolidatedCodecInfo;
-        public HashMap<Integer, String> consolidatedUniqueCodecInfo;
-        public HashMap<Integer, String> consolidatedUniqueMetadata;
+        // Views of the entries in the codec configuration and metadata buffers, by type
+        public SparseArray<LtvReader.Entry> consolidatedUniqueCodecInfo;
+        public SparseArray<LtvReader.Entry> consolidatedUniqueMetadata;
 
         BaseInformation() {
             presentationDelay = new byte[3];
@@ -116,8 +100,8 @@ class BaseData {
             consolidatedMetadata = new LinkedHashSet<String>();
             consolidatedCodecInfo = new LinkedHashSet<String>();
             consolidatedCodecId = new byte[5];
-            consolidatedUniqueMetadata = new HashMap<Integer, String>();
-            consolidatedUniqueCodecInfo = new HashMap<Integer, String>();
+            consolidatedUniqueMetadata = new SparseArray<LtvReader.Entry>();
+            consolidatedUniqueCodecInfo = new SparseArray<LtvReader.Entry>();
             diffText = new String("");
             description = new String("");
             log("BaseInformation is Initialized");
@@ -212,32 +196,36 @@ class BaseData {
         // Parse Level 1 base
         levelOne.level = METADATA_LEVEL1;
         int offset = 0;
+        if (serviceData.length < METADATA_PRESENTATIONDELAY_LENGTH + 1) {
+            Log.e(TAG, "Error: BASE too short: " + serviceData.length);
+            return null;
+        }
         System.arraycopy(serviceData, offset, levelOne.presentationDelay, 0, 3);
         offset += METADATA_PRESENTATIONDELAY_LENGTH;
         levelOne.numSubGroups = serviceData[offset++];
         levelOne.print();
         log("levelOne subgroups" + levelOne.numSubGroups);
-        for (int i = 0; i < (int) levelOne.numSubGroups; i++) {
+        for (int i = 0; i < (levelOne.numSubGroups & 0xFF); i++) {
             Pair<BaseInformation, Integer> pair1 =
                     parseLevelTwo(serviceData, i, offset);
-            BaseInformation node2 = pair1.first;
-            if (node2 == null) {
+            if (pair1 == null) {
                 Log.e(TAG, "Error: parsing Level 2");
                 return null;
             }
-            numOfBISIndices += node2.numSubGroups;
+            BaseInformation node2 = pair1.first;
+            numOfBISIndices += node2.numSubGroups & 0xFF;
             levelTwo.add(node2);
             node2.print();
             offset = pair1.second;
-            for (int k = 0; k < node2.numSubGroups; k++) {
+            for (int k = 0; k < (node2.numSubGroups & 0xFF); k++) {
                 Pair<BaseInformation, Integer> pair2 =
                         parseLevelThree(serviceData, offset);
-                BaseInformation node3 = pair2.first;
-                offset = pair2.second;
-                if (node3 == null) {
+                if (pair2 == null) {
                     Log.e(TAG, "Error: parsing Level 3");
                     return null;
                 }
+                BaseInformation node3 = pair2.first;
+                offset = pair2.second;
                 levelThree.add(node3);
                 node3.print();
             }
@@ -246,12 +234,18 @@ class BaseData {
         return new BaseData(levelOne, levelTwo, levelThree, numOfBISIndices);
     }
 
+    /**
+     * @return the Level 2 node and the offset following it, or null if the BASE is truncated
+     */
     private static Pair<BaseInformation, Integer>
             parseLevelTwo(byte[] serviceData, int groupIndex, int offset) {
         log("Parsing Level 2");
         BaseInformation node = new BaseInformation();
         node.level = METADATA_LEVEL2;
         node.subGroupId = groupIndex;
+        if (offset + 2 > serviceData.length) {
+            return null;
+        }
         node.numSubGroups = serviceData[offset++];
         if (serviceData[offset] == (byte) UNKNOWN_CODEC) {
             // Place It in the last byte of codecID
@@ -260,39 +254,62 @@ class BaseData {
             offset += METADATA_UNKNOWN_CODEC_LENGTH;
             log("codecId is FE");
         } else {
+            if (offset + METADATA_CODEC_LENGTH > serviceData.length) {
+                return null;
+            }
             System.arraycopy(serviceData, offset, node.codecId,
                     0, METADATA_CODEC_LENGTH);
             offset += METADATA_CODEC_LENGTH;
         }
+        if (offset >= serviceData.length) {
+            return null;
+        }
         node.codecConfigLength = serviceData[offset++];
-        if (node.codecConfigLength != 0) {
-            node.codecConfigInfo = new byte[(int) node.codecConfigLength];
-            System.arraycopy(serviceData, offset, node.codecConfigInfo,
-                    0, (int) node.codecConfigLength);
-            offset += node.codecConfigLength;
+        int codecConfigLength = node.codecConfigLength & 0xFF;
+        if (codecConfigLength != 0) {
+            if (offset + codecConfigLength > serviceData.length) {
+                return null;
+            }
+            node.codecConfigInfo = Arrays.copyOfRange(serviceData, offset,
+                    offset + codecConfigLength);
+            offset += codecConfigLength;
+        }
+        if (offset >= serviceData.length) {
+            return null;
         }
         node.metaDataLength = serviceData[offset++];
-        if (node.metaDataLength != 0) {
-            node.metaData = new byte[(int) node.metaDataLength];
-            System.arraycopy(serviceData, offset,
-                    node.metaData, 0, (int) node.metaDataLength);
-            offset += node.metaDataLength;
+        int metaDataLength = node.metaDataLength & 0xFF;
+        if (metaDataLength != 0) {
+            if (offset + metaDataLength > serviceData.length) {
+                return null;
+            }
+            node.metaData = Arrays.copyOfRange(serviceData, offset, offset + metaDataLength);
+            offset += metaDataLength;
         }
         return new Pair<BaseInformation, Integer>(node, offset);
     }
 
+    /**
+     * @return the Level 3 node and the offset following it, or null if the BASE is truncated
+     */
     private static Pair<BaseInformation, Integer>
             parseLevelThree(byte[] serviceData, int offset) {
         log("Parsing Level 3");
         BaseInformation node = new BaseInformation();
         node.level = METADATA_LEVEL3;
+        if (offset + 2 > serviceData.length) {
+            return null;
+        }
         node.index = serviceData[offset++];
         node.codecConfigLength = serviceData[offset++];
-        if (node.codecConfigLength != 0) {
-            node.codecConfigInfo = new byte[(int) node.codecConfigLength];
-            System.arraycopy(serviceData, offset,
-                    node.codecConfigInfo, 0, (int) node.codecConfigLength);
-            offset += node.codecConfigLength;
+        int codecConfigLength = node.codecConfigLength & 0xFF;
+        if (codecConfigLength != 0) {
+            if (offset + codecConfigLength > serviceData.length) {
+                return null;
+            }
+            node.codecConfigInfo = Arrays.copyOfRange(serviceData, offset,
+                    offset + codecConfigLength);
+            offset += codecConfigLength;
         }
         return new Pair<BaseInformation, Integer>(node, offset);
     }
@@ -303,58 +320,40 @@ class BaseData {
         int children = 0;
         for (int i = 0; i < levelTwo.size(); i++) {
             startIdx = startIdx + children;
-            children = children + levelTwo.get(i).numSubGroups;
+            children = children + (levelTwo.get(i).numSubGroups & 0xFF);
             consolidateBaseofLevelThree(levelTwo, levelThree,
-                    i, startIdx, levelTwo.get(i).numSubGroups);
+                    i, startIdx, levelTwo.get(i).numSubGroups & 0xFF);
         }
-        // Eliminate Duplicates at Level 3
+        // Eliminate Duplicates at Level 3: the Level 3 codec configuration overrides the
+        // Level 2 one, entry by entry
+        LtvReader reader = new LtvReader();
+        int parent = 0;
+        int remaining = levelTwo.isEmpty() ? 0 : (levelTwo.get(0).numSubGroups & 0xFF);
         for (int i = 0; i < levelThree.size(); i++) {
-            Map<Integer, String> uniqueMds = new HashMap<Integer, String>();
-            Map<Integer, String> uniqueCcis = new HashMap<Integer, String>();
-            Set<String> Csfs = levelThree.get(i).consolidatedCodecInfo;
-            if (Csfs.size() > 0) {
-                Iterator<String> itr = Csfs.iterator();
-                for (int j = 0; itr.hasNext(); j++) {
-                    byte[] ltvEntries = itr.next().getBytes();
-                    int k = 0;
-                    byte length = ltvEntries[k++];
-                    byte[] ltv = new byte[length + 1];
-                    ltv[0] = length;
-                    System.arraycopy(ltvEntries, k, ltv, 1, length);
-                    int type = (int) ltv[1];
-                    String s = uniqueCcis.get(type);
-                    String ltvS = new String(ltv);
-                    if (s == null) {
-                        uniqueCcis.put(type, ltvS);
-                    } else {
-                        // if same type exists, replace
-                        uniqueCcis.replace(type, ltvS);
-                    }
-                }
+            while (remaining == 0 && parent < levelTwo.size() - 1) {
+                remaining = levelTwo.get(++parent).numSubGroups & 0xFF;
             }
-            Set<String> Mds = levelThree.get(i).consolidatedMetadata;
-            if (Mds.size() > 0) {
-                Iterator<String> itr = Mds.iterator();
-                for (int j = 0; itr.hasNext(); j++) {
-                    byte[] ltvEntries = itr.next().getBytes();
-                    int k = 0;
-                    byte length = ltvEntries[k++];
-                    byte[] ltv = new byte[length + 1];
-                    ltv[0] = length;
-                    System.arraycopy(ltvEntries, k, ltv, 1, length);
-                    int type = (int) ltv[1];
-                    String s = uniqueCcis.get(type);
-                    String ltvS = new String(ltv);
-                    if (s == null) {
-                        uniqueMds.put(type, ltvS);
-                    } else {
-                        uniqueMds.replace(type, ltvS);
-                    }
-                }
+            remaining--;
+            BaseInformation node = levelThree.get(i);
+            SparseArray<LtvReader.Entry> uniqueCcis = new SparseArray<LtvReader.Entry>();
+            SparseArray<LtvReader.Entry> uniqueMds = new SparseArray<LtvReader.Entry>();
+            if (!levelTwo.isEmpty()) {
+                BaseInformation parentNode = levelTwo.get(parent);
+                putLtvEntries(reader, parentNode.codecConfigInfo, uniqueCcis);
+                putLtvEntries(reader, parentNode.metaData, uniqueMds);
             }
-            levelThree.get(i).consolidatedUniqueMetadata = new HashMap<Integer, String>(uniqueMds);
-            levelThree.get(i).consolidatedUniqueCodecInfo =
-                    new HashMap<Integer, String>(uniqueCcis);
+            putLtvEntries(reader, node.codecConfigInfo, uniqueCcis);
+            node.consolidatedUniqueMetadata = uniqueMds;
+            node.consolidatedUniqueCodecInfo = uniqueCcis;
+        }
+    }
+
+    private static void putLtvEntries(LtvReader reader, byte[] ltvBytes,
+            SparseArray<LtvReader.Entry> entries) {
+        reader.reset(ltvBytes, 0, ltvBytes != null ? ltvBytes.length : 0);
+        while (reader.next()) {
+            // Same type replaces the previous entry
+            entries.put(reader.getType(), reader.getEntry());
         }
     }
 
@@ -417,49 +416,65 @@ class BaseData {
     }
 
     String getMetadataString(byte[] metadataBytes) {
-        String ret = "";
-        switch (metadataBytes[1]) {
-            case METADATA_LANGUAGE_TYPE:
-                char[] lang = new char[3];
-                System.arraycopy(metadataBytes, 1, lang, 0, 3);
-                Locale locale = new Locale(String.valueOf(lang));
+        return getMetadataString(metadataBytes, LtvReader.findFirstEntry(metadataBytes));
+    }
+
+    String getMetadataString(LtvReader.Entry entry) {
+        return getMetadataString(entry.getBuffer(), entry.getEntryOffset());
+    }
+
+    private String getMetadataString(byte[] buffer, int entryOffset) {
+        String ret = "UNKNOWN METADATA TYPE";
+        if (entryOffset >= 0
+                && (buffer[entryOffset + 1] & 0xFF) == LtvReader.METADATA_LANGUAGE_TYPE) {
+            if ((buffer[entryOffset] & 0xFF) - 1 < METADATA_LANGUAGE_LENGTH) {
+                ret = "UNKNOWN LANGUAGE";
+            } else {
+                Locale locale = new Locale(new String(buffer, entryOffset + 2,
+                        METADATA_LANGUAGE_LENGTH, StandardCharsets.US_ASCII));
                 try {
                     ret = locale.getISO3Language();
                 } catch (MissingResourceException e) {
                     ret = "UNKNOWN LANGUAGE";
                 }
-                break;
-            default:
-                ret = "UNKNOWN METADATA TYPE";
+            }
         }
         log("getMetadataString: " + ret);
         return ret;
     }
 
     String getCodecParamString(byte[] csiBytes) {
-        String ret = "";
-        switch (csiBytes[1]) {
-            case CODEC_CONFIGURATION_CHANNEL_ALLOCATION_TYPE:
-                byte[] location = new byte[4];
-                System.arraycopy(csiBytes, 2, location, 0, 4);
-                ByteBuffer wrapped = ByteBuffer.wrap(location);
-                int audioLocation = wrapped.getInt();
+        return getCodecParamString(csiBytes, LtvReader.findFirstEntry(csiBytes));
+    }
+
+    String getCodecParamString(LtvReader.Entry entry) {
+        return getCodecParamString(entry.getBuffer(), entry.getEntryOffset());
+    }
+
+    private String getCodecParamString(byte[] csiBytes, int offset) {
+        String ret = "UNKNOWN PARAMETER";
+        if (offset < 0) {
+            log("getCodecParamString: " + ret);
+            return ret;
+        }
+        int length = (csiBytes[offset] & 0xFF) + 1;
+        switch (csiBytes[offset + 1] & 0xFF) {
+            case LtvReader.CODEC_CONFIG_AUDIO_CHANNEL_ALLOCATION_TYPE:
+                long audioLocation = LtvReader.getAudioLocation(csiBytes, offset, length);
                 log("audioLocation: " + audioLocation);
-                switch (audioLocation) {
-                    case CODEC_AUDIO_LOCATION_FRONT_LEFT:
-                        ret = "LEFT";
-                        break;
-                    case CODEC_AUDIO_LOCATION_FRONT_RIGHT:
-                        ret = "RIGHT";
-                        break;
-                    case CODEC_AUDIO_LOCATION_FRONT_LEFT
-                            | CODEC_AUDIO_LOCATION_FRONT_RIGHT:
-                        ret = "LR";
-                        break;
+                if (audioLocation == CODEC_AUDIO_LOCATION_FRONT_LEFT) {
+                    ret = "LEFT";
+                } else if (audioLocation == CODEC_AUDIO_LOCATION_FRONT_RIGHT) {
+                    ret = "RIGHT";
+                } else if (audioLocation
+                        == (CODEC_AUDIO_LOCATION_FRONT_LEFT | CODEC_AUDIO_LOCATION_FRONT_RIGHT)) {
+                    ret = "LR";
+                } else {
+                    ret = "";
                 }
                 break;
-            case CODEC_CONFIGURATION_SAMPLE_RATE_TYPE:
-                switch (csiBytes[2]) {
+            case LtvReader.CODEC_CONFIG_SAMPLING_FREQUENCY_TYPE:
+                switch (LtvReader.getSamplingFrequency(csiBytes, offset, length)) {
                     case CODEC_AUDIO_SAMPLE_RATE_8K:
                         ret = "8K";
                         break;
@@ -478,23 +493,29 @@ class BaseData {
                     case CODEC_AUDIO_SAMPLE_RATE_48K:
                         ret = "48K";
                         break;
+                    default:
+                        ret = "";
                 }
                 break;
-            case CODEC_CONFIGURATION_FRAME_DURATION_TYPE:
-                switch (csiBytes[2]) {
+            case LtvReader.CODEC_CONFIG_FRAME_DURATION_TYPE:
+                switch (LtvReader.getFrameDuration(csiBytes, offset, length)) {
                     case CODEC_AUDIO_FRAME_DURATION_7P5MS:
                         ret = "7.5ms";
                         break;
                     case CODEC_AUDIO_FRAME_DURATION_10MS:
                         ret = "10ms";
                         break;
+                    default:
+                        ret = "";
                 }
                 break;
-            case CODEC_CONFIGURATION_OCTETS_PER_FRAME_TYPE:
-                ret = "OPF_" + String.valueOf((int) csiBytes[2]);
+            case LtvReader.CODEC_CONFIG_OCTETS_PER_CODEC_FRAME_TYPE:
+                int octetsPerFrame = LtvReader.getOctetsPerFrame(csiBytes, offset, length);
+                ret = octetsPerFrame == LtvReader.VALUE_NOT_FOUND
+                        ? "" : "OPF_" + octetsPerFrame;
                 break;
             default:
-                ret = "UNKNOWN PARAMETER";
+                break;
         }
         log("getCodecParamString: " + ret);
         return ret;
@@ -30,6 +30,7 @@ import android.bluetooth.BluetoothStatusCodes;
 import android.bluetooth.BluetoothUuid;
 import android.bluetooth.IBluetoothLeBroadcastAssistant;
 import android.bluetooth.IBluetoothLeBroadcastAssistantCallback;
+import android.bluetooth.le.PeriodicAdvertisingCallback;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanRecord;
@@ -75,12 +76,14 @@ public class BassClientService extends ProfileService {
     private static final boolean DBG = true;
     private static final String TAG = BassClientService.class.getSimpleName();
     private static final int MAX_BASS_CLIENT_STATE_MACHINES = 10;
+    // Leave part of the stack periodic sync slots to the other users of periodic advertising
+    private static final int MAX_ACTIVE_PA_SYNCS = 8;
 
     private static BassClientService sService;
 
     private final Map<BluetoothDevice, BassClientStateMachine> mStateMachines = new HashMap<>();
     private final Object mSearchScanCallbackLock = new Object();
-    private final Map<Integer, ScanResult> mScanBroadcasts = new HashMap<>();
+    private final Map<Integer, ScanResult> mScanBroadcasts = new ConcurrentHashMap<>();
 
     private final Map<BluetoothDevice, List<Pair<Integer, Object>>> mPendingGroupOp =
             new ConcurrentHashMap<>();
@@ -93,6 +96,7 @@ public class BassClientService extends ProfileService {
     private DatabaseManager mDatabaseManager;
     private BluetoothAdapter mBluetoothAdapter = null;
     private BassUtils mBassUtils = null;
+    private BroadcastSourceRegistry mSourceRegistry = null;
     private Map<BluetoothDevice, BluetoothDevice> mActiveSourceMap;
     /* Caching the PeriodicAdvertisementResult from Broadcast source */
     /* This is stored at service so that each device state machine can access
@@ -193,6 +197,49 @@ public class BassClientService extends ProfileService {
         mSyncHandleToBaseDataMap.put(syncHandlemap, base);
     }
 
+    /**
+     * Subscribe a state machine to the periodic advertising sync of a Broadcast Source.
+     * The sync is shared with the other state machines which selected the same source.
+     *
+     * @return true if the callback is subscribed
+     */
+    boolean acquirePeriodicSync(ScanResult scanRes, int broadcastId,
+            PeriodicAdvertisingCallback callback) {
+        if (mSourceRegistry == null) {
+            Log.e(TAG, "acquirePeriodicSync: mSourceRegistry is null");
+            return false;
+        }
+        return mSourceRegistry.acquire(scanRes, broadcastId, callback);
+    }
+
+    /**
+     * Unsubscribe a state machine from the periodic advertising syncs it uses.
+     */
+    void releasePeriodicSync(PeriodicAdvertisingCallback callback) {
+        if (mSourceRegistry == null) {
+            Log.e(TAG, "releasePeriodicSync: mSourceRegistry is null");
+            return;
+        }
+        mSourceRegistry.release(callback);
+    }
+
+    /**
+     * Check if a periodic advertising sync to the Broadcast Source is still in use.
+     */
+    boolean hasPeriodicSync(BluetoothDevice sourceDevice) {
+        return mSourceRegistry != null && mSourceRegistry.hasSource(sourceDevice);
+    }
+
+    /**
+     * Parse the BASE received on a sync, reusing the cached result if it did not change.
+     */
+    BaseData parseBase(int syncHandle, byte[] serviceData) {
+        if (mSourceRegistry == null) {
+            return BaseData.parseBaseData(serviceData);
+        }
+        return mSourceRegistry.parseBase(syncHandle, serviceData);
+    }
+
     BaseData getBase(int syncHandlemap) {
         if (mSyncHandleToBaseDataMap == null) {
             Log.e(TAG, "getBase: mSyncHandleToBaseDataMap is null");
@@ -284,8 +331,11 @@ public class BassClientService extends ProfileService {
         mDeviceToSyncHandleMap = new HashMap<BluetoothDevice, Integer>();
         mPeriodicAdvertisementResultMap = new HashMap<BluetoothDevice,
                 PeriodicAdvertisementResult>();
-        mSyncHandleToBaseDataMap = new HashMap<Integer, BaseData>();
+        mSyncHandleToBaseDataMap = new ConcurrentHashMap<Integer, BaseData>();
         mActiveSourceMap = new HashMap<BluetoothDevice, BluetoothDevice>();
+        mSourceRegistry = new BroadcastSourceRegistry(mBluetoothAdapter != null
+                ? mBluetoothAdapter.getPeriodicAdvertisingManager() : null,
+                Looper.getMainLooper(), MAX_ACTIVE_PA_SYNCS);
         mSearchScanCallback = null;
         return true;
     }
@@ -316,6 +366,10 @@ public class BassClientService extends ProfileService {
         }
 
         setBassClientService(null);
+        if (mSourceRegistry != null) {
+            mSourceRegistry.cleanup();
+            mSourceRegistry = null;
+        }
         if (mDeviceToSyncHandleMap != null) {
             mDeviceToSyncHandleMap.clear();
             mDeviceToSyncHandleMap = null;
@@ -334,6 +388,14 @@ public class BassClientService extends ProfileService {
         return true;
     }
 
+    @Override
+    public void dump(StringBuilder sb) {
+        super.dump(sb);
+        if (mSourceRegistry != null) {
+            mSourceRegistry.dump(sb);
+        }
+    }
+
     @Override
     public boolean onUnbind(Intent intent) {
         Log.d(TAG, "Need to unregister app");
@@ -348,6 +410,12 @@ public class BassClientService extends ProfileService {
     }
 
     BluetoothDevice getDeviceForSyncHandle(int syncHandle) {
+        if (mSourceRegistry != null) {
+            BluetoothDevice device = mSourceRegistry.getDeviceForSyncHandle(syncHandle);
+            if (device != null) {
+                return device;
+            }
+        }
         if (mDeviceToSyncHandleMap == null) {
             return null;
         }
@@ -923,9 +991,8 @@ public class BassClientService extends ProfileService {
                     int broadcastId = (int)(((broadcastIdArray[2] & 0xff) << 16)
                             | ((broadcastIdArray[1] & 0xff) << 8)
                             | (broadcastIdArray[0] & 0xff));
-                    if (mScanBroadcasts.get(broadcastId) == null) {
+                    if (mScanBroadcasts.putIfAbsent(broadcastId, result) == null) {
                         log("selectBroadcastSource: broadcastId " + broadcastId);
-                        mScanBroadcasts.put(broadcastId, result);
                         synchronized (mStateMachines) {
                             for (BassClientStateMachine sm : mStateMachines.values()) {
                                 if (sm.isConnected()) {
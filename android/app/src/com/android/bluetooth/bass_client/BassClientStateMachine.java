@@ -218,6 +218,7 @@ public class BassClientStateMachine extends StateMachine {
     public void cleanup() {
         log("cleanup for device " + mDevice);
         clearCharsCache();
+        mService.releasePeriodicSync(mPeriodicAdvCallback);
 
         if (mBluetoothGatt != null) {
             log("disconnect gatt");
@@ -291,7 +292,7 @@ public class BassClientStateMachine extends StateMachine {
 
     void parseBaseData(BluetoothDevice device, int syncHandle, byte[] serviceData) {
         log("parseBaseData" + Arrays.toString(serviceData));
-        BaseData base = BaseData.parseBaseData(serviceData);
+        BaseData base = mService.parseBase(syncHandle, serviceData);
         if (base != null) {
             mService.updateBase(syncHandle, base);
             base.print();
@@ -356,28 +357,28 @@ public class BassClientStateMachine extends StateMachine {
          */
         mNoStopScanOffload = true;
         cancelActiveSync(null);
-        try {
-            BluetoothMethodProxy.getInstance().periodicAdvertisingManagerRegisterSync(
-                    mPeriodicAdvManager, scanRes, 0, BassConstants.PSYNC_TIMEOUT,
-                    mPeriodicAdvCallback, null);
-        } catch (IllegalArgumentException ex) {
-            Log.w(TAG, "registerSync:IllegalArgumentException");
-            Message message = obtainMessage(STOP_SCAN_OFFLOAD);
-            sendMessage(message);
-            return false;
-        }
-        // updating mainly for Address type and PA Interval here
+        // Drop a sync which was requested earlier but not established yet
+        mService.releasePeriodicSync(mPeriodicAdvCallback);
         // extract BroadcastId from ScanResult
         ScanRecord scanRecord = scanRes.getScanRecord();
+        int broadcastId = BassConstants.INVALID_BROADCAST_ID;
         if (scanRecord != null) {
             Map<ParcelUuid, byte[]> listOfUuids = scanRecord.getServiceData();
-            int broadcastId = BassConstants.INVALID_BROADCAST_ID;
             if (listOfUuids != null) {
                 if (listOfUuids.containsKey(BassConstants.BAAS_UUID)) {
                     byte[] bId = listOfUuids.get(BassConstants.BAAS_UUID);
                     broadcastId = BassUtils.parseBroadcastId(bId);
                 }
             }
+        }
+        // The sync is shared with the other scan delegators which selected the same source
+        if (!mService.acquirePeriodicSync(scanRes, broadcastId, mPeriodicAdvCallback)) {
+            Message message = obtainMessage(STOP_SCAN_OFFLOAD);
+            sendMessage(message);
+            return false;
+        }
+        // updating mainly for Address type and PA Interval here
+        if (scanRecord != null) {
             mService.updatePeriodicAdvertisementResultMap(
                     scanRes.getDevice(),
                     scanRes.getDevice().getAddressType(),
@@ -396,13 +397,12 @@ public class BassClientStateMachine extends StateMachine {
         /* Stop sync if there is some running */
         if (activeSyncedSrc != null && (sourceDev == null || activeSyncedSrc.equals(sourceDev))) {
             removeMessages(PSYNC_ACTIVE_TIMEOUT);
-            try {
-                log("calling unregisterSync");
-                mPeriodicAdvManager.unregisterSync(mPeriodicAdvCallback);
-            } catch (IllegalArgumentException ex) {
-                Log.w(TAG, "unregisterSync:IllegalArgumentException");
+            log("releasing periodic sync");
+            mService.releasePeriodicSync(mPeriodicAdvCallback);
+            if (!mService.hasPeriodicSync(activeSyncedSrc)) {
+                // No other scan delegator uses this source anymore
+                mService.clearPeriodicAdvertisementResult(activeSyncedSrc);
             }
-            mService.clearPeriodicAdvertisementResult(activeSyncedSrc);
             mService.setActiveSyncedSource(mDevice, null);
             if (!mNoStopScanOffload) {
                 // trigger scan stop here
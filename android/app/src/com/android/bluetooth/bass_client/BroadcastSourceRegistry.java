@@ -0,0 +1,359 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.le.PeriodicAdvertisingCallback;
+import android.bluetooth.le.PeriodicAdvertisingManager;
+import android.bluetooth.le.PeriodicAdvertisingReport;
+import android.bluetooth.le.ScanResult;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the Broadcast Sources the Broadcast Assistant is periodic advertising synced to.
+ *
+ * Several scan delegators can select the same Broadcast Source. Instead of every
+ * {@link BassClientStateMachine} registering its own sync, the registry owns at most one
+ * periodic advertising sync per source, keyed by broadcast ID (or by the source device if
+ * the broadcast ID is unknown), and fans the sync callbacks out to all the state machines
+ * using it. It also caches the parsed BASE of each sync so it is parsed once per change.
+ *
+ * The number of concurrent syncs is capped as the controller sync handles are shared with
+ * the other users of periodic advertising.
+ */
+class BroadcastSourceRegistry {
+    private static final boolean DBG = true;
+    private static final String TAG = "BassClientSourceRegistry";
+
+    private final PeriodicAdvertisingManager mPeriodicAdvManager;
+    private final Handler mHandler;
+    private final int mMaxActiveSyncs;
+
+    @GuardedBy("this")
+    private final Map<Integer, Source> mSourcesByBroadcastId = new HashMap<>();
+    @GuardedBy("this")
+    private final Map<BluetoothDevice, Source> mSourcesByDevice = new HashMap<>();
+    @GuardedBy("this")
+    private final Map<Integer, Source> mSourcesBySyncHandle = new HashMap<>();
+
+    BroadcastSourceRegistry(PeriodicAdvertisingManager manager, Looper looper,
+            int maxActiveSyncs) {
+        mPeriodicAdvManager = manager;
+        mHandler = new Handler(looper);
+        mMaxActiveSyncs = maxActiveSyncs;
+    }
+
+    /**
+     * Subscribe a callback to the periodic advertising sync of a Broadcast Source, creating
+     * the sync if no other state machine is using it yet. If the source is already synced,
+     * the sync establishment and the last periodic advertising report are replayed to the
+     * callback.
+     *
+     * @param scanRes scan result of the Broadcast Source
+     * @param broadcastId broadcast ID of the source or
+     *        {@link BassConstants#INVALID_BROADCAST_ID} if unknown
+     * @param callback callback of the subscribing state machine
+     * @return true if the callback is subscribed, false if no sync slot is left or the sync
+     *         could not be created
+     */
+    boolean acquire(ScanResult scanRes, int broadcastId, PeriodicAdvertisingCallback callback) {
+        BluetoothDevice device = scanRes.getDevice();
+        Source source;
+        synchronized (this) {
+            final Source existing = findSource(broadcastId, device);
+            if (existing != null) {
+                log("acquire: sharing sync of " + existing);
+                if (!existing.mSubscribers.contains(callback)) {
+                    existing.mSubscribers.add(callback);
+                }
+                if (existing.mSyncHandle != BassConstants.INVALID_SYNC_HANDLE) {
+                    mHandler.post(() -> existing.replayTo(callback));
+                }
+                return true;
+            }
+            if (mSourcesByDevice.size() >= mMaxActiveSyncs) {
+                Log.w(TAG, "acquire: no sync slot left for " + device + ", active syncs: "
+                        + mSourcesByDevice.size());
+                return false;
+            }
+            source = new Source(broadcastId, device);
+            source.mSubscribers.add(callback);
+            addSource(source);
+        }
+        try {
+            BluetoothMethodProxy.getInstance().periodicAdvertisingManagerRegisterSync(
+                    mPeriodicAdvManager, scanRes, 0, BassConstants.PSYNC_TIMEOUT, source,
+                    mHandler);
+        } catch (IllegalArgumentException ex) {
+            Log.w(TAG, "registerSync:IllegalArgumentException");
+            synchronized (this) {
+                removeSource(source);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Unsubscribe a callback from all the syncs it uses. A sync is terminated when its last
+     * subscriber is gone.
+     *
+     * @param callback callback of the unsubscribing state machine
+     */
+    void release(PeriodicAdvertisingCallback callback) {
+        List<Source> unused = new ArrayList<>();
+        synchronized (this) {
+            for (Source source : mSourcesByDevice.values()) {
+                if (source.mSubscribers.remove(callback) && source.mSubscribers.isEmpty()) {
+                    unused.add(source);
+                }
+            }
+            for (Source source : unused) {
+                removeSource(source);
+            }
+        }
+        for (Source source : unused) {
+            log("release: terminating sync of " + source);
+            unregisterSync(source);
+        }
+    }
+
+    /**
+     * Get the parsed BASE of a sync, parsing the service data only if it changed since the
+     * last call for this sync.
+     *
+     * @param syncHandle sync handle the service data was received on
+     * @param serviceData Basic Audio Announcement service data
+     * @return parsed BASE or null if the service data cannot be parsed
+     */
+    BaseData parseBase(int syncHandle, byte[] serviceData) {
+        synchronized (this) {
+            Source source = mSourcesBySyncHandle.get(syncHandle);
+            if (source != null && source.mBase != null
+                    && Arrays.equals(source.mBaseServiceData, serviceData)) {
+                log("parseBase: cache hit for syncHandle " + syncHandle);
+                return source.mBase;
+            }
+        }
+        BaseData base = BaseData.parseBaseData(serviceData);
+        if (base == null) {
+            return null;
+        }
+        synchronized (this) {
+            Source source = mSourcesBySyncHandle.get(syncHandle);
+            if (source != null) {
+                source.mBaseServiceData = serviceData.clone();
+                source.mBase = base;
+            }
+        }
+        return base;
+    }
+
+    /**
+     * Get the source device synced with the given sync handle.
+     *
+     * @return source device or null if no sync of the registry uses this handle
+     */
+    synchronized BluetoothDevice getDeviceForSyncHandle(int syncHandle) {
+        Source source = mSourcesBySyncHandle.get(syncHandle);
+        return source != null ? source.mDevice : null;
+    }
+
+    /**
+     * Check if the registry holds a sync, established or pending, to the source device.
+     */
+    synchronized boolean hasSource(BluetoothDevice device) {
+        return mSourcesByDevice.containsKey(device);
+    }
+
+    @VisibleForTesting
+    synchronized int getActiveSyncCount() {
+        return mSourcesByDevice.size();
+    }
+
+    /** Terminate all the syncs */
+    void cleanup() {
+        List<Source> sources;
+        synchronized (this) {
+            sources = new ArrayList<>(mSourcesByDevice.values());
+            mSourcesByBroadcastId.clear();
+            mSourcesByDevice.clear();
+            mSourcesBySyncHandle.clear();
+        }
+        for (Source source : sources) {
+            unregisterSync(source);
+        }
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    void dump(StringBuilder sb) {
+        synchronized (this) {
+            sb.append("  Active PA syncs: " + mSourcesByDevice.size() + "/" + mMaxActiveSyncs
+                    + "\n");
+            for (Source source : mSourcesByDevice.values()) {
+                sb.append("    " + source + "\n");
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private Source findSource(int broadcastId, BluetoothDevice device) {
+        Source source = null;
+        if (broadcastId != BassConstants.INVALID_BROADCAST_ID) {
+            source = mSourcesByBroadcastId.get(broadcastId);
+        }
+        if (source == null) {
+            source = mSourcesByDevice.get(device);
+        }
+        return source;
+    }
+
+    @GuardedBy("this")
+    private void addSource(Source source) {
+        mSourcesByDevice.put(source.mDevice, source);
+        if (source.mBroadcastId != BassConstants.INVALID_BROADCAST_ID) {
+            mSourcesByBroadcastId.put(source.mBroadcastId, source);
+        }
+    }
+
+    @GuardedBy("this")
+    private void removeSource(Source source) {
+        mSourcesByDevice.remove(source.mDevice, source);
+        mSourcesByBroadcastId.remove(source.mBroadcastId, source);
+        mSourcesBySyncHandle.remove(source.mSyncHandle, source);
+    }
+
+    private void unregisterSync(Source source) {
+        if (mPeriodicAdvManager == null) {
+            return;
+        }
+        try {
+            mPeriodicAdvManager.unregisterSync(source);
+        } catch (IllegalArgumentException ex) {
+            Log.w(TAG, "unregisterSync:IllegalArgumentException");
+        }
+    }
+
+    private static void log(String msg) {
+        if (DBG) {
+            Log.d(TAG, msg);
+        }
+    }
+
+    /** One periodic advertising sync, shared by all the state machines using the source */
+    private class Source extends PeriodicAdvertisingCallback {
+        final int mBroadcastId;
+        final BluetoothDevice mDevice;
+        // Only accessed with the registry lock held
+        final List<PeriodicAdvertisingCallback> mSubscribers = new ArrayList<>();
+        int mSyncHandle = BassConstants.INVALID_SYNC_HANDLE;
+        int mAdvertisingSid;
+        int mSkip;
+        int mTimeout;
+        PeriodicAdvertisingReport mLastReport;
+        byte[] mBaseServiceData;
+        BaseData mBase;
+
+        Source(int broadcastId, BluetoothDevice device) {
+            mBroadcastId = broadcastId;
+            mDevice = device;
+        }
+
+        @Override
+        public void onSyncEstablished(int syncHandle, BluetoothDevice device,
+                int advertisingSid, int skip, int timeout, int status) {
+            List<PeriodicAdvertisingCallback> subscribers;
+            synchronized (BroadcastSourceRegistry.this) {
+                subscribers = new ArrayList<>(mSubscribers);
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    mSyncHandle = syncHandle;
+                    mAdvertisingSid = advertisingSid;
+                    mSkip = skip;
+                    mTimeout = timeout;
+                    mSourcesBySyncHandle.put(syncHandle, this);
+                } else {
+                    removeSource(this);
+                }
+            }
+            for (PeriodicAdvertisingCallback callback : subscribers) {
+                callback.onSyncEstablished(syncHandle, device, advertisingSid, skip, timeout,
+                        status);
+            }
+        }
+
+        @Override
+        public void onPeriodicAdvertisingReport(PeriodicAdvertisingReport report) {
+            List<PeriodicAdvertisingCallback> subscribers;
+            synchronized (BroadcastSourceRegistry.this) {
+                mLastReport = report;
+                subscribers = new ArrayList<>(mSubscribers);
+            }
+            for (PeriodicAdvertisingCallback callback : subscribers) {
+                callback.onPeriodicAdvertisingReport(report);
+            }
+        }
+
+        @Override
+        public void onSyncLost(int syncHandle) {
+            List<PeriodicAdvertisingCallback> subscribers;
+            synchronized (BroadcastSourceRegistry.this) {
+                subscribers = new ArrayList<>(mSubscribers);
+                // The stack already dropped the sync, only the local record is removed
+                removeSource(this);
+            }
+            for (PeriodicAdvertisingCallback callback : subscribers) {
+                callback.onSyncLost(syncHandle);
+            }
+        }
+
+        void replayTo(PeriodicAdvertisingCallback callback) {
+            PeriodicAdvertisingReport report;
+            synchronized (BroadcastSourceRegistry.this) {
+                if (!mSubscribers.contains(callback)
+                        || mSyncHandle == BassConstants.INVALID_SYNC_HANDLE) {
+                    return;
+                }
+                report = mLastReport;
+            }
+            callback.onSyncEstablished(mSyncHandle, mDevice, mAdvertisingSid, mSkip, mTimeout,
+                    BluetoothGatt.GATT_SUCCESS);
+            if (report != null) {
+                callback.onPeriodicAdvertisingReport(report);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Source{device=" + mDevice + ", broadcastId=" + mBroadcastId
+                    + ", syncHandle=" + mSyncHandle + ", subscribers=" + mSubscribers.size()
+                    + "}";
+        }
+    }
+}
@@ -18,13 +18,8 @@ package com.android.bluetooth.btservice;
 
 import android.annotation.RequiresPermission;
 import android.annotation.SuppressLint;
-import android.bluetooth.BluetoothA2dp;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothHapClient;
-import android.bluetooth.BluetoothHeadset;
-import android.bluetooth.BluetoothHearingAid;
-import android.bluetooth.BluetoothLeAudio;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.BluetoothSinkAudioPolicy;
 import android.content.BroadcastReceiver;
@@ -65,14 +60,10 @@ import java.util.Objects;
  *    devices is more than one, the rules below will apply.
  * 2) The selected A2DP active device is the one used for AVRCP as well.
  * 3) The HFP active device might be different from the A2DP active device.
- * 4) The Active Device Manager always listens for ACTION_ACTIVE_DEVICE_CHANGED
- *    broadcasts for each profile:
- *    - BluetoothA2dp.ACTION_ACTIVE_DEVICE_CHANGED for A2DP
- *    - BluetoothHeadset.ACTION_ACTIVE_DEVICE_CHANGED for HFP
- *    - BluetoothHearingAid.ACTION_ACTIVE_DEVICE_CHANGED for HearingAid
- *    - BluetoothLeAudio.ACTION_LE_AUDIO_ACTIVE_DEVICE_CHANGED for LE audio
- *    If such broadcast is received (e.g., triggered indirectly by user
- *    action on the UI), the device in the received broadcast is marked
+ * 4) The Active Device Manager always listens for active device changes of
+ *    each profile (A2DP, HFP, HearingAid, LE audio) on the {@link ProfileEventBus}.
+ *    If such event is received (e.g., triggered indirectly by user
+ *    action on the UI), the device in the received event is marked
  *    as the current active device for that profile.
  * 5) If there is a HearingAid active device, then A2DP, HFP and LE audio active devices
  *    must be set to null (i.e., A2DP, HFP and LE audio cannot have active devices).
@@ -89,8 +80,8 @@ import java.util.Objects;
  *    Active Device Manager just marks that the profile has no active device,
  *    and the lastly activated BT device that is still connected would be selected.
  * 8) If there is already an active device, and the corresponding
- *    ACTION_ACTIVE_DEVICE_CHANGED broadcast is received, the device
- *    contained in the broadcast is marked as active. However, if
+ *    active device change event is received, the device
+ *    contained in the event is marked as active. However, if
  *    the contained device is null, the corresponding profile is marked
  *    as having no active device.
  * 9) If a wired audio device is connected, the audio output is switched
@@ -144,7 +135,7 @@ class ActiveDeviceManager {
     private BluetoothDevice mLeAudioActiveDevice = null;
     private BluetoothDevice mLeHearingAidActiveDevice = null;
 
-    // Broadcast receiver for all changes
+    // Broadcast receiver for adapter state changes
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -158,49 +149,70 @@ class ActiveDeviceManager {
                     mHandler.obtainMessage(MESSAGE_ADAPTER_ACTION_STATE_CHANGED,
                             intent).sendToTarget();
                     break;
-                case BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_A2DP_ACTION_CONNECTION_STATE_CHANGED,
-                            intent).sendToTarget();
+                default:
+                    Log.e(TAG, "Received unexpected intent, action=" + action);
                     break;
-                case BluetoothA2dp.ACTION_ACTIVE_DEVICE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_A2DP_ACTION_ACTIVE_DEVICE_CHANGED,
-                            intent).sendToTarget();
+            }
+        }
+    };
+
+    // Listener for profile connection state and active device changes
+    private final ProfileEventBus.Listener mProfileEventListener = new ProfileEventBus.Listener() {
+        @Override
+        public void onConnectionStateChanged(int profile, BluetoothDevice device,
+                int fromState, int toState) {
+            int what;
+            switch (profile) {
+                case BluetoothProfile.A2DP:
+                    what = MESSAGE_A2DP_ACTION_CONNECTION_STATE_CHANGED;
                     break;
-                case BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_HFP_ACTION_CONNECTION_STATE_CHANGED,
-                            intent).sendToTarget();
+                case BluetoothProfile.HEADSET:
+                    what = MESSAGE_HFP_ACTION_CONNECTION_STATE_CHANGED;
                     break;
-                case BluetoothHeadset.ACTION_ACTIVE_DEVICE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_HFP_ACTION_ACTIVE_DEVICE_CHANGED,
-                            intent).sendToTarget();
+                case BluetoothProfile.HEARING_AID:
+                    what = MESSAGE_HEARING_AID_ACTION_CONNECTION_STATE_CHANGED;
                     break;
-                case BluetoothHearingAid.ACTION_CONNECTION_STATE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_HEARING_AID_ACTION_CONNECTION_STATE_CHANGED,
-                            intent).sendToTarget();
+                case BluetoothProfile.LE_AUDIO:
+                    what = MESSAGE_LE_AUDIO_ACTION_CONNECTION_STATE_CHANGED;
                     break;
-                case BluetoothHearingAid.ACTION_ACTIVE_DEVICE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_HEARING_AID_ACTION_ACTIVE_DEVICE_CHANGED,
-                            intent).sendToTarget();
+                case BluetoothProfile.HAP_CLIENT:
+                    what = MESSAGE_HAP_ACTION_CONNECTION_STATE_CHANGED;
                     break;
-                case BluetoothLeAudio.ACTION_LE_AUDIO_CONNECTION_STATE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_LE_AUDIO_ACTION_CONNECTION_STATE_CHANGED,
-                            intent).sendToTarget();
+                default:
+                    return;
+            }
+            mHandler.obtainMessage(what, fromState, toState, device).sendToTarget();
+        }
+
+        @Override
+        public void onActiveDeviceChanged(int profile, BluetoothDevice device) {
+            int what;
+            switch (profile) {
+                case BluetoothProfile.A2DP:
+                    what = MESSAGE_A2DP_ACTION_ACTIVE_DEVICE_CHANGED;
                     break;
-                case BluetoothLeAudio.ACTION_LE_AUDIO_ACTIVE_DEVICE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_LE_AUDIO_ACTION_ACTIVE_DEVICE_CHANGED,
-                            intent).sendToTarget();
+                case BluetoothProfile.HEADSET:
+                    what = MESSAGE_HFP_ACTION_ACTIVE_DEVICE_CHANGED;
                     break;
-                case BluetoothHapClient.ACTION_HAP_CONNECTION_STATE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_HAP_ACTION_CONNECTION_STATE_CHANGED,
-                            intent).sendToTarget();
+                case BluetoothProfile.HEARING_AID:
+                    what = MESSAGE_HEARING_AID_ACTION_ACTIVE_DEVICE_CHANGED;
                     break;
-                case BluetoothHapClient.ACTION_HAP_DEVICE_AVAILABLE:
-                    mHandler.obtainMessage(MESSAGE_HAP_ACTION_ACTIVE_DEVICE_CHANGED,
-                            intent).sendToTarget();
+                case BluetoothProfile.LE_AUDIO:
+                    what = MESSAGE_LE_AUDIO_ACTION_ACTIVE_DEVICE_CHANGED;
                     break;
                 default:
-                    Log.e(TAG, "Received unexpected intent, action=" + action);
-                    break;
+                    return;
+            }
+            mHandler.obtainMessage(what, device).sendToTarget();
+        }
+
+        @Override
+        public void onDeviceAvailable(int profile, BluetoothDevice device) {
+            // HAP has no active device, an available hearing aid is selected as the LE Audio
+            // active device
+            if (profile == BluetoothProfile.HAP_CLIENT) {
+                mHandler.obtainMessage(MESSAGE_HAP_ACTION_ACTIVE_DEVICE_CHANGED, device)
+                        .sendToTarget();
             }
         }
     };
@@ -227,11 +239,9 @@ class ActiveDeviceManager {
                 break;
 
                 case MESSAGE_A2DP_ACTION_CONNECTION_STATE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    int prevState = intent.getIntExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, -1);
-                    int nextState = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
+                    int prevState = msg.arg1;
+                    int nextState = msg.arg2;
                     if (prevState == nextState) {
                         // Nothing has changed
                         break;
@@ -273,9 +283,7 @@ class ActiveDeviceManager {
                 break;
 
                 case MESSAGE_A2DP_ACTION_ACTIVE_DEVICE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
                     if (DBG) {
                         Log.d(TAG, "handleMessage(MESSAGE_A2DP_ACTION_ACTIVE_DEVICE_CHANGED): "
                                 + "device= " + device);
@@ -293,11 +301,9 @@ class ActiveDeviceManager {
                 break;
 
                 case MESSAGE_HFP_ACTION_CONNECTION_STATE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    int prevState = intent.getIntExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, -1);
-                    int nextState = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
+                    int prevState = msg.arg1;
+                    int nextState = msg.arg2;
                     if (prevState == nextState) {
                         // Nothing has changed
                         break;
@@ -339,9 +345,7 @@ class ActiveDeviceManager {
                 break;
 
                 case MESSAGE_HFP_ACTION_ACTIVE_DEVICE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
                     if (DBG) {
                         Log.d(TAG, "handleMessage(MESSAGE_HFP_ACTION_ACTIVE_DEVICE_CHANGED): "
                                 + "device= " + device);
@@ -359,11 +363,9 @@ class ActiveDeviceManager {
                 break;
 
                 case MESSAGE_HEARING_AID_ACTION_CONNECTION_STATE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    int prevState = intent.getIntExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, -1);
-                    int nextState = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
+                    int prevState = msg.arg1;
+                    int nextState = msg.arg2;
                     if (prevState == nextState) {
                         // Nothing has changed
                         break;
@@ -403,9 +405,7 @@ class ActiveDeviceManager {
                 break;
 
                 case MESSAGE_HEARING_AID_ACTION_ACTIVE_DEVICE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
                     if (DBG) {
                         Log.d(TAG, "handleMessage(MESSAGE_HA_ACTION_ACTIVE_DEVICE_CHANGED): "
                                 + "device= " + device);
@@ -421,11 +421,9 @@ class ActiveDeviceManager {
                 break;
 
                 case MESSAGE_LE_AUDIO_ACTION_CONNECTION_STATE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    int prevState = intent.getIntExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, -1);
-                    int nextState = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
+                    int prevState = msg.arg1;
+                    int nextState = msg.arg2;
                     if (prevState == nextState) {
                         // Nothing has changed
                         break;
@@ -473,9 +471,7 @@ class ActiveDeviceManager {
                 break;
 
                 case MESSAGE_LE_AUDIO_ACTION_ACTIVE_DEVICE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
                     if (device != null && !mLeAudioConnectedDevices.contains(device)) {
                         mLeAudioConnectedDevices.add(device);
                     }
@@ -494,11 +490,9 @@ class ActiveDeviceManager {
                 break;
 
                 case MESSAGE_HAP_ACTION_CONNECTION_STATE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    int prevState = intent.getIntExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, -1);
-                    int nextState = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
+                    int prevState = msg.arg1;
+                    int nextState = msg.arg2;
                     if (prevState == nextState) {
                         // Nothing has changed
                         break;
@@ -542,9 +536,7 @@ class ActiveDeviceManager {
                 break;
 
                 case MESSAGE_HAP_ACTION_ACTIVE_DEVICE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
                     if (device != null && !mLeHearingAidConnectedDevices.contains(device)) {
                         mLeHearingAidConnectedDevices.add(device);
                     }
@@ -624,18 +616,12 @@ class ActiveDeviceManager {
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
-        filter.addAction(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
-        filter.addAction(BluetoothA2dp.ACTION_ACTIVE_DEVICE_CHANGED);
-        filter.addAction(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
-        filter.addAction(BluetoothHeadset.ACTION_ACTIVE_DEVICE_CHANGED);
-        filter.addAction(BluetoothHearingAid.ACTION_CONNECTION_STATE_CHANGED);
-        filter.addAction(BluetoothHearingAid.ACTION_ACTIVE_DEVICE_CHANGED);
-        filter.addAction(BluetoothLeAudio.ACTION_LE_AUDIO_CONNECTION_STATE_CHANGED);
-        filter.addAction(BluetoothLeAudio.ACTION_LE_AUDIO_ACTIVE_DEVICE_CHANGED);
-        filter.addAction(BluetoothHapClient.ACTION_HAP_CONNECTION_STATE_CHANGED);
-        filter.addAction(BluetoothHapClient.ACTION_HAP_DEVICE_AVAILABLE);
         mAdapterService.registerReceiver(mReceiver, filter);
 
+        // The handler already serializes the events, so deliver on the publishing thread
+        mAdapterService.getProfileEventBus().registerListener(mProfileEventListener,
+                Runnable::run);
+
         mAudioManager.registerAudioDeviceCallback(mAudioManagerAudioDeviceCallback, mHandler);
     }
 
@@ -645,6 +631,7 @@ class ActiveDeviceManager {
         }
 
         mAudioManager.unregisterAudioDeviceCallback(mAudioManagerAudioDeviceCallback);
+        mAdapterService.getProfileEventBus().unregisterListener(mProfileEventListener);
         mAdapterService.unregisterReceiver(mReceiver);
         if (mHandlerThread != null) {
             mHandlerThread.quit();
@@ -878,6 +865,11 @@ class ActiveDeviceManager {
         return mReceiver;
     }
 
+    @VisibleForTesting
+    ProfileEventBus.Listener getProfileEventListener() {
+        return mProfileEventListener;
+    }
+
     @VisibleForTesting
     BluetoothDevice getA2dpActiveDevice() {
         return mA2dpActiveDevice;
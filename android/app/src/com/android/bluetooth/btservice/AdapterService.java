@@ -44,6 +44,7 @@ import android.bluetooth.BluetoothAdapter.ActiveDeviceProfile;
 import android.bluetooth.BluetoothAdapter.ActiveDeviceUse;
 import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothDeviceSnapshot;
 import android.bluetooth.BluetoothFrameworkInitializer;
 import android.bluetooth.BluetoothMap;
 import android.bluetooth.BluetoothProfile;
@@ -59,6 +60,7 @@ import android.bluetooth.IBluetooth;
 import android.bluetooth.IBluetoothActivityEnergyInfoListener;
 import android.bluetooth.IBluetoothCallback;
 import android.bluetooth.IBluetoothConnectionCallback;
+import android.bluetooth.IBluetoothDeviceSnapshotListener;
 import android.bluetooth.IBluetoothMetadataListener;
 import android.bluetooth.IBluetoothOobDataCallback;
 import android.bluetooth.IBluetoothSocketManager;
@@ -183,6 +185,12 @@ public class AdapterService extends Service {
     private final ArrayList<ProfileService> mRegisteredProfiles = new ArrayList<>();
     private final ArrayList<ProfileService> mRunningProfiles = new ArrayList<>();
 
+    static final String PROFILE_DEFERRED_START_PROPERTY =
+            "bluetooth.profile.deferred_start.enabled";
+    private final ProfileStartupScheduler mProfileStartupScheduler = new ProfileStartupScheduler(
+            profile -> setProfileServiceState(profile, BluetoothAdapter.STATE_ON),
+            SystemProperties.getBoolean(PROFILE_DEFERRED_START_PROPERTY, false));
+
     public static final String ACTION_LOAD_ADAPTER_PROPERTIES =
             "com.android.bluetooth.btservice.action.LOAD_ADAPTER_PROPERTIES";
     public static final String ACTION_SERVICE_STATE_CHANGED =
@@ -281,6 +289,8 @@ public class AdapterService extends Service {
     private Set<IBluetoothConnectionCallback> mBluetoothConnectionCallbacks = new HashSet<>();
     //Only BluetoothManagerService should be registered
     private RemoteCallbackList<IBluetoothCallback> mCallbacks;
+    // Registered with the fields they watch as cookie
+    private RemoteCallbackList<IBluetoothDeviceSnapshotListener> mDeviceSnapshotListeners;
     private int mCurrentRequestId;
     private boolean mQuietmode = false;
     private HashMap<String, CallerInfo> mBondAttemptCallerInfo = new HashMap<>();
@@ -297,6 +307,8 @@ public class AdapterService extends Service {
     private UserManager mUserManager;
     private CompanionDeviceManager mCompanionDeviceManager;
 
+    private final ProfileEventBus mProfileEventBus = new ProfileEventBus();
+    private final DeviceGroupRegistry mDeviceGroupRegistry = new DeviceGroupRegistry();
     private PhonePolicy mPhonePolicy;
     private ActiveDeviceManager mActiveDeviceManager;
     private DatabaseManager mDatabaseManager;
@@ -429,11 +441,12 @@ public class AdapterService extends Service {
                         return;
                     }
                     mRunningProfiles.add(profile);
+                    mProfileStartupScheduler.onProfileStarted(profile.getName());
                     // TODO(b/228875190): GATT is assumed supported. GATT starting triggers hardware
                     // initializtion. Configuring a device without GATT causes start up failures.
                     if (GattService.class.getSimpleName().equals(profile.getName())) {
                         enableNative();
-                    } else if (mRegisteredProfiles.size() == Config.getSupportedProfiles().length
+                    } else if (mRegisteredProfiles.size() == getRequiredProfileCount()
                             && mRegisteredProfiles.size() == mRunningProfiles.size()) {
                         mAdapterProperties.onBluetoothReady();
                         updateUuids();
@@ -444,6 +457,7 @@ public class AdapterService extends Service {
                         getAdapterPropertyNative(AbstractionLayer.BT_PROPERTY_DYNAMIC_AUDIO_BUFFER);
                         mAdapterStateMachine.sendMessage(AdapterState.BREDR_STARTED);
                         mBtCompanionManager.loadCompanionInfo();
+                        mProfileStartupScheduler.startDeferredProfiles();
                     }
                     break;
                 case BluetoothAdapter.STATE_OFF:
@@ -503,6 +517,7 @@ public class AdapterService extends Service {
                 getInitFlags(), isAtvDevice, getApplicationInfo().dataDir);
         mNativeAvailable = true;
         mCallbacks = new RemoteCallbackList<IBluetoothCallback>();
+        mDeviceSnapshotListeners = new RemoteCallbackList<IBluetoothDeviceSnapshotListener>();
         mAppOps = getSystemService(AppOpsManager.class);
         //Load the name and address
         getAdapterPropertyNative(AbstractionLayer.BT_PROPERTY_BDADDR);
@@ -710,11 +725,30 @@ public class AdapterService extends Service {
             setBluetoothClassFromConfig();
             mAdapterStateMachine.sendMessage(AdapterState.BREDR_STARTED);
         } else {
-            setAllProfileServiceStates(supportedProfileServices, BluetoothAdapter.STATE_ON);
+            ArrayList<Class> profiles = new ArrayList<>(supportedProfileServices.length);
+            for (Class service : supportedProfileServices) {
+                // TODO(b/228875190): GATT is assumed supported and started as part of the
+                // "BLE ON" state.
+                if (!GattService.class.getSimpleName().equals(service.getSimpleName())) {
+                    profiles.add(service);
+                }
+            }
+            mProfileStartupScheduler.start(profiles.toArray(new Class[0]));
         }
     }
 
+    /**
+     * Number of profile services that must be running for the adapter to reach BREDR_STARTED,
+     * the deferred ones being started afterwards.
+     */
+    private int getRequiredProfileCount() {
+        return Config.getSupportedProfiles().length
+                - mProfileStartupScheduler.getDeferredProfileCount();
+    }
+
     void stopProfileServices() {
+        // Profiles not dispatched yet must not be started anymore
+        mProfileStartupScheduler.cancel();
         // Make sure to stop classic background tasks now
         cancelDiscoveryNative();
         mAdapterProperties.setScanMode(BluetoothAdapter.SCAN_MODE_NONE);
@@ -986,6 +1020,10 @@ public class AdapterService extends Service {
         if (mCallbacks != null) {
             mCallbacks.kill();
         }
+
+        if (mDeviceSnapshotListeners != null) {
+            mDeviceSnapshotListeners.kill();
+        }
     }
 
     private void invalidateBluetoothCaches() {
@@ -1017,6 +1055,11 @@ public class AdapterService extends Service {
             if (GattService.class.getSimpleName().equals(service.getSimpleName())) {
                 continue;
             }
+            // Deferred profiles are not started when Bluetooth is turned off early enough
+            if (state == BluetoothAdapter.STATE_OFF
+                    && !mStartedProfiles.contains(service.getSimpleName())) {
+                continue;
+            }
             setProfileServiceState(service, state);
         }
     }
@@ -1310,7 +1353,7 @@ public class AdapterService extends Service {
      * @return true if all bluetooth profile services running, false otherwise
      */
     private boolean profileServicesRunning() {
-        if (mRegisteredProfiles.size() == Config.getSupportedProfiles().length
+        if (mRegisteredProfiles.size() >= getRequiredProfileCount()
                 && mRegisteredProfiles.size() == mRunningProfiles.size()) {
             return true;
         }
@@ -3670,6 +3713,83 @@ public class AdapterService extends Service {
             return service.mDatabaseManager.getCustomMeta(device, key);
         }
 
+        @Override
+        public void getDeviceSnapshots(List<BluetoothDevice> devices, int fields,
+                AttributionSource source, SynchronousResultReceiver receiver) {
+            try {
+                receiver.send(getDeviceSnapshots(devices, fields, source));
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+        private List<BluetoothDeviceSnapshot> getDeviceSnapshots(List<BluetoothDevice> devices,
+                int fields, AttributionSource source) {
+            AdapterService service = getService();
+            if (service == null
+                    || !callerIsSystemOrActiveOrManagedUser(service, TAG, "getDeviceSnapshots")
+                    || !Utils.checkConnectPermissionForDataDelivery(service, source, TAG)) {
+                return new ArrayList<>();
+            }
+
+            enforceBluetoothPrivilegedPermission(service);
+
+            return service.getDeviceSnapshots(devices, fields);
+        }
+
+        @Override
+        public void registerDeviceSnapshotListener(IBluetoothDeviceSnapshotListener listener,
+                int fields, AttributionSource source, SynchronousResultReceiver receiver) {
+            try {
+                receiver.send(registerDeviceSnapshotListener(listener, fields, source));
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+        private boolean registerDeviceSnapshotListener(IBluetoothDeviceSnapshotListener listener,
+                int fields, AttributionSource source) {
+            AdapterService service = getService();
+            if (service == null
+                    || !callerIsSystemOrActiveOrManagedUser(service,
+                            TAG, "registerDeviceSnapshotListener")
+                    || !Utils.checkConnectPermissionForDataDelivery(service, source, TAG)) {
+                return false;
+            }
+
+            enforceBluetoothPrivilegedPermission(service);
+
+            if (service.mDeviceSnapshotListeners == null) {
+                return false;
+            }
+            return service.mDeviceSnapshotListeners.register(listener, fields);
+        }
+
+        @Override
+        public void unregisterDeviceSnapshotListener(IBluetoothDeviceSnapshotListener listener,
+                AttributionSource source, SynchronousResultReceiver receiver) {
+            try {
+                receiver.send(unregisterDeviceSnapshotListener(listener, source));
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+        private boolean unregisterDeviceSnapshotListener(
+                IBluetoothDeviceSnapshotListener listener, AttributionSource source) {
+            AdapterService service = getService();
+            if (service == null
+                    || !callerIsSystemOrActiveOrManagedUser(service,
+                            TAG, "unregisterDeviceSnapshotListener")
+                    || !Utils.checkConnectPermissionForDataDelivery(service, source, TAG)) {
+                return false;
+            }
+
+            enforceBluetoothPrivilegedPermission(service);
+
+            if (service.mDeviceSnapshotListeners == null) {
+                return false;
+            }
+            return service.mDeviceSnapshotListeners.unregister(listener);
+        }
+
         @Override
         public void isRequestAudioPolicyAsSinkSupported(BluetoothDevice device,
                 AttributionSource source, SynchronousResultReceiver receiver) {
@@ -5172,6 +5292,108 @@ public class AdapterService extends Service {
                 }
             }
         }
+
+        if (device != null) {
+            deviceSnapshotChanged(device, BluetoothDeviceSnapshot.FIELD_METADATA);
+        }
+    }
+
+    /**
+     * Read the selected properties of a remote device at once.
+     *
+     * @param device the remote device
+     * @param fields the {@link BluetoothDeviceSnapshot} fields to read
+     * @return the snapshot, or null if the device is unknown
+     */
+    @VisibleForTesting
+    BluetoothDeviceSnapshot getDeviceSnapshot(BluetoothDevice device, int fields) {
+        DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(device);
+        if (deviceProp == null) {
+            return null;
+        }
+        BluetoothDeviceSnapshot.Builder builder = new BluetoothDeviceSnapshot.Builder(device,
+                fields);
+        deviceProp.fillDeviceSnapshot(builder, fields);
+        if ((fields & BluetoothDeviceSnapshot.FIELD_METADATA) != 0) {
+            SparseArray<byte[]> metadata = mDatabaseManager.getAllCustomMeta(device);
+            for (int i = 0; i < metadata.size(); i++) {
+                builder.setMetadata(metadata.keyAt(i), metadata.valueAt(i));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Read the selected properties of several remote devices, leaving out the unknown devices.
+     */
+    List<BluetoothDeviceSnapshot> getDeviceSnapshots(List<BluetoothDevice> devices, int fields) {
+        List<BluetoothDeviceSnapshot> snapshots = new ArrayList<>(devices.size());
+        if (mRemoteDevices == null) {
+            return snapshots;
+        }
+        for (BluetoothDevice device : devices) {
+            BluetoothDeviceSnapshot snapshot = getDeviceSnapshot(device, fields);
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Notify the device snapshot listeners watching some of the properties that changed. Only the
+     * bonded devices are reported, and the devices when they are unbonded.
+     *
+     * <p>The listeners are called from the main thread, as the properties are changed from
+     * threads holding locks the snapshots need.
+     *
+     * @param device the remote device
+     * @param changedFields the {@link BluetoothDeviceSnapshot} fields that changed
+     */
+    void deviceSnapshotChanged(BluetoothDevice device, int changedFields) {
+        if (mDeviceSnapshotListeners == null
+                || mDeviceSnapshotListeners.getRegisteredCallbackCount() == 0) {
+            return;
+        }
+        mHandler.post(() -> notifyDeviceSnapshotListeners(device, changedFields));
+    }
+
+    private void notifyDeviceSnapshotListeners(BluetoothDevice device, int changedFields) {
+        if (mDeviceSnapshotListeners == null || mRemoteDevices == null) {
+            return;
+        }
+        DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(device);
+        if (deviceProp == null || (deviceProp.getBondState() == BluetoothDevice.BOND_NONE
+                && (changedFields & BluetoothDeviceSnapshot.FIELD_BOND_STATE) == 0)) {
+            return;
+        }
+        // Listeners usually watch the same fields, build each snapshot once
+        SparseArray<BluetoothDeviceSnapshot> snapshots = new SparseArray<>();
+        int n = mDeviceSnapshotListeners.beginBroadcast();
+        try {
+            for (int i = 0; i < n; i++) {
+                int fields = (Integer) mDeviceSnapshotListeners.getBroadcastCookie(i);
+                if ((fields & changedFields) == 0) {
+                    continue;
+                }
+                BluetoothDeviceSnapshot snapshot = snapshots.get(fields);
+                if (snapshot == null) {
+                    snapshot = getDeviceSnapshot(device, fields);
+                    if (snapshot == null) {
+                        // Evicted in the meantime
+                        return;
+                    }
+                    snapshots.put(fields, snapshot);
+                }
+                try {
+                    mDeviceSnapshotListeners.getBroadcastItem(i).onDeviceSnapshotChanged(snapshot);
+                } catch (RemoteException e) {
+                    Log.w(TAG, "RemoteException when onDeviceSnapshotChanged", e);
+                }
+            }
+        } finally {
+            mDeviceSnapshotListeners.finishBroadcast();
+        }
     }
 
     private int getIdleCurrentMa() {
@@ -5231,6 +5453,8 @@ public class AdapterService extends Service {
         writer.println();
 
         mAdapterStateMachine.dump(fd, writer, args);
+        mProfileStartupScheduler.dump(writer);
+        writer.println();
 
         StringBuilder sb = new StringBuilder();
         for (ProfileService profile : mRegisteredProfiles) {
@@ -5238,6 +5462,7 @@ public class AdapterService extends Service {
         }
         mSilenceDeviceManager.dump(fd, writer, args);
         mDatabaseManager.dump(writer);
+        MetricsLogger.dump(writer);
 
         writer.write(sb.toString());
         writer.flush();
@@ -5601,6 +5826,58 @@ public class AdapterService extends Service {
         return mBtCompanionManager;
     }
 
+    /**
+     * Get the in-process bus carrying profile connection state and active device changes
+     *
+     * @return {@link ProfileEventBus}
+     */
+    public ProfileEventBus getProfileEventBus() {
+        return mProfileEventBus;
+    }
+
+    /**
+     * Get the coordinated sets of the remote devices, maintained by the CSIP set coordinator
+     *
+     * @return {@link DeviceGroupRegistry}
+     */
+    public DeviceGroupRegistry getDeviceGroupRegistry() {
+        return mDeviceGroupRegistry;
+    }
+
+    /**
+     * Notify in-process subscribers that the connection state of a device changed for a profile
+     *
+     * @param profile the {@link BluetoothProfile} id
+     * @param device Bluetooth device
+     * @param fromState previous connection state
+     * @param toState new connection state
+     */
+    public void notifyProfileConnectionStateChanged(int profile, BluetoothDevice device,
+            int fromState, int toState) {
+        mProfileEventBus.publishConnectionStateChanged(profile, device, fromState, toState);
+    }
+
+    /**
+     * Notify in-process subscribers that the active device changed for a profile
+     *
+     * @param profile the {@link BluetoothProfile} id
+     * @param device the new active device, or null
+     */
+    public void notifyActiveDeviceChanged(int profile, BluetoothDevice device) {
+        mProfileEventBus.publishActiveDeviceChanged(profile, device);
+    }
+
+    /**
+     * Notify in-process subscribers that a device is available for a profile, i.e. connected
+     * and ready to be used
+     *
+     * @param profile the {@link BluetoothProfile} id
+     * @param device Bluetooth device
+     */
+    public void notifyProfileDeviceAvailable(int profile, BluetoothDevice device) {
+        mProfileEventBus.publishDeviceAvailable(profile, device);
+    }
+
     /**
      *  Call for the AdapterService receives bond state change
      *
@@ -5611,6 +5888,9 @@ public class AdapterService extends Service {
         if (mBtCompanionManager != null) {
             mBtCompanionManager.onBondStateChanged(device, state);
         }
+        if (mSdpManager != null) {
+            mSdpManager.onBondStateChanged(device, state);
+        }
     }
 
     /**
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.IBluetoothCsipSetCoordinator;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the coordinated sets the remote devices belong to, as discovered by CSIP.
+ *
+ * The registry is indexed both by group, with the members ordered by rank, and by device. It is
+ * updated by the CSIP set coordinator on its events, and read without locking by the profiles:
+ * each update publishes a new immutable state, which is cheap as the groups are small and
+ * change rarely.
+ */
+public class DeviceGroupRegistry {
+    private static final class Group {
+        final ParcelUuid mUuid;
+        final int mSize;
+        // Ordered from the lowest to the highest rank value
+        final List<BluetoothDevice> mMembers;
+
+        Group(ParcelUuid uuid, int size, List<BluetoothDevice> members) {
+            mUuid = uuid;
+            mSize = size;
+            mMembers = members;
+        }
+    }
+
+    private static final class State {
+        final Map<Integer, Group> mGroups;
+        // Group ID to rank, per device
+        final Map<BluetoothDevice, Map<Integer, Integer>> mDeviceRanks;
+
+        State(Map<Integer, Group> groups, Map<BluetoothDevice, Map<Integer, Integer>> deviceRanks) {
+            mGroups = groups;
+            mDeviceRanks = deviceRanks;
+        }
+    }
+
+    private static final State EMPTY_STATE =
+            new State(Collections.emptyMap(), Collections.emptyMap());
+
+    // Only replaced while holding the lock of this object
+    private volatile State mState = EMPTY_STATE;
+
+    /**
+     * Add a device to a group, or update its rank in it.
+     *
+     * @param device the group member
+     * @param groupId the CSIP group ID
+     * @param uuid the profile context UUID of the group
+     * @param size the desired size of the group
+     * @param rank the rank of the device in the group
+     */
+    public synchronized void addDevice(@NonNull BluetoothDevice device, int groupId,
+            @NonNull ParcelUuid uuid, int size, int rank) {
+        State state = mState;
+
+        Map<BluetoothDevice, Map<Integer, Integer>> deviceRanks = new HashMap<>(state.mDeviceRanks);
+        Map<Integer, Integer> ranks =
+                new HashMap<>(deviceRanks.getOrDefault(device, Collections.emptyMap()));
+        ranks.put(groupId, rank);
+        deviceRanks.put(device, Collections.unmodifiableMap(ranks));
+
+        Group group = state.mGroups.get(groupId);
+        List<BluetoothDevice> members =
+                group == null ? new ArrayList<>() : new ArrayList<>(group.mMembers);
+        members.remove(device);
+        members.add(device);
+        Map<Integer, Group> groups = new HashMap<>(state.mGroups);
+        groups.put(groupId, new Group(uuid, size, sortByRank(members, groupId, deviceRanks)));
+
+        mState = new State(Collections.unmodifiableMap(groups),
+                Collections.unmodifiableMap(deviceRanks));
+    }
+
+    /**
+     * Remove a device from all its groups, e.g. because it is not bonded anymore. The groups are
+     * kept so that their other members can still be resolved.
+     */
+    public synchronized void removeDevice(@NonNull BluetoothDevice device) {
+        State state = mState;
+        Map<Integer, Integer> ranks = state.mDeviceRanks.get(device);
+        if (ranks == null) {
+            return;
+        }
+
+        Map<BluetoothDevice, Map<Integer, Integer>> deviceRanks = new HashMap<>(state.mDeviceRanks);
+        deviceRanks.remove(device);
+        Map<Integer, Group> groups = new HashMap<>(state.mGroups);
+        for (int groupId : ranks.keySet()) {
+            Group group = groups.get(groupId);
+            if (group == null) {
+                continue;
+            }
+            List<BluetoothDevice> members = new ArrayList<>(group.mMembers);
+            members.remove(device);
+            groups.put(groupId,
+                    new Group(group.mUuid, group.mSize, Collections.unmodifiableList(members)));
+        }
+
+        mState = new State(Collections.unmodifiableMap(groups),
+                Collections.unmodifiableMap(deviceRanks));
+    }
+
+    public synchronized void clear() {
+        mState = EMPTY_STATE;
+    }
+
+    /**
+     * Get the members of a group
+     *
+     * @param groupId the CSIP group ID
+     * @return the members sorted from the lowest to the highest rank value
+     */
+    public @NonNull List<BluetoothDevice> getGroupDevicesOrdered(int groupId) {
+        Group group = mState.mGroups.get(groupId);
+        return group == null ? Collections.emptyList() : group.mMembers;
+    }
+
+    /**
+     * Get the members of the group of a device
+     *
+     * @param device a group member
+     * @param uuid the profile context UUID of the group
+     * @return the members sorted from the lowest to the highest rank value
+     */
+    public @NonNull List<BluetoothDevice> getGroupDevicesOrdered(BluetoothDevice device,
+            ParcelUuid uuid) {
+        State state = mState;
+        int groupId = getGroupId(state, device, uuid);
+        Group group = state.mGroups.get(groupId);
+        return group == null ? Collections.emptyList() : group.mMembers;
+    }
+
+    /**
+     * Get the group of a device
+     *
+     * @param device a potential group member
+     * @param uuid the profile context UUID of the group
+     * @return the group ID, or {@link IBluetoothCsipSetCoordinator#CSIS_GROUP_ID_INVALID}
+     */
+    public int getGroupId(BluetoothDevice device, ParcelUuid uuid) {
+        return getGroupId(mState, device, uuid);
+    }
+
+    /**
+     * Get the groups of a device
+     *
+     * @param device a group member
+     * @return the profile context UUID of each group of the device, by group ID
+     */
+    public @NonNull Map<Integer, ParcelUuid> getGroupUuidMapByDevice(BluetoothDevice device) {
+        State state = mState;
+        Map<Integer, Integer> ranks = state.mDeviceRanks.get(device);
+        if (ranks == null) {
+            return new HashMap<>();
+        }
+        Map<Integer, ParcelUuid> groups = new HashMap<>();
+        for (int groupId : ranks.keySet()) {
+            Group group = state.mGroups.get(groupId);
+            if (group != null) {
+                groups.put(groupId, group.mUuid);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Get the groups of a profile context
+     *
+     * @param uuid the profile context UUID
+     * @return the IDs of the groups
+     */
+    public @NonNull List<Integer> getAllGroupIds(ParcelUuid uuid) {
+        List<Integer> groupIds = new ArrayList<>();
+        for (Map.Entry<Integer, Group> entry : mState.mGroups.entrySet()) {
+            if (entry.getValue().mUuid.equals(uuid)) {
+                groupIds.add(entry.getKey());
+            }
+        }
+        return groupIds;
+    }
+
+    /**
+     * Get the profile context of a group
+     *
+     * @param groupId the CSIP group ID
+     * @return the profile context UUID, or null if the group is unknown
+     */
+    public @Nullable ParcelUuid getGroupUuid(int groupId) {
+        Group group = mState.mGroups.get(groupId);
+        return group == null ? null : group.mUuid;
+    }
+
+    /**
+     * Get the desired size of a group
+     *
+     * @param groupId the CSIP group ID
+     * @return the size, or {@link IBluetoothCsipSetCoordinator#CSIS_GROUP_SIZE_UNKNOWN}
+     */
+    public int getDesiredGroupSize(int groupId) {
+        Group group = mState.mGroups.get(groupId);
+        return group == null ? IBluetoothCsipSetCoordinator.CSIS_GROUP_SIZE_UNKNOWN : group.mSize;
+    }
+
+    public void dump(StringBuilder sb) {
+        State state = mState;
+        sb.append("  Device groups:\n");
+        for (Map.Entry<Integer, Group> entry : state.mGroups.entrySet()) {
+            Group group = entry.getValue();
+            sb.append("    group " + entry.getKey() + ": uuid=" + group.mUuid
+                    + ", size=" + group.mSize + ", members=" + group.mMembers + "\n");
+        }
+    }
+
+    private static int getGroupId(State state, BluetoothDevice device, ParcelUuid uuid) {
+        Map<Integer, Integer> ranks = state.mDeviceRanks.get(device);
+        if (ranks != null) {
+            for (int groupId : ranks.keySet()) {
+                Group group = state.mGroups.get(groupId);
+                if (group != null && group.mUuid.equals(uuid)) {
+                    return groupId;
+                }
+            }
+        }
+        return IBluetoothCsipSetCoordinator.CSIS_GROUP_ID_INVALID;
+    }
+
+    private static List<BluetoothDevice> sortByRank(List<BluetoothDevice> members, int groupId,
+            Map<BluetoothDevice, Map<Integer, Integer>> deviceRanks) {
+        members.sort((a, b) -> Integer.compare(deviceRanks.get(a).get(groupId),
+                deviceRanks.get(b).get(groupId)));
+        return Collections.unmodifiableList(members);
+    }
+}
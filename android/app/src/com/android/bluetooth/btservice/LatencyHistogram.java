@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of the latency of an operation in fixed buckets, recorded without locking so
+ * that it can be used on hot paths.
+ */
+public final class LatencyHistogram {
+    /** Upper bounds (inclusive) of the buckets in microseconds, the last bucket is unbounded. */
+    static final long[] BUCKET_UPPER_BOUNDS_MICROS = {
+            100, 250, 500,
+            1_000, 2_500, 5_000,
+            10_000, 25_000, 50_000,
+            100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000,
+            10_000_000 };
+
+    private final AtomicLongArray mCounts =
+            new AtomicLongArray(BUCKET_UPPER_BOUNDS_MICROS.length + 1);
+    private final AtomicLong mTotalMicros = new AtomicLong();
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    /** Content of a histogram at a given time. */
+    public static final class Snapshot {
+        /** Number of samples per bucket of {@link LatencyHistogram#BUCKET_UPPER_BOUNDS_MICROS}. */
+        public final long[] counts;
+        public final long totalMicros;
+        public final long maxMicros;
+
+        Snapshot(long[] counts, long totalMicros, long maxMicros) {
+            this.counts = counts;
+            this.totalMicros = totalMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getSampleCount() {
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Record a sample, negative latencies (e.g. from a clock change) are ignored.
+     */
+    public void record(long latencyMicros) {
+        if (latencyMicros < 0) {
+            return;
+        }
+        mCounts.incrementAndGet(getBucket(latencyMicros));
+        mTotalMicros.addAndGet(latencyMicros);
+        mMaxMicros.accumulateAndGet(latencyMicros, Math::max);
+    }
+
+    /**
+     * Get the content of the histogram.
+     *
+     * @param reset whether to clear the histogram; a sample recorded concurrently is either in
+     *        the snapshot or kept for the next one, but the total and maximum may not match the
+     *        counts exactly
+     */
+    public Snapshot snapshot(boolean reset) {
+        long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = reset ? mCounts.getAndSet(i, 0) : mCounts.get(i);
+        }
+        long total = reset ? mTotalMicros.getAndSet(0) : mTotalMicros.get();
+        long max = reset ? mMaxMicros.getAndSet(0) : mMaxMicros.get();
+        return new Snapshot(counts, total, max);
+    }
+
+    static int getBucket(long latencyMicros) {
+        int index = Arrays.binarySearch(BUCKET_UPPER_BOUNDS_MICROS, latencyMicros);
+        return index >= 0 ? index : -index - 1;
+    }
+}
@@ -20,7 +20,9 @@ import android.content.Context;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.android.bluetooth.BluetoothMetricsProto;
 import com.android.bluetooth.BluetoothMetricsProto.BluetoothLog;
+import com.android.bluetooth.BluetoothMetricsProto.LatencyMetric;
 import com.android.bluetooth.BluetoothMetricsProto.ProfileConnectionStats;
 import com.android.bluetooth.BluetoothMetricsProto.ProfileId;
 import com.android.bluetooth.BluetoothStatsLog;
@@ -33,10 +35,16 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class of Bluetooth Metrics
@@ -53,9 +61,22 @@ public class MetricsLogger {
     private static final long BLUETOOTH_COUNTER_METRICS_ACTION_DURATION_MILLIS = 6L * 3600L * 1000L;
     private static final int MAX_WORDS_ALLOWED_IN_DEVICE_NAME = 7;
 
-    private static final HashMap<ProfileId, Integer> sProfileConnectionCounts = new HashMap<>();
+    // Entries are never removed, the counts are reset when dumped
+    private static final Map<ProfileId, AtomicInteger> sProfileConnectionCounts =
+            new ConcurrentHashMap<>();
 
-    HashMap<Integer, Long> mCounters = new HashMap<>();
+    // Populated once, histograms are then updated without locking
+    private static final EnumMap<LatencyMetric, LatencyHistogram> sLatencyHistograms =
+            new EnumMap<>(LatencyMetric.class);
+
+    static {
+        for (LatencyMetric metric : LatencyMetric.values()) {
+            sLatencyHistograms.put(metric, new LatencyHistogram());
+        }
+    }
+
+    // Entries are never removed, the counts are reset when drained
+    final Map<Integer, AtomicLong> mCounters = new ConcurrentHashMap<>();
     private static MetricsLogger sInstance = null;
     private Context mContext = null;
     private AlarmManager mAlarmManager = null;
@@ -145,18 +166,13 @@ public class MetricsLogger {
             Log.w(TAG, "count is not larger than 0. count: " + count + " key: " + key);
             return false;
         }
-        long total = 0;
-
-        synchronized (mLock) {
-            if (mCounters.containsKey(key)) {
-                total = mCounters.get(key);
-            }
-            if (Long.MAX_VALUE - total < count) {
-                Log.w(TAG, "count overflows. count: " + count + " current total: " + total);
-                mCounters.put(key, Long.MAX_VALUE);
-                return false;
-            }
-            mCounters.put(key, total + count);
+        AtomicLong counter = mCounters.computeIfAbsent(key, k -> new AtomicLong());
+        long total = counter.getAndAccumulate(count,
+                (current, added) -> Long.MAX_VALUE - current < added ? Long.MAX_VALUE
+                        : current + added);
+        if (Long.MAX_VALUE - total < count) {
+            Log.w(TAG, "count overflows. count: " + count + " current total: " + total);
+            return false;
         }
         return true;
     }
@@ -169,11 +185,34 @@ public class MetricsLogger {
      * @param profileId Bluetooth profile that is connected at this event
      */
     public static void logProfileConnectionEvent(ProfileId profileId) {
-        synchronized (sProfileConnectionCounts) {
-            sProfileConnectionCounts.merge(profileId, 1, Integer::sum);
+        sProfileConnectionCounts.computeIfAbsent(profileId, k -> new AtomicInteger())
+                .incrementAndGet();
+    }
+
+    /**
+     * Log the latency of an operation into the histogram of its metric. This does not lock and
+     * is cheap enough to be used on hot paths.
+     *
+     * @param metric operation measured
+     * @param latencyMicros latency of the operation in microseconds
+     */
+    public static void logLatency(LatencyMetric metric, long latencyMicros) {
+        LatencyHistogram histogram = sLatencyHistograms.get(metric);
+        if (histogram != null) {
+            histogram.record(latencyMicros);
         }
     }
 
+    /**
+     * Log the latency of an operation that started at {@code startNanos}.
+     *
+     * @param metric operation measured
+     * @param startNanos start of the operation from {@link SystemClock#elapsedRealtimeNanos()}
+     */
+    public static void logLatencySince(LatencyMetric metric, long startNanos) {
+        logLatency(metric, (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000);
+    }
+
     /**
      * Dump collected metrics into proto using a builder.
      * Clean up internal data after the dump.
@@ -181,15 +220,52 @@ public class MetricsLogger {
      * @param metricsBuilder proto builder for {@link BluetoothLog}
      */
     public static void dumpProto(BluetoothLog.Builder metricsBuilder) {
-        synchronized (sProfileConnectionCounts) {
-            sProfileConnectionCounts.forEach(
-                    (key, value) -> metricsBuilder.addProfileConnectionStats(
-                            ProfileConnectionStats.newBuilder()
-                                    .setProfileId(key)
-                                    .setNumTimesConnected(value)
-                                    .build()));
-            sProfileConnectionCounts.clear();
-        }
+        sProfileConnectionCounts.forEach((key, value) -> {
+            int count = value.getAndSet(0);
+            if (count > 0) {
+                metricsBuilder.addProfileConnectionStats(ProfileConnectionStats.newBuilder()
+                        .setProfileId(key)
+                        .setNumTimesConnected(count)
+                        .build());
+            }
+        });
+        sLatencyHistograms.forEach((metric, histogram) -> {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot(true);
+            if (snapshot.getSampleCount() == 0) {
+                return;
+            }
+            BluetoothMetricsProto.LatencyHistogram.Builder builder =
+                    BluetoothMetricsProto.LatencyHistogram.newBuilder()
+                            .setMetric(metric)
+                            .setTotalLatencyMicros(snapshot.totalMicros)
+                            .setMaxLatencyMicros(snapshot.maxMicros);
+            for (long bound : LatencyHistogram.BUCKET_UPPER_BOUNDS_MICROS) {
+                builder.addBucketUpperBoundMicros(bound);
+            }
+            for (long count : snapshot.counts) {
+                builder.addBucketCount(count);
+            }
+            metricsBuilder.addLatencyHistogram(builder.build());
+        });
+    }
+
+    /**
+     * Dump the latency histograms, without clearing them.
+     */
+    public static void dump(PrintWriter writer) {
+        writer.println("Latency histograms (upper bounds in us: "
+                + Arrays.toString(LatencyHistogram.BUCKET_UPPER_BOUNDS_MICROS) + "):");
+        sLatencyHistograms.forEach((metric, histogram) -> {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot(false);
+            long samples = snapshot.getSampleCount();
+            if (samples == 0) {
+                return;
+            }
+            writer.println("  " + metric + ": samples=" + samples
+                    + ", avg=" + (snapshot.totalMicros / samples) + "us"
+                    + ", max=" + snapshot.maxMicros + "us"
+                    + ", buckets=" + Arrays.toString(snapshot.counts));
+        });
     }
 
     protected void scheduleDrains() {
@@ -221,13 +297,13 @@ public class MetricsLogger {
 
     protected void drainBufferedCounters() {
         Log.i(TAG, "drainBufferedCounters().");
-        synchronized (mLock) {
-            // send mCounters to statsd
-            for (int key : mCounters.keySet()) {
-                count(key, mCounters.get(key));
+        // send mCounters to statsd
+        mCounters.forEach((key, counter) -> {
+            long count = counter.getAndSet(0);
+            if (count > 0) {
+                count(key, count);
             }
-            mCounters.clear();
-        }
+        });
     }
 
     public boolean close() {
@@ -17,13 +17,9 @@
 package com.android.bluetooth.btservice;
 
 import android.annotation.RequiresPermission;
-import android.bluetooth.BluetoothA2dp;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothCsipSetCoordinator;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothHeadset;
-import android.bluetooth.BluetoothHearingAid;
-import android.bluetooth.BluetoothLeAudio;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.BluetoothUuid;
 import android.bluetooth.BluetoothVolumeControl;
@@ -122,51 +118,16 @@ class PhonePolicy {
                 return;
             }
             switch (action) {
-                case BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_PROFILE_CONNECTION_STATE_CHANGED,
-                            BluetoothProfile.HEADSET, -1, // No-op argument
-                            intent).sendToTarget();
-                    break;
-                case BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_PROFILE_CONNECTION_STATE_CHANGED,
-                            BluetoothProfile.A2DP, -1, // No-op argument
-                            intent).sendToTarget();
-                    break;
                 case BluetoothCsipSetCoordinator.ACTION_CSIS_CONNECTION_STATE_CHANGED:
                     mHandler.obtainMessage(MESSAGE_PROFILE_CONNECTION_STATE_CHANGED,
                             BluetoothProfile.CSIP_SET_COORDINATOR, -1, // No-op argument
                             intent).sendToTarget();
                     break;
-                case BluetoothLeAudio.ACTION_LE_AUDIO_CONNECTION_STATE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_PROFILE_CONNECTION_STATE_CHANGED,
-                            BluetoothProfile.LE_AUDIO, -1, // No-op argument
-                            intent).sendToTarget();
-                    break;
                 case BluetoothVolumeControl.ACTION_CONNECTION_STATE_CHANGED:
                     mHandler.obtainMessage(MESSAGE_PROFILE_CONNECTION_STATE_CHANGED,
                             BluetoothProfile.VOLUME_CONTROL, -1, // No-op argument
                             intent).sendToTarget();
                     break;
-                case BluetoothA2dp.ACTION_ACTIVE_DEVICE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_PROFILE_ACTIVE_DEVICE_CHANGED,
-                            BluetoothProfile.A2DP, -1, // No-op argument
-                            intent).sendToTarget();
-                    break;
-                case BluetoothHeadset.ACTION_ACTIVE_DEVICE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_PROFILE_ACTIVE_DEVICE_CHANGED,
-                            BluetoothProfile.HEADSET, -1, // No-op argument
-                            intent).sendToTarget();
-                    break;
-                case BluetoothHearingAid.ACTION_ACTIVE_DEVICE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_PROFILE_ACTIVE_DEVICE_CHANGED,
-                            BluetoothProfile.HEARING_AID, -1, // No-op argument
-                            intent).sendToTarget();
-                    break;
-                case BluetoothLeAudio.ACTION_LE_AUDIO_ACTIVE_DEVICE_CHANGED:
-                    mHandler.obtainMessage(MESSAGE_PROFILE_ACTIVE_DEVICE_CHANGED,
-                            BluetoothProfile.LE_AUDIO, -1, // No-op argument
-                            intent).sendToTarget();
-                    break;
                 case BluetoothAdapter.ACTION_STATE_CHANGED:
                     // Only pass the message on if the adapter has actually changed state from
                     // non-ON to ON. NOTE: ON is the state depicting BREDR ON and not just BLE ON.
@@ -188,6 +149,43 @@ class PhonePolicy {
         }
     };
 
+    /*
+     * Listener for the connection state and active device changes of the audio profiles, which
+     * publish them on the ProfileEventBus. CSIP and VCP do not publish on the bus, so their
+     * connection state changes are still received as broadcasts.
+     */
+    private final ProfileEventBus.Listener mProfileEventListener = new ProfileEventBus.Listener() {
+        @Override
+        public void onConnectionStateChanged(int profile, BluetoothDevice device,
+                int fromState, int toState) {
+            switch (profile) {
+                case BluetoothProfile.HEADSET:
+                case BluetoothProfile.A2DP:
+                case BluetoothProfile.LE_AUDIO:
+                    mHandler.post(() ->
+                            processProfileStateChanged(device, profile, toState, fromState));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onActiveDeviceChanged(int profile, BluetoothDevice device) {
+            switch (profile) {
+                case BluetoothProfile.A2DP:
+                case BluetoothProfile.HEADSET:
+                case BluetoothProfile.HEARING_AID:
+                case BluetoothProfile.LE_AUDIO:
+                    mHandler.obtainMessage(MESSAGE_PROFILE_ACTIVE_DEVICE_CHANGED, profile, -1,
+                            device).sendToTarget();
+                    break;
+                default:
+                    break;
+            }
+        }
+    };
+
     @VisibleForTesting
     BroadcastReceiver getBroadcastReceiver() {
         return mReceiver;
@@ -230,9 +228,7 @@ class PhonePolicy {
                 break;
 
                 case MESSAGE_PROFILE_ACTIVE_DEVICE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice activeDevice =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    BluetoothDevice activeDevice = (BluetoothDevice) msg.obj;
                     processActiveDeviceChanged(activeDevice, msg.arg1);
                 }
                 break;
@@ -264,22 +260,19 @@ class PhonePolicy {
     // Policy API functions for lifecycle management (protected)
     protected void start() {
         IntentFilter filter = new IntentFilter();
-        filter.addAction(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
-        filter.addAction(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
-        filter.addAction(BluetoothLeAudio.ACTION_LE_AUDIO_CONNECTION_STATE_CHANGED);
         filter.addAction(BluetoothCsipSetCoordinator.ACTION_CSIS_CONNECTION_STATE_CHANGED);
         filter.addAction(BluetoothVolumeControl.ACTION_CONNECTION_STATE_CHANGED);
         filter.addAction(BluetoothDevice.ACTION_ACL_CONNECTED);
         filter.addAction(BluetoothDevice.ACTION_UUID);
         filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
-        filter.addAction(BluetoothA2dp.ACTION_ACTIVE_DEVICE_CHANGED);
-        filter.addAction(BluetoothHeadset.ACTION_ACTIVE_DEVICE_CHANGED);
-        filter.addAction(BluetoothHearingAid.ACTION_ACTIVE_DEVICE_CHANGED);
-        filter.addAction(BluetoothLeAudio.ACTION_LE_AUDIO_ACTIVE_DEVICE_CHANGED);
         mAdapterService.registerReceiver(mReceiver, filter);
+        // The handler already serializes the events, so deliver on the publishing thread
+        mAdapterService.getProfileEventBus().registerListener(mProfileEventListener,
+                Runnable::run);
     }
 
     protected void cleanup() {
+        mAdapterService.getProfileEventBus().unregisterListener(mProfileEventListener);
         mAdapterService.unregisterReceiver(mReceiver);
         resetStates();
     }
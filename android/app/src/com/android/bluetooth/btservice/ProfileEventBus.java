@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * In-process event bus for profile connection state and active device changes.
+ *
+ * Profile services publish to the bus directly from their state machines instead of having
+ * in-process components (e.g. {@link ActiveDeviceManager}) listen to their
+ * ACTION_CONNECTION_STATE_CHANGED / ACTION_ACTIVE_DEVICE_CHANGED broadcasts. The broadcasts
+ * are still sent for applications.
+ *
+ * Each listener is registered with its own {@link Executor}. Events are delivered to a given
+ * listener in the order they were published, even when the executor is multi-threaded.
+ */
+public class ProfileEventBus {
+    private static final boolean DBG = false;
+    private static final String TAG = "BluetoothProfileEventBus";
+
+    /**
+     * Callbacks for profile events. All methods have empty default implementations so a
+     * listener only overrides what it is interested in.
+     */
+    public interface Listener {
+        /**
+         * Called when the connection state of a device changed for a profile.
+         *
+         * @param profile the {@link android.bluetooth.BluetoothProfile} id
+         * @param device the remote device
+         * @param fromState the previous connection state
+         * @param toState the new connection state
+         */
+        default void onConnectionStateChanged(int profile, BluetoothDevice device,
+                int fromState, int toState) {}
+
+        /**
+         * Called when the active device changed for a profile.
+         *
+         * @param profile the {@link android.bluetooth.BluetoothProfile} id
+         * @param device the new active device, or null if there is no active device
+         */
+        default void onActiveDeviceChanged(int profile, BluetoothDevice device) {}
+
+        /**
+         * Called when a device is available for a profile, i.e. connected and ready to be used.
+         * This is not an active device change.
+         *
+         * @param profile the {@link android.bluetooth.BluetoothProfile} id
+         * @param device the remote device
+         */
+        default void onDeviceAvailable(int profile, BluetoothDevice device) {}
+    }
+
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * Register a listener. Registering an already registered listener has no effect.
+     *
+     * @param listener the listener to be notified
+     * @param executor the executor the listener is called on
+     */
+    public void registerListener(Listener listener, Executor executor) {
+        Objects.requireNonNull(listener, "listener cannot be null");
+        Objects.requireNonNull(executor, "executor cannot be null");
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.mListener == listener) {
+                Log.w(TAG, "registerListener: listener already registered");
+                return;
+            }
+        }
+        mSubscriptions.add(new Subscription(listener, executor));
+    }
+
+    /**
+     * Unregister a listener. Events already queued for the listener are dropped.
+     *
+     * @param listener the listener to be removed
+     */
+    public void unregisterListener(Listener listener) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.mListener == listener) {
+                subscription.cancel();
+                mSubscriptions.remove(subscription);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Publish a connection state change. Changes where the state did not change are dropped.
+     */
+    public void publishConnectionStateChanged(int profile, BluetoothDevice device,
+            int fromState, int toState) {
+        if (device == null || fromState == toState) {
+            return;
+        }
+        if (DBG) {
+            Log.d(TAG, "publishConnectionStateChanged: profile=" + profile + " device=" + device
+                    + " " + fromState + "->" + toState);
+        }
+        for (Subscription subscription : mSubscriptions) {
+            subscription.post(l -> l.onConnectionStateChanged(profile, device, fromState,
+                    toState));
+        }
+    }
+
+    /**
+     * Publish an active device change. A null device means that the profile has no active
+     * device anymore.
+     */
+    public void publishActiveDeviceChanged(int profile, BluetoothDevice device) {
+        if (DBG) {
+            Log.d(TAG, "publishActiveDeviceChanged: profile=" + profile + " device=" + device);
+        }
+        for (Subscription subscription : mSubscriptions) {
+            subscription.post(l -> l.onActiveDeviceChanged(profile, device));
+        }
+    }
+
+    /**
+     * Publish that a device is available for a profile.
+     */
+    public void publishDeviceAvailable(int profile, BluetoothDevice device) {
+        if (device == null) {
+            return;
+        }
+        if (DBG) {
+            Log.d(TAG, "publishDeviceAvailable: profile=" + profile + " device=" + device);
+        }
+        for (Subscription subscription : mSubscriptions) {
+            subscription.post(l -> l.onDeviceAvailable(profile, device));
+        }
+    }
+
+    private interface Event {
+        void dispatch(Listener listener);
+    }
+
+    /**
+     * Serializes the events of one listener on top of its executor: at most one event of the
+     * listener is submitted to the executor at a time.
+     */
+    private static class Subscription {
+        final Listener mListener;
+        private final Executor mExecutor;
+
+        @GuardedBy("this")
+        private final ArrayDeque<Event> mPending = new ArrayDeque<>();
+        @GuardedBy("this")
+        private boolean mDraining = false;
+        @GuardedBy("this")
+        private boolean mCancelled = false;
+
+        Subscription(Listener listener, Executor executor) {
+            mListener = listener;
+            mExecutor = executor;
+        }
+
+        void post(Event event) {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mPending.add(event);
+                if (mDraining) {
+                    return;
+                }
+                mDraining = true;
+            }
+            boolean submitted = false;
+            try {
+                mExecutor.execute(this::drain);
+                submitted = true;
+            } catch (RuntimeException e) {
+                // Do not fail the publisher nor the other listeners
+                Log.e(TAG, "Executor rejected the events of a listener", e);
+            } finally {
+                if (!submitted) {
+                    // Let the next event try again instead of queueing forever
+                    synchronized (this) {
+                        mDraining = false;
+                    }
+                }
+            }
+        }
+
+        void cancel() {
+            synchronized (this) {
+                mCancelled = true;
+                mPending.clear();
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Event event;
+                synchronized (this) {
+                    event = mPending.poll();
+                    if (event == null) {
+                        mDraining = false;
+                        return;
+                    }
+                }
+                try {
+                    event.dispatch(mListener);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Listener threw while handling event", e);
+                }
+            }
+        }
+    }
+}
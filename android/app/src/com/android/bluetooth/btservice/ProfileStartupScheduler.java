@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.bluetooth.bass_client.BassClientService;
+import com.android.bluetooth.csip.CsipSetCoordinatorService;
+import com.android.bluetooth.hap.HapClientService;
+import com.android.bluetooth.le_audio.LeAudioService;
+import com.android.bluetooth.map.BluetoothMapService;
+import com.android.bluetooth.mcp.McpService;
+import com.android.bluetooth.pan.PanService;
+import com.android.bluetooth.sap.SapService;
+import com.android.bluetooth.tbs.TbsService;
+import com.android.bluetooth.vc.VolumeControlService;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Orders the start of the profile services when Bluetooth is turned on.
+ *
+ * Profiles are dispatched in waves: a profile is only started once the profiles it relies on
+ * (e.g. CSIP for LE Audio) are running, and all the independent profiles of a wave are
+ * dispatched at once. The profiles rarely used right after enabling (SAP, PAN, MAP) can be
+ * deferred until the adapter reached BREDR_STARTED, so that they do not delay the
+ * auto-reconnection of the audio devices.
+ *
+ * The dispatch and start times of each profile are kept for dumpsys.
+ */
+class ProfileStartupScheduler {
+    private static final String TAG = "BluetoothProfileStartup";
+
+    /** Profiles to start before a given profile, when supported. */
+    private static final Map<Class, List<Class>> DEPENDENCIES = Map.of(
+            LeAudioService.class, List.of(CsipSetCoordinatorService.class,
+                    VolumeControlService.class, McpService.class, TbsService.class),
+            BassClientService.class, List.of(CsipSetCoordinatorService.class,
+                    LeAudioService.class),
+            HapClientService.class, List.of(CsipSetCoordinatorService.class));
+
+    /** Profiles that can be started after the adapter reached BREDR_STARTED. */
+    @VisibleForTesting
+    static final Set<Class> DEFERRABLE_PROFILES = Set.of(
+            SapService.class, PanService.class, BluetoothMapService.class);
+
+    /** Starts a profile service. */
+    interface ProfileStarter {
+        void startProfile(Class profile);
+    }
+
+    private static final class Trace {
+        final int mWave;
+        long mDispatchTimeMs = -1;
+        long mStartTimeMs = -1;
+
+        Trace(int wave) {
+            mWave = wave;
+        }
+    }
+
+    private final ProfileStarter mStarter;
+    private final boolean mDeferEnabled;
+
+    @GuardedBy("this")
+    private final Deque<List<Class>> mPendingWaves = new ArrayDeque<>();
+    // Names of the profiles of the last dispatched wave that are not running yet
+    @GuardedBy("this")
+    private final Set<String> mStartingProfiles = new HashSet<>();
+    @GuardedBy("this")
+    private final List<Class> mDeferredProfiles = new ArrayList<>();
+    @GuardedBy("this")
+    private int mDeferredProfileCount;
+    @GuardedBy("this")
+    private final Map<String, Trace> mTraces = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private long mStartupTimeMs;
+
+    /**
+     * @param starter starts the profile services
+     * @param deferEnabled whether the {@link #DEFERRABLE_PROFILES} are started after the others
+     */
+    ProfileStartupScheduler(ProfileStarter starter, boolean deferEnabled) {
+        mStarter = starter;
+        mDeferEnabled = deferEnabled;
+    }
+
+    /**
+     * Start the given profiles, dispatching the first wave right away.
+     */
+    synchronized void start(Class[] profiles) {
+        cancel();
+        mTraces.clear();
+        mStartupTimeMs = SystemClock.elapsedRealtime();
+
+        List<Class> eager = new ArrayList<>();
+        for (Class profile : profiles) {
+            if (mDeferEnabled && DEFERRABLE_PROFILES.contains(profile)) {
+                mDeferredProfiles.add(profile);
+            } else {
+                eager.add(profile);
+            }
+        }
+        mDeferredProfileCount = mDeferredProfiles.size();
+
+        Map<Class, Integer> waves = computeWaves(eager);
+        int waveCount = waves.isEmpty() ? 0 : Collections.max(waves.values()) + 1;
+        List<List<Class>> pendingWaves = new ArrayList<>(waveCount);
+        for (int i = 0; i < waveCount; i++) {
+            pendingWaves.add(new ArrayList<>());
+        }
+        for (Class profile : eager) {
+            int wave = waves.get(profile);
+            pendingWaves.get(wave).add(profile);
+            mTraces.put(profile.getSimpleName(), new Trace(wave));
+        }
+        mPendingWaves.addAll(pendingWaves);
+        for (Class profile : mDeferredProfiles) {
+            mTraces.put(profile.getSimpleName(), new Trace(-1));
+        }
+        dispatchNextWave();
+    }
+
+    /**
+     * To be called when a profile service is running, to dispatch the next wave once all the
+     * profiles of the current one are.
+     */
+    synchronized void onProfileStarted(String name) {
+        Trace trace = mTraces.get(name);
+        if (trace != null && trace.mStartTimeMs < 0) {
+            trace.mStartTimeMs = SystemClock.elapsedRealtime() - mStartupTimeMs;
+        }
+        if (mStartingProfiles.remove(name) && mStartingProfiles.isEmpty()) {
+            dispatchNextWave();
+        }
+    }
+
+    /**
+     * Start the deferred profiles, to be called once the adapter reached BREDR_STARTED.
+     */
+    synchronized void startDeferredProfiles() {
+        List<Class> deferred = new ArrayList<>(mDeferredProfiles);
+        mDeferredProfiles.clear();
+        for (Class profile : deferred) {
+            dispatch(profile);
+        }
+    }
+
+    /**
+     * Number of profiles of the last startup that are not needed to reach BREDR_STARTED.
+     */
+    synchronized int getDeferredProfileCount() {
+        return mDeferredProfileCount;
+    }
+
+    /**
+     * Forget the profiles not dispatched yet, e.g. because Bluetooth is turned off.
+     */
+    synchronized void cancel() {
+        mPendingWaves.clear();
+        mStartingProfiles.clear();
+        mDeferredProfiles.clear();
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Profile startup (deferred start "
+                + (mDeferEnabled ? "enabled" : "disabled") + "):");
+        for (Map.Entry<String, Trace> entry : mTraces.entrySet()) {
+            Trace trace = entry.getValue();
+            writer.println("  " + entry.getKey() + ": "
+                    + (trace.mWave < 0 ? "deferred" : "wave " + trace.mWave)
+                    + ", dispatched " + formatTime(trace.mDispatchTimeMs)
+                    + ", started " + formatTime(trace.mStartTimeMs));
+        }
+    }
+
+    @GuardedBy("this")
+    private void dispatchNextWave() {
+        List<Class> wave = mPendingWaves.poll();
+        if (wave == null) {
+            return;
+        }
+        for (Class profile : wave) {
+            mStartingProfiles.add(profile.getSimpleName());
+        }
+        for (Class profile : wave) {
+            dispatch(profile);
+        }
+    }
+
+    @GuardedBy("this")
+    private void dispatch(Class profile) {
+        Trace trace = mTraces.get(profile.getSimpleName());
+        if (trace != null) {
+            trace.mDispatchTimeMs = SystemClock.elapsedRealtime() - mStartupTimeMs;
+        }
+        Log.d(TAG, "Starting " + profile.getSimpleName());
+        mStarter.startProfile(profile);
+    }
+
+    /**
+     * Get the wave of each profile: one more than the latest wave of its dependencies.
+     */
+    @VisibleForTesting
+    static Map<Class, Integer> computeWaves(List<Class> profiles) {
+        Map<Class, Integer> waves = new HashMap<>();
+        for (Class profile : profiles) {
+            computeWave(profile, profiles, waves);
+        }
+        return waves;
+    }
+
+    private static int computeWave(Class profile, List<Class> profiles, Map<Class, Integer> waves) {
+        Integer wave = waves.get(profile);
+        if (wave != null) {
+            return wave;
+        }
+        int result = 0;
+        for (Class dependency : DEPENDENCIES.getOrDefault(profile, List.of())) {
+            if (profiles.contains(dependency)) {
+                result = Math.max(result, computeWave(dependency, profiles, waves) + 1);
+            }
+        }
+        waves.put(profile, result);
+        return result;
+    }
+
+    private static String formatTime(long timeMs) {
+        return timeMs < 0 ? "-" : "+" + timeMs + " ms";
+    }
+}
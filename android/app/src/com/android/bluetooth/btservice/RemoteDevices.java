@@ -24,6 +24,7 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothAssignedNumbers;
 import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothDeviceSnapshot;
 import android.bluetooth.BluetoothHeadset;
 import android.bluetooth.BluetoothHeadsetClient;
 import android.bluetooth.BluetoothProfile;
@@ -47,34 +48,57 @@ import com.android.bluetooth.R;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.bas.BatteryService;
 import com.android.bluetooth.hfp.HeadsetHalConstants;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 final class RemoteDevices {
     private static final boolean DBG = false;
     private static final String TAG = "BluetoothRemoteDevices";
 
-    // Maximum number of device properties to remember
-    private static final int MAX_DEVICE_QUEUE_SIZE = 200;
+    // Maximum number of device properties to remember, bonded and connected devices excluded
+    @VisibleForTesting
+    static final int MAX_DEVICE_QUEUE_SIZE = 200;
+    // Maximum estimated memory used by the device properties counted in MAX_DEVICE_QUEUE_SIZE
+    @VisibleForTesting
+    static final int MAX_DEVICE_QUEUE_MEMORY_BYTES = 128 * 1024;
+    // Estimated memory used by the properties of a device, excluding the strings and UUIDs
+    private static final int DEVICE_PROPERTIES_BASE_SIZE_BYTES = 256;
+    private static final int UUID_SIZE_BYTES = 48;
 
     private static BluetoothAdapter sAdapter;
     private static AdapterService sAdapterService;
-    private static ArrayList<BluetoothDevice> sSdpTracker;
-    private final Object mObject = new Object();
+    private static Set<BluetoothDevice> sSdpTracker;
 
     private static final int UUID_INTENT_DELAY = 6000;
     private static final int MESSAGE_UUID_INTENT = 1;
 
-    private final HashMap<String, DeviceProperties> mDevices;
-    private final HashMap<String, String> mDualDevicesMap;
-    private Queue<String> mDeviceQueue;
+    // Keyed by packed address, see packAddress(). Lookups never block, so that binder calls
+    // reading the properties do not delay the property callbacks from the stack.
+    private final Map<Long, DeviceProperties> mDevices;
+    // Identity address to main address of the consolidated devices
+    private final Map<Long, Long> mDualDevicesMap;
+    // Evictable devices, from the least to the most recently seen, with their estimated size.
+    // Only locked when a device is added, seen again or pinned, never by the property reads.
+    @GuardedBy("mDeviceQueue")
+    private final LinkedHashMap<Long, Integer> mDeviceQueue =
+            new LinkedHashMap<>(MAX_DEVICE_QUEUE_SIZE, 0.75f, /* accessOrder */ true);
+    @GuardedBy("mDeviceQueue")
+    private long mDeviceQueueMemoryBytes;
+    @GuardedBy("mDeviceQueue")
+    private int mEvictedDeviceCount;
+    // Devices with an ACL connection, which like bonded devices are never evicted
+    private final Set<Long> mConnectedDevices = ConcurrentHashMap.newKeySet();
 
     /**
      * Bluetooth HFP v1.8 specifies the Battery Charge indicator of AG can take values from
@@ -167,10 +191,9 @@ final class RemoteDevices {
     RemoteDevices(AdapterService service, Looper looper) {
         sAdapter = BluetoothAdapter.getDefaultAdapter();
         sAdapterService = service;
-        sSdpTracker = new ArrayList<BluetoothDevice>();
-        mDevices = new HashMap<String, DeviceProperties>();
-        mDualDevicesMap = new HashMap<String, String>();
-        mDeviceQueue = new LinkedList<String>();
+        sSdpTracker = ConcurrentHashMap.newKeySet();
+        mDevices = new ConcurrentHashMap<>();
+        mDualDevicesMap = new ConcurrentHashMap<>();
         mHandler = new RemoteDevicesHandler(looper);
     }
 
@@ -209,35 +232,30 @@ final class RemoteDevices {
             sSdpTracker.clear();
         }
 
-        synchronized (mDevices) {
-            if (mDevices != null) {
-                debugLog("reset(): Broadcasting ACL_DISCONNECTED");
-
-                mDevices.forEach((address, deviceProperties) -> {
-                    BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
+        synchronized (mDeviceQueue) {
+            debugLog("reset(): Broadcasting ACL_DISCONNECTED");
 
-                    debugLog("reset(): address=" + address + ", connected="
-                            + bluetoothDevice.isConnected());
+            mDevices.forEach((address, deviceProperties) -> {
+                BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
 
-                    if (bluetoothDevice.isConnected()) {
-                        Intent intent = new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED);
-                        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice);
-                        intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
-                                | Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
-                        sAdapterService.sendBroadcast(intent, AdapterService.BLUETOOTH_PERM);
-                    }
-                });
-                mDevices.clear();
-            }
-        }
+                debugLog("reset(): address=" + bluetoothDevice + ", connected="
+                        + bluetoothDevice.isConnected());
 
-        if (mDualDevicesMap != null) {
-            mDualDevicesMap.clear();
-        }
-
-        if (mDeviceQueue != null) {
+                if (bluetoothDevice.isConnected()) {
+                    Intent intent = new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+                    intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice);
+                    intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
+                            | Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
+                    sAdapterService.sendBroadcast(intent, AdapterService.BLUETOOTH_PERM);
+                }
+            });
+            mDevices.clear();
             mDeviceQueue.clear();
+            mDeviceQueueMemoryBytes = 0;
         }
+        mConnectedDevices.clear();
+
+        mDualDevicesMap.clear();
     }
 
     @Override
@@ -246,209 +264,355 @@ final class RemoteDevices {
     }
 
     DeviceProperties getDeviceProperties(BluetoothDevice device) {
-        synchronized (mDevices) {
-            String address = mDualDevicesMap.get(device.getAddress());
-            // If the device is not in the dual map, use its original address
-            if (address == null || mDevices.get(address) == null) {
-                address = device.getAddress();
-            }
-            return mDevices.get(address);
-        }
+        return getDeviceProperties(packAddress(device.getAddress()));
     }
 
     BluetoothDevice getDevice(byte[] address) {
-        String addressString = Utils.getAddressStringFromByte(address);
-        String deviceAddress = mDualDevicesMap.get(addressString);
-        // If the device is not in the dual map, use its original address
-        if (deviceAddress == null || mDevices.get(deviceAddress) == null) {
-            deviceAddress = addressString;
-        }
-
-        DeviceProperties prop = mDevices.get(deviceAddress);
+        DeviceProperties prop = getDeviceProperties(packAddress(address));
         if (prop != null) {
             return prop.getDevice();
         }
         return null;
     }
 
+    private DeviceProperties getDeviceProperties(long address) {
+        Long mainAddress = mDualDevicesMap.get(address);
+        // If the device is not in the dual map, use its original address
+        DeviceProperties prop = mainAddress == null ? null : mDevices.get(mainAddress);
+        return prop != null ? prop : mDevices.get(address);
+    }
+
     @VisibleForTesting
     DeviceProperties addDeviceProperties(byte[] address) {
-        synchronized (mDevices) {
-            DeviceProperties prop = new DeviceProperties();
-            prop.mDevice = sAdapter.getRemoteDevice(Utils.getAddressStringFromByte(address));
-            prop.mAddress = address;
-            String key = Utils.getAddressStringFromByte(address);
-            DeviceProperties pv = mDevices.put(key, prop);
-
-            if (pv == null) {
-                mDeviceQueue.offer(key);
-                if (mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE) {
-                    String deleteKey = mDeviceQueue.poll();
-                    for (BluetoothDevice device : sAdapterService.getBondedDevices()) {
-                        if (device.getAddress().equals(deleteKey)) {
-                            return prop;
-                        }
-                    }
-                    debugLog("Removing device " + deleteKey + " from property map");
-                    mDevices.remove(deleteKey);
-                }
-            }
+        String addressString = Utils.getAddressStringFromByte(address);
+        long key = packAddress(address);
+        DeviceProperties prop =
+                new DeviceProperties(sAdapter.getRemoteDevice(addressString), address, key);
+        synchronized (mDeviceQueue) {
+            mDevices.put(key, prop);
+            updateDeviceQueue(prop);
             return prop;
         }
     }
 
+    /**
+     * Mark a device as the most recently seen one, or remove it from the eviction queue if it
+     * is bonded or connected, then evict the least recently seen devices beyond the limits.
+     */
+    private void updateDeviceQueue(DeviceProperties prop) {
+        synchronized (mDeviceQueue) {
+            if (mDevices.get(prop.mKey) != prop) {
+                // Evicted or replaced meanwhile
+                return;
+            }
+            Integer previousSize;
+            if (prop.isBondingOrBonded() || mConnectedDevices.contains(prop.mKey)) {
+                previousSize = mDeviceQueue.remove(prop.mKey);
+            } else {
+                int size = prop.getEstimatedSize();
+                previousSize = mDeviceQueue.put(prop.mKey, size);
+                mDeviceQueueMemoryBytes += size;
+            }
+            if (previousSize != null) {
+                mDeviceQueueMemoryBytes -= previousSize;
+            }
+
+            Iterator<Map.Entry<Long, Integer>> eldest = mDeviceQueue.entrySet().iterator();
+            while (mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE
+                    || (mDeviceQueueMemoryBytes > MAX_DEVICE_QUEUE_MEMORY_BYTES
+                            && mDeviceQueue.size() > 1)) {
+                Map.Entry<Long, Integer> entry = eldest.next();
+                eldest.remove();
+                mDeviceQueueMemoryBytes -= entry.getValue();
+                mDevices.remove(entry.getKey());
+                mEvictedDeviceCount++;
+                debugLog("Removing device " + unpackAddress(entry.getKey())
+                        + " from property map");
+            }
+        }
+    }
+
+    /**
+     * Number of devices removed from the property map to respect the limits.
+     */
+    @VisibleForTesting
+    int getEvictedDeviceCount() {
+        synchronized (mDeviceQueue) {
+            return mEvictedDeviceCount;
+        }
+    }
+
+    /**
+     * Estimated memory used by the properties of the devices that can be evicted.
+     */
+    @VisibleForTesting
+    long getDeviceQueueMemoryBytes() {
+        synchronized (mDeviceQueue) {
+            return mDeviceQueueMemoryBytes;
+        }
+    }
+
+    /**
+     * Pack a Bluetooth address in the 48 lower bits of a long.
+     */
+    @VisibleForTesting
+    static long packAddress(byte[] address) {
+        long packed = 0;
+        for (int i = 0; i < 6; i++) {
+            packed = (packed << 8) | (address[i] & 0xFF);
+        }
+        return packed;
+    }
+
+    private static long packAddress(String address) {
+        return packAddress(Utils.getBytesFromAddress(address));
+    }
+
+    private static String unpackAddress(long address) {
+        byte[] bytes = new byte[6];
+        for (int i = 5; i >= 0; i--) {
+            bytes[i] = (byte) address;
+            address >>>= 8;
+        }
+        return Utils.getAddressStringFromByte(bytes);
+    }
+
+    /**
+     * Values of the properties of a device. A snapshot is never modified once published, the
+     * properties are updated by publishing a modified copy.
+     */
+    private static final class Snapshot {
+        String mName;
+        byte[] mAddress;
+        String mIdentityAddress;
+        boolean mIsConsolidated = false;
+        int mBluetoothClass = BluetoothClass.Device.Major.UNCATEGORIZED;
+        short mRssi;
+        String mAlias;
+        boolean mIsBondingInitiatedLocally;
+        int mBatteryLevel = BluetoothDevice.BATTERY_LEVEL_UNKNOWN;
+        boolean mIsCoordinatedSetMember;
+        int mBondState = BluetoothDevice.BOND_NONE;
+        int mDeviceType;
+        ParcelUuid[] mUuids;
+        BluetoothSinkAudioPolicy mAudioPolicy;
+
+        Snapshot copy() {
+            Snapshot copy = new Snapshot();
+            copy.mName = mName;
+            copy.mAddress = mAddress;
+            copy.mIdentityAddress = mIdentityAddress;
+            copy.mIsConsolidated = mIsConsolidated;
+            copy.mBluetoothClass = mBluetoothClass;
+            copy.mRssi = mRssi;
+            copy.mAlias = mAlias;
+            copy.mIsBondingInitiatedLocally = mIsBondingInitiatedLocally;
+            copy.mBatteryLevel = mBatteryLevel;
+            copy.mIsCoordinatedSetMember = mIsCoordinatedSetMember;
+            copy.mBondState = mBondState;
+            copy.mDeviceType = mDeviceType;
+            copy.mUuids = mUuids;
+            copy.mAudioPolicy = mAudioPolicy;
+            return copy;
+        }
+    }
+
     class DeviceProperties {
-        private String mName;
-        private byte[] mAddress;
-        private String mIdentityAddress;
-        private boolean mIsConsolidated = false;
-        private int mBluetoothClass = BluetoothClass.Device.Major.UNCATEGORIZED;
-        private short mRssi;
-        private String mAlias;
-        private BluetoothDevice mDevice;
-        private boolean mIsBondingInitiatedLocally;
-        private int mBatteryLevel = BluetoothDevice.BATTERY_LEVEL_UNKNOWN;
-        private boolean mIsCoordinatedSetMember;
-        @VisibleForTesting int mBondState;
-        @VisibleForTesting int mDeviceType;
-        @VisibleForTesting ParcelUuid[] mUuids;
-        private BluetoothSinkAudioPolicy mAudioPolicy;
-
-        DeviceProperties() {
-            mBondState = BluetoothDevice.BOND_NONE;
+        private final BluetoothDevice mDevice;
+        // Packed address of the device in mDevices
+        private final long mKey;
+        private final AtomicReference<Snapshot> mSnapshot;
+
+        DeviceProperties(BluetoothDevice device, byte[] address, long key) {
+            mDevice = device;
+            mKey = key;
+            Snapshot snapshot = new Snapshot();
+            snapshot.mAddress = address;
+            mSnapshot = new AtomicReference<>(snapshot);
+        }
+
+        /**
+         * Atomically apply an update to a copy of the current snapshot and publish it. The
+         * updater may be called several times when there are concurrent updates, so it must not
+         * have side effects.
+         *
+         * @return the snapshot replaced by the update
+         */
+        private Snapshot update(Consumer<Snapshot> updater) {
+            while (true) {
+                Snapshot current = mSnapshot.get();
+                Snapshot next = current.copy();
+                updater.accept(next);
+                if (mSnapshot.compareAndSet(current, next)) {
+                    return current;
+                }
+            }
         }
 
         /**
          * @return the mName
          */
         String getName() {
-            synchronized (mObject) {
-                return mName;
-            }
+            return mSnapshot.get().mName;
+        }
+
+        /**
+         * @return the previous name
+         */
+        private String setName(String name) {
+            return update(s -> s.mName = name).mName;
         }
 
         /**
          * @return the mIdentityAddress
          */
         String getIdentityAddress() {
-            synchronized (mObject) {
-                return mIdentityAddress;
-            }
+            return mSnapshot.get().mIdentityAddress;
+        }
+
+        private void setIdentityAddress(String identityAddress) {
+            update(s -> s.mIdentityAddress = identityAddress);
         }
 
         /**
          * @return mIsConsolidated
          */
         boolean isConsolidated() {
-            synchronized (mObject) {
-                return mIsConsolidated;
-            }
+            return mSnapshot.get().mIsConsolidated;
+        }
+
+        /**
+         * Mark the device as a dual mode device known by its identity address.
+         */
+        private void setConsolidated(String identityAddress) {
+            update(s -> {
+                s.mIsConsolidated = true;
+                s.mDeviceType = BluetoothDevice.DEVICE_TYPE_DUAL;
+                s.mIdentityAddress = identityAddress;
+            });
         }
 
         /**
          * @return the mClass
          */
         int getBluetoothClass() {
-            synchronized (mObject) {
-                return mBluetoothClass;
-            }
+            return mSnapshot.get().mBluetoothClass;
+        }
+
+        /**
+         * @return the previous class
+         */
+        private int setBluetoothClass(int bluetoothClass) {
+            return update(s -> s.mBluetoothClass = bluetoothClass).mBluetoothClass;
         }
 
         /**
          * @return the mUuids
          */
         ParcelUuid[] getUuids() {
-            synchronized (mObject) {
-                return mUuids;
-            }
+            return mSnapshot.get().mUuids;
+        }
+
+        /**
+         * @return the previous UUIDs
+         */
+        @VisibleForTesting
+        ParcelUuid[] setUuids(ParcelUuid[] uuids) {
+            return update(s -> s.mUuids = uuids).mUuids;
         }
 
         /**
          * @return the mAddress
          */
         byte[] getAddress() {
-            synchronized (mObject) {
-                return mAddress;
-            }
+            return mSnapshot.get().mAddress;
         }
 
         /**
          * @return the mDevice
          */
         BluetoothDevice getDevice() {
-            synchronized (mObject) {
-                return mDevice;
-            }
+            return mDevice;
         }
 
         /**
          * @return mRssi
          */
         short getRssi() {
-            synchronized (mObject) {
-                return mRssi;
-            }
+            return mSnapshot.get().mRssi;
         }
         /**
          * @return mDeviceType
          */
         int getDeviceType() {
-            synchronized (mObject) {
-                return mDeviceType;
-            }
+            return mSnapshot.get().mDeviceType;
+        }
+
+        @VisibleForTesting
+        void setDeviceType(int deviceType) {
+            update(s -> s.mDeviceType = deviceType);
         }
 
         /**
          * @return the mAlias
          */
         String getAlias() {
-            synchronized (mObject) {
-                return mAlias;
-            }
+            return mSnapshot.get().mAlias;
         }
 
         /**
-         * @param mAlias the mAlias to set
+         * @param alias the mAlias to set
          */
-        void setAlias(BluetoothDevice device, String mAlias) {
-            synchronized (mObject) {
-                this.mAlias = mAlias;
-                sAdapterService.setDevicePropertyNative(mAddress,
-                        AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME, mAlias.getBytes());
-                Intent intent = new Intent(BluetoothDevice.ACTION_ALIAS_CHANGED);
-                intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
-                intent.putExtra(BluetoothDevice.EXTRA_NAME, mAlias);
-                sAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT,
-                        Utils.getTempAllowlistBroadcastOptions());
-            }
+        void setAlias(BluetoothDevice device, String alias) {
+            Snapshot previous = update(s -> s.mAlias = alias);
+            sAdapterService.setDevicePropertyNative(previous.mAddress,
+                    AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME, alias.getBytes());
+            Intent intent = new Intent(BluetoothDevice.ACTION_ALIAS_CHANGED);
+            intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
+            intent.putExtra(BluetoothDevice.EXTRA_NAME, alias);
+            sAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT,
+                    Utils.getTempAllowlistBroadcastOptions());
+            sAdapterService.deviceSnapshotChanged(device, BluetoothDeviceSnapshot.FIELD_ALIAS);
         }
 
         /**
-         * @param mBondState the mBondState to set
+         * @param newBondState the mBondState to set
          */
         void setBondState(int newBondState) {
-            synchronized (mObject) {
-                if ((mBondState == BluetoothDevice.BOND_BONDED
+            Snapshot previous = update(s -> {
+                if ((s.mBondState == BluetoothDevice.BOND_BONDED
                         && newBondState == BluetoothDevice.BOND_BONDING)
                         || newBondState == BluetoothDevice.BOND_NONE) {
                     /* Clearing the Uuids local copy when the device is unpaired. If not cleared,
                     cachedBluetoothDevice issued a connect using the local cached copy of uuids,
                     without waiting for the ACTION_UUID intent.
                     This was resulting in multiple calls to connect().*/
-                    mUuids = null;
-                    mAlias = null;
+                    s.mUuids = null;
+                    s.mAlias = null;
                 }
-                mBondState = newBondState;
+                s.mBondState = newBondState;
+            });
+            // Bonded devices are never evicted
+            updateDeviceQueue(this);
+            if (previous.mBondState != newBondState) {
+                sAdapterService.deviceSnapshotChanged(mDevice,
+                        BluetoothDeviceSnapshot.FIELD_BOND_STATE);
             }
         }
 
+        /**
+         * Set the bond state without clearing the UUIDs and alias.
+         */
+        @VisibleForTesting
+        void setBondStateForTesting(int bondState) {
+            update(s -> s.mBondState = bondState);
+        }
+
         /**
          * @return the mBondState
          */
         int getBondState() {
-            synchronized (mObject) {
-                return mBondState;
-            }
+            return mSnapshot.get().mBondState;
         }
 
         boolean isBonding() {
@@ -463,57 +627,90 @@ final class RemoteDevices {
          * @param isBondingInitiatedLocally wether bonding is initiated locally
          */
         void setBondingInitiatedLocally(boolean isBondingInitiatedLocally) {
-            synchronized (mObject) {
-                this.mIsBondingInitiatedLocally = isBondingInitiatedLocally;
-            }
+            update(s -> s.mIsBondingInitiatedLocally = isBondingInitiatedLocally);
         }
 
         /**
          * @return the isBondingInitiatedLocally
          */
         boolean isBondingInitiatedLocally() {
-            synchronized (mObject) {
-                return mIsBondingInitiatedLocally;
-            }
+            return mSnapshot.get().mIsBondingInitiatedLocally;
         }
 
         int getBatteryLevel() {
-            synchronized (mObject) {
-                return mBatteryLevel;
-            }
+            return mSnapshot.get().mBatteryLevel;
         }
 
         /**
          * @param batteryLevel the mBatteryLevel to set
+         * @return the previous battery level
          */
-        void setBatteryLevel(int batteryLevel) {
-            synchronized (mObject) {
-                this.mBatteryLevel = batteryLevel;
-            }
+        int setBatteryLevel(int batteryLevel) {
+            return update(s -> s.mBatteryLevel = batteryLevel).mBatteryLevel;
         }
 
         /**
          * @return the mIsCoordinatedSetMember
         */
         private boolean isCoordinatedSetMember() {
-            synchronized (mObject) {
-                return mIsCoordinatedSetMember;
-            }
+            return mSnapshot.get().mIsCoordinatedSetMember;
         }
 
         public void setHfAudioPolicyForRemoteAg(BluetoothSinkAudioPolicy policies) {
-            mAudioPolicy = policies;
+            update(s -> s.mAudioPolicy = policies);
         }
 
         public BluetoothSinkAudioPolicy getHfAudioPolicyForRemoteAg() {
-            return mAudioPolicy;
+            return mSnapshot.get().mAudioPolicy;
+        }
+
+        /**
+         * Fill a device snapshot with the selected properties, all read from the same values.
+         */
+        void fillDeviceSnapshot(BluetoothDeviceSnapshot.Builder builder, int fields) {
+            Snapshot snapshot = mSnapshot.get();
+            if ((fields & BluetoothDeviceSnapshot.FIELD_NAME) != 0) {
+                builder.setName(snapshot.mName);
+            }
+            if ((fields & BluetoothDeviceSnapshot.FIELD_ALIAS) != 0) {
+                builder.setAlias(snapshot.mAlias);
+            }
+            if ((fields & BluetoothDeviceSnapshot.FIELD_BOND_STATE) != 0) {
+                builder.setBondState(snapshot.mBondState);
+            }
+            if ((fields & BluetoothDeviceSnapshot.FIELD_UUIDS) != 0) {
+                builder.setUuids(snapshot.mUuids);
+            }
+            if ((fields & BluetoothDeviceSnapshot.FIELD_BLUETOOTH_CLASS) != 0) {
+                builder.setBluetoothClass(new BluetoothClass(snapshot.mBluetoothClass));
+            }
+            if ((fields & BluetoothDeviceSnapshot.FIELD_BATTERY_LEVEL) != 0) {
+                builder.setBatteryLevel(snapshot.mBatteryLevel);
+            }
+        }
+
+        /**
+         * @return a rough estimate of the memory used by the properties, in bytes
+         */
+        int getEstimatedSize() {
+            Snapshot snapshot = mSnapshot.get();
+            int size = DEVICE_PROPERTIES_BASE_SIZE_BYTES + getStringSize(snapshot.mName)
+                    + getStringSize(snapshot.mAlias) + getStringSize(snapshot.mIdentityAddress);
+            if (snapshot.mUuids != null) {
+                size += snapshot.mUuids.length * UUID_SIZE_BYTES;
+            }
+            return size;
+        }
+
+        private int getStringSize(String string) {
+            return string == null ? 0 : 2 * string.length();
         }
     }
 
     private void sendUuidIntent(BluetoothDevice device, DeviceProperties prop) {
         Intent intent = new Intent(BluetoothDevice.ACTION_UUID);
         intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
-        intent.putExtra(BluetoothDevice.EXTRA_UUID, prop == null ? null : prop.mUuids);
+        intent.putExtra(BluetoothDevice.EXTRA_UUID, prop == null ? null : prop.getUuids());
         sAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT,
                 Utils.getTempAllowlistBroadcastOptions());
 
@@ -556,16 +753,14 @@ final class RemoteDevices {
         if (deviceProperties == null) {
             deviceProperties = addDeviceProperties(Utils.getByteAddress(device));
         }
-        synchronized (mObject) {
-            int currentBatteryLevel = deviceProperties.getBatteryLevel();
-            if (batteryLevel == currentBatteryLevel) {
-                debugLog("Same battery level for device " + device + " received " + String.valueOf(
-                        batteryLevel) + "%");
-                return;
-            }
-            deviceProperties.setBatteryLevel(batteryLevel);
+        if (deviceProperties.setBatteryLevel(batteryLevel) == batteryLevel) {
+            debugLog("Same battery level for device " + device + " received " + String.valueOf(
+                    batteryLevel) + "%");
+            return;
         }
         sendBatteryLevelChangedBroadcast(device, batteryLevel);
+        sAdapterService.deviceSnapshotChanged(device,
+                BluetoothDeviceSnapshot.FIELD_BATTERY_LEVEL);
         Log.d(TAG, "Updated device " + device + " battery level to " + batteryLevel + "%");
     }
 
@@ -583,14 +778,14 @@ final class RemoteDevices {
         if (deviceProperties == null) {
             return;
         }
-        synchronized (mObject) {
-            if (deviceProperties.getBatteryLevel() == BluetoothDevice.BATTERY_LEVEL_UNKNOWN) {
-                debugLog("Battery level was never set or is already reset, device=" + device);
-                return;
-            }
-            deviceProperties.setBatteryLevel(BluetoothDevice.BATTERY_LEVEL_UNKNOWN);
+        if (deviceProperties.setBatteryLevel(BluetoothDevice.BATTERY_LEVEL_UNKNOWN)
+                == BluetoothDevice.BATTERY_LEVEL_UNKNOWN) {
+            debugLog("Battery level was never set or is already reset, device=" + device);
+            return;
         }
         sendBatteryLevelChangedBroadcast(device, BluetoothDevice.BATTERY_LEVEL_UNKNOWN);
+        sAdapterService.deviceSnapshotChanged(device,
+                BluetoothDeviceSnapshot.FIELD_BATTERY_LEVEL);
         Log.d(TAG, "Reset battery level, device=" + device);
     }
 
@@ -653,9 +848,6 @@ final class RemoteDevices {
     }
 
     void devicePropertyChangedCallback(byte[] address, int[] types, byte[][] values) {
-        Intent intent;
-        byte[] val;
-        int type;
         BluetoothDevice bdDevice = getDevice(address);
         DeviceProperties device;
         if (bdDevice == null) {
@@ -671,87 +863,115 @@ final class RemoteDevices {
             return;
         }
 
+        // Refresh the position of the device in the eviction queue once its size is updated
+        int changedFields;
+        try {
+            changedFields = updateProperties(device, bdDevice, types, values);
+        } finally {
+            updateDeviceQueue(device);
+        }
+        if (changedFields != 0) {
+            sAdapterService.deviceSnapshotChanged(bdDevice, changedFields);
+        }
+    }
+
+    /**
+     * @return the {@link BluetoothDeviceSnapshot} fields of the properties that changed
+     */
+    private int updateProperties(DeviceProperties device, BluetoothDevice bdDevice, int[] types,
+            byte[][] values) {
+        Intent intent;
+        byte[] val;
+        int type;
+        int changedFields = 0;
+
         for (int j = 0; j < types.length; j++) {
             type = types[j];
             val = values[j];
             if (val.length > 0) {
-                synchronized (mObject) {
-                    debugLog("Property type: " + type);
-                    switch (type) {
-                        case AbstractionLayer.BT_PROPERTY_BDNAME:
-                            final String newName = new String(val);
-                            if (newName.equals(device.mName)) {
-                                debugLog("Skip name update for " + bdDevice);
-                                break;
-                            }
-                            device.mName = newName;
-                            intent = new Intent(BluetoothDevice.ACTION_NAME_CHANGED);
-                            intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
-                            intent.putExtra(BluetoothDevice.EXTRA_NAME, device.mName);
-                            intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT);
-                            sAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT,
-                                    Utils.getTempAllowlistBroadcastOptions());
-                            debugLog("Remote Device name is: " + device.mName);
+                debugLog("Property type: " + type);
+                switch (type) {
+                    case AbstractionLayer.BT_PROPERTY_BDNAME:
+                        final String newName = new String(val);
+                        if (newName.equals(device.setName(newName))) {
+                            debugLog("Skip name update for " + bdDevice);
                             break;
-                        case AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME:
-                            device.mAlias = new String(val);
-                            debugLog("Remote device alias is: " + device.mAlias);
-                            break;
-                        case AbstractionLayer.BT_PROPERTY_BDADDR:
-                            device.mAddress = val;
-                            debugLog("Remote Address is:" + Utils.getAddressStringFromByte(val));
-                            break;
-                        case AbstractionLayer.BT_PROPERTY_CLASS_OF_DEVICE:
-                            final int newClass = Utils.byteArrayToInt(val);
-                            if (newClass == device.mBluetoothClass) {
-                                debugLog("Skip class update for " + bdDevice);
-                                break;
-                            }
-                            device.mBluetoothClass = Utils.byteArrayToInt(val);
-                            intent = new Intent(BluetoothDevice.ACTION_CLASS_CHANGED);
-                            intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
-                            intent.putExtra(BluetoothDevice.EXTRA_CLASS,
-                                    new BluetoothClass(device.mBluetoothClass));
-                            intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT);
-                            sAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT,
-                                    Utils.getTempAllowlistBroadcastOptions());
-                            debugLog("Remote class is:" + device.mBluetoothClass);
+                        }
+                        intent = new Intent(BluetoothDevice.ACTION_NAME_CHANGED);
+                        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
+                        intent.putExtra(BluetoothDevice.EXTRA_NAME, newName);
+                        intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT);
+                        sAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT,
+                                Utils.getTempAllowlistBroadcastOptions());
+                        changedFields |= BluetoothDeviceSnapshot.FIELD_NAME;
+                        debugLog("Remote Device name is: " + newName);
+                        break;
+                    case AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME:
+                        final String alias = new String(val);
+                        if (!alias.equals(device.update(s -> s.mAlias = alias).mAlias)) {
+                            changedFields |= BluetoothDeviceSnapshot.FIELD_ALIAS;
+                        }
+                        debugLog("Remote device alias is: " + alias);
+                        break;
+                    case AbstractionLayer.BT_PROPERTY_BDADDR:
+                        final byte[] newAddress = val;
+                        device.update(s -> s.mAddress = newAddress);
+                        debugLog("Remote Address is:" + Utils.getAddressStringFromByte(val));
+                        break;
+                    case AbstractionLayer.BT_PROPERTY_CLASS_OF_DEVICE:
+                        final int newClass = Utils.byteArrayToInt(val);
+                        if (newClass == device.setBluetoothClass(newClass)) {
+                            debugLog("Skip class update for " + bdDevice);
                             break;
-                        case AbstractionLayer.BT_PROPERTY_UUIDS:
-                            int numUuids = val.length / AbstractionLayer.BT_UUID_SIZE;
-                            final ParcelUuid[] newUuids = Utils.byteArrayToUuid(val);
-                            if (areUuidsEqual(newUuids, device.mUuids)) {
-                                debugLog( "Skip uuids update for " + bdDevice.getAddress());
-                                break;
-                            }
-                            device.mUuids = newUuids;
-                            if (sAdapterService.getState() == BluetoothAdapter.STATE_ON) {
-                                sAdapterService.deviceUuidUpdated(bdDevice);
-                                sendUuidIntent(bdDevice, device);
-                            } else if (sAdapterService.getState()
-                                    == BluetoothAdapter.STATE_BLE_ON) {
-                                sAdapterService.deviceUuidUpdated(bdDevice);
-                            }
+                        }
+                        intent = new Intent(BluetoothDevice.ACTION_CLASS_CHANGED);
+                        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
+                        intent.putExtra(BluetoothDevice.EXTRA_CLASS,
+                                new BluetoothClass(newClass));
+                        intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT);
+                        sAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT,
+                                Utils.getTempAllowlistBroadcastOptions());
+                        changedFields |= BluetoothDeviceSnapshot.FIELD_BLUETOOTH_CLASS;
+                        debugLog("Remote class is:" + newClass);
+                        break;
+                    case AbstractionLayer.BT_PROPERTY_UUIDS:
+                        final ParcelUuid[] newUuids = Utils.byteArrayToUuid(val);
+                        if (areUuidsEqual(newUuids, device.setUuids(newUuids))) {
+                            debugLog("Skip uuids update for " + bdDevice.getAddress());
                             break;
-                        case AbstractionLayer.BT_PROPERTY_TYPE_OF_DEVICE:
-                            if (device.isConsolidated()) {
-                                break;
+                        }
+                        changedFields |= BluetoothDeviceSnapshot.FIELD_UUIDS;
+                        if (sAdapterService.getState() == BluetoothAdapter.STATE_ON) {
+                            sAdapterService.deviceUuidUpdated(bdDevice);
+                            sendUuidIntent(bdDevice, device);
+                        } else if (sAdapterService.getState()
+                                == BluetoothAdapter.STATE_BLE_ON) {
+                            sAdapterService.deviceUuidUpdated(bdDevice);
+                        }
+                        break;
+                    case AbstractionLayer.BT_PROPERTY_TYPE_OF_DEVICE:
+                        // The device type from hal layer, defined in bluetooth.h,
+                        // matches the type defined in BluetoothDevice.java
+                        final int deviceType = Utils.byteArrayToInt(val);
+                        device.update(s -> {
+                            if (!s.mIsConsolidated) {
+                                s.mDeviceType = deviceType;
                             }
-                            // The device type from hal layer, defined in bluetooth.h,
-                            // matches the type defined in BluetoothDevice.java
-                            device.mDeviceType = Utils.byteArrayToInt(val);
-                            break;
-                        case AbstractionLayer.BT_PROPERTY_REMOTE_RSSI:
-                            // RSSI from hal is in one byte
-                            device.mRssi = val[0];
-                            break;
-                        case AbstractionLayer.BT_PROPERTY_REMOTE_IS_COORDINATED_SET_MEMBER:
-                            device.mIsCoordinatedSetMember = (boolean) (val[0] != 0);
-                            break;
-                    }
+                        });
+                        break;
+                    case AbstractionLayer.BT_PROPERTY_REMOTE_RSSI:
+                        // RSSI from hal is in one byte
+                        final short rssi = val[0];
+                        device.update(s -> s.mRssi = rssi);
+                        break;
+                    case AbstractionLayer.BT_PROPERTY_REMOTE_IS_COORDINATED_SET_MEMBER:
+                        final boolean isCoordinatedSetMember = val[0] != 0;
+                        device.update(s -> s.mIsCoordinatedSetMember = isCoordinatedSetMember);
+                        break;
                 }
             }
         }
+        return changedFields;
     }
 
     void deviceFoundCallback(byte[] address) {
@@ -764,9 +984,11 @@ final class RemoteDevices {
             errorLog("Device Properties is null for Device:" + device);
             return;
         }
+        // Use a single snapshot so that the intent is consistent
+        Snapshot snapshot = deviceProp.mSnapshot.get();
         boolean restrict_device_found =
                 SystemProperties.getBoolean("bluetooth.restrict_discovered_device.enabled", false);
-        if (restrict_device_found && (deviceProp.mName == null || deviceProp.mName.isEmpty())) {
+        if (restrict_device_found && (snapshot.mName == null || snapshot.mName.isEmpty())) {
             debugLog("Device name is null or empty: " + device);
             return;
         }
@@ -774,11 +996,11 @@ final class RemoteDevices {
         Intent intent = new Intent(BluetoothDevice.ACTION_FOUND);
         intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
         intent.putExtra(BluetoothDevice.EXTRA_CLASS,
-                new BluetoothClass(deviceProp.mBluetoothClass));
-        intent.putExtra(BluetoothDevice.EXTRA_RSSI, deviceProp.mRssi);
-        intent.putExtra(BluetoothDevice.EXTRA_NAME, deviceProp.mName);
+                new BluetoothClass(snapshot.mBluetoothClass));
+        intent.putExtra(BluetoothDevice.EXTRA_RSSI, snapshot.mRssi);
+        intent.putExtra(BluetoothDevice.EXTRA_NAME, snapshot.mName);
         intent.putExtra(BluetoothDevice.EXTRA_IS_COORDINATED_SET_MEMBER,
-                deviceProp.mIsCoordinatedSetMember);
+                snapshot.mIsCoordinatedSetMember);
 
         final ArrayList<DiscoveringPackage> packages = sAdapterService.getDiscoveringPackages();
         synchronized (packages) {
@@ -816,10 +1038,8 @@ final class RemoteDevices {
                 + Utils.getAddressStringFromByte(secondaryAddress));
 
         DeviceProperties deviceProperties = getDeviceProperties(device);
-        deviceProperties.mIsConsolidated = true;
-        deviceProperties.mDeviceType = BluetoothDevice.DEVICE_TYPE_DUAL;
-        deviceProperties.mIdentityAddress = Utils.getAddressStringFromByte(secondaryAddress);
-        mDualDevicesMap.put(deviceProperties.getIdentityAddress(), Utils.getAddressStringFromByte(mainAddress));
+        deviceProperties.setConsolidated(Utils.getAddressStringFromByte(secondaryAddress));
+        mDualDevicesMap.put(packAddress(secondaryAddress), packAddress(mainAddress));
     }
 
     /**
@@ -840,7 +1060,7 @@ final class RemoteDevices {
                 + Utils.getAddressStringFromByte(secondaryAddress));
 
         DeviceProperties deviceProperties = getDeviceProperties(device);
-        deviceProperties.mIdentityAddress = Utils.getAddressStringFromByte(secondaryAddress);
+        deviceProperties.setIdentityAddress(Utils.getAddressStringFromByte(secondaryAddress));
     }
 
     void aclStateChangeCallback(int status, byte[] address, int newState,
@@ -853,9 +1073,15 @@ final class RemoteDevices {
             return;
         }
         int state = sAdapterService.getState();
+        DeviceProperties deviceProperties = getDeviceProperties(device);
 
         Intent intent = null;
         if (newState == AbstractionLayer.BT_ACL_STATE_CONNECTED) {
+            if (deviceProperties != null) {
+                // Connected devices are never evicted
+                mConnectedDevices.add(deviceProperties.mKey);
+                updateDeviceQueue(deviceProperties);
+            }
             if (state == BluetoothAdapter.STATE_ON || state == BluetoothAdapter.STATE_TURNING_ON) {
                 intent = new Intent(BluetoothDevice.ACTION_ACL_CONNECTED);
                 intent.putExtra(BluetoothDevice.EXTRA_TRANSPORT, transportLinkType);
@@ -895,6 +1121,10 @@ final class RemoteDevices {
                     batteryService.disconnect(device);
                 }
                 resetBatteryLevel(device);
+                if (deviceProperties != null
+                        && mConnectedDevices.remove(deviceProperties.mKey)) {
+                    updateDeviceQueue(deviceProperties);
+                }
             }
             if (!sAdapterService.isAnyProfileEnabled(device)) {
                 DeviceProperties deviceProp = getDeviceProperties(device);
@@ -959,18 +1189,16 @@ final class RemoteDevices {
 
 
     void fetchUuids(BluetoothDevice device, int transport) {
-        if (sSdpTracker.contains(device)) {
-            return;
-        }
-
         // If no UUIDs are cached and the device is bonding, wait for SDP after the device is bonded
         DeviceProperties deviceProperties = getDeviceProperties(device);
         if (deviceProperties != null && deviceProperties.isBonding()
-                && getDeviceProperties(device).getUuids() == null) {
+                && deviceProperties.getUuids() == null) {
             return;
         }
 
-        sSdpTracker.add(device);
+        if (!sSdpTracker.add(device)) {
+            return;
+        }
 
         Message message = mHandler.obtainMessage(MESSAGE_UUID_INTENT);
         message.obj = device;
@@ -19,14 +19,9 @@ package com.android.bluetooth.btservice;
 import static android.Manifest.permission.BLUETOOTH_CONNECT;
 
 import android.annotation.RequiresPermission;
-import android.bluetooth.BluetoothA2dp;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothHeadset;
 import android.bluetooth.BluetoothProfile;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
@@ -81,34 +76,37 @@ public class SilenceDeviceManager {
     private static final int ENABLE_SILENCE = 0;
     private static final int DISABLE_SILENCE = 1;
 
-    // Broadcast receiver for all changes
-    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+    // Listener for A2DP and HFP connection state and active device changes
+    private final ProfileEventBus.Listener mProfileEventListener = new ProfileEventBus.Listener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-            if (action == null) {
-                Log.e(TAG, "Received intent with null action");
-                return;
-            }
-            switch (action) {
-                case BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED:
+        public void onConnectionStateChanged(int profile, BluetoothDevice device,
+                int fromState, int toState) {
+            switch (profile) {
+                case BluetoothProfile.A2DP:
                     mHandler.obtainMessage(MSG_A2DP_CONNECTION_STATE_CHANGED,
-                                           intent).sendToTarget();
+                                           fromState, toState, device).sendToTarget();
                     break;
-                case BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED:
+                case BluetoothProfile.HEADSET:
                     mHandler.obtainMessage(MSG_HFP_CONNECTION_STATE_CHANGED,
-                                           intent).sendToTarget();
+                                           fromState, toState, device).sendToTarget();
                     break;
-                case BluetoothA2dp.ACTION_ACTIVE_DEVICE_CHANGED:
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onActiveDeviceChanged(int profile, BluetoothDevice device) {
+            switch (profile) {
+                case BluetoothProfile.A2DP:
                     mHandler.obtainMessage(MSG_A2DP_ACTIVE_DEIVCE_CHANGED,
-                                           intent).sendToTarget();
+                                           device).sendToTarget();
                     break;
-                case BluetoothHeadset.ACTION_ACTIVE_DEVICE_CHANGED:
+                case BluetoothProfile.HEADSET:
                     mHandler.obtainMessage(MSG_HFP_ACTIVE_DEVICE_CHANGED,
-                        intent).sendToTarget();
+                        device).sendToTarget();
                     break;
                 default:
-                    Log.e(TAG, "Received unexpected intent, action=" + action);
                     break;
             }
         }
@@ -133,11 +131,9 @@ public class SilenceDeviceManager {
                 break;
 
                 case MSG_A2DP_CONNECTION_STATE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    int prevState = intent.getIntExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, -1);
-                    int nextState = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
+                    int prevState = msg.arg1;
+                    int nextState = msg.arg2;
 
                     if (nextState == BluetoothProfile.STATE_CONNECTED) {
                         // enter connected state
@@ -157,11 +153,9 @@ public class SilenceDeviceManager {
                 break;
 
                 case MSG_HFP_CONNECTION_STATE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    int prevState = intent.getIntExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, -1);
-                    int nextState = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
+                    BluetoothDevice device = (BluetoothDevice) msg.obj;
+                    int prevState = msg.arg1;
+                    int nextState = msg.arg2;
 
                     if (nextState == BluetoothProfile.STATE_CONNECTED) {
                         // enter connected state
@@ -181,9 +175,7 @@ public class SilenceDeviceManager {
                 break;
 
                 case MSG_A2DP_ACTIVE_DEIVCE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice a2dpActiveDevice =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    BluetoothDevice a2dpActiveDevice = (BluetoothDevice) msg.obj;
                     if (getSilenceMode(a2dpActiveDevice)) {
                         // Resume the device from silence mode.
                         setSilenceMode(a2dpActiveDevice, false);
@@ -192,9 +184,7 @@ public class SilenceDeviceManager {
                 break;
 
                 case MSG_HFP_ACTIVE_DEVICE_CHANGED: {
-                    Intent intent = (Intent) msg.obj;
-                    BluetoothDevice hfpActiveDevice =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    BluetoothDevice hfpActiveDevice = (BluetoothDevice) msg.obj;
                     if (getSilenceMode(hfpActiveDevice)) {
                         // Resume the device from silence mode.
                         setSilenceMode(hfpActiveDevice, false);
@@ -221,12 +211,8 @@ public class SilenceDeviceManager {
             Log.v(TAG, "start()");
         }
         mHandler = new SilenceDeviceManagerHandler(mLooper);
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
-        filter.addAction(BluetoothA2dp.ACTION_ACTIVE_DEVICE_CHANGED);
-        filter.addAction(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
-        filter.addAction(BluetoothHeadset.ACTION_ACTIVE_DEVICE_CHANGED);
-        mAdapterService.registerReceiver(mReceiver, filter);
+        mAdapterService.getProfileEventBus().registerListener(mProfileEventListener,
+                Runnable::run);
     }
 
     void cleanup() {
@@ -234,7 +220,7 @@ public class SilenceDeviceManager {
             Log.v(TAG, "cleanup()");
         }
         mSilenceDevices.clear();
-        mAdapterService.unregisterReceiver(mReceiver);
+        mAdapterService.getProfileEventBus().unregisterListener(mProfileEventListener);
     }
 
     @VisibleForTesting
@@ -346,7 +332,7 @@ public class SilenceDeviceManager {
     }
 
     @VisibleForTesting
-    BroadcastReceiver getBroadcastReceiver() {
-        return mReceiver;
+    ProfileEventBus.Listener getProfileEventListener() {
+        return mProfileEventListener;
     }
 }
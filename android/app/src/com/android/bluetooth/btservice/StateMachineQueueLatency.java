@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-device statistics of the time the messages of the state machines of a profile wait in the
+ * queue of their thread before being handled.
+ *
+ * The state machines of a profile usually share one thread, so a device that is slow to handle
+ * its messages delays all the others. These statistics show which devices are affected, see
+ * {@link #onMessageDispatched}.
+ */
+public class StateMachineQueueLatency {
+    private static final String TAG = "BluetoothStateMachineQueueLatency";
+    // Queue latencies above this are logged when they are a new maximum for the device
+    private static final long SLOW_DISPATCH_THRESHOLD_MS = 100;
+
+    private final String mName;
+    private final Map<BluetoothDevice, QueueLatency> mQueueLatencies = new ConcurrentHashMap<>();
+
+    /**
+     * @param name name of the thread the state machines run on, used in the dump
+     */
+    public StateMachineQueueLatency(String name) {
+        mName = name;
+    }
+
+    /**
+     * Record that a message of a device is about to be handled.
+     *
+     * @param device device whose state machine handles the message
+     * @param whenUptimeMs the uptime at which the message was due, see
+     *        {@link android.os.Message#getWhen()}
+     */
+    public void onMessageDispatched(BluetoothDevice device, long whenUptimeMs) {
+        if (device == null) {
+            return;
+        }
+        long latencyMs = Math.max(0, SystemClock.uptimeMillis() - whenUptimeMs);
+        mQueueLatencies.computeIfAbsent(device, d -> new QueueLatency(d)).add(latencyMs);
+    }
+
+    /**
+     * Forget the statistics of a device, to be called when its state machine is destroyed.
+     */
+    public void removeDevice(BluetoothDevice device) {
+        mQueueLatencies.remove(device);
+    }
+
+    /** Forget the statistics of all the devices */
+    public void clear() {
+        mQueueLatencies.clear();
+    }
+
+    @VisibleForTesting
+    long getMaxQueueLatencyMs(BluetoothDevice device) {
+        QueueLatency latency = mQueueLatencies.get(device);
+        return latency != null ? latency.getMaxMs() : 0;
+    }
+
+    /**
+     * Dump the queue latency of the devices.
+     */
+    public void dump(StringBuilder sb) {
+        ProfileService.println(sb, mName + " queue latency:");
+        for (Map.Entry<BluetoothDevice, QueueLatency> entry : mQueueLatencies.entrySet()) {
+            ProfileService.println(sb, "  " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    private static class QueueLatency {
+        private final BluetoothDevice mDevice;
+        private long mCount;
+        private long mTotalMs;
+        private long mMaxMs;
+
+        QueueLatency(BluetoothDevice device) {
+            mDevice = device;
+        }
+
+        synchronized void add(long latencyMs) {
+            mCount++;
+            mTotalMs += latencyMs;
+            if (latencyMs > mMaxMs) {
+                mMaxMs = latencyMs;
+                if (latencyMs > SLOW_DISPATCH_THRESHOLD_MS) {
+                    Log.w(TAG, "New max queue latency of " + mDevice + ": " + latencyMs + "ms");
+                }
+            }
+        }
+
+        synchronized long getMaxMs() {
+            return mMaxMs;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "messages=" + mCount + " avg=" + (mCount == 0 ? 0 : mTotalMs / mCount)
+                    + "ms max=" + mMaxMs + "ms";
+        }
+    }
+}
@@ -23,6 +23,7 @@ import android.security.keystore.KeyProperties;
 import android.util.Log;
 
 import com.android.bluetooth.BluetoothKeystoreProto;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.protobuf.ByteString;
@@ -43,13 +44,16 @@ import java.security.ProviderException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import java.util.Base64;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -104,14 +108,27 @@ public class BluetoothKeystoreService {
     private static final int CONFIG_BACKUP_COMPARE_PASS = 0b10;
     private int mCompareResult;
 
+    // The keys are encrypted and decrypted in parallel by up to this number of threads, which
+    // are released once idle.
+    private static final int MAX_COMPUTE_THREADS = 4;
+    private static final long COMPUTE_THREAD_KEEP_ALIVE_SECONDS = 10;
+
     BluetoothKeystoreNativeInterface mBluetoothKeystoreNativeInterface;
 
-    private ComputeDataThread mEncryptDataThread;
-    private ComputeDataThread mDecryptDataThread;
-    private Map<String, String> mNameEncryptKey = new HashMap<>();
-    private Map<String, String> mNameDecryptKey = new HashMap<>();
-    private BlockingQueue<String> mPendingDecryptKey = new LinkedBlockingQueue<>();
-    private BlockingQueue<String> mPendingEncryptKey = new LinkedBlockingQueue<>();
+    private final Object mComputeLock = new Object();
+    @GuardedBy("mComputeLock")
+    private ThreadPoolExecutor mComputeExecutor;
+    // Number of keys submitted to mComputeExecutor and not processed yet
+    @GuardedBy("mComputeLock")
+    private int mPendingComputeCount;
+    // Whether mNameEncryptKey changed since the encryption files were written
+    private final AtomicBoolean mEncryptedKeysChanged = new AtomicBoolean(false);
+    private final Map<String, String> mNameEncryptKey = new ConcurrentHashMap<>();
+    private final Map<String, String> mNameDecryptKey = new ConcurrentHashMap<>();
+    // Keystore lookups are serialized, the key is kept once obtained so that the workers only
+    // contend on the cipher operations.
+    @GuardedBy("this")
+    private SecretKey mSecretKey;
     private final List<String> mEncryptKeyNameList = List.of("LinkKey", "LE_KEY_PENC", "LE_KEY_PID",
             "LE_KEY_LID", "LE_KEY_PCSRK", "LE_KEY_LENC", "LE_KEY_LCSRK");
 
@@ -298,7 +315,7 @@ public class BluetoothKeystoreService {
     public void initJni() {
         debugLog("initJni()");
         // Need to make sure all keys are decrypted.
-        stopThread();
+        waitForPendingCompute();
         startThread();
         // Initialize native interface
         if (mBluetoothKeystoreNativeInterface != null) {
@@ -344,8 +361,8 @@ public class BluetoothKeystoreService {
      * Sets or removes the encryption key value.
      *
      * <p>If the value of decryptedString matches {@link #CONFIG_FILE_HASH} then
-     * read the hash file and decrypt the keys and place them into {@link mPendingEncryptKey}
-     * otherwise cleanup all data and remove the keys.
+     * read the hash file, encrypt it and save the encrypted keys, otherwise encrypt the key
+     * asynchronously or remove it if decryptedString is empty.
      *
      * @param prefixString key to use
      * @param decryptedString string to decrypt
@@ -361,9 +378,9 @@ public class BluetoothKeystoreService {
                 cleanupAll();
             } else if (decryptedString.equals(CONFIG_FILE_HASH)) {
                 readHashFile(CONFIG_FILE_PATH, CONFIG_FILE_PREFIX);
-                mPendingEncryptKey.put(CONFIG_FILE_PREFIX);
+                computeAsync(CONFIG_FILE_PREFIX, true);
                 readHashFile(CONFIG_BACKUP_PATH, CONFIG_BACKUP_PREFIX);
-                mPendingEncryptKey.put(CONFIG_BACKUP_PREFIX);
+                computeAsync(CONFIG_BACKUP_PREFIX, true);
                 saveEncryptedKey();
             }
             return;
@@ -372,10 +389,16 @@ public class BluetoothKeystoreService {
         if (decryptedString.isEmpty()) {
             // clear the item by prefixString.
             mNameDecryptKey.remove(prefixString);
-            mNameEncryptKey.remove(prefixString);
+            if (mNameEncryptKey.remove(prefixString) != null) {
+                mEncryptedKeysChanged.set(true);
+            }
         } else {
-            mNameDecryptKey.put(prefixString, decryptedString);
-            mPendingEncryptKey.put(prefixString);
+            String previous = mNameDecryptKey.put(prefixString, decryptedString);
+            if (decryptedString.equals(previous) && mNameEncryptKey.containsKey(prefixString)) {
+                // The key is already encrypted, a new cipher text would only differ by its IV
+                return;
+            }
+            computeAsync(prefixString, true);
         }
     }
 
@@ -399,36 +422,131 @@ public class BluetoothKeystoreService {
      */
     @VisibleForTesting
     public void cleanupMemory() {
-        stopThread();
+        waitForPendingCompute();
         mNameEncryptKey.clear();
         mNameDecryptKey.clear();
-        startThread();
+        mEncryptedKeysChanged.set(false);
     }
 
     /**
-     * Stop encrypt/decrypt thread.
+     * Wait for the pending encryptions and decryptions, then stop the encrypt/decrypt threads.
      */
     @VisibleForTesting
     public void stopThread() {
-        try {
-            if (mEncryptDataThread != null) {
-                mEncryptDataThread.setWaitQueueEmptyForStop();
-                mEncryptDataThread.join();
-            }
-            if (mDecryptDataThread != null) {
-                mDecryptDataThread.setWaitQueueEmptyForStop();
-                mDecryptDataThread.join();
+        waitForPendingCompute();
+        synchronized (mComputeLock) {
+            if (mComputeExecutor != null) {
+                mComputeExecutor.shutdown();
+                mComputeExecutor = null;
             }
-        } catch (InterruptedException e) {
-            reportBluetoothKeystoreException(e, "Interrupted while operating.");
         }
     }
 
     private void startThread() {
-        mEncryptDataThread = new ComputeDataThread(true);
-        mDecryptDataThread = new ComputeDataThread(false);
-        mEncryptDataThread.start();
-        mDecryptDataThread.start();
+        synchronized (mComputeLock) {
+            if (mComputeExecutor != null) {
+                return;
+            }
+            int threadCount = Math.max(1,
+                    Math.min(MAX_COMPUTE_THREADS, Runtime.getRuntime().availableProcessors()));
+            mComputeExecutor = new ThreadPoolExecutor(threadCount, threadCount,
+                    COMPUTE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, TAG));
+            mComputeExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Wait until all the keys submitted for encryption or decryption are processed.
+     */
+    @VisibleForTesting
+    public void waitForPendingCompute() {
+        synchronized (mComputeLock) {
+            while (mPendingComputeCount > 0) {
+                try {
+                    mComputeLock.wait();
+                } catch (InterruptedException e) {
+                    reportBluetoothKeystoreException(e, "Interrupted while operating.");
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Encrypt or decrypt a key on the compute threads and store the result.
+     *
+     * The result is stored under mComputeLock, and only if neither the source nor the target
+     * entry changed since the task was submitted, so a stale result never overwrites a key
+     * updated or removed meanwhile.
+     */
+    private void computeAsync(String prefixString, boolean doEncrypt) {
+        Map<String, String> sourceDataMap = doEncrypt ? mNameDecryptKey : mNameEncryptKey;
+        Map<String, String> targetDataMap = doEncrypt ? mNameEncryptKey : mNameDecryptKey;
+        synchronized (mComputeLock) {
+            String sourceData = sourceDataMap.get(prefixString);
+            if (sourceData == null) {
+                return;
+            }
+            String previousTargetData = targetDataMap.get(prefixString);
+            if (mComputeExecutor == null) {
+                infoLog("computeAsync: threads are stopped, prefixString: " + prefixString);
+                return;
+            }
+            try {
+                mComputeExecutor.execute(() -> {
+                    try {
+                        String targetData = tryCompute(sourceData, doEncrypt);
+                        if (targetData == null) {
+                            errorLog("Computing of Data failed with prefixString: "
+                                    + prefixString + ", doEncrypt: " + doEncrypt);
+                            return;
+                        }
+                        publishComputeResult(prefixString, doEncrypt, sourceData,
+                                previousTargetData, targetData);
+                    } finally {
+                        onComputeDone();
+                    }
+                });
+                mPendingComputeCount++;
+            } catch (RejectedExecutionException e) {
+                reportBluetoothKeystoreException(e, "cannot compute " + prefixString);
+            }
+        }
+    }
+
+    private void publishComputeResult(String prefixString, boolean doEncrypt, String sourceData,
+            String previousTargetData, String targetData) {
+        Map<String, String> sourceDataMap = doEncrypt ? mNameDecryptKey : mNameEncryptKey;
+        Map<String, String> targetDataMap = doEncrypt ? mNameEncryptKey : mNameDecryptKey;
+        synchronized (mComputeLock) {
+            if (!sourceData.equals(sourceDataMap.get(prefixString))) {
+                return;
+            }
+            // The target entry can be written without mComputeLock, replace it atomically
+            boolean published = previousTargetData == null
+                    ? targetDataMap.putIfAbsent(prefixString, targetData) == null
+                    : targetDataMap.replace(prefixString, previousTargetData, targetData);
+            if (!published) {
+                infoLog("computeAsync: " + prefixString + " changed, result dropped");
+                return;
+            }
+            // The checksums are written on every save, they do not make the key files stale
+            if (doEncrypt && !prefixString.equals(CONFIG_FILE_PREFIX)
+                    && !prefixString.equals(CONFIG_BACKUP_PREFIX)) {
+                mEncryptedKeysChanged.set(true);
+            }
+        }
+    }
+
+    private void onComputeDone() {
+        synchronized (mComputeLock) {
+            mPendingComputeCount--;
+            if (mPendingComputeCount == 0) {
+                mComputeLock.notifyAll();
+            }
+        }
     }
 
     /**
@@ -436,7 +554,7 @@ public class BluetoothKeystoreService {
      */
     public String getKey(String prefixString) {
         infoLog("getKey: prefix: " + prefixString);
-        if (!mNameDecryptKey.containsKey(prefixString)) {
+        if (prefixString == null) {
             return null;
         }
 
@@ -445,20 +563,27 @@ public class BluetoothKeystoreService {
 
     /**
      * Save encryption key into the encryption file.
+     *
+     * <p>Waits for the pending encryptions, the key files are only rewritten if a key changed
+     * since they were last written.
      */
     @VisibleForTesting
     public void saveEncryptedKey() {
-        stopThread();
+        waitForPendingCompute();
+        boolean keysChanged = mEncryptedKeysChanged.getAndSet(false)
+                || !Files.exists(Paths.get(CONFIG_FILE_ENCRYPTION_PATH))
+                || !Files.exists(Paths.get(CONFIG_BACKUP_ENCRYPTION_PATH));
         List<String> configEncryptedLines = new LinkedList<>();
         List<String> keyEncryptedLines = new LinkedList<>();
-        for (String key : mNameEncryptKey.keySet()) {
+        for (Map.Entry<String, String> entry : mNameEncryptKey.entrySet()) {
+            String key = entry.getKey();
+            String encryptedKeyData = key.concat("-").concat(entry.getValue());
             if (key.equals(CONFIG_FILE_PREFIX) || key.equals(CONFIG_BACKUP_PREFIX)) {
-                configEncryptedLines.add(getEncryptedKeyData(key));
-            } else {
-                keyEncryptedLines.add(getEncryptedKeyData(key));
+                configEncryptedLines.add(encryptedKeyData);
+            } else if (keysChanged) {
+                keyEncryptedLines.add(encryptedKeyData);
             }
         }
-        startThread();
 
         try {
             if (!configEncryptedLines.isEmpty()) {
@@ -469,17 +594,11 @@ public class BluetoothKeystoreService {
                 Files.write(Paths.get(CONFIG_BACKUP_ENCRYPTION_PATH), keyEncryptedLines);
             }
         } catch (IOException e) {
+            mEncryptedKeysChanged.set(true);
             throw new RuntimeException("write encryption file fail");
         }
     }
 
-    private String getEncryptedKeyData(String prefixString) {
-        if (prefixString == null) {
-            return null;
-        }
-        return prefixString.concat("-").concat(mNameEncryptKey.get(prefixString));
-    }
-
     /*
      * Get the mNameEncryptKey hashMap.
      */
@@ -548,9 +667,10 @@ public class BluetoothKeystoreService {
         while (!successful && counter < TRY_MAX) {
             try {
                 MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-                InputStream fileStream = Files.newInputStream(Paths.get(filePathString));
-                while ((bytesRead = fileStream.read(dataBuffer)) != -1) {
-                    messageDigest.update(dataBuffer, 0, bytesRead);
+                try (InputStream fileStream = Files.newInputStream(Paths.get(filePathString))) {
+                    while ((bytesRead = fileStream.read(dataBuffer)) != -1) {
+                        messageDigest.update(dataBuffer, 0, bytesRead);
+                    }
                 }
 
                 byte[] messageDigestBytes = messageDigest.digest();
@@ -568,7 +688,7 @@ public class BluetoothKeystoreService {
                 counter++;
             }
         }
-        if (counter > 3) {
+        if (!successful) {
             errorLog("Fail to open file");
         }
     }
@@ -625,12 +745,12 @@ public class BluetoothKeystoreService {
             }
 
             mNameDecryptKey.put(prefixString, dataString);
-            mPendingEncryptKey.put(prefixString);
+            computeAsync(prefixString, true);
         }
     }
 
     /**
-     * Load encryption file and push into mNameEncryptKey and pendingDecryptKey.
+     * Load encryption file into mNameEncryptKey, and decrypt the keys in parallel if doDecrypt.
      */
     @VisibleForTesting
     public void loadEncryptionFile(String filePathString, boolean doDecrypt)
@@ -650,7 +770,7 @@ public class BluetoothKeystoreService {
 
                 mNameEncryptKey.put(prefixString, encryptedString);
                 if (doDecrypt) {
-                    mPendingDecryptKey.put(prefixString);
+                    computeAsync(prefixString, false);
                 }
             }
         } catch (IOException e) {
@@ -795,6 +915,9 @@ public class BluetoothKeystoreService {
 
     // The getOrGenerate semantic on keystore is not thread safe, need to synchronized it.
     private synchronized SecretKey getOrCreateSecretKey() {
+        if (mSecretKey != null) {
+            return mSecretKey;
+        }
         SecretKey secretKey = null;
         try {
             KeyStore keyStore = getKeyStore();
@@ -836,6 +959,7 @@ public class BluetoothKeystoreService {
         } catch (ProviderException e) {
             reportKeystoreException(e, "getOrCreateSecretKey had a provider exception.");
         }
+        mSecretKey = secretKey;
         return secretKey;
     }
 
@@ -860,65 +984,4 @@ public class BluetoothKeystoreService {
     private static void errorLog(String msg) {
         Log.e(TAG, msg);
     }
-
-    /**
-     * A thread that decrypt data if the queue has new decrypt task.
-     */
-    private class ComputeDataThread extends Thread {
-        private Map<String, String> mSourceDataMap;
-        private Map<String, String> mTargetDataMap;
-        private BlockingQueue<String> mSourceQueue;
-        private boolean mDoEncrypt;
-
-        private boolean mWaitQueueEmptyForStop;
-
-        ComputeDataThread(boolean doEncrypt) {
-            infoLog("ComputeDataThread: create, doEncrypt: " + doEncrypt);
-            mWaitQueueEmptyForStop = false;
-            mDoEncrypt = doEncrypt;
-
-            if (mDoEncrypt) {
-                mSourceDataMap = mNameDecryptKey;
-                mTargetDataMap = mNameEncryptKey;
-                mSourceQueue = mPendingEncryptKey;
-            } else {
-                mSourceDataMap = mNameEncryptKey;
-                mTargetDataMap = mNameDecryptKey;
-                mSourceQueue = mPendingDecryptKey;
-            }
-        }
-
-        @Override
-        public void run() {
-            infoLog("ComputeDataThread: run, doEncrypt: " + mDoEncrypt);
-            String prefixString;
-            String sourceData;
-            String targetData;
-            while (!mSourceQueue.isEmpty() || !mWaitQueueEmptyForStop) {
-                try {
-                    prefixString = mSourceQueue.take();
-                    if (mSourceDataMap.containsKey(prefixString)) {
-                        sourceData = mSourceDataMap.get(prefixString);
-                        targetData = tryCompute(sourceData, mDoEncrypt);
-                        if (targetData != null) {
-                            mTargetDataMap.put(prefixString, targetData);
-                        } else {
-                            errorLog("Computing of Data failed with prefixString: " + prefixString
-                                    + ", doEncrypt: " + mDoEncrypt);
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    infoLog("Interrupted while operating.");
-                }
-            }
-            infoLog("ComputeDataThread: Stop, doEncrypt: " + mDoEncrypt);
-        }
-
-        public void setWaitQueueEmptyForStop() {
-            mWaitQueueEmptyForStop = true;
-            if (mPendingEncryptKey.isEmpty()) {
-                interrupt();
-            }
-        }
-    }
 }
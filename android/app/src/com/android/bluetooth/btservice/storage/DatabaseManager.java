@@ -36,6 +36,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.provider.Settings;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.Utils;
@@ -284,6 +285,32 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Get all the customized metadata of a device, read at once
+     *
+     * @return the values that are set, by metadata key
+     */
+    public SparseArray<byte[]> getAllCustomMeta(BluetoothDevice device) {
+        SparseArray<byte[]> values = new SparseArray<>();
+        synchronized (mMetadataCache) {
+            if (device == null) {
+                Log.e(TAG, "getAllCustomMeta: device is null");
+                return values;
+            }
+            Metadata data = mMetadataCache.get(device.getAddress());
+            if (data == null) {
+                return values;
+            }
+            for (int key = 0; key <= BluetoothDevice.getMaxMetadataKey(); key++) {
+                byte[] value = data.getCustomizedMeta(key);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        }
+        return values;
+    }
+
     /**
      * Set audio policy metadata to database with requested key
      */
@@ -582,6 +609,60 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Set the serialized GATT database cache of a device
+     *
+     * @param device {@link BluetoothDevice} wish to set
+     * @param value the serialized GATT database, or null to clear it
+     */
+    public void setGattDbCache(BluetoothDevice device, byte[] value) {
+        synchronized (mMetadataCache) {
+            if (device == null) {
+                Log.e(TAG, "setGattDbCache: device is null");
+                return;
+            }
+
+            String address = device.getAddress();
+
+            if (!mMetadataCache.containsKey(address)) {
+                return;
+            }
+            Metadata data = mMetadataCache.get(address);
+            if (Arrays.equals(data.gatt_db_cache, value)) {
+                return;
+            }
+            logMetadataChange(address, "GATT database cache "
+                    + (value == null ? "cleared" : "updated"));
+
+            data.gatt_db_cache = value;
+            updateDatabase(data);
+        }
+    }
+
+    /**
+     * Get the serialized GATT database cache of a device
+     *
+     * @param device {@link BluetoothDevice} wish to get
+     * @return the serialized GATT database, or null if there is none
+     */
+    public byte[] getGattDbCache(BluetoothDevice device) {
+        synchronized (mMetadataCache) {
+            if (device == null) {
+                Log.e(TAG, "getGattDbCache: device is null");
+                return null;
+            }
+
+            String address = device.getAddress();
+
+            if (!mMetadataCache.containsKey(address)) {
+                return null;
+            }
+
+            Metadata data = mMetadataCache.get(address);
+            return data.gatt_db_cache;
+        }
+    }
+
     /**
      * Updates the time this device was last connected
      *
@@ -77,6 +77,12 @@ public class Metadata {
      */
     public int preferred_duplex_profile;
 
+    /**
+     * Serialized GATT database of the remote device, with the hash it is keyed by, see
+     * {@link com.android.bluetooth.gatt.GattDbCache}. Null if there is none.
+     */
+    public byte[] gatt_db_cache;
+
     Metadata(String address) {
         this.address = address;
         migrated = false;
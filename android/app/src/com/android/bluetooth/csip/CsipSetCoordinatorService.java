@@ -46,13 +46,13 @@ import android.util.Pair;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.DeviceGroupRegistry;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -60,7 +60,6 @@ import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.stream.Collectors;
 
 /**
  * Provides Bluetooth CSIP Set Coordinator profile, as a service.
@@ -87,10 +86,8 @@ public class CsipSetCoordinatorService extends ProfileService {
     private final Map<BluetoothDevice, CsipSetCoordinatorStateMachine> mStateMachines =
             new HashMap<>();
 
-    private final Map<Integer, ParcelUuid> mGroupIdToUuidMap = new HashMap<>();
-    private final Map<BluetoothDevice, Map<Integer, Integer>> mDeviceGroupIdRankMap =
-            new ConcurrentHashMap<>();
-    private final Map<Integer, Integer> mGroupIdToGroupSize = new HashMap<>();
+    // Shared with the other profiles, only updated from here
+    private DeviceGroupRegistry mGroupRegistry;
     private final Map<ParcelUuid, Map<Executor, IBluetoothCsipSetCoordinatorCallback>> mCallbacks =
             new HashMap<>();
     private final Map<Integer, Pair<UUID, IBluetoothCsipSetCoordinatorLockCallback>> mLocks =
@@ -130,6 +127,8 @@ public class CsipSetCoordinatorService extends ProfileService {
                 "AdapterService cannot be null when CsipSetCoordinatorService starts");
         mDatabaseManager = Objects.requireNonNull(mAdapterService.getDatabase(),
                 "DatabaseManager cannot be null when CsipSetCoordinatorService starts");
+        mGroupRegistry = Objects.requireNonNull(mAdapterService.getDeviceGroupRegistry(),
+                "DeviceGroupRegistry cannot be null when CsipSetCoordinatorService starts");
         mCsipSetCoordinatorNativeInterface = Objects.requireNonNull(
                 CsipSetCoordinatorNativeInterface.getInstance(),
                 "CsipSetCoordinatorNativeInterface cannot be null when"
@@ -205,10 +204,10 @@ public class CsipSetCoordinatorService extends ProfileService {
             }
         }
 
-        mDeviceGroupIdRankMap.clear();
+        if (mGroupRegistry != null) {
+            mGroupRegistry.clear();
+        }
         mCallbacks.clear();
-        mGroupIdToGroupSize.clear();
-        mGroupIdToUuidMap.clear();
 
         mLocks.clear();
 
@@ -506,17 +505,15 @@ public class CsipSetCoordinatorService extends ProfileService {
             return null;
         }
 
-        synchronized (mGroupIdToUuidMap) {
-            if (!mGroupIdToUuidMap.containsKey(groupId)) {
-                try {
-                    callback.onGroupLockSet(groupId,
-                            BluetoothStatusCodes.ERROR_CSIP_INVALID_GROUP_ID,
-                            false);
-                } catch (RemoteException e) {
-                    throw e.rethrowFromSystemServer();
-                }
-                return null;
+        if (mGroupRegistry.getGroupUuid(groupId) == null) {
+            try {
+                callback.onGroupLockSet(groupId,
+                        BluetoothStatusCodes.ERROR_CSIP_INVALID_GROUP_ID,
+                        false);
+            } catch (RemoteException e) {
+                throw e.rethrowFromSystemServer();
             }
+            return null;
         }
 
         UUID uuid = UUID.randomUUID();
@@ -591,11 +588,7 @@ public class CsipSetCoordinatorService extends ProfileService {
      * @return list of group IDs
      */
     public List<Integer> getAllGroupIds(ParcelUuid uuid) {
-        return mGroupIdToUuidMap.entrySet()
-                .stream()
-                .filter(e -> uuid.equals(e.getValue()))
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
+        return mGroupRegistry.getAllGroupIds(uuid);
     }
 
     /**
@@ -605,15 +598,7 @@ public class CsipSetCoordinatorService extends ProfileService {
      * @return group ID
      */
     public Integer getGroupId(BluetoothDevice device, ParcelUuid uuid) {
-        Map<Integer, Integer> device_groups =
-                mDeviceGroupIdRankMap.getOrDefault(device, new HashMap<>());
-        return mGroupIdToUuidMap.entrySet()
-                .stream()
-                .filter(e -> (device_groups.containsKey(e.getKey())
-                        && e.getValue().equals(uuid)))
-                .map(Map.Entry::getKey)
-                .findFirst()
-                .orElse(IBluetoothCsipSetCoordinator.CSIS_GROUP_ID_INVALID);
+        return mGroupRegistry.getGroupId(device, uuid);
     }
 
     /**
@@ -622,12 +607,7 @@ public class CsipSetCoordinatorService extends ProfileService {
      * @return map of group id and related uuids.
      */
     public Map<Integer, ParcelUuid> getGroupUuidMapByDevice(BluetoothDevice device) {
-        Map<Integer, Integer> device_groups =
-                mDeviceGroupIdRankMap.getOrDefault(device, new HashMap<>());
-        return mGroupIdToUuidMap.entrySet()
-                .stream()
-                .filter(e -> device_groups.containsKey(e.getKey()))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        return mGroupRegistry.getGroupUuidMapByDevice(device);
     }
 
     /**
@@ -636,21 +616,7 @@ public class CsipSetCoordinatorService extends ProfileService {
      * @return related list of devices sorted from the lowest to the highest rank value.
      */
     public @NonNull List<BluetoothDevice> getGroupDevicesOrdered(int groupId) {
-        final Map<BluetoothDevice, Integer> deviceRankMap = new HashMap();
-        for (Map.Entry<BluetoothDevice, ?> entry : mDeviceGroupIdRankMap.entrySet()) {
-            Map<Integer, Integer> rankMap = (Map<Integer, Integer>) entry.getValue();
-            BluetoothDevice device = entry.getKey();
-            if (rankMap.containsKey(groupId)) {
-                deviceRankMap.put(device, rankMap.get(groupId));
-            }
-        }
-
-        // Return device list sorted by descending rank order
-        return deviceRankMap.entrySet()
-                .stream()
-                .sorted(Map.Entry.comparingByValue())
-                .map(e -> e.getKey())
-                .collect(Collectors.toList());
+        return mGroupRegistry.getGroupDevicesOrdered(groupId);
     }
 
     /**
@@ -661,14 +627,7 @@ public class CsipSetCoordinatorService extends ProfileService {
      */
     public @NonNull List<BluetoothDevice> getGroupDevicesOrdered(BluetoothDevice device,
             ParcelUuid uuid) {
-        List<Integer> groupIds = getAllGroupIds(uuid);
-        for (Integer id : groupIds) {
-            List<BluetoothDevice> devices = getGroupDevicesOrdered(id);
-            if (devices.contains(device)) {
-                return devices;
-            }
-        }
-        return Collections.emptyList();
+        return mGroupRegistry.getGroupDevicesOrdered(device, uuid);
     }
 
     /**
@@ -677,22 +636,7 @@ public class CsipSetCoordinatorService extends ProfileService {
      * @return the number of group members
      */
     public int getDesiredGroupSize(int groupId) {
-        return mGroupIdToGroupSize.getOrDefault(groupId,
-                IBluetoothCsipSetCoordinator.CSIS_GROUP_SIZE_UNKNOWN);
-    }
-
-    private void handleDeviceAvailable(BluetoothDevice device, int groupId, int rank, UUID uuid) {
-        ParcelUuid parcel_uuid = new ParcelUuid(uuid);
-        if (!getAllGroupIds(parcel_uuid).contains(groupId)) {
-            mGroupIdToUuidMap.put(groupId, parcel_uuid);
-        }
-
-        if (!mDeviceGroupIdRankMap.containsKey(device)) {
-            mDeviceGroupIdRankMap.put(device, new HashMap<Integer, Integer>());
-        }
-
-        Map<Integer, Integer> all_device_groups = mDeviceGroupIdRankMap.get(device);
-        all_device_groups.put(groupId, rank);
+        return mGroupRegistry.getDesiredGroupSize(groupId);
     }
 
     private void executeCallback(Executor exec, IBluetoothCsipSetCoordinatorCallback callback,
@@ -707,7 +651,8 @@ public class CsipSetCoordinatorService extends ProfileService {
     }
 
     private void handleSetMemberAvailable(BluetoothDevice device, int groupId) {
-        if (!mGroupIdToUuidMap.containsKey(groupId)) {
+        ParcelUuid uuid = mGroupRegistry.getGroupUuid(groupId);
+        if (uuid == null) {
             Log.e(TAG, " UUID not found for group id " + groupId);
             return;
         }
@@ -716,7 +661,6 @@ public class CsipSetCoordinatorService extends ProfileService {
             return;
         }
 
-        ParcelUuid uuid = mGroupIdToUuidMap.get(groupId);
         if (mCallbacks.get(uuid) == null) {
             Log.e(TAG, " There is no clients for uuid: " + uuid);
             return;
@@ -791,7 +735,8 @@ public class CsipSetCoordinatorService extends ProfileService {
             intent.putExtra(
                     BluetoothCsipSetCoordinator.EXTRA_CSIS_GROUP_TYPE_UUID, stackEvent.valueUuid1);
 
-            handleDeviceAvailable(device, groupId, stackEvent.valueInt3, stackEvent.valueUuid1);
+            mGroupRegistry.addDevice(device, groupId, new ParcelUuid(stackEvent.valueUuid1),
+                    stackEvent.valueInt2, stackEvent.valueInt3);
         } else if (stackEvent.type
                 == CsipSetCoordinatorStackEvent.EVENT_TYPE_SET_MEMBER_AVAILABLE) {
             Objects.requireNonNull(device, "Device should never be null, event: " + stackEvent);
@@ -899,7 +844,7 @@ public class CsipSetCoordinatorService extends ProfileService {
             return;
         }
 
-        mDeviceGroupIdRankMap.remove(device);
+        mGroupRegistry.removeDevice(device);
 
         synchronized (mStateMachines) {
             CsipSetCoordinatorStateMachine sm = mStateMachines.get(device);
@@ -1266,5 +1211,6 @@ public class CsipSetCoordinatorService extends ProfileService {
         for (CsipSetCoordinatorStateMachine sm : mStateMachines.values()) {
             sm.dump(sb);
         }
+        mGroupRegistry.dump(sb);
     }
 }
@@ -19,6 +19,7 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanSettings;
 import android.os.BatteryStatsManager;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.SystemClock;
 import android.os.WorkSource;
 
@@ -26,16 +27,20 @@ import com.android.bluetooth.BluetoothMetricsProto;
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.util.WorkSourceUtil;
+import com.android.internal.annotations.VisibleForTesting;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ScanStats class helps keep track of information about scans
@@ -56,6 +61,10 @@ import java.util.Objects;
 
     static final int LARGE_SCAN_TIME_GAP_MS = 24000;
 
+    // Scan results are reported to battery stats and statsd in batches, at most once per interval,
+    // to lower the cost of the binder transactions
+    static final long RESULTS_REPORT_INTERVAL_MS = 5000;
+
     // ContextMap here is needed to grab Apps and Connections
     ContextMap mContextMap;
 
@@ -67,6 +76,9 @@ import java.util.Objects;
 
     private final AdapterService mAdapterService;
 
+    // The scan results are reported on the main thread of the service
+    private final Handler mReportHandler;
+
     class LastScan {
         public long duration;
         public long suspendDuration;
@@ -79,7 +91,10 @@ import java.util.Objects;
         public boolean isFilterScan;
         public boolean isCallbackScan;
         public boolean isBatchScan;
-        public int results;
+        // Updated without holding the AppScanStats lock as results are delivered
+        public final LongAdder results = new LongAdder();
+        // Results not reported to battery stats and statsd yet
+        final LongAdder unreportedResults = new LongAdder();
         public int scannerId;
         public int scanMode;
         public int scanCallbackType;
@@ -97,7 +112,6 @@ import java.util.Objects;
             this.isBatchScan = false;
             this.scanMode = scanMode;
             this.scanCallbackType = scanCallbackType;
-            this.results = 0;
             this.scannerId = scannerId;
             this.suspendDuration = 0;
             this.suspendStartTime = 0;
@@ -126,10 +140,16 @@ import java.util.Objects;
     private int mLowLantencyScan = 0;
     private int mAmbientDiscoveryScan = 0;
     private List<LastScan> mLastScans = new ArrayList<LastScan>();
-    private HashMap<Integer, LastScan> mOngoingScans = new HashMap<Integer, LastScan>();
+    // Only modified with the lock held, but read without it when a result is delivered
+    private final Map<Integer, LastScan> mOngoingScans = new ConcurrentHashMap<>();
     public long startTime = 0;
     public long stopTime = 0;
-    public int results = 0;
+    private final LongAdder mResults = new LongAdder();
+    private final AtomicBoolean mReportScheduled = new AtomicBoolean(false);
+    private final Runnable mReportResultsRunnable = () -> {
+        mReportScheduled.set(false);
+        reportResults();
+    };
 
     AppScanStats(String name, WorkSource source, ContextMap map, GattService service) {
         appName = name;
@@ -144,23 +164,53 @@ import java.util.Objects;
         mWorkSource = source;
         mWorkSourceUtil = new WorkSourceUtil(source);
         mAdapterService = Objects.requireNonNull(AdapterService.getAdapterService());
+        mReportHandler = new Handler(service.getMainLooper());
     }
 
-    synchronized void addResult(int scannerId) {
-        LastScan scan = getScanFromScannerId(scannerId);
+    /**
+     * Count a result delivered to a scanner. This is called for every result so it does not
+     * take the lock, the reports to battery stats and statsd are done later on another thread.
+     */
+    void addResult(int scannerId) {
+        LastScan scan = mOngoingScans.get(scannerId);
         if (scan != null) {
-            scan.results++;
-
-            // Only update battery stats after receiving 100 new results in order
-            // to lower the cost of the binder transaction
-            if (scan.results % 100 == 0) {
-                mBatteryStatsManager.reportBleScanResults(mWorkSource, 100);
-                BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_RESULT_RECEIVED,
-                        mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(), 100);
+            scan.results.increment();
+            scan.unreportedResults.increment();
+            if (mReportScheduled.compareAndSet(false, true)) {
+                mReportHandler.postDelayed(mReportResultsRunnable, RESULTS_REPORT_INTERVAL_MS);
             }
         }
 
-        results++;
+        mResults.increment();
+    }
+
+    /**
+     * Report the results of the ongoing scans not reported yet to battery stats and statsd.
+     */
+    @VisibleForTesting
+    void reportResults() {
+        long unreported = 0;
+        for (LastScan scan : mOngoingScans.values()) {
+            unreported += scan.unreportedResults.sumThenReset();
+        }
+        if (unreported != 0) {
+            reportResults((int) unreported);
+        }
+    }
+
+    private void reportResults(int count) {
+        mBatteryStatsManager.reportBleScanResults(mWorkSource, count);
+        BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_RESULT_RECEIVED,
+                mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(), count);
+    }
+
+    @VisibleForTesting
+    long getUnreportedResults() {
+        long unreported = 0;
+        for (LastScan scan : mOngoingScans.values()) {
+            unreported += scan.unreportedResults.sum();
+        }
+        return unreported;
     }
 
     synchronized boolean isScanning() {
@@ -271,7 +321,7 @@ import java.util.Objects;
                         BluetoothMetricsProto.ScanEvent.ScanTechnologyType.SCAN_TECH_TYPE_LE)
                 .setEventTimeMillis(System.currentTimeMillis())
                 .setInitiator(truncateAppName(appName))
-                .setNumberResults(scan.results)
+                .setNumberResults((int) scan.results.sum())
                 .build();
         mGattService.addScanEvent(scanEvent);
 
@@ -299,10 +349,8 @@ import java.util.Objects;
         // Inform battery stats of any results it might be missing on scan stop
         boolean isUnoptimized =
                 !(scan.isFilterScan || scan.isBackgroundScan || scan.isOpportunisticScan);
-        mBatteryStatsManager.reportBleScanResults(mWorkSource, scan.results % 100);
+        reportResults((int) scan.unreportedResults.sumThenReset());
         mBatteryStatsManager.reportBleScanStopped(mWorkSource, isUnoptimized);
-        BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_RESULT_RECEIVED,
-                mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(), scan.results % 100);
         BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_STATE_CHANGED,
                 mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(),
                 BluetoothStatsLog.BLE_SCAN_STATE_CHANGED__STATE__OFF,
@@ -485,8 +533,7 @@ import java.util.Objects;
         int ambientDiscoveryScan = mAmbientDiscoveryScan;
 
         if (!mOngoingScans.isEmpty()) {
-            for (Integer key : mOngoingScans.keySet()) {
-                LastScan scan = mOngoingScans.get(key);
+            for (LastScan scan : mOngoingScans.values()) {
                 scanDuration = currTime - scan.timestamp;
 
                 if (scan.isSuspended) {
@@ -538,7 +585,8 @@ import java.util.Objects;
                 + oppScan + " / " + lowPowerScan + " / " + balancedScan + " / " + lowLatencyScan
                 + " / " + ambientDiscoveryScan);
         sb.append("\n  Score                                                       : " + Score);
-        sb.append("\n  Total number of results                                     : " + results);
+        sb.append("\n  Total number of results                                     : "
+                + mResults.sum());
 
         if (!mLastScans.isEmpty()) {
             sb.append("\n  Last " + mLastScans.size()
@@ -561,7 +609,7 @@ import java.util.Objects;
                 if (scan.isFilterScan) {
                     sb.append("Filter ");
                 }
-                sb.append(scan.results + " results");
+                sb.append(scan.results.sum() + " results");
                 sb.append(" (" + scan.scannerId + ") ");
                 if (scan.isCallbackScan) {
                     sb.append("CB ");
@@ -589,8 +637,7 @@ import java.util.Objects;
 
         if (!mOngoingScans.isEmpty()) {
             sb.append("\n  Ongoing scans                                               :");
-            for (Integer key : mOngoingScans.keySet()) {
-                LastScan scan = mOngoingScans.get(key);
+            for (LastScan scan : mOngoingScans.values()) {
                 Date timestamp = new Date(currentTime - currTime + scan.timestamp);
                 sb.append("\n    " + DATE_FORMAT.format(timestamp) + " - ");
                 sb.append((currTime - scan.timestamp) + "ms ");
@@ -609,7 +656,7 @@ import java.util.Objects;
                 if (scan.isSuspended) {
                     sb.append("Suspended ");
                 }
-                sb.append(scan.results + " results");
+                sb.append(scan.results.sum() + " results");
                 sb.append(" (" + scan.scannerId + ") ");
                 if (scan.isCallbackScan) {
                     sb.append("CB ");
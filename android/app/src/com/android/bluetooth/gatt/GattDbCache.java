@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import com.android.bluetooth.btservice.storage.DatabaseManager;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+/**
+ * Cache of the GATT databases discovered on remote devices.
+ *
+ * The databases are keyed by a hash of their structure, so that a database received again after
+ * a discovery does not need to be analyzed and stored again, and that a stale entry is never
+ * used. The entries keep the elements of the database rather than {@link BluetoothGattService}
+ * objects: apps in the Bluetooth process get these objects without parceling and modify them,
+ * so each delivery gets its own. The database of bonded devices is also stored in a compact
+ * form through {@link DatabaseManager} so that it survives restarts.
+ *
+ * The peer Database Hash characteristic is consumed by the native stack to validate its own
+ * cache and is not available here, hence the hash being computed from the discovered database.
+ */
+/* package */ class GattDbCache {
+    private static final String TAG = "GattDbCache";
+
+    @VisibleForTesting
+    static final int HASH_SIZE = 16;
+    // Number of databases kept in memory
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 16;
+
+    private static final int FORMAT_VERSION = 1;
+    // type, id, UUID, start handle and properties
+    private static final int MAX_ELEMENT_SIZE = 1 + 2 + 16 + 2 + 1;
+    // Set in the type of an element whose UUID is stored as a 16 bits Bluetooth UUID
+    private static final int FLAG_UUID16 = 0x80;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+    private static final long BASE_UUID_MSB_MASK = 0xFFFF0000FFFFFFFFL;
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+
+    /** A database and the attributes that need a permission to access. */
+    static final class Entry {
+        final byte[] hash;
+        // Not modified once cached
+        final List<GattDbElement> db;
+        // Ids of the attributes apps need a privileged permission to access
+        final Set<Integer> restrictedIds;
+
+        Entry(byte[] hash, List<GattDbElement> db, Set<Integer> restrictedIds) {
+            this.hash = hash;
+            this.db = Collections.unmodifiableList(db);
+            this.restrictedIds = restrictedIds;
+        }
+    }
+
+    private final DatabaseManager mDatabaseManager;
+
+    @GuardedBy("this")
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>(
+            MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * @param databaseManager storage of the databases of bonded devices, null to only cache
+     *        them in memory
+     */
+    GattDbCache(DatabaseManager databaseManager) {
+        mDatabaseManager = databaseManager;
+    }
+
+    /**
+     * Get the cached database of a device if it has the given hash.
+     *
+     * @return the entry, or null if the device has no cached database or a different one
+     */
+    synchronized Entry get(BluetoothDevice device, byte[] hash) {
+        Entry entry = mEntries.get(device.getAddress());
+        if (entry == null || !Arrays.equals(entry.hash, hash)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Get the cached database of a device whatever its hash, loading it from the storage if
+     * needed.
+     *
+     * @param builder makes an entry of a stored database and its hash
+     * @return the entry, or null if the device has no cached database
+     */
+    synchronized Entry load(BluetoothDevice device,
+            BiFunction<byte[], List<GattDbElement>, Entry> builder) {
+        Entry entry = mEntries.get(device.getAddress());
+        if (entry != null || mDatabaseManager == null) {
+            return entry;
+        }
+        byte[] stored = mDatabaseManager.getGattDbCache(device);
+        if (stored == null) {
+            return null;
+        }
+        byte[] hash = getHash(stored);
+        List<GattDbElement> db = decode(stored);
+        if (hash == null || db == null) {
+            Log.w(TAG, "Dropping malformed GATT database cache of " + device);
+            mDatabaseManager.setGattDbCache(device, null);
+            return null;
+        }
+        entry = builder.apply(hash, db);
+        mEntries.put(device.getAddress(), entry);
+        return entry;
+    }
+
+    /**
+     * Cache the database of a device, and store it if the device is bonded.
+     */
+    synchronized void put(BluetoothDevice device, Entry entry, boolean isBonded) {
+        mEntries.put(device.getAddress(), entry);
+        if (isBonded && mDatabaseManager != null) {
+            mDatabaseManager.setGattDbCache(device, encode(entry.hash, entry.db));
+        }
+    }
+
+    /**
+     * Forget the database of a device, to be called when it indicates its services changed.
+     */
+    synchronized void invalidate(BluetoothDevice device) {
+        mEntries.remove(device.getAddress());
+        if (mDatabaseManager != null) {
+            mDatabaseManager.setGattDbCache(device, null);
+        }
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Compute the hash of a database from the fields used to build the objects sent to the
+     * apps.
+     */
+    static byte[] computeHash(List<GattDbElement> db) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_ELEMENT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (GattDbElement el : db) {
+            buffer.clear();
+            putElement(buffer, el, false);
+            digest.update(buffer.array(), 0, buffer.position());
+        }
+        return Arrays.copyOf(digest.digest(), HASH_SIZE);
+    }
+
+    /**
+     * Serialize a database and its hash.
+     */
+    @VisibleForTesting
+    static byte[] encode(byte[] hash, List<GattDbElement> db) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + HASH_SIZE + 2 + db.size() * MAX_ELEMENT_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) FORMAT_VERSION);
+        buffer.put(hash, 0, HASH_SIZE);
+        buffer.putShort((short) db.size());
+        for (GattDbElement el : db) {
+            putElement(buffer, el, true);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Get the hash of a serialized database.
+     *
+     * @return the hash, or null if {@code data} is not a serialized database
+     */
+    @VisibleForTesting
+    static byte[] getHash(byte[] data) {
+        if (data.length < 1 + HASH_SIZE || data[0] != FORMAT_VERSION) {
+            return null;
+        }
+        return Arrays.copyOfRange(data, 1, 1 + HASH_SIZE);
+    }
+
+    /**
+     * Deserialize a database.
+     *
+     * @return the database, or null if {@code data} is not a serialized database
+     */
+    @VisibleForTesting
+    static List<GattDbElement> decode(byte[] data) {
+        if (getHash(data) == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(1 + HASH_SIZE);
+        try {
+            int count = buffer.getShort() & 0xFFFF;
+            List<GattDbElement> db = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                GattDbElement el = new GattDbElement();
+                int type = buffer.get() & 0xFF;
+                el.type = type & ~FLAG_UUID16;
+                el.id = buffer.getShort() & 0xFFFF;
+                if ((type & FLAG_UUID16) != 0) {
+                    long uuid16 = buffer.getShort() & 0xFFFF;
+                    el.uuid = new UUID((uuid16 << 32) | BASE_UUID_MSB, BASE_UUID_LSB);
+                } else {
+                    long lsb = buffer.getLong();
+                    long msb = buffer.getLong();
+                    el.uuid = new UUID(msb, lsb);
+                }
+                el.startHandle = buffer.getShort() & 0xFFFF;
+                el.properties = buffer.get() & 0xFF;
+                db.add(el);
+            }
+            if (buffer.hasRemaining()) {
+                return null;
+            }
+            return db;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private static void putElement(ByteBuffer buffer, GattDbElement el, boolean compact) {
+        long msb = el.uuid.getMostSignificantBits();
+        long lsb = el.uuid.getLeastSignificantBits();
+        boolean isUuid16 = compact && lsb == BASE_UUID_LSB
+                && (msb & BASE_UUID_MSB_MASK) == BASE_UUID_MSB;
+        buffer.put((byte) (el.type | (isUuid16 ? FLAG_UUID16 : 0)));
+        buffer.putShort((short) el.id);
+        if (isUuid16) {
+            buffer.putShort((short) (msb >>> 32));
+        } else {
+            buffer.putLong(lsb);
+            buffer.putLong(msb);
+        }
+        buffer.putShort((short) el.startHandle);
+        buffer.put((byte) el.properties);
+    }
+}
@@ -99,6 +99,7 @@ import android.os.Message;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.os.WorkSource;
 import android.provider.DeviceConfig;
@@ -115,6 +116,7 @@ import com.android.bluetooth.btservice.AbstractionLayer;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.BluetoothAdapterProxy;
 import com.android.bluetooth.btservice.CompanionManager;
+import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.util.NumberUtils;
 import com.android.internal.annotations.VisibleForTesting;
@@ -132,6 +134,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
@@ -300,8 +303,36 @@ public class GattService extends ProfileService {
 
     /**
      * Set of restricted (which require a BLUETOOTH_PRIVILEGED permission) handles per connectionId.
+     * Written from the stack callbacks and from binder threads when a cached database is served.
      */
-    private final Map<Integer, Set<Integer>> mRestrictedHandles = new HashMap<>();
+    private final Map<Integer, Set<Integer>> mRestrictedHandles = new ConcurrentHashMap<>();
+
+    // Serve the cached database of bonded devices before the discovery completes
+    private static final String GATT_DB_CACHE_SERVE_EARLY_PROPERTY =
+            "bluetooth.gatt.db_cache.serve_early.enabled";
+
+    private GattDbCache mGattDbCache;
+
+    // Number of notifications sent to several devices at once that can be handed to the stack
+    // per connection before it reports them sent
+    private static final String SERVER_NOTIFICATION_WINDOW_PROPERTY =
+            "bluetooth.gatt.server.notification_window";
+    private static final int DEFAULT_SERVER_NOTIFICATION_WINDOW = 4;
+
+    @VisibleForTesting
+    ServerNotificationQueue mServerNotificationQueue;
+
+    /**
+     * Hash of the database served from the cache per connectionId, while the discovery started
+     * at the same time is ongoing.
+     */
+    private final Map<Integer, byte[]> mServedDbHashes = new ConcurrentHashMap<>();
+
+    /**
+     * Start time of the outstanding read or write request per connectionId, to measure their
+     * round-trip.
+     */
+    private final Map<Integer, Long> mGattOperationStartNanos = new ConcurrentHashMap<>();
 
     /**
      * HashMap used to synchronize writeCharacteristic calls mapping remote device address to
@@ -384,6 +415,14 @@ public class GattService extends ProfileService {
         mPeriodicScanManager = new PeriodicScanManager(mAdapterService);
         mPeriodicScanManager.start();
 
+        mGattDbCache = new GattDbCache(mAdapterService.getDatabase());
+
+        mServerNotificationQueue = new ServerNotificationQueue(
+                (serverIf, connId, handle, value) ->
+                        gattServerSendNotificationNative(serverIf, handle, connId, value),
+                SystemProperties.getInt(SERVER_NOTIFICATION_WINDOW_PROPERTY,
+                        DEFAULT_SERVER_NOTIFICATION_WINDOW));
+
         setGattService(this);
         return true;
     }
@@ -400,6 +439,14 @@ public class GattService extends ProfileService {
         mServerMap.clear();
         mHandleMap.clear();
         mReliableQueue.clear();
+        mServedDbHashes.clear();
+        mGattOperationStartNanos.clear();
+        if (mGattDbCache != null) {
+            mGattDbCache.clear();
+        }
+        if (mServerNotificationQueue != null) {
+            mServerNotificationQueue.clear();
+        }
         if (mAdvertiseManager != null) {
             mAdvertiseManager.cleanup();
         }
@@ -1455,6 +1502,17 @@ public class GattService extends ProfileService {
                 attributionSource);
         }
 
+        @Override
+        public void sendMultiNotification(int serverIf, List<String> addresses, int handle,
+                byte[] value, boolean coalesce, AttributionSource attributionSource) {
+            GattService service = getService();
+            if (service == null) {
+                return;
+            }
+            service.sendMultiNotification(serverIf, addresses, handle, value, coalesce,
+                    attributionSource);
+        }
+
         @Override
         public void startAdvertisingSet(AdvertisingSetParameters parameters,
                 AdvertiseData advertiseData, AdvertiseData scanResponse,
@@ -1851,8 +1909,11 @@ public class GattService extends ProfileService {
         // When in testing mode, ignore all real-world events
         if (isTestModeEnabled()) return;
 
+        long startNanos = SystemClock.elapsedRealtimeNanos();
         onScanResultInternal(eventType, addressType, address, primaryPhy, secondaryPhy,
                 advertisingSid, txPower, rssi, periodicAdvInt, advData, originalAddress);
+        MetricsLogger.logLatencySince(
+                BluetoothMetricsProto.LatencyMetric.LATENCY_SCAN_RESULT_DELIVERY, startNanos);
     }
 
     void onScanResultInternal(int eventType, int addressType, String address, int primaryPhy,
@@ -2126,6 +2187,7 @@ public class GattService extends ProfileService {
         }
 
         mClientMap.removeConnection(clientIf, connId);
+        mGattOperationStartNanos.remove(connId);
         ClientMap.App app = mClientMap.getById(clientIf);
 
         // Remove AtomicBoolean representing permit if no other connections rely on this remote device.
@@ -2221,6 +2283,11 @@ public class GattService extends ProfileService {
             return;
         }
 
+        mServedDbHashes.remove(connId);
+        if (mGattDbCache != null) {
+            mGattDbCache.invalidate(BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address));
+        }
+
         ClientMap.App app = mClientMap.getByConnId(connId);
         if (app == null) {
             return;
@@ -2357,15 +2424,84 @@ public class GattService extends ProfileService {
             return;
         }
 
-        List<BluetoothGattService> dbOut = new ArrayList<BluetoothGattService>();
-        Set<Integer> restrictedIds = new HashSet<>();
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        byte[] hash = GattDbCache.computeHash(db);
+        GattDbCache.Entry entry = mGattDbCache.get(device, hash);
+        if (entry == null) {
+            entry = buildGattDbCacheEntry(hash, db);
+            mGattDbCache.put(device, entry,
+                    mAdapterService.getBondState(device) == BluetoothDevice.BOND_BONDED);
+        } else if (DBG) {
+            Log.d(TAG, "onGetGattDb() - database of " + address + " unchanged");
+        }
 
-        BluetoothGattService currSrvc = null;
-        BluetoothGattCharacteristic currChar = null;
+        if (!entry.restrictedIds.isEmpty()) {
+            mRestrictedHandles.put(connId, entry.restrictedIds);
+        }
+
+        byte[] servedHash = mServedDbHashes.remove(connId);
+        if (servedHash != null) {
+            // The app already got the database from the cache
+            if (!Arrays.equals(servedHash, hash)) {
+                app.callback.onServiceChanged(address);
+            }
+            return;
+        }
+        // Search is complete when there was error, or nothing more to process
+        app.callback.onSearchComplete(address, buildGattServices(entry.db), 0 /* status */);
+    }
+
+    /**
+     * Find the attributes of a database that need a privileged permission to access.
+     */
+    private GattDbCache.Entry buildGattDbCacheEntry(byte[] hash, List<GattDbElement> db) {
+        Set<Integer> restrictedIds = new HashSet<>();
         boolean isRestrictedSrvc = false;
         boolean isHidSrvc = false;
         boolean isRestrictedChar = false;
 
+        for (GattDbElement el : db) {
+            switch (el.type) {
+                case GattDbElement.TYPE_PRIMARY_SERVICE:
+                case GattDbElement.TYPE_SECONDARY_SERVICE:
+                    isRestrictedSrvc = isRestrictedSrvcUuid(el.uuid);
+                    isHidSrvc = isHidSrvcUuid(el.uuid);
+                    if (isRestrictedSrvc) {
+                        restrictedIds.add(el.id);
+                    }
+                    break;
+
+                case GattDbElement.TYPE_CHARACTERISTIC:
+                    isRestrictedChar = isRestrictedSrvc || (isHidSrvc && isHidCharUuid(el.uuid));
+                    if (isRestrictedChar) {
+                        restrictedIds.add(el.id);
+                    }
+                    break;
+
+                case GattDbElement.TYPE_DESCRIPTOR:
+                    if (isRestrictedChar) {
+                        restrictedIds.add(el.id);
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        return new GattDbCache.Entry(hash, db, Collections.unmodifiableSet(restrictedIds));
+    }
+
+    /**
+     * Convert a database into the objects sent to the apps. Apps in the Bluetooth process get
+     * these objects without parceling and modify them, so they are never shared between apps.
+     */
+    private List<BluetoothGattService> buildGattServices(List<GattDbElement> db) {
+        List<BluetoothGattService> dbOut = new ArrayList<BluetoothGattService>();
+
+        BluetoothGattService currSrvc = null;
+        BluetoothGattCharacteristic currChar = null;
+
         for (GattDbElement el : db) {
             switch (el.type) {
                 case GattDbElement.TYPE_PRIMARY_SERVICE:
@@ -2376,11 +2512,6 @@ public class GattService extends ProfileService {
 
                     currSrvc = new BluetoothGattService(el.uuid, el.id, el.type);
                     dbOut.add(currSrvc);
-                    isRestrictedSrvc = isRestrictedSrvcUuid(el.uuid);
-                    isHidSrvc = isHidSrvcUuid(el.uuid);
-                    if (isRestrictedSrvc) {
-                        restrictedIds.add(el.id);
-                    }
                     break;
 
                 case GattDbElement.TYPE_CHARACTERISTIC:
@@ -2390,10 +2521,6 @@ public class GattService extends ProfileService {
 
                     currChar = new BluetoothGattCharacteristic(el.uuid, el.id, el.properties, 0);
                     currSrvc.addCharacteristic(currChar);
-                    isRestrictedChar = isRestrictedSrvc || (isHidSrvc && isHidCharUuid(el.uuid));
-                    if (isRestrictedChar) {
-                        restrictedIds.add(el.id);
-                    }
                     break;
 
                 case GattDbElement.TYPE_DESCRIPTOR:
@@ -2402,9 +2529,6 @@ public class GattService extends ProfileService {
                     }
 
                     currChar.addDescriptor(new BluetoothGattDescriptor(el.uuid, el.id, 0));
-                    if (isRestrictedChar) {
-                        restrictedIds.add(el.id);
-                    }
                     break;
 
                 case GattDbElement.TYPE_INCLUDED_SERVICE:
@@ -2423,11 +2547,7 @@ public class GattService extends ProfileService {
             }
         }
 
-        if (!restrictedIds.isEmpty()) {
-            mRestrictedHandles.put(connId, restrictedIds);
-        }
-        // Search is complete when there was error, or nothing more to process
-        app.callback.onSearchComplete(address, dbOut, 0 /* status */);
+        return dbOut;
     }
 
     void onRegisterForNotifications(int connId, int status, int registered, int handle) {
@@ -2466,6 +2586,7 @@ public class GattService extends ProfileService {
     void onReadCharacteristic(int connId, int status, int handle, byte[] data)
             throws RemoteException {
         String address = mClientMap.addressByConnId(connId);
+        onGattOperationCompleted(connId);
 
         if (VDBG) {
             Log.d(TAG, "onReadCharacteristic() - address=" + address + ", status=" + status
@@ -2481,6 +2602,7 @@ public class GattService extends ProfileService {
     void onWriteCharacteristic(int connId, int status, int handle, byte[] data)
             throws RemoteException {
         String address = mClientMap.addressByConnId(connId);
+        onGattOperationCompleted(connId);
         synchronized (mPermits) {
             Log.d(TAG, "onWriteCharacteristic() - increasing permit for address="
                     + address);
@@ -2511,6 +2633,14 @@ public class GattService extends ProfileService {
         }
     }
 
+    private void onGattOperationCompleted(int connId) {
+        Long startNanos = mGattOperationStartNanos.remove(connId);
+        if (startNanos != null) {
+            MetricsLogger.logLatencySince(
+                    BluetoothMetricsProto.LatencyMetric.LATENCY_GATT_OPERATION, startNanos);
+        }
+    }
+
     void onExecuteCompleted(int connId, int status) throws RemoteException {
         String address = mClientMap.addressByConnId(connId);
         if (VDBG) {
@@ -2525,6 +2655,7 @@ public class GattService extends ProfileService {
 
     void onReadDescriptor(int connId, int status, int handle, byte[] data) throws RemoteException {
         String address = mClientMap.addressByConnId(connId);
+        onGattOperationCompleted(connId);
 
         if (VDBG) {
             Log.d(TAG,
@@ -2541,6 +2672,7 @@ public class GattService extends ProfileService {
     void onWriteDescriptor(int connId, int status, int handle, byte[] data)
             throws RemoteException {
         String address = mClientMap.addressByConnId(connId);
+        onGattOperationCompleted(connId);
 
         if (VDBG) {
             Log.d(TAG, "onWriteDescriptor() - address=" + address + ", status=" + status
@@ -3661,12 +3793,45 @@ public class GattService extends ProfileService {
         }
 
         if (connId != null) {
+            serveCachedGattDb(connId, address);
             gattClientSearchServiceNative(connId, true, 0, 0);
         } else {
             Log.e(TAG, "discoverServices() - No connection for " + address + "...");
         }
     }
 
+    /**
+     * Complete the discovery of a bonded device with its cached database, if any. The discovery
+     * still runs and the app is notified of a service change if the database turns out to differ.
+     */
+    private void serveCachedGattDb(int connId, String address) {
+        if (!SystemProperties.getBoolean(GATT_DB_CACHE_SERVE_EARLY_PROPERTY, false)) {
+            return;
+        }
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        if (mAdapterService.getBondState(device) != BluetoothDevice.BOND_BONDED) {
+            return;
+        }
+        GattDbCache.Entry entry = mGattDbCache.load(device, this::buildGattDbCacheEntry);
+        ClientMap.App app = mClientMap.getByConnId(connId);
+        if (entry == null || app == null || app.callback == null) {
+            return;
+        }
+        if (DBG) {
+            Log.d(TAG, "serveCachedGattDb() - address=" + address);
+        }
+        if (!entry.restrictedIds.isEmpty()) {
+            mRestrictedHandles.put(connId, entry.restrictedIds);
+        }
+        mServedDbHashes.put(connId, entry.hash);
+        try {
+            app.callback.onSearchComplete(address, buildGattServices(entry.db), 0 /* status */);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Exception: " + e);
+            mServedDbHashes.remove(connId);
+        }
+    }
+
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     void discoverServiceByUuid(
             int clientIf, String address, UUID uuid, AttributionSource attributionSource) {
@@ -3714,6 +3879,7 @@ public class GattService extends ProfileService {
             return;
         }
 
+        mGattOperationStartNanos.put(connId, SystemClock.elapsedRealtimeNanos());
         gattClientReadCharacteristicNative(connId, handle, authReq);
     }
 
@@ -3791,6 +3957,7 @@ public class GattService extends ProfileService {
             mPermits.put(address, connId);
         }
 
+        mGattOperationStartNanos.put(connId, SystemClock.elapsedRealtimeNanos());
         gattClientWriteCharacteristicNative(connId, handle, writeType, authReq, value);
         return BluetoothStatusCodes.SUCCESS;
     }
@@ -3825,6 +3992,7 @@ public class GattService extends ProfileService {
             return;
         }
 
+        mGattOperationStartNanos.put(connId, SystemClock.elapsedRealtimeNanos());
         gattClientReadDescriptorNative(connId, handle, authReq);
     }
 
@@ -3846,6 +4014,7 @@ public class GattService extends ProfileService {
         }
         permissionCheck(connId, handle);
 
+        mGattOperationStartNanos.put(connId, SystemClock.elapsedRealtimeNanos());
         gattClientWriteDescriptorNative(connId, handle, authReq, value);
         return BluetoothStatusCodes.SUCCESS;
     }
@@ -4179,6 +4348,7 @@ public class GattService extends ProfileService {
             connectionState = BluetoothProtoEnums.CONNECTION_STATE_CONNECTED;
         } else {
             mServerMap.removeConnection(serverIf, connId);
+            mServerNotificationQueue.removeConnection(connId);
             connectionState = BluetoothProtoEnums.CONNECTION_STATE_DISCONNECTED;
         }
 
@@ -4326,6 +4496,10 @@ public class GattService extends ProfileService {
             return;
         }
 
+        if (mServerNotificationQueue.onNotificationSent(connId)) {
+            return;
+        }
+
         if (!app.isCongested) {
             app.callback.onNotificationSent(address, status);
         } else {
@@ -4347,6 +4521,7 @@ public class GattService extends ProfileService {
         }
 
         app.isCongested = congested;
+        mServerNotificationQueue.onCongestionChanged(app.id, connId, congested);
         while (!app.isCongested) {
             CallbackInfo callbackInfo = app.popQueuedCallback();
             if (callbackInfo == null) {
@@ -4407,6 +4582,7 @@ public class GattService extends ProfileService {
         deleteServices(serverIf);
 
         mServerMap.remove(serverIf);
+        mServerNotificationQueue.removeServer(serverIf);
         gattServerUnregisterAppNative(serverIf);
     }
 
@@ -4606,6 +4782,41 @@ public class GattService extends ProfileService {
         return BluetoothStatusCodes.SUCCESS;
     }
 
+    /**
+     * Notify a value to several devices through their notification queues. When coalesce is set,
+     * a value not sent yet is replaced by a newer one of the same attribute.
+     */
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    void sendMultiNotification(int serverIf, List<String> addresses, int handle, byte[] value,
+            boolean coalesce, AttributionSource attributionSource) {
+        if (!Utils.checkConnectPermissionForDataDelivery(
+                this, attributionSource, "GattService sendMultiNotification")) {
+            return;
+        }
+
+        if (VDBG) {
+            Log.d(TAG, "sendMultiNotification() - devices=" + addresses.size() + " handle="
+                    + handle);
+        }
+
+        // The stack does not report unknown attributes sent, which would stall the queue
+        HandleMap.Entry entry = mHandleMap.getByHandle(handle);
+        if (entry == null || entry.serverIf != serverIf) {
+            Log.w(TAG, "sendMultiNotification() - unknown handle " + handle);
+            return;
+        }
+
+        // Sent later on, after the caller may have changed the value in place
+        byte[] queuedValue = value.clone();
+        for (String address : addresses) {
+            Integer connId = mServerMap.connIdByAddress(serverIf, address);
+            if (connId == null || connId == 0) {
+                continue;
+            }
+            mServerNotificationQueue.enqueue(serverIf, connId, handle, queuedValue, coalesce);
+        }
+    }
+
 
     /**************************************************************************
      * Private functions
@@ -4781,10 +4992,9 @@ public class GattService extends ProfileService {
         }
 
         if (status == 0) {
-            List<HandleMap.Entry> entries = mHandleMap.getEntries();
+            List<HandleMap.Entry> entries = mHandleMap.getServices(serverIf);
             for (HandleMap.Entry entry : entries) {
-                if (entry.type != HandleMap.TYPE_SERVICE || entry.serverIf != serverIf
-                        || !entry.started) {
+                if (!entry.started) {
                     continue;
                 }
 
@@ -4804,11 +5014,8 @@ public class GattService extends ProfileService {
          * The handles are copied into a new list to avoid race conditions.
          */
         List<Integer> handleList = new ArrayList<Integer>();
-        List<HandleMap.Entry> entries = mHandleMap.getEntries();
+        List<HandleMap.Entry> entries = mHandleMap.getServices(serverIf);
         for (HandleMap.Entry entry : entries) {
-            if (entry.type != HandleMap.TYPE_SERVICE || entry.serverIf != serverIf) {
-                continue;
-            }
             handleList.add(entry.handle);
         }
 
@@ -4861,6 +5068,11 @@ public class GattService extends ProfileService {
 
         sb.append("GATT Handle Map\n");
         mHandleMap.dump(sb);
+
+        if (mServerNotificationQueue != null) {
+            sb.append("GATT Server Notification Queues\n");
+            mServerNotificationQueue.dump(sb);
+        }
     }
 
     void addScanEvent(BluetoothMetricsProto.ScanEvent event) {
@@ -17,12 +17,22 @@ package com.android.bluetooth.gatt;
 
 import android.util.Log;
 
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Attributes of the services hosted by the GATT server applications, indexed by handle so that
+ * the requests of the remote devices are dispatched without scanning the whole database.
+ */
 class HandleMap {
     private static final boolean DBG = GattServiceConfig.DBG;
     private static final String TAG = GattServiceConfig.TAG_PREFIX + "HandleMap";
@@ -82,73 +92,121 @@ class HandleMap {
         }
     }
 
-    List<Entry> mEntries = null;
-    Map<Integer, Integer> mRequestMap = null;
-    int mLastCharacteristic = 0;
+    // Attribute handles are 16 bits, split in a page index and an index in the page
+    private static final int MAX_HANDLE = 0xFFFF;
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_COUNT = (MAX_HANDLE >> PAGE_SHIFT) + 1;
 
-    HandleMap() {
-        mEntries = new CopyOnWriteArrayList<Entry>();
-        mRequestMap = new ConcurrentHashMap<Integer, Integer>();
-    }
+    /*
+     * Entries by handle, read without locking. The pages are allocated on first use and only
+     * modified while holding the lock of this object.
+     */
+    private final AtomicReferenceArray<AtomicReferenceArray<Entry>> mPages =
+            new AtomicReferenceArray<>(PAGE_COUNT);
+
+    /*
+     * Entries of each service, the service first, by service handle and by server interface in
+     * the order they were added. Deleting a service only visits its own attributes.
+     */
+    @GuardedBy("this")
+    private final Map<Integer, Map<Integer, List<Entry>>> mServers = new LinkedHashMap<>();
+    // All the entries in the order they were added
+    @GuardedBy("this")
+    private final Set<Entry> mEntries = new LinkedHashSet<>();
+    @GuardedBy("this")
+    private int mLastCharacteristic = 0;
 
-    void clear() {
+    private final Map<Integer, Integer> mRequestMap = new ConcurrentHashMap<Integer, Integer>();
+
+    HandleMap() {}
+
+    synchronized void clear() {
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            mPages.set(i, null);
+        }
+        mServers.clear();
         mEntries.clear();
         mRequestMap.clear();
     }
 
-    void addService(int serverIf, int handle, UUID uuid, int serviceType, int instance,
-            boolean advertisePreferred) {
-        mEntries.add(new Entry(serverIf, handle, uuid, serviceType, instance, advertisePreferred));
+    synchronized void addService(int serverIf, int handle, UUID uuid, int serviceType,
+            int instance, boolean advertisePreferred) {
+        add(new Entry(serverIf, handle, uuid, serviceType, instance, advertisePreferred));
     }
 
-    void addCharacteristic(int serverIf, int handle, UUID uuid, int serviceHandle) {
+    synchronized void addCharacteristic(int serverIf, int handle, UUID uuid, int serviceHandle) {
         mLastCharacteristic = handle;
-        mEntries.add(new Entry(serverIf, TYPE_CHARACTERISTIC, handle, uuid, serviceHandle));
+        add(new Entry(serverIf, TYPE_CHARACTERISTIC, handle, uuid, serviceHandle));
     }
 
-    void addDescriptor(int serverIf, int handle, UUID uuid, int serviceHandle) {
-        mEntries.add(new Entry(serverIf, TYPE_DESCRIPTOR, handle, uuid, serviceHandle,
+    synchronized void addDescriptor(int serverIf, int handle, UUID uuid, int serviceHandle) {
+        add(new Entry(serverIf, TYPE_DESCRIPTOR, handle, uuid, serviceHandle,
                 mLastCharacteristic));
     }
 
     void setStarted(int serverIf, int handle, boolean started) {
-        for (Entry entry : mEntries) {
-            if (entry.type != TYPE_SERVICE || entry.serverIf != serverIf
-                    || entry.handle != handle) {
-                continue;
-            }
-
+        Entry entry = get(handle);
+        if (entry != null && entry.type == TYPE_SERVICE && entry.serverIf == serverIf) {
             entry.started = started;
-            return;
         }
     }
 
     Entry getByHandle(int handle) {
-        for (Entry entry : mEntries) {
-            if (entry.handle == handle) {
-                return entry;
-            }
+        Entry entry = get(handle);
+        if (entry == null) {
+            Log.e(TAG, "getByHandle() - Handle " + handle + " not found!");
         }
-        Log.e(TAG, "getByHandle() - Handle " + handle + " not found!");
-        return null;
+        return entry;
     }
 
     boolean checkServiceExists(UUID uuid, int handle) {
-        for (Entry entry : mEntries) {
-            if (entry.type == TYPE_SERVICE && entry.handle == handle && entry.uuid.equals(uuid)) {
-                return true;
-            }
+        Entry entry = get(handle);
+        return entry != null && entry.type == TYPE_SERVICE && entry.uuid.equals(uuid);
+    }
+
+    synchronized void deleteService(int serverIf, int serviceHandle) {
+        Map<Integer, List<Entry>> services = mServers.get(serverIf);
+        if (services == null) {
+            return;
+        }
+        List<Entry> entries = services.remove(serviceHandle);
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            AtomicReferenceArray<Entry> page = mPages.get(entry.handle >> PAGE_SHIFT);
+            page.set(entry.handle & (PAGE_SIZE - 1), null);
+            mEntries.remove(entry);
+        }
+        if (services.isEmpty()) {
+            mServers.remove(serverIf);
         }
-        return false;
     }
 
-    void deleteService(int serverIf, int serviceHandle) {
-        mEntries.removeIf(entry -> ((entry.serverIf == serverIf)
-                && (entry.handle == serviceHandle || entry.serviceHandle == serviceHandle)));
+    /**
+     * @return a copy of all the entries, in the order they were added
+     */
+    synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(mEntries);
     }
 
-    List<Entry> getEntries() {
-        return mEntries;
+    /**
+     * @return a copy of the service entries of a server, in the order they were added
+     */
+    synchronized List<Entry> getServices(int serverIf) {
+        Map<Integer, List<Entry>> services = mServers.get(serverIf);
+        if (services == null) {
+            return new ArrayList<Entry>(0);
+        }
+        List<Entry> entries = new ArrayList<Entry>(services.size());
+        for (List<Entry> serviceEntries : services.values()) {
+            Entry first = serviceEntries.get(0);
+            if (first.type == TYPE_SERVICE) {
+                entries.add(first);
+            }
+        }
+        return entries;
     }
 
     void addRequest(int requestId, int handle) {
@@ -168,15 +226,71 @@ class HandleMap {
         return getByHandle(handle);
     }
 
+    private Entry get(int handle) {
+        if (handle < 0 || handle > MAX_HANDLE) {
+            return null;
+        }
+        AtomicReferenceArray<Entry> page = mPages.get(handle >> PAGE_SHIFT);
+        return page == null ? null : page.get(handle & (PAGE_SIZE - 1));
+    }
+
+    @GuardedBy("this")
+    private void add(Entry entry) {
+        if (entry.handle < 0 || entry.handle > MAX_HANDLE) {
+            Log.e(TAG, "add() - Invalid handle " + entry.handle);
+            return;
+        }
+        int pageIndex = entry.handle >> PAGE_SHIFT;
+        AtomicReferenceArray<Entry> page = mPages.get(pageIndex);
+        if (page == null) {
+            page = new AtomicReferenceArray<>(PAGE_SIZE);
+            mPages.set(pageIndex, page);
+        }
+        Entry previous = page.getAndSet(entry.handle & (PAGE_SIZE - 1), entry);
+        if (previous != null) {
+            // The handle is reused, the previous attribute is no longer reachable
+            removeFromServer(previous);
+            mEntries.remove(previous);
+        }
+        mEntries.add(entry);
+
+        mServers.computeIfAbsent(entry.serverIf, k -> new LinkedHashMap<>())
+                .computeIfAbsent(getServiceHandle(entry), k -> new ArrayList<>())
+                .add(entry);
+    }
+
+    @GuardedBy("this")
+    private void removeFromServer(Entry entry) {
+        Map<Integer, List<Entry>> services = mServers.get(entry.serverIf);
+        if (services == null) {
+            return;
+        }
+        int serviceHandle = getServiceHandle(entry);
+        List<Entry> serviceEntries = services.get(serviceHandle);
+        if (serviceEntries == null) {
+            return;
+        }
+        serviceEntries.remove(entry);
+        if (serviceEntries.isEmpty()) {
+            services.remove(serviceHandle);
+            if (services.isEmpty()) {
+                mServers.remove(entry.serverIf);
+            }
+        }
+    }
+
+    private static int getServiceHandle(Entry entry) {
+        return entry.type == TYPE_SERVICE ? entry.handle : entry.serviceHandle;
+    }
 
     /**
      * Logs debug information.
      */
-    void dump(StringBuilder sb) {
+    synchronized void dump(StringBuilder sb) {
         sb.append("  Entries: " + mEntries.size() + "\n");
         sb.append("  Requests: " + mRequestMap.size() + "\n");
 
-        for (Entry entry : mEntries) {
+        for (Entry entry : getEntries()) {
             sb.append("  " + entry.serverIf + ": [" + entry.handle + "] ");
             switch (entry.type) {
                 case TYPE_SERVICE:
@@ -28,11 +28,17 @@ import android.os.RemoteException;
 import android.util.Log;
 
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -47,10 +53,23 @@ public class PeriodicScanManager {
 
     private final BluetoothAdapter mAdapter;
     Map<IBinder, SyncInfo> mSyncs = new ConcurrentHashMap<>();
+    /* Syncs by SyncInfo.id, i.e. by sync handle or by registration ID while the sync is being
+     * established. Only modified along with mSyncs while holding its lock, read without locking
+     * when dispatching the reports. */
+    private final Map<Integer, List<SyncInfo>> mSyncsById = new ConcurrentHashMap<>();
+    /* Data of the reports received in several fragments, by sync handle */
+    private final Map<Integer, ByteArrayOutputStream> mReportFragments = new ConcurrentHashMap<>();
+    /* Sync handles of the reports delivered truncated, whose next fragments are dropped until the
+     * last one */
+    private final Set<Integer> mDiscardedReports = ConcurrentHashMap.newKeySet();
     Map<IBinder, SyncTransferInfo> mSyncTransfers = Collections.synchronizedMap(new HashMap<>());
     static int sTempRegistrationId = -1;
     private static final int PA_SOURCE_LOCAL = 1;
     private static final int PA_SOURCE_REMOTE = 2;
+    /* Data status of a report fragment followed by other fragments */
+    private static final int DATA_STATUS_INCOMPLETE_MORE = 1;
+    /* Maximum length of the periodic advertising data */
+    private static final int MAX_REPORT_DATA_LENGTH = 1650;
     /**
      * Constructor of {@link SyncManager}.
      */
@@ -70,7 +89,12 @@ public class PeriodicScanManager {
             Log.d(TAG, "cleanup()");
         }
         cleanupNative();
-        mSyncs.clear();
+        synchronized (mSyncs) {
+            mSyncs.clear();
+            mSyncsById.clear();
+        }
+        mReportFragments.clear();
+        mDiscardedReports.clear();
         sTempRegistrationId = -1;
     }
 
@@ -140,15 +164,9 @@ public class PeriodicScanManager {
         }
     }
 
-    Map.Entry<IBinder, SyncInfo> findSync(int syncHandle) {
-        Map.Entry<IBinder, SyncInfo> entry = null;
-        for (Map.Entry<IBinder, SyncInfo> e : mSyncs.entrySet()) {
-            if (e.getValue().id == syncHandle) {
-                entry = e;
-                break;
-            }
-        }
-        return entry;
+    SyncInfo findSync(int syncHandle) {
+        List<SyncInfo> syncs = findAllSync(syncHandle);
+        return syncs.isEmpty() ? null : syncs.get(0);
     }
 
     Map.Entry<IBinder, SyncInfo> findMatchingSync(int advSid, String address) {
@@ -161,21 +179,46 @@ public class PeriodicScanManager {
         return entry;
     }
 
-    Map<IBinder, SyncInfo> findAllSync(int syncHandle) {
-        Map<IBinder, SyncInfo> syncMap = new HashMap<IBinder, SyncInfo>();
-        for (Map.Entry<IBinder, SyncInfo> e : mSyncs.entrySet()) {
-            if (e.getValue().id != syncHandle) {
-                continue;
+    /**
+     * @return the syncs of a sync handle or registration ID, as an immutable list
+     */
+    List<SyncInfo> findAllSync(int syncHandle) {
+        List<SyncInfo> syncs = mSyncsById.get(syncHandle);
+        return syncs == null ? Collections.emptyList() : syncs;
+    }
+
+    @VisibleForTesting
+    void putSync(IBinder binder, SyncInfo sync) {
+        synchronized (mSyncs) {
+            SyncInfo previous = mSyncs.put(binder, sync);
+            if (previous != null) {
+                unindexSync(previous);
+            }
+            List<SyncInfo> syncs = new ArrayList<>(findAllSync(sync.id));
+            syncs.add(sync);
+            mSyncsById.put(sync.id, Collections.unmodifiableList(syncs));
+        }
+    }
+
+    private SyncInfo removeSync(IBinder binder) {
+        synchronized (mSyncs) {
+            SyncInfo sync = mSyncs.remove(binder);
+            if (sync != null) {
+                unindexSync(sync);
             }
-            syncMap.put(e.getKey(), new SyncInfo(e.getValue().id,
-                                                 e.getValue().advSid,
-                                                 e.getValue().address,
-                                                 e.getValue().skip,
-                                                 e.getValue().timeout,
-                                                 e.getValue().deathRecipient,
-                                                 e.getValue().callback));
-        }
-        return syncMap;
+            return sync;
+        }
+    }
+
+    @GuardedBy("mSyncs")
+    private void unindexSync(SyncInfo sync) {
+        List<SyncInfo> syncs = new ArrayList<>(findAllSync(sync.id));
+        syncs.remove(sync);
+        if (syncs.isEmpty()) {
+            mSyncsById.remove(sync.id);
+        } else {
+            mSyncsById.put(sync.id, Collections.unmodifiableList(syncs));
+        }
     }
 
     void onSyncStarted(int regId, int syncHandle, int sid, int addressType, String address, int phy,
@@ -185,34 +228,28 @@ public class PeriodicScanManager {
                     "onSyncStarted() - regId=" + regId + ", syncHandle=" + syncHandle + ", status="
                             + status);
         }
-        Map<IBinder, SyncInfo> syncMap = findAllSync(regId);
-        if (syncMap.size() == 0) {
-            Log.d(TAG, "onSyncStarted() - no callback found for regId " + regId);
-            stopSyncNative(syncHandle);
-            return;
-        }
-
         synchronized (mSyncs) {
-            for (Map.Entry<IBinder, SyncInfo> e : mSyncs.entrySet()) {
-                if (e.getValue().id != regId) {
-                    continue;
-                }
-                IPeriodicAdvertisingCallback callback = e.getValue().callback;
+            List<SyncInfo> syncs = findAllSync(regId);
+            if (syncs.isEmpty()) {
+                Log.d(TAG, "onSyncStarted() - no callback found for regId " + regId);
+                stopSyncNative(syncHandle);
+                return;
+            }
+
+            for (SyncInfo sync : syncs) {
+                IPeriodicAdvertisingCallback callback = sync.callback;
+                IBinder binder = toBinder(callback);
                 if (status == 0) {
                     Log.d(TAG, "onSyncStarted: updating id with syncHandle " + syncHandle);
-                    e.setValue(new SyncInfo(syncHandle, sid, address, e.getValue().skip,
-                                            e.getValue().timeout, e.getValue().deathRecipient,
-                                            callback));
+                    putSync(binder, new SyncInfo(syncHandle, sid, address, sync.skip,
+                                                 sync.timeout, sync.deathRecipient, callback));
                     callback.onSyncEstablished(syncHandle, mAdapter.getRemoteDevice(address),
-                                               sid, e.getValue().skip, e.getValue().timeout,
-                                               status);
+                                               sid, sync.skip, sync.timeout, status);
                 } else {
                     callback.onSyncEstablished(syncHandle, mAdapter.getRemoteDevice(address),
-                                               sid, e.getValue().skip, e.getValue().timeout,
-                                               status);
-                    IBinder binder = e.getKey();
-                    binder.unlinkToDeath(e.getValue().deathRecipient, 0);
-                    mSyncs.remove(binder);
+                                               sid, sync.skip, sync.timeout, status);
+                    binder.unlinkToDeath(sync.deathRecipient, 0);
+                    removeSync(binder);
                 }
             }
         }
@@ -224,17 +261,53 @@ public class PeriodicScanManager {
             Log.d(TAG, "onSyncReport() - syncHandle=" + syncHandle);
         }
 
-        Map<IBinder, SyncInfo> syncMap = findAllSync(syncHandle);
-        if (syncMap.isEmpty()) {
+        List<SyncInfo> syncs = findAllSync(syncHandle);
+        if (syncs.isEmpty()) {
             Log.i(TAG, "onSyncReport() - no callback found for syncHandle " + syncHandle);
+            mReportFragments.remove(syncHandle);
+            mDiscardedReports.remove(syncHandle);
             return;
         }
-        for (Map.Entry<IBinder, SyncInfo> e :syncMap.entrySet()) {
-            IPeriodicAdvertisingCallback callback = e.getValue().callback;
-            PeriodicAdvertisingReport report =
-                    new PeriodicAdvertisingReport(syncHandle, txPower, rssi, dataStatus,
-                            ScanRecord.parseFromBytes(data));
-            callback.onPeriodicAdvertisingReport(report);
+
+        // The rest of a report already delivered truncated
+        if (mDiscardedReports.contains(syncHandle)) {
+            if (dataStatus != DATA_STATUS_INCOMPLETE_MORE) {
+                mDiscardedReports.remove(syncHandle);
+            }
+            return;
+        }
+
+        /* Reassemble the fragmented reports, so that the applications receive the complete
+         * data at once */
+        ByteArrayOutputStream fragments = mReportFragments.get(syncHandle);
+        if (fragments != null || dataStatus == DATA_STATUS_INCOMPLETE_MORE) {
+            if (fragments == null) {
+                fragments = new ByteArrayOutputStream();
+                mReportFragments.put(syncHandle, fragments);
+            }
+            if (data != null) {
+                fragments.write(data, 0, data.length);
+            }
+            if (dataStatus == DATA_STATUS_INCOMPLETE_MORE
+                    && fragments.size() <= MAX_REPORT_DATA_LENGTH) {
+                return;
+            }
+            mReportFragments.remove(syncHandle);
+            data = fragments.toByteArray();
+            if (data.length > MAX_REPORT_DATA_LENGTH) {
+                Log.w(TAG, "onSyncReport() - report too long for syncHandle " + syncHandle);
+                if (dataStatus == DATA_STATUS_INCOMPLETE_MORE) {
+                    mDiscardedReports.add(syncHandle);
+                }
+                dataStatus = PeriodicAdvertisingReport.DATA_INCOMPLETE_TRUNCATED;
+                data = Arrays.copyOf(data, MAX_REPORT_DATA_LENGTH);
+            }
+        }
+
+        PeriodicAdvertisingReport report = new PeriodicAdvertisingReport(syncHandle, txPower,
+                rssi, dataStatus, ScanRecord.parseFromBytes(data));
+        for (SyncInfo sync : syncs) {
+            sync.callback.onPeriodicAdvertisingReport(report);
         }
     }
 
@@ -242,17 +315,16 @@ public class PeriodicScanManager {
         if (DBG) {
             Log.d(TAG, "onSyncLost() - syncHandle=" + syncHandle);
         }
-        Map<IBinder, SyncInfo> syncMap = findAllSync(syncHandle);
-        if (syncMap.isEmpty()) {
+        mReportFragments.remove(syncHandle);
+        mDiscardedReports.remove(syncHandle);
+        List<SyncInfo> syncs = findAllSync(syncHandle);
+        if (syncs.isEmpty()) {
             Log.i(TAG, "onSyncLost() - no callback found for syncHandle " + syncHandle);
             return;
         }
-        for (Map.Entry<IBinder, SyncInfo> e :syncMap.entrySet()) {
-            IPeriodicAdvertisingCallback callback = e.getValue().callback;
-            IBinder binder = toBinder(callback);
-            synchronized (mSyncs) {
-                mSyncs.remove(binder);
-            }
+        for (SyncInfo sync : syncs) {
+            IPeriodicAdvertisingCallback callback = sync.callback;
+            removeSync(toBinder(callback));
             callback.onSyncLost(syncHandle);
 
         }
@@ -280,7 +352,7 @@ public class PeriodicScanManager {
                 if (DBG) {
                     Log.d(TAG, "startSync: Matching entry found");
                 }
-                mSyncs.put(binder, new SyncInfo(entry.getValue().id, sid, address,
+                putSync(binder, new SyncInfo(entry.getValue().id, sid, address,
                         entry.getValue().skip, entry.getValue().timeout, deathRecipient,
                         callback));
                 if (entry.getValue().id >= 0) {
@@ -300,7 +372,7 @@ public class PeriodicScanManager {
         }
 
         int cbId = --sTempRegistrationId;
-        mSyncs.put(binder, new SyncInfo(cbId, sid, address, skip, timeout,
+        putSync(binder, new SyncInfo(cbId, sid, address, skip, timeout,
                 deathRecipient, callback));
 
         if (DBG) {
@@ -314,10 +386,7 @@ public class PeriodicScanManager {
         if (DBG) {
             Log.d(TAG, "stopSync() " + binder);
         }
-        SyncInfo sync = null;
-        synchronized (mSyncs) {
-            sync = mSyncs.remove(binder);
-        }
+        SyncInfo sync = removeSync(binder);
         if (sync == null) {
             Log.e(TAG, "stopSync() - no client found for callback");
             return;
@@ -328,8 +397,7 @@ public class PeriodicScanManager {
         Log.d(TAG, "stopSync: " + syncHandle);
 
         synchronized (mSyncs) {
-            Map.Entry<IBinder, SyncInfo> entry = findSync(syncHandle);
-            if (entry != null) {
+            if (findSync(syncHandle) != null) {
                 Log.d(TAG, "stopSync() - another app synced to same PA, not stopping sync");
                 return;
             }
@@ -359,14 +427,14 @@ public class PeriodicScanManager {
 
     void transferSync(BluetoothDevice bda, int serviceData, int syncHandle) {
         Log.d(TAG, "transferSync()");
-        Map.Entry<IBinder, SyncInfo> entry = findSync(syncHandle);
-        if (entry == null) {
+        SyncInfo sync = findSync(syncHandle);
+        if (sync == null) {
             Log.d(TAG, "transferSync: callback not registered");
             return;
         }
         //check for duplicate transfers
-        mSyncTransfers.put(entry.getKey(), new SyncTransferInfo(bda.getAddress(),
-                           entry.getValue().callback));
+        mSyncTransfers.put(toBinder(sync.callback), new SyncTransferInfo(bda.getAddress(),
+                           sync.callback));
         syncTransferNative(PA_SOURCE_REMOTE, bda.getAddress(), serviceData, syncHandle);
     }
 
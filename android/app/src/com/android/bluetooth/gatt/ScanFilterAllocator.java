@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanFilter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Bookkeeping of the offloaded (APCF) scan filter indices.
+ *
+ * Identical filters of the scanners sharing the same filter parameters are programmed once in
+ * the controller and refcounted. When there are not enough free indices left for the filters of
+ * a scanner, they are replaced by broader filters (e.g. the manufacturer id without its data) that
+ * are more likely to be shared; the exact matching is done by the host on the results anyway.
+ *
+ * This class does not talk to the controller, the caller programs the new filters returned by
+ * {@link #allocate} and deletes the ones returned by {@link #release}.
+ */
+/* package */ class ScanFilterAllocator {
+    // Owner of the filters that can be shared between scanners
+    private static final int SHARED_OWNER = -1;
+
+    private final Deque<Integer> mFreeIndices = new ArrayDeque<>();
+    private final Map<Key, Slot> mSlots = new HashMap<>();
+    // Filter indices used by each scanner, an index appears once per reference
+    private final Map<Integer, List<Slot>> mScannerSlots = new HashMap<>();
+
+    /** A filter index used by a scanner. */
+    static final class Allocation {
+        final int filterIndex;
+        final ScanFilter filter;
+        final boolean isNew;
+
+        Allocation(int filterIndex, ScanFilter filter, boolean isNew) {
+            this.filterIndex = filterIndex;
+            this.filter = filter;
+            this.isNew = isNew;
+        }
+    }
+
+    /** Make a filter index available. */
+    void addFreeIndex(int filterIndex) {
+        mFreeIndices.add(filterIndex);
+    }
+
+    /** True if no filter index was ever made available or they were all cleared. */
+    boolean isEmpty() {
+        return mFreeIndices.isEmpty() && mSlots.isEmpty();
+    }
+
+    int getFreeIndexCount() {
+        return mFreeIndices.size();
+    }
+
+    int getRefCount(int filterIndex) {
+        for (Slot slot : mSlots.values()) {
+            if (slot.mFilterIndex == filterIndex) {
+                return slot.mRefCount;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Allocate the filter indices of the filters of a scanner.
+     *
+     * @param scannerId id of the scanner
+     * @param filters filters of the scanner, not empty
+     * @param deliveryMode delivery mode of the filter parameters
+     * @param matchMode match mode of the filter parameters
+     * @param shareable whether the filters can be shared with other scanners; filters using
+     *        per-scanner controller resources (e.g. onfound/onlost tracking) must not be
+     * @return the allocations, in the order of {@code filters}, or null if there are not enough
+     *         free filter indices and the scanner must use the ALL_PASS filter
+     */
+    List<Allocation> allocate(int scannerId, List<ScanFilter> filters, int deliveryMode,
+            int matchMode, boolean shareable) {
+        int owner = shareable ? SHARED_OWNER : scannerId;
+        List<Key> keys = new ArrayList<>(filters.size());
+        for (ScanFilter filter : filters) {
+            keys.add(new Key(filter, deliveryMode, matchMode, owner));
+        }
+        if (countNewSlots(keys) > mFreeIndices.size()) {
+            if (!shareable) {
+                return null;
+            }
+            // Keep using the exact filters already in the controller, broaden the others
+            for (int i = 0; i < keys.size(); i++) {
+                if (!mSlots.containsKey(keys.get(i))) {
+                    keys.set(i, new Key(broaden(filters.get(i)), deliveryMode, matchMode, owner));
+                }
+            }
+            if (countNewSlots(keys) > mFreeIndices.size()) {
+                return null;
+            }
+        }
+
+        List<Slot> scannerSlots = mScannerSlots.computeIfAbsent(scannerId,
+                k -> new ArrayList<>());
+        List<Allocation> allocations = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            Slot slot = mSlots.get(key);
+            boolean isNew = slot == null;
+            if (isNew) {
+                slot = new Slot(key, mFreeIndices.pop());
+                mSlots.put(key, slot);
+            }
+            slot.mRefCount++;
+            scannerSlots.add(slot);
+            allocations.add(new Allocation(slot.mFilterIndex, key.mFilter, isNew));
+        }
+        return allocations;
+    }
+
+    /**
+     * Release all the filter indices of a scanner.
+     *
+     * @return the filter indices no longer used by any scanner, which are free again
+     */
+    List<Integer> release(int scannerId) {
+        List<Slot> scannerSlots = mScannerSlots.remove(scannerId);
+        List<Integer> released = new ArrayList<>();
+        if (scannerSlots == null) {
+            return released;
+        }
+        for (Slot slot : scannerSlots) {
+            slot.mRefCount--;
+            if (slot.mRefCount == 0) {
+                mSlots.remove(slot.mKey);
+                mFreeIndices.add(slot.mFilterIndex);
+                released.add(slot.mFilterIndex);
+            }
+        }
+        return released;
+    }
+
+    private int countNewSlots(List<Key> keys) {
+        Set<Key> newKeys = new HashSet<>();
+        for (Key key : keys) {
+            if (!mSlots.containsKey(key)) {
+                newKeys.add(key);
+            }
+        }
+        return newKeys.size();
+    }
+
+    /**
+     * Get a filter matching at least everything {@code filter} matches, keeping only its most
+     * discriminating field without data or mask so that it can be shared more widely.
+     */
+    static ScanFilter broaden(ScanFilter filter) {
+        if (filter.getDeviceAddress() != null) {
+            // Already as narrow and cheap as it gets
+            return filter;
+        }
+        ScanFilter.Builder builder = new ScanFilter.Builder();
+        if (filter.getServiceUuid() != null) {
+            builder.setServiceUuid(filter.getServiceUuid(), filter.getServiceUuidMask());
+        } else if (filter.getServiceDataUuid() != null && filter.getServiceData() != null) {
+            builder.setServiceData(filter.getServiceDataUuid(), new byte[0]);
+        } else if (filter.getManufacturerData() != null) {
+            builder.setManufacturerData(filter.getManufacturerId(), new byte[0]);
+        } else if (filter.getServiceSolicitationUuid() != null) {
+            builder.setServiceSolicitationUuid(filter.getServiceSolicitationUuid(),
+                    filter.getServiceSolicitationUuidMask());
+        } else if (filter.getDeviceName() != null) {
+            builder.setDeviceName(filter.getDeviceName());
+        } else {
+            return filter;
+        }
+        return builder.build();
+    }
+
+    private static final class Key {
+        final ScanFilter mFilter;
+        final int mDeliveryMode;
+        final int mMatchMode;
+        final int mOwner;
+
+        Key(ScanFilter filter, int deliveryMode, int matchMode, int owner) {
+            mFilter = filter;
+            mDeliveryMode = deliveryMode;
+            mMatchMode = matchMode;
+            mOwner = owner;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mDeliveryMode == other.mDeliveryMode && mMatchMode == other.mMatchMode
+                    && mOwner == other.mOwner && Objects.equals(mFilter, other.mFilter);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mFilter, mDeliveryMode, mMatchMode, mOwner);
+        }
+    }
+
+    private static final class Slot {
+        final Key mKey;
+        final int mFilterIndex;
+        int mRefCount;
+
+        Slot(Key key, int filterIndex) {
+            mKey = key;
+            mFilterIndex = filterIndex;
+        }
+    }
+}
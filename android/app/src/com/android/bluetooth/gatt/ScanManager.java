@@ -47,12 +47,9 @@ import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.BluetoothAdapterProxy;
 import com.android.internal.annotations.VisibleForTesting;
 
-import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.Deque;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -750,10 +747,9 @@ public class ScanManager {
         // The logic is AND for each filter field.
         private static final int LIST_LOGIC_TYPE = 0x1111111;
         private static final int FILTER_LOGIC_TYPE = 1;
-        // Filter indices that are available to user. It's sad we need to maintain filter index.
-        private final Deque<Integer> mFilterIndexStack;
-        // Map of scannerId and Filter indices used by client.
-        private final Map<Integer, Deque<Integer>> mClientFilterIndexMap;
+        // Filter indices that are available to user, shared between clients with identical
+        // filters. It's sad we need to maintain filter index.
+        private final ScanFilterAllocator mFilterAllocator = new ScanFilterAllocator();
         // Keep track of the clients that uses ALL_PASS filters.
         private final Set<Integer> mAllPassRegularClients = new HashSet<>();
         private final Set<Integer> mAllPassBatchClients = new HashSet<>();
@@ -762,9 +758,6 @@ public class ScanManager {
         private PendingIntent mBatchScanIntervalIntent;
 
         ScanNative() {
-            mFilterIndexStack = new ArrayDeque<Integer>();
-            mClientFilterIndexMap = new HashMap<Integer, Deque<Integer>>();
-
             mAlarmManager = mService.getSystemService(AlarmManager.class);
             Intent batchIntent = new Intent(ACTION_REFRESH_BATCHED_SCAN, null);
             mBatchScanIntervalIntent = PendingIntent.getBroadcast(mService, 0, batchIntent,
@@ -859,8 +852,7 @@ public class ScanManager {
         }
 
         void startRegularScan(ScanClient client) {
-            if (isFilteringSupported() && mFilterIndexStack.isEmpty()
-                    && mClientFilterIndexMap.isEmpty()) {
+            if (isFilteringSupported() && mFilterAllocator.isEmpty()) {
                 initFilterIndexStack();
             }
             if (isFilteringSupported()) {
@@ -888,7 +880,7 @@ public class ScanManager {
         }
 
         void startBatchScan(ScanClient client) {
-            if (mFilterIndexStack.isEmpty() && isFilteringSupported()) {
+            if (isFilteringSupported() && mFilterAllocator.isEmpty()) {
                 initFilterIndexStack();
             }
             configureScanFilters(client);
@@ -1188,7 +1180,8 @@ public class ScanManager {
 
         // Add scan filters. The logic is:
         // If no offload filter can/needs to be set, set ALL_PASS filter.
-        // Otherwise offload all filters to hardware and enable all filters.
+        // Otherwise offload all filters to hardware, sharing the ones already offloaded for other
+        // clients, and enable all filters.
         private void configureScanFilters(ScanClient client) {
             int scannerId = client.scannerId;
             int deliveryMode = getDeliveryMode(client);
@@ -1199,7 +1192,9 @@ public class ScanManager {
                 return;
             }
 
-            if (!shouldAddAllPassFilterToController(client, deliveryMode)) {
+            List<ScanFilterAllocator.Allocation> allocations = allocateScanFilters(client,
+                    deliveryMode);
+            if (!shouldAddAllPassFilterToController(client, deliveryMode, allocations == null)) {
                 return;
             }
 
@@ -1207,7 +1202,7 @@ public class ScanManager {
             gattClientScanFilterEnableNative(scannerId, true);
             waitForCallback();
 
-            if (shouldUseAllPassFilter(client)) {
+            if (allocations == null) {
                 int filterIndex =
                         (deliveryMode == DELIVERY_MODE_BATCH) ? ALL_PASS_FILTER_INDEX_BATCH_SCAN
                                 : ALL_PASS_FILTER_INDEX_REGULAR_SCAN;
@@ -1217,18 +1212,7 @@ public class ScanManager {
                         0);
                 waitForCallback();
             } else {
-                Deque<Integer> clientFilterIndices = new ArrayDeque<Integer>();
-                for (ScanFilter filter : client.filters) {
-                    ScanFilterQueue queue = new ScanFilterQueue();
-                    queue.addScanFilter(filter);
-                    int featureSelection = queue.getFeatureSelection();
-                    int filterIndex = mFilterIndexStack.pop();
-
-                    resetCountDownLatch();
-                    gattClientScanFilterAddNative(scannerId, queue.toArray(), filterIndex);
-                    waitForCallback();
-
-                    resetCountDownLatch();
+                for (ScanFilterAllocator.Allocation allocation : allocations) {
                     if (deliveryMode == DELIVERY_MODE_ON_FOUND_LOST) {
                         trackEntries = getNumOfTrackingAdvertisements(client.settings);
                         if (!manageAllocationOfTrackingAdvertisement(trackEntries, true)) {
@@ -1242,20 +1226,47 @@ public class ScanManager {
                             }
                         }
                     }
+                    // Already offloaded for another client
+                    if (!allocation.isNew) {
+                        continue;
+                    }
+                    ScanFilterQueue queue = new ScanFilterQueue();
+                    queue.addScanFilter(allocation.filter);
+                    int featureSelection = queue.getFeatureSelection();
+                    int filterIndex = allocation.filterIndex;
+
+                    resetCountDownLatch();
+                    gattClientScanFilterAddNative(scannerId, queue.toArray(), filterIndex);
+                    waitForCallback();
+
+                    resetCountDownLatch();
                     configureFilterParamter(scannerId, client, featureSelection, filterIndex,
                             trackEntries);
                     waitForCallback();
-                    clientFilterIndices.add(filterIndex);
                 }
-                mClientFilterIndexMap.put(scannerId, clientFilterIndices);
             }
         }
 
+        // Allocate the offload filter indices of the client, returns null if ALL_PASS filter
+        // should be used for the client.
+        private List<ScanFilterAllocator.Allocation> allocateScanFilters(ScanClient client,
+                int deliveryMode) {
+            if (client.filters == null || client.filters.isEmpty()) {
+                return null;
+            }
+            // Onfound/onlost tracking resources are accounted per client and filter
+            boolean shareable = deliveryMode != DELIVERY_MODE_ON_FOUND_LOST;
+            int matchMode = client.settings != null ? client.settings.getMatchMode() : 0;
+            return mFilterAllocator.allocate(client.scannerId, client.filters, deliveryMode,
+                    matchMode, shareable);
+        }
+
         // Check whether the filter should be added to controller.
         // Note only on ALL_PASS filter should be added.
-        private boolean shouldAddAllPassFilterToController(ScanClient client, int deliveryMode) {
+        private boolean shouldAddAllPassFilterToController(ScanClient client, int deliveryMode,
+                boolean useAllPassFilter) {
             // Not an ALL_PASS client, need to add filter.
-            if (!shouldUseAllPassFilter(client)) {
+            if (!useAllPassFilter) {
                 return true;
             }
 
@@ -1269,14 +1280,11 @@ public class ScanManager {
         }
 
         private void removeScanFilters(int scannerId) {
-            Deque<Integer> filterIndices = mClientFilterIndexMap.remove(scannerId);
-            if (filterIndices != null) {
-                mFilterIndexStack.addAll(filterIndices);
-                for (Integer filterIndex : filterIndices) {
-                    resetCountDownLatch();
-                    gattClientScanFilterParamDeleteNative(scannerId, filterIndex);
-                    waitForCallback();
-                }
+            // Only delete the filters no other client uses
+            for (int filterIndex : mFilterAllocator.release(scannerId)) {
+                resetCountDownLatch();
+                gattClientScanFilterParamDeleteNative(scannerId, filterIndex);
+                waitForCallback();
             }
             // Remove if ALL_PASS filters are used.
             removeFilterIfExisits(mAllPassRegularClients, scannerId,
@@ -1323,17 +1331,6 @@ public class ScanManager {
             return -1;
         }
 
-        // Check if ALL_PASS filter should be used for the client.
-        private boolean shouldUseAllPassFilter(ScanClient client) {
-            if (client == null) {
-                return true;
-            }
-            if (client.filters == null || client.filters.isEmpty()) {
-                return true;
-            }
-            return client.filters.size() > mFilterIndexStack.size();
-        }
-
         private void initFilterIndexStack() {
             int maxFiltersSupported =
                     AdapterService.getAdapterService().getNumOfOffloadedScanFilterSupported();
@@ -1343,7 +1340,7 @@ public class ScanManager {
             // index 2 is reserved for ALL_PASS filter for batch scan apps.
             // index 3 is reserved for BAP/CAP Announcements
             for (int i = 4; i < maxFiltersSupported; ++i) {
-                mFilterIndexStack.add(i);
+                mFilterAllocator.addFreeIndex(i);
             }
         }
 
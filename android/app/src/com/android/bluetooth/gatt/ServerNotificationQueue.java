@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Queues of the notifications sent by the GATT server applications to several devices at once.
+ *
+ * Each connection has at most a few notifications handed to the stack at a time, the next ones
+ * are sent as the stack reports them sent and while the link is not congested. A queued state
+ * value is replaced by a newer value of the same attribute, so that a connection that cannot keep
+ * up only receives the latest state of a quickly changing characteristic. Events, e.g. the result
+ * of a control point operation, are never replaced and are all sent in order.
+ */
+/* package */ class ServerNotificationQueue {
+    private static final boolean DBG = GattServiceConfig.DBG;
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "ServerNotificationQueue";
+
+    /** Sends a notification through the stack. */
+    interface NotificationSender {
+        void sendNotification(int serverIf, int connId, int handle, byte[] value);
+    }
+
+    private static final class Notification {
+        final int mHandle;
+        final byte[] mValue;
+        final boolean mCoalesce;
+
+        Notification(int handle, byte[] value, boolean coalesce) {
+            mHandle = handle;
+            mValue = value;
+            mCoalesce = coalesce;
+        }
+    }
+
+    private static final class Connection {
+        final int mServerIf;
+        // Notifications not sent yet, in the order of their last update
+        final ArrayDeque<Notification> mPending = new ArrayDeque<>();
+        int mInFlightCount;
+        boolean mCongested;
+
+        Connection(int serverIf) {
+            mServerIf = serverIf;
+        }
+    }
+
+    private final NotificationSender mSender;
+    private final int mMaxInFlight;
+
+    @GuardedBy("this")
+    private final Map<Integer, Connection> mConnections = new HashMap<>();
+    @GuardedBy("this")
+    private long mSentCount;
+    @GuardedBy("this")
+    private long mCoalescedCount;
+
+    /**
+     * @param maxInFlight number of notifications handed to the stack per connection and not
+     *        reported sent yet
+     */
+    ServerNotificationQueue(NotificationSender sender, int maxInFlight) {
+        mSender = sender;
+        mMaxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Queue the notification of a value, sending it right away if the connection allows it.
+     *
+     * @param coalesce whether the value is a state that replaces the queued value of the same
+     *        attribute, false for an event that must reach the device
+     */
+    synchronized void enqueue(int serverIf, int connId, int handle, byte[] value,
+            boolean coalesce) {
+        Connection connection = mConnections.get(connId);
+        if (connection == null) {
+            connection = new Connection(serverIf);
+            mConnections.put(connId, connection);
+        }
+        // Move the attribute at the end so that the values go out in the order of the updates
+        if (coalesce) {
+            Iterator<Notification> iterator = connection.mPending.iterator();
+            while (iterator.hasNext()) {
+                Notification pending = iterator.next();
+                if (pending.mCoalesce && pending.mHandle == handle) {
+                    iterator.remove();
+                    mCoalescedCount++;
+                    break;
+                }
+            }
+        }
+        connection.mPending.add(new Notification(handle, value, coalesce));
+        sendPending(connId, connection);
+    }
+
+    /**
+     * To be called when the stack reported a notification sent on a connection.
+     *
+     * @return whether the notification was sent from this queue, in which case the application
+     *         is not told about it
+     */
+    synchronized boolean onNotificationSent(int connId) {
+        Connection connection = mConnections.get(connId);
+        if (connection == null || connection.mInFlightCount == 0) {
+            return false;
+        }
+        connection.mInFlightCount--;
+        sendPending(connId, connection);
+        removeIfIdle(connId, connection);
+        return true;
+    }
+
+    synchronized void onCongestionChanged(int serverIf, int connId, boolean congested) {
+        Connection connection = mConnections.get(connId);
+        if (connection == null) {
+            if (!congested) {
+                return;
+            }
+            // Keep track of the congestion for the notifications queued later on
+            connection = new Connection(serverIf);
+            mConnections.put(connId, connection);
+        }
+        connection.mCongested = congested;
+        sendPending(connId, connection);
+        removeIfIdle(connId, connection);
+    }
+
+    /**
+     * Drop the notifications of a connection, e.g. because it is closed.
+     */
+    synchronized void removeConnection(int connId) {
+        mConnections.remove(connId);
+    }
+
+    /**
+     * Drop the notifications of a server application, e.g. because it is unregistered.
+     */
+    synchronized void removeServer(int serverIf) {
+        mConnections.values().removeIf(connection -> connection.mServerIf == serverIf);
+    }
+
+    synchronized void clear() {
+        mConnections.clear();
+    }
+
+    @VisibleForTesting
+    synchronized int getPendingCount(int connId) {
+        Connection connection = mConnections.get(connId);
+        return connection == null ? 0 : connection.mPending.size();
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("  Sent: " + mSentCount + ", coalesced: " + mCoalescedCount + "\n");
+        for (Map.Entry<Integer, Connection> entry : mConnections.entrySet()) {
+            Connection connection = entry.getValue();
+            sb.append("  connId: " + entry.getKey() + ", serverIf: " + connection.mServerIf
+                    + ", in flight: " + connection.mInFlightCount
+                    + ", pending: " + connection.mPending.size()
+                    + (connection.mCongested ? ", congested" : "") + "\n");
+        }
+    }
+
+    @GuardedBy("this")
+    private void sendPending(int connId, Connection connection) {
+        while (!connection.mCongested && connection.mInFlightCount < mMaxInFlight
+                && !connection.mPending.isEmpty()) {
+            Notification notification = connection.mPending.poll();
+            connection.mInFlightCount++;
+            mSentCount++;
+            if (DBG) {
+                Log.d(TAG, "sendPending() - connId=" + connId + ", handle="
+                        + notification.mHandle);
+            }
+            mSender.sendNotification(connection.mServerIf, connId, notification.mHandle,
+                    notification.mValue);
+        }
+    }
+
+    @GuardedBy("this")
+    private void removeIfIdle(int connId, Connection connection) {
+        if (connection.mInFlightCount == 0 && connection.mPending.isEmpty()
+                && !connection.mCongested) {
+            mConnections.remove(connId);
+        }
+    }
+}
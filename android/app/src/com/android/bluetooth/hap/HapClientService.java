@@ -432,6 +432,22 @@ public class HapClientService extends ProfileService {
         return true;
     }
 
+    /**
+     * Called by a state machine when the connection state of its device changed, before the
+     * connection state broadcast is sent.
+     *
+     * @param device remote device
+     * @param fromState from which connection state is the change
+     * @param toState to which connection state is the change
+     */
+    void onConnectionStateChangedFromStateMachine(BluetoothDevice device, int fromState,
+            int toState) {
+        if (mAdapterService != null) {
+            mAdapterService.notifyProfileConnectionStateChanged(BluetoothProfile.HAP_CLIENT, device,
+                    fromState, toState);
+        }
+    }
+
     @VisibleForTesting
     synchronized void connectionStateChanged(BluetoothDevice device, int fromState,
                                              int toState) {
@@ -1080,6 +1096,7 @@ public class HapClientService extends ProfileService {
 
         Intent intent = null;
         BluetoothDevice device = stackEvent.device;
+        BluetoothDevice availableDevice = null;
 
         switch (stackEvent.type) {
             case (HapClientStackEvent.EVENT_TYPE_DEVICE_AVAILABLE): {
@@ -1087,6 +1104,7 @@ public class HapClientService extends ProfileService {
 
                 if (device != null) {
                     mDeviceFeaturesMap.put(device, features);
+                    availableDevice = device;
 
                     intent = new Intent(BluetoothHapClient.ACTION_HAP_DEVICE_AVAILABLE);
                     intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
@@ -1179,6 +1197,10 @@ public class HapClientService extends ProfileService {
         if (intent != null) {
             sendBroadcast(intent, BLUETOOTH_PRIVILEGED);
         }
+        if (availableDevice != null && mAdapterService != null) {
+            mAdapterService.notifyProfileDeviceAvailable(BluetoothProfile.HAP_CLIENT,
+                    availableDevice);
+        }
     }
 
     private void resendToStateMachine(HapClientStackEvent stackEvent) {
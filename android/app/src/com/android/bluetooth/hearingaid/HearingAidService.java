@@ -693,6 +693,7 @@ public class HearingAidService extends ProfileService {
     }
 
     private void notifyActiveDeviceChanged() {
+        mAdapterService.notifyActiveDeviceChanged(BluetoothProfile.HEARING_AID, mActiveDevice);
         Intent intent = new Intent(BluetoothHearingAid.ACTION_ACTIVE_DEVICE_CHANGED);
         intent.putExtra(BluetoothDevice.EXTRA_DEVICE, mActiveDevice);
         intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
@@ -867,6 +868,22 @@ public class HearingAidService extends ProfileService {
         return result;
     }
 
+    /**
+     * Called by a state machine when the connection state of its device changed, before the
+     * connection state broadcast is sent.
+     *
+     * @param device remote device
+     * @param fromState from which connection state is the change
+     * @param toState to which connection state is the change
+     */
+    void onConnectionStateChangedFromStateMachine(BluetoothDevice device, int fromState,
+            int toState) {
+        if (mAdapterService != null) {
+            mAdapterService.notifyProfileConnectionStateChanged(BluetoothProfile.HEARING_AID, device,
+                    fromState, toState);
+        }
+    }
+
     @VisibleForTesting
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_PRIVILEGED)
     synchronized void connectionStateChanged(BluetoothDevice device, int fromState,
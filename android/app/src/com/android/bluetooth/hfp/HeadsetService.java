@@ -57,6 +57,7 @@ import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
+import com.android.bluetooth.btservice.StateMachineQueueLatency;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.bluetooth.hfpclient.HeadsetClientService;
 import com.android.bluetooth.le_audio.LeAudioService;
@@ -125,6 +126,8 @@ public class HeadsetService extends ProfileService {
     private DatabaseManager mDatabaseManager;
     private HandlerThread mStateMachinesThread;
     private Handler mStateMachinesThreadHandler;
+    private final StateMachineQueueLatency mStateMachinesQueueLatency =
+            new StateMachineQueueLatency("HeadsetService.StateMachines");
     // This is also used as a lock for shared data in HeadsetService
     private final HashMap<BluetoothDevice, HeadsetStateMachine> mStateMachines = new HashMap<>();
     private HeadsetNativeInterface mNativeInterface;
@@ -273,6 +276,7 @@ public class HeadsetService extends ProfileService {
         } catch (InterruptedException e) {
             // Do not rethrow as we are shutting down anyway
         }
+        mStateMachinesQueueLatency.clear();
 
         mStateMachinesThreadHandler = null;
         // Step 1: Clear
@@ -312,6 +316,17 @@ public class HeadsetService extends ProfileService {
         return mStateMachinesThread.getLooper();
     }
 
+    /**
+     * Called by the state machine of a device before it handles a message, to track how long
+     * messages wait in the queue of the state machine thread.
+     *
+     * @param device device of the state machine
+     * @param whenUptimeMs the uptime at which the message was due
+     */
+    void onStateMachineMessageDispatched(BluetoothDevice device, long whenUptimeMs) {
+        mStateMachinesQueueLatency.onMessageDispatched(device, whenUptimeMs);
+    }
+
     interface StateMachineTask {
         void execute(HeadsetStateMachine stateMachine);
     }
@@ -2027,6 +2042,8 @@ public class HeadsetService extends ProfileService {
     @RequiresPermission(android.Manifest.permission.MODIFY_PHONE_STATE)
     public void onConnectionStateChangedFromStateMachine(BluetoothDevice device, int fromState,
             int toState) {
+        mAdapterService.notifyProfileConnectionStateChanged(BluetoothProfile.HEADSET, device,
+                fromState, toState);
         if (fromState != BluetoothProfile.STATE_CONNECTED
                 && toState == BluetoothProfile.STATE_CONNECTED) {
             updateInbandRinging(device, true);
@@ -2164,6 +2181,7 @@ public class HeadsetService extends ProfileService {
         BluetoothStatsLog.write(BluetoothStatsLog.BLUETOOTH_ACTIVE_DEVICE_CHANGED,
                 BluetoothProfile.HEADSET, mAdapterService.obfuscateAddress(device),
                 mAdapterService.getMetricId(device));
+        mAdapterService.notifyActiveDeviceChanged(BluetoothProfile.HEADSET, device);
         Intent intent = new Intent(BluetoothHeadset.ACTION_ACTIVE_DEVICE_CHANGED);
         intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
         intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
@@ -2268,6 +2286,7 @@ public class HeadsetService extends ProfileService {
             Log.i(TAG, "removeStateMachine(), removing state machine for device: " + device);
             HeadsetObjectsFactory.getInstance().destroyStateMachine(stateMachine);
             mStateMachines.remove(device);
+            mStateMachinesQueueLatency.removeDevice(device);
         }
     }
 
@@ -2337,6 +2356,7 @@ public class HeadsetService extends ProfileService {
             ProfileService.println(sb, "AudioManager.isBluetoothScoOn(): " + isScoOn);
             ProfileService.println(sb, "Telecom.isInCall(): " + mSystemInterface.isInCall());
             ProfileService.println(sb, "Telecom.isRinging(): " + mSystemInterface.isRinging());
+            mStateMachinesQueueLatency.dump(sb);
             for (HeadsetStateMachine stateMachine : mStateMachines.values()) {
                 ProfileService.println(sb,
                         "==== StateMachine for " + stateMachine.getDevice() + " ====");
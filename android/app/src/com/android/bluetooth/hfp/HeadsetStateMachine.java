@@ -40,9 +40,11 @@ import android.telephony.ServiceState;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.android.bluetooth.BluetoothMetricsProto.LatencyMetric;
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.internal.annotations.VisibleForTesting;
@@ -252,6 +254,11 @@ public class HeadsetStateMachine extends StateMachine {
         mHasNrecEnabled = false;
     }
 
+    @Override
+    protected void onPreHandleMessage(Message msg) {
+        mHeadsetService.onStateMachineMessageDispatched(mDevice, msg.getWhen());
+    }
+
     public void dump(StringBuilder sb) {
         ProfileService.println(sb, "  mCurrentDevice: " + mDevice);
         ProfileService.println(sb, "  mCurrentState: " + mCurrentState);
@@ -1067,6 +1074,8 @@ public class HeadsetStateMachine extends StateMachine {
         public void enter() {
             super.enter();
             if (mPrevState == mConnecting) {
+                MetricsLogger.logLatency(LatencyMetric.LATENCY_PROFILE_CONNECTION,
+                        (SystemClock.uptimeMillis() - mConnectingTimestampMs) * 1000);
                 // Reset AG indicator subscriptions, HF can set this later using AT+BIA command
                 updateAgIndicatorEnableState(DEFAULT_AG_INDICATOR_ENABLE_STATE);
                 // Reset NREC on connect event. Headset will override later
@@ -35,6 +35,7 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
 
@@ -53,6 +54,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** @hide */
 public class HidDeviceService extends ProfileService {
@@ -77,9 +79,14 @@ public class HidDeviceService extends ProfileService {
     private HidDeviceNativeInterface mHidDeviceNativeInterface;
 
     private boolean mNativeAvailable = false;
-    private BluetoothDevice mHidDevice;
+    // Read without locking by sendReportAsync()
+    private volatile BluetoothDevice mHidDevice;
     private int mHidDeviceState = BluetoothHidDevice.STATE_DISCONNECTED;
-    private int mUserUid = 0;
+    private volatile int mUserUid = 0;
+    // UID of the registered app once its permissions were checked for sendReportAsync()
+    private volatile int mAsyncReportPermittedUid = 0;
+    private final AtomicLong mAsyncReportCount = new AtomicLong();
+    private final AtomicLong mAsyncReportDropCount = new AtomicLong();
     private IBluetoothHidDeviceCallback mCallback;
     private BluetoothHidDeviceDeathRecipient mDeathRcpt;
     private ActivityManager mActivityManager;
@@ -370,6 +377,25 @@ public class HidDeviceService extends ProfileService {
             }
         }
 
+        @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+        @Override
+        public void sendReportAsync(BluetoothDevice device, int id, byte[] data,
+                long timestampNanos, AttributionSource source) {
+            // The permissions are only checked on the first report of the registered app, the
+            // following ones of a stream skip the checks
+            HidDeviceService service = mService;
+            int callingUid = Binder.getCallingUid();
+            if (service == null || !service.isAvailable()
+                    || !service.isAsyncReportPermitted(callingUid)) {
+                service = getService(source);
+                if (service == null) {
+                    return;
+                }
+                service.setAsyncReportPermitted(callingUid);
+            }
+            service.sendReportAsync(device, id, data, timestampNanos);
+        }
+
         @Override
         public void replyReport(BluetoothDevice device, byte type, byte id, byte[] data,
                 AttributionSource source, SynchronousResultReceiver receiver) {
@@ -540,7 +566,8 @@ public class HidDeviceService extends ProfileService {
     }
 
     private boolean checkDevice(BluetoothDevice device) {
-        if (mHidDevice == null || !mHidDevice.equals(device)) {
+        BluetoothDevice hidDevice = mHidDevice;
+        if (hidDevice == null || !hidDevice.equals(device)) {
             Log.w(TAG, "Unknown device: " + device);
             return false;
         }
@@ -574,6 +601,7 @@ public class HidDeviceService extends ProfileService {
             return false;
         }
         mUserUid = callingUid;
+        mAsyncReportPermittedUid = 0;
         mCallback = callback;
 
         return mHidDeviceNativeInterface.registerApp(
@@ -620,6 +648,7 @@ public class HidDeviceService extends ProfileService {
 
         if (mUserUid != 0 && (uid == mUserUid || uid < Process.FIRST_APPLICATION_UID)) {
             mUserUid = 0;
+            mAsyncReportPermittedUid = 0;
             return mHidDeviceNativeInterface.unregisterApp();
         }
         if (DBG) {
@@ -637,6 +666,51 @@ public class HidDeviceService extends ProfileService {
                 && mHidDeviceNativeInterface.sendReport(id, data);
     }
 
+    /**
+     * Send a report streamed by the app. Unlike {@link #sendReport}, this does not take the
+     * service lock so that the reports of a high rate stream are not held behind other calls.
+     *
+     * @param timestampNanos time the app sent the report, from
+     *        {@link SystemClock#elapsedRealtimeNanos()}
+     */
+    boolean sendReportAsync(BluetoothDevice device, int id, byte[] data, long timestampNanos) {
+        if (DBG) {
+            Log.d(TAG, "sendReportAsync(): device=" + device + " id=" + id);
+        }
+
+        if (!checkDevice(device) || !checkCallingUid()
+                || !mHidDeviceNativeInterface.sendReport(id, data)) {
+            mAsyncReportDropCount.incrementAndGet();
+            return false;
+        }
+        mAsyncReportCount.incrementAndGet();
+        // The timestamp comes from the app, ignore the ones that cannot be a send time
+        if (timestampNanos > 0 && timestampNanos <= SystemClock.elapsedRealtimeNanos()) {
+            MetricsLogger.logLatencySince(BluetoothMetricsProto.LatencyMetric.LATENCY_HID_REPORT,
+                    timestampNanos);
+        }
+        return true;
+    }
+
+    boolean isAsyncReportPermitted(int uid) {
+        return uid != 0 && uid == mAsyncReportPermittedUid;
+    }
+
+    /**
+     * Remember that the permissions of the registered app were checked, until it is unregistered.
+     * An app losing its runtime permissions is killed, which unregisters it.
+     */
+    synchronized void setAsyncReportPermitted(int uid) {
+        if (uid == mUserUid) {
+            mAsyncReportPermittedUid = uid;
+        }
+    }
+
+    @VisibleForTesting
+    long getAsyncReportCount() {
+        return mAsyncReportCount.get();
+    }
+
     synchronized boolean replyReport(BluetoothDevice device, byte type, byte id, byte[] data) {
         if (DBG) {
             Log.d(TAG, "replyReport(): device=" + device + " type=" + type + " id=" + id);
@@ -980,6 +1054,15 @@ public class HidDeviceService extends ProfileService {
         sendBroadcast(intent, BLUETOOTH_CONNECT, Utils.getTempAllowlistBroadcastOptions());
     }
 
+    @Override
+    public void dump(StringBuilder sb) {
+        super.dump(sb);
+        println(sb, "mHidDevice: " + mHidDevice);
+        println(sb, "mHidDeviceState: " + mHidDeviceState);
+        println(sb, "Async reports: sent=" + mAsyncReportCount.get()
+                + " dropped=" + mAsyncReportDropCount.get());
+    }
+
     private static int convertHalState(int halState) {
         switch (halState) {
             case HAL_CONN_STATE_CONNECTED:
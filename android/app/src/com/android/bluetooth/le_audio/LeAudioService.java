@@ -59,6 +59,7 @@ import android.util.Pair;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ProfileEventBus;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -178,7 +179,7 @@ public class LeAudioService extends ProfileService {
             new LinkedHashMap<>();
 
     private BroadcastReceiver mBondStateChangedReceiver;
-    private BroadcastReceiver mConnectionStateChangedReceiver;
+    private ProfileEventBus.Listener mProfileEventListener;
     private BroadcastReceiver mMuteStateChangedReceiver;
     private int mStoredRingerMode = -1;
     private Handler mHandler = new Handler(Looper.getMainLooper());
@@ -246,10 +247,10 @@ public class LeAudioService extends ProfileService {
         filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         mBondStateChangedReceiver = new BondStateChangedReceiver();
         registerReceiver(mBondStateChangedReceiver, filter);
-        filter = new IntentFilter();
-        filter.addAction(BluetoothLeAudio.ACTION_LE_AUDIO_CONNECTION_STATE_CHANGED);
-        mConnectionStateChangedReceiver = new ConnectionStateChangedReceiver();
-        registerReceiver(mConnectionStateChangedReceiver, filter);
+        // Connection state changes are handled on the main thread, as the broadcasts were
+        mProfileEventListener = new ProfileEventListener();
+        mAdapterService.getProfileEventBus().registerListener(mProfileEventListener,
+                getMainExecutor());
         filter = new IntentFilter();
         filter.addAction(AudioManager.RINGER_MODE_CHANGED_ACTION);
         mMuteStateChangedReceiver = new MuteStateChangedReceiver();
@@ -366,8 +367,8 @@ public class LeAudioService extends ProfileService {
         // Unregister broadcast receivers
         unregisterReceiver(mBondStateChangedReceiver);
         mBondStateChangedReceiver = null;
-        unregisterReceiver(mConnectionStateChangedReceiver);
-        mConnectionStateChangedReceiver = null;
+        mAdapterService.getProfileEventBus().unregisterListener(mProfileEventListener);
+        mProfileEventListener = null;
         unregisterReceiver(mMuteStateChangedReceiver);
         mMuteStateChangedReceiver = null;
 
@@ -996,9 +997,11 @@ public class LeAudioService extends ProfileService {
      */
     @VisibleForTesting
     void notifyActiveDeviceChanged() {
+        BluetoothDevice device =
+                mActiveAudioOutDevice != null ? mActiveAudioOutDevice : mActiveAudioInDevice;
+        mAdapterService.notifyActiveDeviceChanged(BluetoothProfile.LE_AUDIO, device);
         Intent intent = new Intent(BluetoothLeAudio.ACTION_LE_AUDIO_ACTIVE_DEVICE_CHANGED);
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE,
-                mActiveAudioOutDevice != null ? mActiveAudioOutDevice : mActiveAudioInDevice);
+        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
         intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
                 | Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
         sendBroadcast(intent, BLUETOOTH_CONNECT);
@@ -1806,6 +1809,22 @@ public class LeAudioService extends ProfileService {
         return result;
     }
 
+    /**
+     * Called by a state machine when the connection state of its device changed, before the
+     * connection state broadcast is sent.
+     *
+     * @param device remote device
+     * @param fromState from which connection state is the change
+     * @param toState to which connection state is the change
+     */
+    void onConnectionStateChangedFromStateMachine(BluetoothDevice device, int fromState,
+            int toState) {
+        if (mAdapterService != null) {
+            mAdapterService.notifyProfileConnectionStateChanged(BluetoothProfile.LE_AUDIO, device,
+                    fromState, toState);
+        }
+    }
+
     @VisibleForTesting
     synchronized void connectionStateChanged(BluetoothDevice device, int fromState, int toState) {
         if ((device == null) || (fromState == toState)) {
@@ -1885,16 +1904,13 @@ public class LeAudioService extends ProfileService {
         }
     }
 
-    private class ConnectionStateChangedReceiver extends BroadcastReceiver {
+    private class ProfileEventListener implements ProfileEventBus.Listener {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (!BluetoothLeAudio.ACTION_LE_AUDIO_CONNECTION_STATE_CHANGED
-                    .equals(intent.getAction())) {
+        public void onConnectionStateChanged(int profile, BluetoothDevice device,
+                int fromState, int toState) {
+            if (profile != BluetoothProfile.LE_AUDIO) {
                 return;
             }
-            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-            int toState = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
-            int fromState = intent.getIntExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, -1);
             connectionStateChanged(device, fromState, toState);
         }
     }
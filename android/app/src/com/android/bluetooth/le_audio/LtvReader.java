@@ -0,0 +1,331 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.le_audio;
+
+/**
+ * Reader of Length-Type-Value (LTV) structures as used by the LE Audio Codec Specific
+ * Configuration, Codec Specific Capabilities and Metadata fields.
+ *
+ * The reader walks the entries in place, over a region of the original buffer, and never
+ * copies the values. A reader can be reused for another buffer with {@link #reset}.
+ *
+ * Usage:
+ * <pre>
+ *     LtvReader reader = new LtvReader(bytes);
+ *     while (reader.next()) {
+ *         switch (reader.getType()) { ... }
+ *     }
+ * </pre>
+ *
+ * The static accessors look up a single Codec Specific Configuration value without allocating.
+ */
+public final class LtvReader {
+    /** Codec Specific Configuration types, see Generic Audio in Bluetooth Assigned Numbers */
+    public static final int CODEC_CONFIG_SAMPLING_FREQUENCY_TYPE = 0x01;
+    public static final int CODEC_CONFIG_FRAME_DURATION_TYPE = 0x02;
+    public static final int CODEC_CONFIG_AUDIO_CHANNEL_ALLOCATION_TYPE = 0x03;
+    public static final int CODEC_CONFIG_OCTETS_PER_CODEC_FRAME_TYPE = 0x04;
+    public static final int CODEC_CONFIG_CODEC_FRAME_BLOCKS_PER_SDU_TYPE = 0x05;
+
+    /** Metadata types, see Generic Audio in Bluetooth Assigned Numbers */
+    public static final int METADATA_PREFERRED_AUDIO_CONTEXTS_TYPE = 0x01;
+    public static final int METADATA_STREAMING_AUDIO_CONTEXTS_TYPE = 0x02;
+    public static final int METADATA_PROGRAM_INFO_TYPE = 0x03;
+    public static final int METADATA_LANGUAGE_TYPE = 0x04;
+    public static final int METADATA_CCID_LIST_TYPE = 0x05;
+    public static final int METADATA_PARENTAL_RATING_TYPE = 0x06;
+    public static final int METADATA_PROGRAM_INFO_URI_TYPE = 0x07;
+    public static final int METADATA_EXTENDED_TYPE = 0xFE;
+    public static final int METADATA_VENDOR_TYPE = 0xFF;
+
+    /** Returned by the typed accessors when the value is not present or malformed */
+    public static final int VALUE_NOT_FOUND = -1;
+
+    private static final int SAMPLING_FREQUENCY_SIZE = 1;
+    private static final int FRAME_DURATION_SIZE = 1;
+    private static final int AUDIO_CHANNEL_ALLOCATION_SIZE = 4;
+    private static final int OCTETS_PER_CODEC_FRAME_SIZE = 2;
+
+    private byte[] mBuffer;
+    private int mEnd;
+    private int mNext;
+    private int mEntryOffset;
+    private int mType;
+    private int mValueOffset;
+    private int mValueLength;
+    private boolean mMalformed;
+
+    /**
+     * View of one entry in its buffer: the value is neither copied nor decoded. The buffer must
+     * not be modified while the view is in use.
+     */
+    public static final class Entry {
+        private final byte[] mBuffer;
+        private final int mOffset;
+
+        private Entry(byte[] buffer, int offset) {
+            mBuffer = buffer;
+            mOffset = offset;
+        }
+
+        /** The buffer holding the entry. */
+        public byte[] getBuffer() {
+            return mBuffer;
+        }
+
+        /** Offset of the length byte of the entry in the buffer. */
+        public int getEntryOffset() {
+            return mOffset;
+        }
+
+        /** Size of the entry including its length byte. */
+        public int getEntryLength() {
+            return (mBuffer[mOffset] & 0xFF) + 1;
+        }
+
+        /** Type of the entry. */
+        public int getType() {
+            return mBuffer[mOffset + 1] & 0xFF;
+        }
+
+        /** Offset of the value of the entry in the buffer. */
+        public int getValueOffset() {
+            return mOffset + 2;
+        }
+
+        /** Length of the value of the entry. */
+        public int getValueLength() {
+            return (mBuffer[mOffset] & 0xFF) - 1;
+        }
+    }
+
+    /** Create a reader with no buffer, to be set with {@link #reset}. */
+    public LtvReader() {
+        reset(null, 0, 0);
+    }
+
+    /** Create a reader over the whole buffer. A null buffer is read as empty. */
+    public LtvReader(byte[] buffer) {
+        reset(buffer, 0, buffer != null ? buffer.length : 0);
+    }
+
+    /**
+     * Point the reader to a new region. The reader is positioned before the first entry.
+     *
+     * @param buffer buffer holding the LTV entries, null is read as empty
+     * @param offset offset of the first entry
+     * @param length length of the region
+     * @return this reader
+     * @throws IllegalArgumentException if the region is out of the buffer bounds
+     */
+    public LtvReader reset(byte[] buffer, int offset, int length) {
+        int size = buffer != null ? buffer.length : 0;
+        if (offset < 0 || length < 0 || offset > size - length) {
+            throw new IllegalArgumentException("Invalid region offset=" + offset + " length="
+                    + length + " for buffer of size " + size);
+        }
+        mBuffer = buffer;
+        mNext = offset;
+        mEnd = offset + length;
+        mEntryOffset = -1;
+        mType = -1;
+        mValueOffset = -1;
+        mValueLength = 0;
+        mMalformed = false;
+        return this;
+    }
+
+    /**
+     * Move to the next entry. Zero-length entries are skipped.
+     *
+     * @return true if the reader is on a new entry, false at the end of the region or if the
+     *         next entry runs past the end of the region (see {@link #isMalformed})
+     */
+    public boolean next() {
+        while (mNext < mEnd) {
+            int length = mBuffer[mNext] & 0xFF;
+            if (length == 0) {
+                mNext++;
+                continue;
+            }
+            if (length > mEnd - mNext - 1) {
+                mMalformed = true;
+                mNext = mEnd;
+                break;
+            }
+            mEntryOffset = mNext;
+            mType = mBuffer[mNext + 1] & 0xFF;
+            mValueOffset = mNext + 2;
+            mValueLength = length - 1;
+            mNext += length + 1;
+            return true;
+        }
+        mEntryOffset = -1;
+        mType = -1;
+        mValueOffset = -1;
+        mValueLength = 0;
+        return false;
+    }
+
+    /** True if an entry ran past the end of the region. */
+    public boolean isMalformed() {
+        return mMalformed;
+    }
+
+    /** The buffer the reader is reading from. */
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    /** Offset of the length byte of the current entry in the buffer. */
+    public int getEntryOffset() {
+        return mEntryOffset;
+    }
+
+    /** Size of the current entry including its length byte. */
+    public int getEntryLength() {
+        return mValueLength + 2;
+    }
+
+    /**
+     * A view of the current entry, which stays valid when the reader moves on.
+     *
+     * @return the view or null if the reader is not on an entry
+     */
+    public Entry getEntry() {
+        return mEntryOffset < 0 ? null : new Entry(mBuffer, mEntryOffset);
+    }
+
+    /**
+     * Find the first entry of a buffer, skipping zero-length entries.
+     *
+     * @return offset of the length byte of the entry, or -1 if the buffer holds no complete entry
+     */
+    public static int findFirstEntry(byte[] buffer) {
+        if (buffer == null) {
+            return -1;
+        }
+        for (int next = 0; next < buffer.length; next++) {
+            int length = buffer[next] & 0xFF;
+            if (length != 0) {
+                return length > buffer.length - next - 1 ? -1 : next;
+            }
+        }
+        return -1;
+    }
+
+    /** Type of the current entry. */
+    public int getType() {
+        return mType;
+    }
+
+    /** Offset of the value of the current entry in the buffer. */
+    public int getValueOffset() {
+        return mValueOffset;
+    }
+
+    /** Length of the value of the current entry. */
+    public int getValueLength() {
+        return mValueLength;
+    }
+
+    /**
+     * Read the value of the current entry as an unsigned little endian integer.
+     *
+     * @param size number of bytes to read, at most 4
+     * @return value or {@link #VALUE_NOT_FOUND} if the value is shorter than size
+     */
+    public long getUnsignedValue(int size) {
+        if (size > mValueLength) {
+            return VALUE_NOT_FOUND;
+        }
+        return readUnsignedLittleEndian(mBuffer, mValueOffset, size);
+    }
+
+    /**
+     * Get the Sampling Frequency of a Codec Specific Configuration.
+     *
+     * @return the assigned number of the sampling frequency or {@link #VALUE_NOT_FOUND}
+     */
+    public static int getSamplingFrequency(byte[] buffer, int offset, int length) {
+        return (int) findUnsignedValue(buffer, offset, length,
+                CODEC_CONFIG_SAMPLING_FREQUENCY_TYPE, SAMPLING_FREQUENCY_SIZE);
+    }
+
+    /**
+     * Get the Frame Duration of a Codec Specific Configuration.
+     *
+     * @return the assigned number of the frame duration or {@link #VALUE_NOT_FOUND}
+     */
+    public static int getFrameDuration(byte[] buffer, int offset, int length) {
+        return (int) findUnsignedValue(buffer, offset, length, CODEC_CONFIG_FRAME_DURATION_TYPE,
+                FRAME_DURATION_SIZE);
+    }
+
+    /**
+     * Get the Audio Channel Allocation of a Codec Specific Configuration.
+     *
+     * @return the audio location bitmask or {@link #VALUE_NOT_FOUND}
+     */
+    public static long getAudioLocation(byte[] buffer, int offset, int length) {
+        return findUnsignedValue(buffer, offset, length,
+                CODEC_CONFIG_AUDIO_CHANNEL_ALLOCATION_TYPE, AUDIO_CHANNEL_ALLOCATION_SIZE);
+    }
+
+    /**
+     * Get the Octets Per Codec Frame of a Codec Specific Configuration.
+     *
+     * @return the number of octets per codec frame or {@link #VALUE_NOT_FOUND}
+     */
+    public static int getOctetsPerFrame(byte[] buffer, int offset, int length) {
+        return (int) findUnsignedValue(buffer, offset, length,
+                CODEC_CONFIG_OCTETS_PER_CODEC_FRAME_TYPE, OCTETS_PER_CODEC_FRAME_SIZE);
+    }
+
+    /**
+     * Look up the last entry of the given type, as later entries override earlier ones, and
+     * read its value as an unsigned little endian integer.
+     */
+    private static long findUnsignedValue(byte[] buffer, int offset, int length, int type,
+            int size) {
+        if (buffer == null || offset < 0 || length < 0 || offset > buffer.length - length) {
+            return VALUE_NOT_FOUND;
+        }
+        long value = VALUE_NOT_FOUND;
+        int end = offset + length;
+        int next = offset;
+        while (next < end) {
+            int entryLength = buffer[next] & 0xFF;
+            if (entryLength > end - next - 1) {
+                break;
+            }
+            if (entryLength > size && (buffer[next + 1] & 0xFF) == type) {
+                value = readUnsignedLittleEndian(buffer, next + 2, size);
+            }
+            next += entryLength + 1;
+        }
+        return value;
+    }
+
+    private static long readUnsignedLittleEndian(byte[] buffer, int offset, int size) {
+        long value = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            value = (value << 8) | (buffer[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
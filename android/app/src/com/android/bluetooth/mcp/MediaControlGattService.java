@@ -39,6 +39,7 @@ import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
 import android.bluetooth.IBluetoothManager;
 import android.bluetooth.IBluetoothStateChangeCallback;
 import android.content.Context;
@@ -818,6 +819,12 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
                     device, characteristic, confirm);
         }
 
+        public boolean notifyCharacteristicChanged(List<BluetoothDevice> devices,
+                BluetoothGattCharacteristic characteristic, boolean coalesce) {
+            return mBluetoothGattServer.notifyCharacteristicChanged(devices, characteristic,
+                    characteristic.getValue(), coalesce) == BluetoothStatusCodes.SUCCESS;
+        }
+
         public List<BluetoothDevice> getConnectedDevices() {
             return mBluetoothManager.getConnectedDevices(BluetoothProfile.GATT_SERVER);
         }
@@ -1425,6 +1432,7 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
     private void notifyCharacteristic(@NonNull BluetoothGattCharacteristic characteristic,
             @Nullable BluetoothDevice originDevice) {
+        List<BluetoothDevice> devices = new ArrayList<>();
         for (BluetoothDevice device : mBluetoothGattServer.getConnectedDevices()) {
             // Skip the origin device who changed the characteristic
             if (device == originDevice) {
@@ -1443,12 +1451,28 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
             if (!Arrays.equals(ccc, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) continue;
 
-            if (VDBG) Log.d(TAG, "notifyCharacteristic sending notification");
+            devices.add(device);
+        }
 
-            mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
+        if (!devices.isEmpty()) {
+            if (VDBG) {
+                Log.d(TAG, "notifyCharacteristic sending notification to " + devices.size()
+                        + " devices");
+            }
+            mBluetoothGattServer.notifyCharacteristicChanged(devices, characteristic,
+                    !isEventCharacteristic(characteristic.getUuid()));
         }
     }
 
+    /**
+     * The notifications of events, unlike the ones of states, must all reach the clients and
+     * cannot be replaced by a newer one.
+     */
+    private static boolean isEventCharacteristic(UUID uuid) {
+        return uuid.equals(UUID_MEDIA_CONTROL_POINT) || uuid.equals(UUID_SEARCH_CONTROL_POINT)
+                || uuid.equals(UUID_TRACK_CHANGED);
+    }
+
     private static int SpeedFloatToCharacteristicIntValue(float speed) {
         /* The spec. defined valid speed range is <0.25, 3.957> as float input, resulting in
          * <-128, 127> output integer range. */
@@ -509,10 +509,14 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                         }
 
                         readLength = a.read(buffer, 0, outputBufferSize);
+                        long packetStartNanos = SystemClock.elapsedRealtimeNanos();
                         outputStream.write(buffer, 0, readLength);
 
                         /* check remote abort */
                         responseCode = putOperation.getResponseCode();
+                        MetricsLogger.logLatencySince(
+                                BluetoothMetricsProto.LatencyMetric.LATENCY_OBEX_PACKET,
+                                packetStartNanos);
                         if (V) {
                             Log.v(TAG, "Response code is " + responseCode);
                         }
@@ -55,6 +55,7 @@ import android.content.IntentFilter;
 import android.os.HandlerThread;
 import android.os.Message;
 import android.os.ParcelUuid;
+import android.os.Parcelable;
 import android.os.Process;
 import android.os.UserManager;
 import android.util.Log;
@@ -63,6 +64,7 @@ import com.android.bluetooth.BluetoothMetricsProto;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
+import com.android.bluetooth.sdp.SdpManager;
 import com.android.internal.util.IState;
 import com.android.internal.util.State;
 import com.android.internal.util.StateMachine;
@@ -140,6 +142,8 @@ class PbapClientStateMachine extends StateMachine {
 
     class Connecting extends State {
         private SDPBroadcastReceiver mSdpReceiver;
+        // Set while the search results are expected, as they may be delivered after exit()
+        private volatile SdpCallback mSdpCallback;
 
         @Override
         public void enter() {
@@ -148,9 +152,15 @@ class PbapClientStateMachine extends StateMachine {
             }
             onConnectionStateChanged(mCurrentDevice, mMostRecentState,
                     BluetoothProfile.STATE_CONNECTING);
-            mSdpReceiver = new SDPBroadcastReceiver();
-            mSdpReceiver.register();
-            mCurrentDevice.sdpSearch(BluetoothUuid.PBAP_PSE);
+            SdpManager sdpManager = SdpManager.getDefaultManager();
+            if (sdpManager != null) {
+                mSdpCallback = new SdpCallback();
+                sdpManager.sdpSearch(mCurrentDevice, BluetoothUuid.PBAP_PSE, mSdpCallback);
+            } else {
+                mSdpReceiver = new SDPBroadcastReceiver();
+                mSdpReceiver.register();
+                mCurrentDevice.sdpSearch(BluetoothUuid.PBAP_PSE);
+            }
             mMostRecentState = BluetoothProfile.STATE_CONNECTING;
 
             // Create a separate handler instance and thread for performing
@@ -207,8 +217,23 @@ class PbapClientStateMachine extends StateMachine {
 
         @Override
         public void exit() {
-            mSdpReceiver.unregister();
-            mSdpReceiver = null;
+            mSdpCallback = null;
+            if (mSdpReceiver != null) {
+                mSdpReceiver.unregister();
+                mSdpReceiver = null;
+            }
+        }
+
+        private class SdpCallback implements SdpManager.SdpSearchCallback {
+            @Override
+            public void onSdpRecordFound(BluetoothDevice device, ParcelUuid uuid, int status,
+                    Parcelable record, boolean moreResults) {
+                if (mSdpCallback != this) {
+                    Log.w(TAG, "SDP Record fetched after leaving Connecting - Ignore");
+                    return;
+                }
+                sendMessage(MSG_SDP_COMPLETE, record);
+            }
         }
 
         private class SDPBroadcastReceiver extends BroadcastReceiver {
@@ -24,19 +24,26 @@ import android.bluetooth.SdpOppOpsRecord;
 import android.bluetooth.SdpPseRecord;
 import android.bluetooth.SdpRecord;
 import android.bluetooth.SdpSapsRecord;
+import android.annotation.Nullable;
 import android.content.Intent;
 import android.os.Handler;
 import android.os.Message;
 import android.os.ParcelUuid;
 import android.os.Parcelable;
+import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AbstractionLayer;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 public class SdpManager {
 
@@ -53,16 +60,27 @@ public class SdpManager {
     public static final byte PBAP_REPO_FAVORITES = 0x01 << 3;
 
     /* Variables to keep track of ongoing and queued search requests.
-     * mTrackerLock must be held, when using/changing sSdpSearchTracker
-     * and mSearchInProgress. */
+     * TRACKER_LOCK must be held, when using/changing sSdpSearchTracker. */
     static SdpSearchTracker sSdpSearchTracker;
-    static boolean sSearchInProgress = false;
     static final Object TRACKER_LOCK = new Object();
 
     /* The timeout to wait for reply from native. Should never fire. */
     private static final int SDP_INTENT_DELAY = 11000;
     private static final int MESSAGE_SDP_INTENT = 2;
 
+    /* Number of searches handed to the native stack at once. The native SDP client runs a
+     * single search at a time, so the default keeps one search outstanding. The searches on
+     * a given device are always run one after the other. */
+    private static final String MAX_CONCURRENT_SEARCHES_PROPERTY =
+            "bluetooth.sdp.max_concurrent_searches";
+    private static final int DEFAULT_MAX_CONCURRENT_SEARCHES = 1;
+    /* The records found are reused for searches started within this time. */
+    private static final String RECORD_CACHE_TTL_PROPERTY = "bluetooth.sdp.record_cache_ttl_ms";
+    private static final long DEFAULT_RECORD_CACHE_TTL_MS = 30000;
+
+    private final int mMaxConcurrentSearches;
+    private final SdpRecordCache mRecordCache;
+
     // We need a reference to the adapter service, to be able to send intents
     private static AdapterService sAdapterService;
     private static boolean sNativeAvailable;
@@ -102,6 +120,20 @@ public class SdpManager {
 
     private native boolean sdpRemoveSdpRecordNative(int recordId);
 
+    /**
+     * Receives the results of a search within the Bluetooth process, instead of the
+     * {@link BluetoothDevice#ACTION_SDP_RECORD} broadcast.
+     */
+    public interface SdpSearchCallback {
+        /**
+         * Called for each record found, or once with a null record if the search failed.
+         * Must not block, it may be called with the search tracker lock held.
+         *
+         * @param moreResults whether more records will be delivered for this search
+         */
+        void onSdpRecordFound(BluetoothDevice device, ParcelUuid uuid, int status,
+                @Nullable Parcelable record, boolean moreResults);
+    }
 
     /* Inner class used for wrapping sdp search instance data */
     private class SdpSearchInstance {
@@ -109,10 +141,14 @@ public class SdpManager {
         private final ParcelUuid mUuid;
         private int mStatus = 0;
         private boolean mSearching;
+        private boolean mStarted;
+        // Whether the results are broadcast, and the callbacks they are delivered to
+        private boolean mBroadcast;
+        private final List<SdpSearchCallback> mCallbacks = new ArrayList<>();
+        // Records found so far, cached once the search completed if they all were found
+        private final List<Parcelable> mRecords = new ArrayList<>();
+        private boolean mCacheable = true;
 
-        /* TODO: If we change the API to use another mechanism than intents for
-         *       delivering the results, this would be the place to keep a list
-         *       of the objects to deliver the results to. */
         SdpSearchInstance(int status, BluetoothDevice device, ParcelUuid uuid) {
             this.mDevice = device;
             this.mUuid = uuid;
@@ -136,8 +172,20 @@ public class SdpManager {
             this.mStatus = status;
         }
 
+        /**
+         * Deliver the results to a callback, or broadcast them if null.
+         */
+        public void addRequester(SdpSearchCallback callback) {
+            if (callback == null) {
+                mBroadcast = true;
+            } else if (!mCallbacks.contains(callback)) {
+                mCallbacks.add(callback);
+            }
+        }
+
         public void startSearch() {
             mSearching = true;
+            mStarted = true;
             Message message = mHandler.obtainMessage(MESSAGE_SDP_INTENT, this);
             mHandler.sendMessageDelayed(message, SDP_INTENT_DELAY);
         }
@@ -152,42 +200,83 @@ public class SdpManager {
         public boolean isSearching() {
             return mSearching;
         }
+
+        public boolean isStarted() {
+            return mStarted;
+        }
     }
 
 
-    /* We wrap the ArrayList class to decorate with functionality to
-     * find an instance based on UUID AND device address.
-     * As we use a mix of byte[] and object instances, this is more
-     * efficient than implementing comparable. */
+    /* Keeps the searches per device, so that a device is searched for one UUID at a time and
+     * the devices are served in the order of their first request. */
     class SdpSearchTracker {
-        private final ArrayList<SdpSearchInstance> mList = new ArrayList<SdpSearchInstance>();
+        // The first search of a device is the one started
+        private final LinkedHashMap<String, ArrayDeque<SdpSearchInstance>> mDeviceQueues =
+                new LinkedHashMap<>();
+        private int mStartedCount;
 
         void clear() {
-            mList.clear();
+            for (ArrayDeque<SdpSearchInstance> queue : mDeviceQueues.values()) {
+                for (SdpSearchInstance inst : queue) {
+                    inst.stopSearch();
+                }
+            }
+            mDeviceQueues.clear();
+            mStartedCount = 0;
         }
 
         boolean add(SdpSearchInstance inst) {
-            return mList.add(inst);
+            return mDeviceQueues.computeIfAbsent(inst.getDevice().getAddress(),
+                    k -> new ArrayDeque<>()).add(inst);
         }
 
         boolean remove(SdpSearchInstance inst) {
-            return mList.remove(inst);
+            String address = inst.getDevice().getAddress();
+            ArrayDeque<SdpSearchInstance> queue = mDeviceQueues.get(address);
+            if (queue == null || !queue.remove(inst)) {
+                return false;
+            }
+            if (inst.isStarted()) {
+                mStartedCount--;
+            }
+            if (queue.isEmpty()) {
+                mDeviceQueues.remove(address);
+            }
+            return true;
         }
 
+        /* Get the next search to start, if the concurrent search limit is not reached. */
         SdpSearchInstance getNext() {
-            if (mList.size() > 0) {
-                return mList.get(0);
+            if (mStartedCount >= mMaxConcurrentSearches) {
+                return null;
+            }
+            for (ArrayDeque<SdpSearchInstance> queue : mDeviceQueues.values()) {
+                SdpSearchInstance inst = queue.peek();
+                if (!inst.isStarted()) {
+                    return inst;
+                }
             }
             return null;
         }
 
+        void onSearchStarted(SdpSearchInstance inst) {
+            mStartedCount++;
+        }
+
         SdpSearchInstance getSearchInstance(byte[] address, byte[] uuidBytes) {
             String addressString = Utils.getAddressStringFromByte(address);
             addressString = sAdapterService.getIdentityAddress(addressString);
             ParcelUuid uuid = Utils.byteArrayToUuid(uuidBytes)[0];
-            for (SdpSearchInstance inst : mList) {
-                if (inst.getDevice().getAddress().equals(addressString) && inst.getUuid()
-                        .equals(uuid)) {
+            return getSearchInstance(addressString, uuid);
+        }
+
+        SdpSearchInstance getSearchInstance(String address, ParcelUuid uuid) {
+            ArrayDeque<SdpSearchInstance> queue = mDeviceQueues.get(address);
+            if (queue == null) {
+                return null;
+            }
+            for (SdpSearchInstance inst : queue) {
+                if (inst.getUuid().equals(uuid)) {
                     return inst;
                 }
             }
@@ -195,14 +284,13 @@ public class SdpManager {
         }
 
         boolean isSearching(BluetoothDevice device, ParcelUuid uuid) {
-            String addressString = device.getAddress();
-            for (SdpSearchInstance inst : mList) {
-                if (inst.getDevice().getAddress().equals(addressString) && inst.getUuid()
-                        .equals(uuid)) {
-                    return inst.isSearching();
-                }
-            }
-            return false;
+            SdpSearchInstance inst = getSearchInstance(device.getAddress(), uuid);
+            return inst != null && inst.isSearching();
+        }
+
+        @VisibleForTesting
+        int getStartedCount() {
+            return mStartedCount;
         }
     }
 
@@ -210,6 +298,10 @@ public class SdpManager {
     private SdpManager(AdapterService adapterService) {
         sSdpSearchTracker = new SdpSearchTracker();
         sAdapterService = adapterService;
+        mMaxConcurrentSearches = Math.max(1, SystemProperties.getInt(
+                MAX_CONCURRENT_SEARCHES_PROPERTY, DEFAULT_MAX_CONCURRENT_SEARCHES));
+        mRecordCache = new SdpRecordCache(SystemProperties.getLong(
+                RECORD_CACHE_TTL_PROPERTY, DEFAULT_RECORD_CACHE_TTL_MS));
         initializeNative();
         sNativeAvailable = true;
     }
@@ -230,6 +322,7 @@ public class SdpManager {
                 sSdpSearchTracker.clear();
             }
         }
+        mRecordCache.clear();
 
         if (sNativeAvailable) {
             cleanupNative();
@@ -238,6 +331,16 @@ public class SdpManager {
         sSdpManager = null;
     }
 
+    /**
+     * Forget the records found on a device when it is bonded or unbonded, as its services may
+     * have changed.
+     */
+    public void onBondStateChanged(BluetoothDevice device, int state) {
+        if (state != BluetoothDevice.BOND_BONDING) {
+            mRecordCache.invalidate(device.getAddress());
+        }
+    }
+
 
     void sdpMasRecordFoundCallback(int status, byte[] address, byte[] uuid, int masInstanceId,
             int l2capPsm, int rfcommCannelNumber, int profileVersion, int supportedFeatures,
@@ -432,17 +535,41 @@ public class SdpManager {
     }
 
     public void sdpSearch(BluetoothDevice device, ParcelUuid uuid) {
+        sdpSearch(device, uuid, null);
+    }
+
+    /**
+     * Search the records of a device for a UUID.
+     *
+     * @param callback receives the records found, or null to broadcast them with
+     *        {@link BluetoothDevice#ACTION_SDP_RECORD}
+     */
+    public void sdpSearch(BluetoothDevice device, ParcelUuid uuid,
+            @Nullable SdpSearchCallback callback) {
         if (!sNativeAvailable) {
             Log.e(TAG, "Native not initialized!");
             return;
         }
+        List<Parcelable> cachedRecords =
+                mRecordCache.get(device.getAddress(), uuid, SystemClock.elapsedRealtime());
+        if (cachedRecords != null) {
+            if (D) {
+                Log.d(TAG, "Using cached records for UUID: " + uuid);
+            }
+            // Deliver asynchronously, as a search would
+            mHandler.post(() -> deliverCachedRecords(device, uuid, cachedRecords, callback));
+            return;
+        }
         synchronized (TRACKER_LOCK) {
-            if (sSdpSearchTracker.isSearching(device, uuid)) {
-                /* Search already in progress */
+            SdpSearchInstance inst = sSdpSearchTracker.getSearchInstance(device.getAddress(), uuid);
+            if (inst != null && inst.isSearching()) {
+                /* Search already in progress, deliver its results to this requester too */
+                inst.addRequester(callback);
                 return;
             }
 
-            SdpSearchInstance inst = new SdpSearchInstance(0, device, uuid);
+            inst = new SdpSearchInstance(0, device, uuid);
+            inst.addRequester(callback);
             sSdpSearchTracker.add(inst); // Queue the request
 
             startSearch(); // Start search if not busy
@@ -452,24 +579,21 @@ public class SdpManager {
 
     /* Caller must hold the mTrackerLock */
     private void startSearch() {
-
-        SdpSearchInstance inst = sSdpSearchTracker.getNext();
-
-        if ((inst != null) && (!sSearchInProgress)) {
+        SdpSearchInstance inst;
+        while ((inst = sSdpSearchTracker.getNext()) != null) {
             if (D) {
                 Log.d(TAG, "Starting search for UUID: " + inst.getUuid());
             }
-            sSearchInProgress = true;
+            sSdpSearchTracker.onSearchStarted(inst);
 
             inst.startSearch(); // Trigger timeout message
 
             sdpSearchNative(sAdapterService.getByteIdentityAddress(inst.getDevice()),
                     Utils.uuidToByteArray(inst.getUuid()));
-        } else { // Else queue is empty.
-            if (D) {
-                Log.d(TAG, "startSearch(): nextInst = " + inst + " mSearchInProgress = "
-                        + sSearchInProgress + " - search busy or queue empty.");
-            }
+        }
+        if (D) {
+            Log.d(TAG, "startSearch(): " + sSdpSearchTracker.getStartedCount()
+                    + " search(es) in progress - search busy or queue empty.");
         }
     }
 
@@ -478,27 +602,59 @@ public class SdpManager {
 
         inst.stopSearch();
 
+        if (record == null || inst.getStatus() != AbstractionLayer.BT_STATUS_SUCCESS) {
+            inst.mCacheable = false;
+        } else {
+            inst.mRecords.add(record);
+        }
+
+        deliverRecord(inst.getDevice(), inst.getUuid(), inst.getStatus(), record, moreResults,
+                inst.mBroadcast, inst.mCallbacks);
+
+        if (!moreResults) {
+            //Remove the outstanding UUID request
+            sSdpSearchTracker.remove(inst);
+            if (inst.mCacheable) {
+                mRecordCache.put(inst.getDevice().getAddress(), inst.getUuid(),
+                        new ArrayList<>(inst.mRecords), SystemClock.elapsedRealtime());
+            }
+            startSearch();
+        }
+    }
+
+    private void deliverCachedRecords(BluetoothDevice device, ParcelUuid uuid,
+            List<Parcelable> records, SdpSearchCallback callback) {
+        List<SdpSearchCallback> callbacks = callback == null ? List.of() : List.of(callback);
+        for (int i = 0; i < records.size(); i++) {
+            deliverRecord(device, uuid, AbstractionLayer.BT_STATUS_SUCCESS, records.get(i),
+                    i < records.size() - 1, callback == null, callbacks);
+        }
+    }
+
+    private void deliverRecord(BluetoothDevice device, ParcelUuid uuid, int status,
+            Parcelable record, boolean moreResults, boolean broadcast,
+            List<SdpSearchCallback> callbacks) {
+        for (SdpSearchCallback callback : callbacks) {
+            callback.onSdpRecordFound(device, uuid, status, record, moreResults);
+        }
+        if (!broadcast) {
+            return;
+        }
+
         Intent intent = new Intent(BluetoothDevice.ACTION_SDP_RECORD);
 
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, inst.getDevice());
-        intent.putExtra(BluetoothDevice.EXTRA_SDP_SEARCH_STATUS, inst.getStatus());
+        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
+        intent.putExtra(BluetoothDevice.EXTRA_SDP_SEARCH_STATUS, status);
         if (record != null) {
             intent.putExtra(BluetoothDevice.EXTRA_SDP_RECORD, record);
         }
-        intent.putExtra(BluetoothDevice.EXTRA_UUID, inst.getUuid());
+        intent.putExtra(BluetoothDevice.EXTRA_UUID, uuid);
         /* TODO:  BLUETOOTH_ADMIN_PERM was private... change to callback interface.
          * Keep in mind that the MAP client needs to use this as well,
          * hence to make it call-backs, the MAP client profile needs to be
          * part of the Bluetooth APK. */
         sAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT,
                 Utils.getTempAllowlistBroadcastOptions());
-
-        if (!moreResults) {
-            //Remove the outstanding UUID request
-            sSdpSearchTracker.remove(inst);
-            sSearchInProgress = false;
-            startSearch();
-        }
     }
 
     private final Handler mHandler = new Handler() {
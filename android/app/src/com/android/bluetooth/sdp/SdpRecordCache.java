@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.sdp;
+
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the records found by the successful SDP searches, per device and UUID.
+ *
+ * Entries expire after a fixed time, and all the entries of a device are dropped when its bond
+ * state changes as the remote services may have changed with it.
+ */
+/* package */ class SdpRecordCache {
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 64;
+
+    private static final class Entry {
+        final List<Parcelable> mRecords;
+        final long mExpiryTimeMs;
+
+        Entry(List<Parcelable> records, long expiryTimeMs) {
+            mRecords = records;
+            mExpiryTimeMs = expiryTimeMs;
+        }
+    }
+
+    private final long mTtlMs;
+
+    // Keyed by device address, then by UUID
+    @GuardedBy("this")
+    private final Map<String, Map<ParcelUuid, Entry>> mEntries = new HashMap<>();
+    @GuardedBy("this")
+    private int mSize;
+
+    SdpRecordCache(long ttlMs) {
+        mTtlMs = ttlMs;
+    }
+
+    /**
+     * Get the records of a search that did not expire.
+     *
+     * @return the records, or null if the search result is not cached
+     */
+    synchronized List<Parcelable> get(String address, ParcelUuid uuid, long nowMs) {
+        Map<ParcelUuid, Entry> deviceEntries = mEntries.get(address);
+        if (deviceEntries == null) {
+            return null;
+        }
+        Entry entry = deviceEntries.get(uuid);
+        if (entry == null) {
+            return null;
+        }
+        if (nowMs >= entry.mExpiryTimeMs) {
+            remove(address, deviceEntries, uuid);
+            return null;
+        }
+        return entry.mRecords;
+    }
+
+    /**
+     * Cache the records of a successful search.
+     */
+    synchronized void put(String address, ParcelUuid uuid, List<Parcelable> records,
+            long nowMs) {
+        if (mSize >= MAX_ENTRIES) {
+            removeExpired(nowMs);
+            if (mSize >= MAX_ENTRIES) {
+                // Entries are short lived, start over rather than tracking their usage
+                mEntries.clear();
+                mSize = 0;
+            }
+        }
+        Entry previous = mEntries.computeIfAbsent(address, k -> new HashMap<>())
+                .put(uuid, new Entry(Collections.unmodifiableList(records), nowMs + mTtlMs));
+        if (previous == null) {
+            mSize++;
+        }
+    }
+
+    /**
+     * Forget the records of a device.
+     */
+    synchronized void invalidate(String address) {
+        Map<ParcelUuid, Entry> deviceEntries = mEntries.remove(address);
+        if (deviceEntries != null) {
+            mSize -= deviceEntries.size();
+        }
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return mSize;
+    }
+
+    @GuardedBy("this")
+    private void removeExpired(long nowMs) {
+        mEntries.values().removeIf(deviceEntries -> {
+            int before = deviceEntries.size();
+            deviceEntries.values().removeIf(entry -> nowMs >= entry.mExpiryTimeMs);
+            mSize -= before - deviceEntries.size();
+            return deviceEntries.isEmpty();
+        });
+    }
+
+    @GuardedBy("this")
+    private void remove(String address, Map<ParcelUuid, Entry> deviceEntries, ParcelUuid uuid) {
+        deviceEntries.remove(uuid);
+        mSize--;
+        if (deviceEntries.isEmpty()) {
+            mEntries.remove(address);
+        }
+    }
+}
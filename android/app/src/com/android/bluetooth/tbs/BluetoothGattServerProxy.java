@@ -24,6 +24,7 @@ import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
 import android.content.Context;
 
 import java.util.List;
@@ -89,6 +90,18 @@ public class BluetoothGattServerProxy {
         return mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, confirm);
     }
 
+    /**
+     * A proxy that notifies the current value of a characteristic to several devices at once.
+     *
+     * @see BluetoothGattServer#notifyCharacteristicChanged(List, BluetoothGattCharacteristic,
+     * byte[], boolean)
+     */
+    public boolean notifyCharacteristicChanged(List<BluetoothDevice> devices,
+            BluetoothGattCharacteristic characteristic, boolean coalesce) {
+        return mBluetoothGattServer.notifyCharacteristicChanged(devices, characteristic,
+                characteristic.getValue(), coalesce) == BluetoothStatusCodes.SUCCESS;
+    }
+
     public List<BluetoothDevice> getConnectedDevices() {
         return mBluetoothManager.getConnectedDevices(BluetoothProfile.GATT_SERVER);
     }
@@ -323,6 +323,15 @@ public class TbsGatt {
         }
     }
 
+    /**
+     * The notifications of events, unlike the ones of states, must all reach the clients and
+     * cannot be replaced by a newer one.
+     */
+    private static boolean isEventCharacteristic(UUID uuid) {
+        return uuid.equals(UUID_CALL_CONTROL_POINT) || uuid.equals(UUID_TERMINATION_REASON)
+                || uuid.equals(UUID_INCOMING_CALL);
+    }
+
     /** Class that handles GATT characteristic notifications */
     private class BluetoothGattCharacteristicNotifier {
         public int setSubscriptionConfiguration(BluetoothDevice device, byte[] configuration) {
@@ -347,22 +356,23 @@ public class TbsGatt {
             return mSubscribers.contains(device);
         }
 
-        private void notifyCharacteristicChanged(BluetoothDevice device,
+        private void notifyCharacteristicChanged(List<BluetoothDevice> devices,
                 BluetoothGattCharacteristic characteristic) {
             if (mBluetoothGattServer != null) {
-                mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
+                mBluetoothGattServer.notifyCharacteristicChanged(devices, characteristic,
+                        !isEventCharacteristic(characteristic.getUuid()));
             }
         }
 
         public void notify(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
             if (isSubscribed(device)) {
-                notifyCharacteristicChanged(device, characteristic);
+                notifyCharacteristicChanged(List.of(device), characteristic);
             }
         }
 
         public void notifyAll(BluetoothGattCharacteristic characteristic) {
-            for (BluetoothDevice device : mSubscribers) {
-                notifyCharacteristicChanged(device, characteristic);
+            if (!mSubscribers.isEmpty()) {
+                notifyCharacteristicChanged(new ArrayList<>(mSubscribers), characteristic);
             }
         }
     }
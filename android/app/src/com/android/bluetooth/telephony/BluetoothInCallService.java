@@ -52,6 +52,7 @@ import com.android.bluetooth.tbs.BluetoothLeCallControlProxy;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -60,6 +61,7 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Used to receive updates about calls from the Telecom component. This service is bound to Telecom
@@ -130,6 +132,14 @@ public class BluetoothInCallService extends InCallService {
 
     // A map from Calls to indexes used to identify calls for CLCC (C* List Current Calls).
     private final Map<String, Integer> mClccIndexMap = new HashMap<>();
+    // Indexes in use in mClccIndexMap, to allocate the next free index without a scan.
+    private final BitSet mUsedClccIndexes = new BitSet();
+
+    // Incremented on every call change, the CLCC snapshot is only valid for the generation it
+    // was built for. Headsets poll CLCC repeatedly while calls are unchanged.
+    private final AtomicInteger mCallsGeneration = new AtomicInteger();
+    private List<ClccEntry> mClccSnapshot = null;
+    private int mClccSnapshotGeneration = -1;
 
     private static BluetoothInCallService sInstance = null;
 
@@ -212,6 +222,7 @@ public class BluetoothInCallService extends InCallService {
         }
 
         public void onStateChanged(BluetoothCall call, int state) {
+            onCallsChanged();
             if (mCallInfo.isNullCall(call)) {
                 return;
             }
@@ -263,6 +274,7 @@ public class BluetoothInCallService extends InCallService {
         }
 
         public void onDetailsChanged(BluetoothCall call, Call.Details details) {
+            onCallsChanged();
             if (mCallInfo.isNullCall(call)) {
                 return;
             }
@@ -280,6 +292,7 @@ public class BluetoothInCallService extends InCallService {
         }
 
         public void onParentChanged(BluetoothCall call) {
+            onCallsChanged();
             if (call.isExternalCall()) {
                 return;
             }
@@ -301,6 +314,7 @@ public class BluetoothInCallService extends InCallService {
         }
 
         public void onChildrenChanged(BluetoothCall call, List<BluetoothCall> children) {
+            onCallsChanged();
             if (call.isExternalCall()) {
                 return;
             }
@@ -554,6 +568,7 @@ public class BluetoothInCallService extends InCallService {
         }
         if (!mBluetoothCallHashMap.containsKey(call.getId())) {
             Log.d(TAG, "onCallAdded");
+            onCallsChanged();
             CallStateCallback callback = new CallStateCallback(call.getState());
             mCallbacks.put(call.getId(), callback);
             call.registerCallback(callback);
@@ -619,7 +634,11 @@ public class BluetoothInCallService extends InCallService {
             mBluetoothCallHashMap.remove(call.getId());
         }
 
-        mClccIndexMap.remove(getClccMapKey(call));
+        Integer index = mClccIndexMap.remove(getClccMapKey(call));
+        if (index != null) {
+            mUsedClccIndexes.clear(index);
+        }
+        onCallsChanged();
         updateHeadsetWithCallState(false /* force */);
 
         if (mBluetoothLeCallControl != null) {
@@ -692,6 +711,8 @@ public class BluetoothInCallService extends InCallService {
         mCallbacks.clear();
         mBluetoothCallHashMap.clear();
         mClccIndexMap.clear();
+        mUsedClccIndexes.clear();
+        onCallsChanged();
         mMaxNumberOfCalls = 0;
     }
 
@@ -701,8 +722,31 @@ public class BluetoothInCallService extends InCallService {
                     || call.getChildrenIds().isEmpty());
     }
 
+    /** Invalidates the state derived from the calls, to be called on every call change. */
+    private void onCallsChanged() {
+        mCallsGeneration.incrementAndGet();
+    }
+
     private void sendListOfCalls(boolean shouldLog) {
+        int generation = mCallsGeneration.get();
+        List<ClccEntry> snapshot = mClccSnapshot;
+        if (snapshot == null || mClccSnapshotGeneration != generation) {
+            snapshot = buildClccSnapshot();
+            mClccSnapshot = snapshot;
+            mClccSnapshotGeneration = generation;
+        } else if (shouldLog) {
+            Log.i(TAG, "sendListOfCalls: calls unchanged, sending cached list");
+        }
+        for (ClccEntry entry : snapshot) {
+            sendClccEntry(entry, shouldLog);
+        }
+        sendClccEndMarker();
+    }
+
+    private List<ClccEntry> buildClccSnapshot() {
+        List<ClccEntry> snapshot = new ArrayList<>();
         Collection<BluetoothCall> calls = mCallInfo.getBluetoothCalls();
+        BluetoothCall foregroundCall = mCallInfo.getForegroundCall();
         for (BluetoothCall call : calls) {
             // We don't send the parent conference BluetoothCall to the bluetooth device.
             // We do, however want to send conferences that have no children to the bluetooth
@@ -711,10 +755,13 @@ public class BluetoothInCallService extends InCallService {
             Log.i(TAG, "sendListOfCalls isConferenceWithNoChildren " + isConferenceWithNoChildren
                 + ", call.getChildrenIds() size " + call.getChildrenIds().size());
             if (!call.isConference() || isConferenceWithNoChildren) {
-                sendClccForCall(call, shouldLog);
+                ClccEntry entry = getClccEntryForCall(call, foregroundCall == call);
+                if (entry != null) {
+                    snapshot.add(entry);
+                }
             }
         }
-        sendClccEndMarker();
+        return snapshot;
     }
 
     private void sendClccEndMarker() {
@@ -725,16 +772,33 @@ public class BluetoothInCallService extends InCallService {
     }
 
     /**
-     * Sends a single clcc (C* List Current Calls) event for the specified call.
+     * Sends a single clcc (C* List Current Calls) event.
+     */
+    private void sendClccEntry(ClccEntry entry, boolean shouldLog) {
+        if (shouldLog) {
+            Log.i(TAG, "sending clcc for BluetoothCall " + entry);
+        }
+
+        if (mBluetoothHeadset == null) {
+            Log.w(TAG, "mBluetoothHeasdset is null when sending clcc for BluetoothCall " + entry);
+        } else {
+            mBluetoothHeadset.clccResponse(entry.mIndex, entry.mDirection, entry.mState, 0,
+                    entry.mIsPartOfConference, entry.mAddress, entry.mAddressType);
+        }
+    }
+
+    /**
+     * Computes the clcc (C* List Current Calls) event for the specified call.
+     *
+     * @return the event, or null if the call is not reported
      */
-    private void sendClccForCall(BluetoothCall call, boolean shouldLog) {
-        boolean isForeground = mCallInfo.getForegroundCall() == call;
+    private ClccEntry getClccEntryForCall(BluetoothCall call, boolean isForeground) {
         int state = getBtCallState(call, isForeground);
         boolean isPartOfConference = false;
         boolean isConferenceWithNoChildren = isConferenceWithNoChildren(call);
 
         if (state == CALL_STATE_IDLE) {
-            return;
+            return null;
         }
 
         BluetoothCall conferenceCall = getBluetoothCallById(call.getParentId());
@@ -805,26 +869,7 @@ public class BluetoothInCallService extends InCallService {
 
         int addressType = address == null ? -1 : PhoneNumberUtils.toaFromString(address);
 
-        if (shouldLog) {
-            Log.i(TAG, "sending clcc for BluetoothCall "
-                            + index + ", "
-                            + direction + ", "
-                            + state + ", "
-                            + isPartOfConference + ", "
-                            + addressType);
-        }
-
-        if (mBluetoothHeadset == null) {
-            Log.w(TAG, "mBluetoothHeasdset is null when sending clcc for BluetoothCall "
-                    + index + ", "
-                    + direction + ", "
-                    + state + ", "
-                    + isPartOfConference + ", "
-                    + addressType);
-        } else {
-            mBluetoothHeadset.clccResponse(
-                    index, direction, state, 0, isPartOfConference, address, addressType);
-        }
+        return new ClccEntry(index, direction, state, isPartOfConference, address, addressType);
     }
 
     private String getClccMapKey(BluetoothCall call) {
@@ -857,12 +902,11 @@ public class BluetoothInCallService extends InCallService {
                   "getIndexForCall for conference call starting from "
                   + mMaxNumberOfCalls);
         }
-        while (mClccIndexMap.containsValue(index)) {
-            index++;
-        }
+        index = mUsedClccIndexes.nextClearBit(index);
 
         // NOTE: Indexes are removed in {@link #onCallRemoved}.
         mClccIndexMap.put(key, index);
+        mUsedClccIndexes.set(index);
         return index;
     }
 
@@ -964,7 +1008,7 @@ public class BluetoothInCallService extends InCallService {
         BluetoothCall ringingCall = mCallInfo.getRingingOrSimulatedRingingCall();
         BluetoothCall heldCall = mCallInfo.getHeldCall();
 
-        int bluetoothCallState = getBluetoothCallStateForUpdate();
+        int bluetoothCallState = getBluetoothCallStateForUpdate(ringingCall);
 
         String ringingAddress = null;
         int ringingAddressType = DEFAULT_RINGING_ADDRESS_TYPE;
@@ -1078,8 +1122,7 @@ public class BluetoothInCallService extends InCallService {
         }
     }
 
-    private int getBluetoothCallStateForUpdate() {
-        BluetoothCall ringingCall = mCallInfo.getRingingOrSimulatedRingingCall();
+    private int getBluetoothCallStateForUpdate(BluetoothCall ringingCall) {
         BluetoothCall dialingCall = mCallInfo.getOutgoingCall();
         boolean hasOnlyDisconnectedCalls = mCallInfo.hasOnlyDisconnectedCalls();
 
@@ -1173,37 +1216,67 @@ public class BluetoothInCallService extends InCallService {
         return calls;
     }
 
+    /** One row of the CLCC (C* List Current Calls) response. */
+    private static final class ClccEntry {
+        final int mIndex;
+        final int mDirection;
+        final int mState;
+        final boolean mIsPartOfConference;
+        final String mAddress;
+        final int mAddressType;
+
+        ClccEntry(int index, int direction, int state, boolean isPartOfConference,
+                String address, int addressType) {
+            mIndex = index;
+            mDirection = direction;
+            mState = state;
+            mIsPartOfConference = isPartOfConference;
+            mAddress = address;
+            mAddressType = addressType;
+        }
+
+        @Override
+        public String toString() {
+            return mIndex + ", " + mDirection + ", " + mState + ", " + mIsPartOfConference + ", "
+                    + mAddressType;
+        }
+    }
+
     // extract call information functions out into this part, so we can mock it in testing
     @VisibleForTesting
     public class CallInfo {
 
+        /**
+         * Returns the first connecting call, else the first active, dialing or pulling call,
+         * else the first ringing call. The calls are only listed once.
+         */
         public BluetoothCall getForegroundCall() {
-            LinkedHashSet<Integer> states = new LinkedHashSet<Integer>();
-            BluetoothCall foregroundCall;
-
-            states.add(Call.STATE_CONNECTING);
-            foregroundCall = getCallByStates(states);
-            if (!mCallInfo.isNullCall(foregroundCall)) {
-                return foregroundCall;
-            }
-
-            states.clear();
-            states.add(Call.STATE_ACTIVE);
-            states.add(Call.STATE_DIALING);
-            states.add(Call.STATE_PULLING_CALL);
-            foregroundCall = getCallByStates(states);
-            if (!mCallInfo.isNullCall(foregroundCall)) {
-                return foregroundCall;
-            }
-
-            states.clear();
-            states.add(Call.STATE_RINGING);
-            foregroundCall = getCallByStates(states);
-            if (!mCallInfo.isNullCall(foregroundCall)) {
-                return foregroundCall;
+            BluetoothCall activeOrDialingCall = null;
+            BluetoothCall ringingCall = null;
+            for (BluetoothCall call : getBluetoothCalls()) {
+                if (mCallInfo.isNullCall(call)) {
+                    continue;
+                }
+                switch (call.getState()) {
+                    case Call.STATE_CONNECTING:
+                        return call;
+                    case Call.STATE_ACTIVE:
+                    case Call.STATE_DIALING:
+                    case Call.STATE_PULLING_CALL:
+                        if (activeOrDialingCall == null) {
+                            activeOrDialingCall = call;
+                        }
+                        break;
+                    case Call.STATE_RINGING:
+                        if (ringingCall == null) {
+                            ringingCall = call;
+                        }
+                        break;
+                    default:
+                        break;
+                }
             }
-
-            return null;
+            return activeOrDialingCall != null ? activeOrDialingCall : ringingCall;
         }
 
         public BluetoothCall getCallByStates(LinkedHashSet<Integer> states) {
@@ -1041,6 +1041,169 @@ public class AvrcpControllerStateMachineTest {
                 eq(mTestAddress), eq(0), eq(19));
     }
 
+    /**
+     * Test that the Now Playing list stays available while it is refreshed, and that the items
+     * still present keep their IDs.
+     */
+    @Test
+    public void testNowPlayingChanged_keepsListUntilRefreshed() {
+        setUpConnectedState(true, true);
+        List<AvrcpItem> nowPlayingList = new ArrayList<AvrcpItem>();
+        nowPlayingList.add(makeNowPlayingItem(1, "title 1"));
+        nowPlayingList.add(makeNowPlayingItem(2, "title 2"));
+        setNowPlayingList(nowPlayingList);
+        BrowseTree.BrowseNode nowPlaying = mAvrcpStateMachine.findNode("NOW_PLAYING");
+        String keptId = nowPlaying.getChild(1).getID();
+
+        mAvrcpStateMachine.nowPlayingContentChanged();
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        verify(mAvrcpControllerService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(2)).getNowPlayingListNative(
+                eq(mTestAddress), eq(0), eq(19));
+        assertNowPlayingList(nowPlayingList);
+
+        List<AvrcpItem> newNowPlayingList = new ArrayList<AvrcpItem>();
+        newNowPlayingList.add(makeNowPlayingItem(2, "title 2"));
+        newNowPlayingList.add(makeNowPlayingItem(3, "title 3"));
+        newNowPlayingList.add(makeNowPlayingItem(4, "title 4"));
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS, newNowPlayingList);
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS_OUT_OF_RANGE);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+
+        Assert.assertTrue(nowPlaying.isCached());
+        assertNowPlayingList(newNowPlayingList);
+        Assert.assertEquals(keptId, nowPlaying.getChild(0).getID());
+    }
+
+    /**
+     * Test that a failed refresh of the Now Playing list keeps the previous list instead of
+     * appending the items received so far.
+     */
+    @Test
+    public void testNowPlayingChanged_refreshTimeout_keepsPreviousList() {
+        setUpConnectedState(true, true);
+        List<AvrcpItem> nowPlayingList = new ArrayList<AvrcpItem>();
+        nowPlayingList.add(makeNowPlayingItem(1, "title 1"));
+        nowPlayingList.add(makeNowPlayingItem(2, "title 2"));
+        setNowPlayingList(nowPlayingList);
+        BrowseTree.BrowseNode nowPlaying = mAvrcpStateMachine.findNode("NOW_PLAYING");
+
+        mAvrcpStateMachine.nowPlayingContentChanged();
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        verify(mAvrcpControllerService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(2)).getNowPlayingListNative(
+                eq(mTestAddress), eq(0), eq(19));
+
+        List<AvrcpItem> partialList = new ArrayList<AvrcpItem>();
+        partialList.add(makeNowPlayingItem(3, "title 3"));
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS, partialList);
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_INTERNAL_CMD_TIMEOUT);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+
+        Assert.assertTrue(nowPlaying.isCached());
+        assertNowPlayingList(nowPlayingList);
+    }
+
+    /**
+     * Test that a refresh of the Now Playing list aborted by another refresh keeps the previous
+     * list instead of replacing it with the items received so far, then starts over.
+     */
+    @Test
+    public void testNowPlayingChanged_refreshAborted_keepsPreviousList() {
+        setUpConnectedState(true, true);
+        List<AvrcpItem> nowPlayingList = new ArrayList<AvrcpItem>();
+        nowPlayingList.add(makeNowPlayingItem(1, "title 1"));
+        nowPlayingList.add(makeNowPlayingItem(2, "title 2"));
+        setNowPlayingList(nowPlayingList);
+        BrowseTree.BrowseNode nowPlaying = mAvrcpStateMachine.findNode("NOW_PLAYING");
+
+        mAvrcpStateMachine.nowPlayingContentChanged();
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        verify(mAvrcpControllerService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(2)).getNowPlayingListNative(
+                eq(mTestAddress), eq(0), eq(19));
+
+        mAvrcpStateMachine.nowPlayingContentChanged();
+        List<AvrcpItem> partialList = new ArrayList<AvrcpItem>();
+        partialList.add(makeNowPlayingItem(3, "title 3"));
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS, partialList);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+
+        Assert.assertTrue(nowPlaying.isCached());
+        assertNowPlayingList(nowPlayingList);
+        verify(mAvrcpControllerService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(3)).getNowPlayingListNative(
+                eq(mTestAddress), eq(0), anyInt());
+    }
+
+    /**
+     * Test the page size chosen after each response of a remote truncating its responses to
+     * 50 items: it doubles while the responses are complete and is then limited to 50.
+     */
+    @Test
+    public void testBrowsingLargeFolder_adaptsPageSize() {
+        setUpConnectedState(true, true);
+        List<int[]> requests = new ArrayList<>();
+        doAnswer(invocation -> {
+            requests.add(new int[] {invocation.getArgument(1), invocation.getArgument(2)});
+            return null;
+        }).when(mAvrcpControllerService).getFolderListNative(eq(mTestAddress), anyInt(), anyInt());
+        BrowseTree.BrowseNode player = browseToPlayer();
+
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_FOLDER_PATH,
+                1000);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        Assert.assertArrayEquals(new int[] {0, 19}, requests.get(requests.size() - 1));
+
+        // Complete responses double the page size
+        respondToFolderRequest(0, 20);
+        Assert.assertArrayEquals(new int[] {20, 59}, requests.get(requests.size() - 1));
+        respondToFolderRequest(20, 40);
+        Assert.assertArrayEquals(new int[] {60, 139}, requests.get(requests.size() - 1));
+
+        // A short response may be the end of the listing, the page size is kept
+        respondToFolderRequest(60, 50);
+        Assert.assertArrayEquals(new int[] {110, 189}, requests.get(requests.size() - 1));
+
+        // The listing went on, the remote truncates its responses to 50 items
+        respondToFolderRequest(110, 50);
+        Assert.assertArrayEquals(new int[] {160, 209}, requests.get(requests.size() - 1));
+        Assert.assertEquals(50, mAvrcpStateMachine.getItemPageSize());
+        Assert.assertEquals(160, player.getChildrenCount());
+    }
+
+    private BrowseTree.BrowseNode browseToPlayer() {
+        BrowseTree.BrowseNode root = mAvrcpStateMachine.findNode("__ROOT__");
+        mAvrcpStateMachine.requestContents(root);
+        byte[] playerFeatures =
+                new byte[]{0, 0, 0, 0, 0, (byte) 0xb7, 0x01, 0x0c, 0x0a, 0, 0, 0, 0, 0, 0, 0};
+        List<AvrcpPlayer> testPlayers = new ArrayList<>();
+        testPlayers.add(makePlayer(mTestDevice, 1, "Player 1", 1, playerFeatures, 1));
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_PLAYER_ITEMS,
+                testPlayers);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        BrowseTree.BrowseNode player = root.getChild(0);
+        mAvrcpStateMachine.requestContents(player);
+        verify(mAvrcpControllerService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1)).setBrowsedPlayerNative(
+                eq(mTestAddress), eq(1));
+        return player;
+    }
+
+    private void respondToFolderRequest(int start, int count) {
+        ArrayList<AvrcpItem> items = new ArrayList<>();
+        for (int i = start; i < start + count; i++) {
+            items.add(makeNowPlayingItem(i, "track " + i));
+        }
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS, items);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+    }
+
     /**
      * Test that AVRCP events such as playback commands can execute while performing browsing.
      */
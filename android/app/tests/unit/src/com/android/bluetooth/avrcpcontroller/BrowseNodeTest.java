@@ -32,6 +32,7 @@ import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
@@ -145,6 +146,42 @@ public class BrowseNodeTest {
         assertThat(mRootNode.getChildrenCount()).isEqualTo(0);
     }
 
+    @Test
+    public void replaceChildren_keepsUnchangedItems() {
+        BrowseNode nowPlaying = mBrowseTree.mNowPlayingNode;
+        List<AvrcpItem> items = new ArrayList<>();
+        items.add(makeItem(1, "title 1"));
+        items.add(makeItem(2, "title 2"));
+        nowPlaying.addChildren(items);
+        String keptId = nowPlaying.getChild(1).getID();
+        String removedId = nowPlaying.getChild(0).getID();
+
+        List<AvrcpItem> newItems = new ArrayList<>();
+        newItems.add(makeItem(2, "title 2"));
+        newItems.add(makeItem(3, "title 3"));
+        int kept = nowPlaying.replaceChildren(newItems);
+
+        assertThat(kept).isEqualTo(1);
+        assertThat(nowPlaying.getChildrenCount()).isEqualTo(2);
+        assertThat(nowPlaying.getChild(0).getID()).isEqualTo(keptId);
+        assertThat(nowPlaying.getChild(1).getScope()).isEqualTo(
+                AvrcpControllerService.BROWSE_SCOPE_NOW_PLAYING);
+        assertThat(mBrowseTree.findBrowseNodeByID(keptId)).isNotNull();
+        assertThat(mBrowseTree.findBrowseNodeByID(removedId)).isNull();
+    }
+
+    @Test
+    public void replaceChildren_changedItemWithSameUid_isReplaced() {
+        BrowseNode nowPlaying = mBrowseTree.mNowPlayingNode;
+        nowPlaying.addChildren(List.of(makeItem(1, "title 1")));
+        String previousId = nowPlaying.getChild(0).getID();
+
+        int kept = nowPlaying.replaceChildren(List.of(makeItem(1, "other title")));
+
+        assertThat(kept).isEqualTo(0);
+        assertThat(nowPlaying.getChild(0).getID()).isNotEqualTo(previousId);
+    }
+
     @Test
     public void getters() {
         BrowseNode browseNode = mBrowseTree.new BrowseNode(
@@ -188,4 +225,9 @@ public class BrowseNodeTest {
 
         assertThat(browseNode.toString()).isEqualTo("ID: " + TEST_UUID);
     }
-}
\ No newline at end of file
+
+    private AvrcpItem makeItem(long uid, String title) {
+        return new AvrcpItem.Builder().setDevice(mTestDevice).setUid(uid).setTitle(title)
+                .setUuid(UUID.randomUUID().toString()).build();
+    }
+}
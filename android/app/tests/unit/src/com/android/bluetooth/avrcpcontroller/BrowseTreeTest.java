@@ -26,7 +26,10 @@ import com.android.bluetooth.avrcpcontroller.BrowseTree.BrowseNode;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 
 public class BrowseTreeTest {
     private static final String ILLEGAL_ID = "illegal_id";
@@ -193,10 +196,84 @@ public class BrowseTreeTest {
                 browseTree.mNavigateUpNode);
     }
 
+    @Test
+    public void addChildren_overNodeBudget_evictsLeastRecentlyUsedFolder() {
+        // Root and Now Playing, plus three folders and two folders of 4 items
+        BrowseTree browseTree = new BrowseTree(mTestDevice, 13);
+        BrowseNode folderOne = addFolder(browseTree, browseTree.mRootNode, "folder 1");
+        BrowseNode folderTwo = addFolder(browseTree, browseTree.mRootNode, "folder 2");
+        folderOne.addChildren(makeItems(4));
+        folderOne.setCached(true);
+        folderTwo.addChildren(makeItems(4));
+        folderTwo.setCached(true);
+        String keptChildId = folderOne.getChild(0).getID();
+        assertThat(browseTree.getEvictedFolderCount()).isEqualTo(0);
+
+        // Use folder one again, folder two is now the least recently used
+        assertThat(folderOne.getContents()).hasSize(4);
+        BrowseNode folderThree = addFolder(browseTree, browseTree.mRootNode, "folder 3");
+        folderThree.addChildren(makeItems(4));
+
+        assertThat(browseTree.getEvictedFolderCount()).isEqualTo(1);
+        assertThat(folderTwo.isCached()).isFalse();
+        assertThat(folderTwo.getChildrenCount()).isEqualTo(0);
+        assertThat(folderOne.isCached()).isTrue();
+        assertThat(browseTree.findBrowseNodeByID(keptChildId)).isNotNull();
+        assertThat(folderThree.getChildrenCount()).isEqualTo(4);
+        // The evicted folder itself stays, so that it can be fetched again
+        assertThat(browseTree.findBrowseNodeByID(folderTwo.getID())).isEqualTo(folderTwo);
+    }
+
+    @Test
+    public void addChildren_overNodeBudget_keepsPathToCurrentFolder() {
+        BrowseTree browseTree = new BrowseTree(mTestDevice, 8);
+        BrowseNode folderOne = addFolder(browseTree, browseTree.mRootNode, "folder 1");
+        BrowseNode subFolder = addFolder(browseTree, folderOne, "sub folder");
+        subFolder.addChildren(makeItems(2));
+        browseTree.setCurrentBrowsedFolder(subFolder.getID());
+
+        BrowseNode folderTwo = addFolder(browseTree, browseTree.mRootNode, "folder 2");
+        folderTwo.addChildren(makeItems(4));
+
+        assertThat(browseTree.getEvictedFolderCount()).isEqualTo(0);
+        assertThat(subFolder.getChildrenCount()).isEqualTo(2);
+        assertThat(browseTree.getUsageSummary()).contains("Nodes: 11/8");
+    }
+
+    @Test
+    public void setCached_false_removesWholeSubtree() {
+        BrowseTree browseTree = new BrowseTree(mTestDevice);
+        BrowseNode folder = addFolder(browseTree, browseTree.mRootNode, "folder");
+        BrowseNode subFolder = addFolder(browseTree, folder, "sub folder");
+        subFolder.addChildren(makeItems(2));
+        String grandChildId = subFolder.getChild(0).getID();
+
+        folder.setCached(false);
+
+        assertThat(browseTree.findBrowseNodeByID(subFolder.getID())).isNull();
+        assertThat(browseTree.findBrowseNodeByID(grandChildId)).isNull();
+    }
+
     @Test
     public void toString_returnsSizeInfo() {
         BrowseTree browseTree = new BrowseTree(mTestDevice);
 
         assertThat(browseTree.toString()).isEqualTo("Size: " + browseTree.mBrowseMap.size());
     }
-}
\ No newline at end of file
+
+    private BrowseNode addFolder(BrowseTree browseTree, BrowseNode parent, String name) {
+        BrowseNode folder = browseTree.new BrowseNode(new AvrcpItem.Builder()
+                .setUuid(UUID.randomUUID().toString()).setTitle(name).setBrowsable(true).build());
+        parent.addChild(folder);
+        return folder;
+    }
+
+    private List<AvrcpItem> makeItems(int count) {
+        List<AvrcpItem> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(new AvrcpItem.Builder().setUid(i).setTitle("item " + i)
+                    .setUuid(UUID.randomUUID().toString()).setPlayable(true).build());
+        }
+        return items;
+    }
+}
@@ -25,6 +25,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.util.LinkedHashSet;
+import java.util.Random;
 import java.util.Set;
 
 @RunWith(JUnit4.class)
@@ -96,4 +97,97 @@ public class BaseDataTest {
         assertThat(level.index).isEqualTo(4);
         assertThat(level.codecConfigLength).isEqualTo(3);
     }
+
+    @Test
+    public void parseBaseData_consolidatesCodecConfigOfLevelThree() {
+        byte[] serviceData = new byte[] {
+                // LEVEL 1
+                (byte) 0x01, (byte) 0x02, (byte) 0x03, // presentationDelay
+                (byte) 0x01,  // numSubGroups
+                // LEVEL 2
+                (byte) 0x02,  // numSubGroups
+                (byte) 0x06, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, // codecId
+                (byte) 0x06,  // codecConfigLength
+                (byte) 0x02, (byte) 0x01, (byte) 0x08, // 48 kHz
+                (byte) 0x02, (byte) 0x02, (byte) 0x01, // 10 ms
+                (byte) 0x00,  // metaDataLength
+                // LEVEL 3
+                (byte) 0x01,  // index
+                (byte) 0x06,  // codecConfigLength
+                (byte) 0x05, (byte) 0x03, (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                // LEVEL 3
+                (byte) 0x02,  // index
+                (byte) 0x03,  // codecConfigLength
+                (byte) 0x02, (byte) 0x01, (byte) 0x03, // 16 kHz
+        };
+
+        BaseData data = BaseData.parseBaseData(serviceData);
+
+        assertThat(data.getNumberOfIndices()).isEqualTo(2);
+        BaseData.BaseInformation first = data.getLevelThree().get(0);
+        assertThat(first.consolidatedUniqueCodecInfo.size()).isEqualTo(3);
+        assertThat(data.getCodecParamString(first.consolidatedUniqueCodecInfo.get(1)))
+                .isEqualTo("48K");
+        assertThat(data.getCodecParamString(first.consolidatedUniqueCodecInfo.get(3)))
+                .isEqualTo("LEFT");
+        BaseData.BaseInformation second = data.getLevelThree().get(1);
+        assertThat(second.consolidatedUniqueCodecInfo.size()).isEqualTo(2);
+        assertThat(second.consolidatedUniqueCodecInfo.get(3)).isNull();
+        assertThat(data.getCodecParamString(second.consolidatedUniqueCodecInfo.get(1)))
+                .isEqualTo("16K");
+        assertThat(data.getCodecParamString(second.consolidatedUniqueCodecInfo.get(2)))
+                .isEqualTo("10ms");
+    }
+
+    @Test
+    public void parseBaseData_truncated_returnsNull() {
+        byte[] serviceData = new byte[] {
+                (byte) 0x01, (byte) 0x02, (byte) 0x03, // presentationDelay
+                (byte) 0x01,  // numSubGroups
+                (byte) 0x01,  // numSubGroups
+                (byte) 0xFE,  // UNKNOWN_CODEC
+                (byte) 0x10,  // codecConfigLength past the end
+                (byte) 0x01,
+        };
+
+        assertThat(BaseData.parseBaseData(serviceData)).isNull();
+        assertThat(BaseData.parseBaseData(new byte[] {0x01, 0x02})).isNull();
+    }
+
+    @Test
+    public void parseBaseData_fuzz_doesNotThrow() {
+        Random random = new Random(0x42415345);
+        for (int i = 0; i < 10000; i++) {
+            byte[] serviceData = new byte[random.nextInt(64)];
+            random.nextBytes(serviceData);
+            BaseData.parseBaseData(serviceData);
+        }
+    }
+
+    @Test
+    public void getCodecParamString() {
+        BaseData data = BaseData.parseBaseData(new byte[] {0x01, 0x02, 0x03, 0x00});
+
+        assertThat(data.getCodecParamString(new byte[] {0x02, 0x01, 0x08})).isEqualTo("48K");
+        assertThat(data.getCodecParamString(new byte[] {0x02, 0x02, 0x00})).isEqualTo("7.5ms");
+        assertThat(data.getCodecParamString(new byte[] {0x05, 0x03, 0x02, 0x00, 0x00, 0x00}))
+                .isEqualTo("RIGHT");
+        assertThat(data.getCodecParamString(new byte[] {0x03, 0x04, 0x28, 0x01}))
+                .isEqualTo("OPF_296");
+        assertThat(data.getCodecParamString(new byte[] {0x02, 0x09, 0x00}))
+                .isEqualTo("UNKNOWN PARAMETER");
+        assertThat(data.getCodecParamString(new byte[0])).isEqualTo("UNKNOWN PARAMETER");
+    }
+
+    @Test
+    public void getMetadataString() {
+        BaseData data = BaseData.parseBaseData(new byte[] {0x01, 0x02, 0x03, 0x00});
+
+        assertThat(data.getMetadataString(new byte[] {0x04, 0x04, 'e', 'n', 'g'}))
+                .isEqualTo("eng");
+        assertThat(data.getMetadataString(new byte[] {0x02, 0x04, 'e'}))
+                .isEqualTo("UNKNOWN LANGUAGE");
+        assertThat(data.getMetadataString(new byte[] {0x02, 0x01, 0x00}))
+                .isEqualTo("UNKNOWN METADATA TYPE");
+    }
 }
@@ -481,7 +481,10 @@ public class BassClientStateMachineTest {
         ScanRecord data = ScanRecord.parseFromBytes(scanRecordWithBaseData);
         assertThat(data.getServiceUuids()).contains(BassConstants.BASIC_AUDIO_UUID);
         assertThat(data.getServiceData(BassConstants.BASIC_AUDIO_UUID)).isNotNull();
+        when(mBassClientService.parseBase(anyInt(), any())).thenAnswer(
+                invocation -> BaseData.parseBaseData(invocation.getArgument(1)));
         mBassClientStateMachine.parseScanRecord(0, data);
+        verify(mBassClientService).parseBase(anyInt(), any());
         verify(mBassClientService).updateBase(anyInt(), any());
     }
 
@@ -1055,8 +1058,7 @@ public class BassClientStateMachineTest {
         };
         ScanRecord record = ScanRecord.parseFromBytes(scanRecord);
 
-        doNothing().when(mMethodProxy).periodicAdvertisingManagerRegisterSync(
-                any(), any(), anyInt(), anyInt(), any(), any());
+        when(mBassClientService.acquirePeriodicSync(any(), anyInt(), any())).thenReturn(true);
         ScanResult scanResult = new ScanResult(mTestDevice, 0, 0, 0, 0, 0, 0, 0, record, 0);
         mBassClientStateMachine.sendMessage(
                 SELECT_BCAST_SOURCE, BassConstants.AUTO, 0, scanResult);
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.le.PeriodicAdvertisingCallback;
+import android.bluetooth.le.ScanResult;
+import android.os.HandlerThread;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.bluetooth.TestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class BroadcastSourceRegistryTest {
+    @Rule
+    public final MockitoRule mockito = MockitoJUnit.rule();
+
+    private static final int MAX_ACTIVE_SYNCS = 2;
+    private static final int BROADCAST_ID = 0x123456;
+    private static final int SYNC_HANDLE = 5;
+
+    private static final byte[] BASE_SERVICE_DATA = new byte[] {
+        // LEVEL 1
+        (byte) 0x01, (byte) 0x02, (byte) 0x03, // presentationDelay
+        (byte) 0x01,  // numSubGroups
+        // LEVEL 2
+        (byte) 0x01,  // numSubGroups
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, // codecId
+        (byte) 0x02,  // codecConfigLength
+        (byte) 0x01, (byte) 'A', // codecConfigInfo
+        (byte) 0x03,  // metaDataLength
+        (byte) 0x06, (byte) 0x07, (byte) 0x08,  // metaData
+        // LEVEL 3
+        (byte) 0x04,  // index
+        (byte) 0x03,  // codecConfigLength
+        (byte) 0x02, (byte) 'B', (byte) 'C', // codecConfigInfo
+    };
+
+    private HandlerThread mHandlerThread;
+    private BroadcastSourceRegistry mRegistry;
+    private BluetoothDevice mSourceDevice;
+    private BluetoothDevice mOtherSourceDevice;
+
+    @Spy private BluetoothMethodProxy mMethodProxy;
+    @Mock private PeriodicAdvertisingCallback mFirstCallback;
+    @Mock private PeriodicAdvertisingCallback mSecondCallback;
+
+    @Before
+    public void setUp() {
+        BluetoothMethodProxy.setInstanceForTesting(mMethodProxy);
+        doNothing().when(mMethodProxy).periodicAdvertisingManagerRegisterSync(
+                any(), any(), anyInt(), anyInt(), any(), any());
+
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mSourceDevice = adapter.getRemoteDevice("00:01:02:03:04:05");
+        mOtherSourceDevice = adapter.getRemoteDevice("00:01:02:03:04:06");
+
+        mHandlerThread = new HandlerThread("BroadcastSourceRegistryTestHandlerThread");
+        mHandlerThread.start();
+        mRegistry = new BroadcastSourceRegistry(null, mHandlerThread.getLooper(),
+                MAX_ACTIVE_SYNCS);
+    }
+
+    @After
+    public void tearDown() {
+        mRegistry.cleanup();
+        mHandlerThread.quitSafely();
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void acquire_sameBroadcast_sharesOneSync() {
+        assertThat(mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mFirstCallback))
+                .isTrue();
+        assertThat(mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mSecondCallback))
+                .isTrue();
+
+        verify(mMethodProxy, times(1)).periodicAdvertisingManagerRegisterSync(
+                any(), any(), anyInt(), anyInt(), any(), any());
+        assertThat(mRegistry.getActiveSyncCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void syncEstablished_fansOutToAllSubscribers() {
+        mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mFirstCallback);
+        mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mSecondCallback);
+
+        PeriodicAdvertisingCallback sync = captureSync();
+        sync.onSyncEstablished(SYNC_HANDLE, mSourceDevice, 1, 0, 0, BluetoothGatt.GATT_SUCCESS);
+
+        verify(mFirstCallback).onSyncEstablished(SYNC_HANDLE, mSourceDevice, 1, 0, 0,
+                BluetoothGatt.GATT_SUCCESS);
+        verify(mSecondCallback).onSyncEstablished(SYNC_HANDLE, mSourceDevice, 1, 0, 0,
+                BluetoothGatt.GATT_SUCCESS);
+        assertThat(mRegistry.getDeviceForSyncHandle(SYNC_HANDLE)).isEqualTo(mSourceDevice);
+    }
+
+    @Test
+    public void acquire_alreadySynced_replaysSyncEstablished() {
+        mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mFirstCallback);
+        captureSync().onSyncEstablished(SYNC_HANDLE, mSourceDevice, 1, 0, 0,
+                BluetoothGatt.GATT_SUCCESS);
+
+        mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mSecondCallback);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+
+        verify(mSecondCallback).onSyncEstablished(eq(SYNC_HANDLE), eq(mSourceDevice), anyInt(),
+                anyInt(), anyInt(), eq(BluetoothGatt.GATT_SUCCESS));
+    }
+
+    @Test
+    public void release_lastSubscriber_removesSync() {
+        mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mFirstCallback);
+        mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mSecondCallback);
+
+        mRegistry.release(mFirstCallback);
+        assertThat(mRegistry.hasSource(mSourceDevice)).isTrue();
+
+        mRegistry.release(mSecondCallback);
+        assertThat(mRegistry.hasSource(mSourceDevice)).isFalse();
+        assertThat(mRegistry.getActiveSyncCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void acquire_noSlotLeft_fails() {
+        BroadcastSourceRegistry registry = new BroadcastSourceRegistry(null,
+                mHandlerThread.getLooper(), 1);
+
+        assertThat(registry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mFirstCallback))
+                .isTrue();
+        assertThat(registry.acquire(scanResult(mOtherSourceDevice), BROADCAST_ID + 1,
+                mSecondCallback)).isFalse();
+        registry.cleanup();
+    }
+
+    @Test
+    public void syncLost_removesSyncAndNotifiesSubscribers() {
+        mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mFirstCallback);
+        PeriodicAdvertisingCallback sync = captureSync();
+        sync.onSyncEstablished(SYNC_HANDLE, mSourceDevice, 1, 0, 0, BluetoothGatt.GATT_SUCCESS);
+
+        sync.onSyncLost(SYNC_HANDLE);
+
+        verify(mFirstCallback).onSyncLost(SYNC_HANDLE);
+        assertThat(mRegistry.hasSource(mSourceDevice)).isFalse();
+    }
+
+    @Test
+    public void parseBase_sameServiceData_returnsCachedBase() {
+        mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mFirstCallback);
+        captureSync().onSyncEstablished(SYNC_HANDLE, mSourceDevice, 1, 0, 0,
+                BluetoothGatt.GATT_SUCCESS);
+
+        BaseData first = mRegistry.parseBase(SYNC_HANDLE, BASE_SERVICE_DATA);
+        BaseData second = mRegistry.parseBase(SYNC_HANDLE, BASE_SERVICE_DATA.clone());
+
+        assertThat(first).isNotNull();
+        assertThat(second).isSameInstanceAs(first);
+    }
+
+    @Test
+    public void syncFailed_doesNotKeepSource() {
+        mRegistry.acquire(scanResult(mSourceDevice), BROADCAST_ID, mFirstCallback);
+
+        captureSync().onSyncEstablished(SYNC_HANDLE, mSourceDevice, 1, 0, 0,
+                BluetoothGatt.GATT_FAILURE);
+
+        assertThat(mRegistry.hasSource(mSourceDevice)).isFalse();
+        verify(mFirstCallback, never()).onSyncLost(anyInt());
+    }
+
+    private ScanResult scanResult(BluetoothDevice device) {
+        return new ScanResult(device, 0, 0, 0, 0, 0, 0, 0, null, 0);
+    }
+
+    private PeriodicAdvertisingCallback captureSync() {
+        ArgumentCaptor<PeriodicAdvertisingCallback> captor =
+                ArgumentCaptor.forClass(PeriodicAdvertisingCallback.class);
+        verify(mMethodProxy).periodicAdvertisingManagerRegisterSync(
+                any(), any(), anyInt(), anyInt(), captor.capture(), any());
+        return captor.getValue();
+    }
+}
@@ -24,6 +24,8 @@ import static org.mockito.Mockito.verify;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothDeviceSnapshot;
 import android.bluetooth.IBluetoothOobDataCallback;
 import android.content.AttributionSource;
 import android.content.pm.PackageManager;
@@ -39,6 +41,7 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import java.io.FileDescriptor;
+import java.util.List;
 
 public class AdapterServiceBinderTest {
     @Mock private AdapterService mService;
@@ -100,6 +103,23 @@ public class AdapterServiceBinderTest {
         verify(mService, never()).generateLocalOobData(transport, cb);
     }
 
+    @Test
+    public void getDeviceSnapshots() {
+        List<BluetoothDevice> devices = List.of(
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05"));
+        int fields = BluetoothDeviceSnapshot.FIELD_NAME | BluetoothDeviceSnapshot.FIELD_UUIDS;
+
+        mBinder.getDeviceSnapshots(devices, fields, mAttributionSource,
+                SynchronousResultReceiver.get());
+        verify(mService).getDeviceSnapshots(devices, fields);
+
+        Mockito.clearInvocations(mService);
+        mBinder.cleanup();
+        mBinder.getDeviceSnapshots(devices, fields, mAttributionSource,
+                SynchronousResultReceiver.get());
+        verify(mService, never()).getDeviceSnapshots(devices, fields);
+    }
+
     @Test
     public void getBluetoothClass() {
         mBinder.getBluetoothClass(mAttributionSource, SynchronousResultReceiver.get());
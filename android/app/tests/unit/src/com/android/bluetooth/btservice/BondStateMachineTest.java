@@ -101,8 +101,8 @@ public class BondStateMachineTest {
         BluetoothDevice device1, device2;
         device1 = mRemoteDevices.getDevice(TEST_BT_ADDR_BYTES);
         device2 = mRemoteDevices.getDevice(TEST_BT_ADDR_BYTES_2);
-        deviceProperties1.mBondState = BOND_BONDED;
-        deviceProperties2.mBondState = BOND_BONDED;
+        deviceProperties1.setBondStateForTesting(BOND_BONDED);
+        deviceProperties2.setBondStateForTesting(BOND_BONDED);
 
         doReturn(true).when(mAdapterService).removeBondNative(any(byte[].class));
         doReturn(true).when(mAdapterService).createBondNative(any(byte[].class), anyInt());
@@ -153,7 +153,7 @@ public class BondStateMachineTest {
 
         RemoteDevices.DeviceProperties testDeviceProperties =
                 mRemoteDevices.addDeviceProperties(TEST_BT_ADDR_BYTES);
-        testDeviceProperties.mUuids = TEST_UUIDS;
+        testDeviceProperties.setUuids(TEST_UUIDS);
         BluetoothDevice testDevice = testDeviceProperties.getDevice();
         Assert.assertNotNull(testDevice);
 
@@ -163,7 +163,7 @@ public class BondStateMachineTest {
         bondingMsg.arg2 = AbstractionLayer.BT_STATUS_RMT_DEV_DOWN;
         mBondStateMachine.sendMessage(bondingMsg);
 
-        pendingDeviceProperties.mUuids = TEST_UUIDS;
+        pendingDeviceProperties.setUuids(TEST_UUIDS);
         Message uuidUpdateMsg = mBondStateMachine.obtainMessage(BondStateMachine.UUID_UPDATE);
         uuidUpdateMsg.obj = pendingDevice;
 
@@ -401,7 +401,7 @@ public class BondStateMachineTest {
         ArgumentCaptor<Intent> intentArgument = ArgumentCaptor.forClass(Intent.class);
 
         // Setup old state before start test.
-        mDeviceProperties.mBondState = oldState;
+        mDeviceProperties.setBondStateForTesting(oldState);
 
         try {
             mBondStateMachine.sendIntent(mDevice, newState, TEST_BOND_REASON,
@@ -435,7 +435,7 @@ public class BondStateMachineTest {
             boolean isTriggerFromDelayMessage, int expectedNewState, boolean shouldBroadcast,
             int broadcastOldState, int broadcastNewState, boolean shouldDelayMessageExist) {
         // Add dummy UUID for the device.
-        mDeviceProperties.mUuids = TEST_UUIDS;
+        mDeviceProperties.setUuids(TEST_UUIDS);
         testSendIntentNoPendingDevice(oldState, newState, isTriggerFromDelayMessage,
                 expectedNewState, shouldBroadcast, broadcastOldState, broadcastNewState,
                 shouldDelayMessageExist);
@@ -445,7 +445,7 @@ public class BondStateMachineTest {
             boolean isTriggerFromDelayMessage, int expectedNewState, boolean shouldBroadcast,
             int broadcastOldState, int broadcastNewState, boolean shouldDelayMessageExist) {
         // Add dummy UUID for the device.
-        mDeviceProperties.mUuids = TEST_UUIDS;
+        mDeviceProperties.setUuids(TEST_UUIDS);
         testSendIntentPendingDevice(oldState, newState, isTriggerFromDelayMessage, expectedNewState,
                 shouldBroadcast, broadcastOldState, broadcastNewState, shouldDelayMessageExist);
     }
@@ -454,21 +454,21 @@ public class BondStateMachineTest {
             boolean isTriggerFromDelayMessage, int expectedNewState, boolean shouldBroadcast,
             int broadcastOldState, int broadcastNewState, boolean shouldDelayMessageExist) {
         // Test for classic remote device.
-        mDeviceProperties.mDeviceType = BluetoothDevice.DEVICE_TYPE_CLASSIC;
+        mDeviceProperties.setDeviceType(BluetoothDevice.DEVICE_TYPE_CLASSIC);
         mBondStateMachine.mPendingBondedDevices.clear();
         mBondStateMachine.mPendingBondedDevices.add(mDevice);
         testSendIntentCase(oldState, newState, isTriggerFromDelayMessage, expectedNewState,
                 shouldBroadcast, broadcastOldState, broadcastNewState, shouldDelayMessageExist);
 
         // Test for dual-mode remote device.
-        mDeviceProperties.mDeviceType = BluetoothDevice.DEVICE_TYPE_DUAL;
+        mDeviceProperties.setDeviceType(BluetoothDevice.DEVICE_TYPE_DUAL);
         mBondStateMachine.mPendingBondedDevices.clear();
         mBondStateMachine.mPendingBondedDevices.add(mDevice);
         testSendIntentCase(oldState, newState, isTriggerFromDelayMessage, expectedNewState,
                 shouldBroadcast, broadcastOldState, broadcastNewState, shouldDelayMessageExist);
 
         // Test for low energy remote device.
-        mDeviceProperties.mDeviceType = BluetoothDevice.DEVICE_TYPE_LE;
+        mDeviceProperties.setDeviceType(BluetoothDevice.DEVICE_TYPE_LE);
         mBondStateMachine.mPendingBondedDevices.clear();
         mBondStateMachine.mPendingBondedDevices.add(mDevice);
         testSendIntentCase(oldState, newState, isTriggerFromDelayMessage, expectedNewState,
@@ -479,19 +479,19 @@ public class BondStateMachineTest {
             boolean isTriggerFromDelayMessage, int expectedNewState, boolean shouldBroadcast,
             int broadcastOldState, int broadcastNewState, boolean shouldDelayMessageExist) {
         // Test for classic remote device.
-        mDeviceProperties.mDeviceType = BluetoothDevice.DEVICE_TYPE_CLASSIC;
+        mDeviceProperties.setDeviceType(BluetoothDevice.DEVICE_TYPE_CLASSIC);
         mBondStateMachine.mPendingBondedDevices.clear();
         testSendIntentCase(oldState, newState, isTriggerFromDelayMessage, expectedNewState,
                 shouldBroadcast, broadcastOldState, broadcastNewState, shouldDelayMessageExist);
 
         // Test for dual-mode remote device.
-        mDeviceProperties.mDeviceType = BluetoothDevice.DEVICE_TYPE_DUAL;
+        mDeviceProperties.setDeviceType(BluetoothDevice.DEVICE_TYPE_DUAL);
         mBondStateMachine.mPendingBondedDevices.clear();
         testSendIntentCase(oldState, newState, isTriggerFromDelayMessage, expectedNewState,
                 shouldBroadcast, broadcastOldState, broadcastNewState, shouldDelayMessageExist);
 
         // Test for low energy remote device.
-        mDeviceProperties.mDeviceType = BluetoothDevice.DEVICE_TYPE_LE;
+        mDeviceProperties.setDeviceType(BluetoothDevice.DEVICE_TYPE_LE);
         mBondStateMachine.mPendingBondedDevices.clear();
         testSendIntentCase(oldState, newState, isTriggerFromDelayMessage, expectedNewState,
                 shouldBroadcast, broadcastOldState, broadcastNewState, shouldDelayMessageExist);
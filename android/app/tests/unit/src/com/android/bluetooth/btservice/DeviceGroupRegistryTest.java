@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothUuid;
+import android.bluetooth.IBluetoothCsipSetCoordinator;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DeviceGroupRegistryTest {
+    private static final int GROUP_ID = 1;
+    private static final int OTHER_GROUP_ID = 2;
+
+    private final DeviceGroupRegistry mRegistry = new DeviceGroupRegistry();
+    private BluetoothDevice mDevice1;
+    private BluetoothDevice mDevice2;
+    private BluetoothDevice mDevice3;
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mDevice1 = adapter.getRemoteDevice("00:01:02:03:04:01");
+        mDevice2 = adapter.getRemoteDevice("00:01:02:03:04:02");
+        mDevice3 = adapter.getRemoteDevice("00:01:02:03:04:03");
+    }
+
+    @Test
+    public void addDevice_ordersMembersByRank() {
+        mRegistry.addDevice(mDevice1, GROUP_ID, BluetoothUuid.CAP, 3, 2);
+        mRegistry.addDevice(mDevice2, GROUP_ID, BluetoothUuid.CAP, 3, 1);
+        mRegistry.addDevice(mDevice3, GROUP_ID, BluetoothUuid.CAP, 3, 3);
+
+        assertThat(mRegistry.getGroupDevicesOrdered(GROUP_ID))
+                .containsExactly(mDevice2, mDevice1, mDevice3).inOrder();
+        assertThat(mRegistry.getGroupDevicesOrdered(mDevice3, BluetoothUuid.CAP))
+                .containsExactly(mDevice2, mDevice1, mDevice3).inOrder();
+        assertThat(mRegistry.getDesiredGroupSize(GROUP_ID)).isEqualTo(3);
+    }
+
+    @Test
+    public void getGroupId_resolvesGroupOfContext() {
+        mRegistry.addDevice(mDevice1, GROUP_ID, BluetoothUuid.CAP, 2, 1);
+        mRegistry.addDevice(mDevice1, OTHER_GROUP_ID, BluetoothUuid.HAS, 2, 1);
+
+        assertThat(mRegistry.getGroupId(mDevice1, BluetoothUuid.CAP)).isEqualTo(GROUP_ID);
+        assertThat(mRegistry.getGroupId(mDevice1, BluetoothUuid.HAS)).isEqualTo(OTHER_GROUP_ID);
+        assertThat(mRegistry.getGroupId(mDevice2, BluetoothUuid.CAP))
+                .isEqualTo(IBluetoothCsipSetCoordinator.CSIS_GROUP_ID_INVALID);
+        assertThat(mRegistry.getGroupUuidMapByDevice(mDevice1)).containsExactly(
+                GROUP_ID, BluetoothUuid.CAP, OTHER_GROUP_ID, BluetoothUuid.HAS);
+        assertThat(mRegistry.getAllGroupIds(BluetoothUuid.CAP)).containsExactly(GROUP_ID);
+    }
+
+    @Test
+    public void removeDevice_keepsGroupOfOtherMembers() {
+        mRegistry.addDevice(mDevice1, GROUP_ID, BluetoothUuid.CAP, 2, 1);
+        mRegistry.addDevice(mDevice2, GROUP_ID, BluetoothUuid.CAP, 2, 2);
+        List<BluetoothDevice> before = mRegistry.getGroupDevicesOrdered(GROUP_ID);
+
+        mRegistry.removeDevice(mDevice1);
+
+        assertThat(mRegistry.getGroupDevicesOrdered(GROUP_ID)).containsExactly(mDevice2);
+        assertThat(mRegistry.getGroupId(mDevice1, BluetoothUuid.CAP))
+                .isEqualTo(IBluetoothCsipSetCoordinator.CSIS_GROUP_ID_INVALID);
+        assertThat(mRegistry.getGroupUuid(GROUP_ID)).isEqualTo(BluetoothUuid.CAP);
+        // Lists handed out earlier are not modified
+        assertThat(before).containsExactly(mDevice1, mDevice2).inOrder();
+    }
+
+    @Test
+    public void clear_forgetsAllGroups() {
+        mRegistry.addDevice(mDevice1, GROUP_ID, BluetoothUuid.CAP, 2, 1);
+
+        mRegistry.clear();
+
+        assertThat(mRegistry.getGroupDevicesOrdered(GROUP_ID)).isEmpty();
+        assertThat(mRegistry.getGroupUuid(GROUP_ID)).isNull();
+        assertThat(mRegistry.getDesiredGroupSize(GROUP_ID))
+                .isEqualTo(IBluetoothCsipSetCoordinator.CSIS_GROUP_SIZE_UNKNOWN);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LatencyHistogramTest {
+    private static final int LAST_BUCKET = LatencyHistogram.BUCKET_UPPER_BOUNDS_MICROS.length;
+
+    @Test
+    public void getBucket_boundsAreInclusive() {
+        assertThat(LatencyHistogram.getBucket(0)).isEqualTo(0);
+        assertThat(LatencyHistogram.getBucket(100)).isEqualTo(0);
+        assertThat(LatencyHistogram.getBucket(101)).isEqualTo(1);
+        assertThat(LatencyHistogram.getBucket(10_000_000)).isEqualTo(LAST_BUCKET - 1);
+        assertThat(LatencyHistogram.getBucket(Long.MAX_VALUE)).isEqualTo(LAST_BUCKET);
+    }
+
+    @Test
+    public void record_updatesCountsTotalAndMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(300);
+        histogram.record(20_000_000);
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(false);
+
+        assertThat(snapshot.getSampleCount()).isEqualTo(3);
+        assertThat(snapshot.counts[0]).isEqualTo(1);
+        assertThat(snapshot.counts[2]).isEqualTo(1);
+        assertThat(snapshot.counts[LAST_BUCKET]).isEqualTo(1);
+        assertThat(snapshot.totalMicros).isEqualTo(20_000_310);
+        assertThat(snapshot.maxMicros).isEqualTo(20_000_000);
+    }
+
+    @Test
+    public void snapshot_reset_clearsHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+
+        assertThat(histogram.snapshot(true).getSampleCount()).isEqualTo(1);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(false);
+        assertThat(snapshot.getSampleCount()).isEqualTo(0);
+        assertThat(snapshot.totalMicros).isEqualTo(0);
+        assertThat(snapshot.maxMicros).isEqualTo(0);
+    }
+
+    @Test
+    public void record_fromConcurrentThreads() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    histogram.record(j);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(histogram.snapshot(false).getSampleCount()).isEqualTo(4000);
+        assertThat(histogram.snapshot(false).maxMicros).isEqualTo(999);
+    }
+}
@@ -23,6 +23,7 @@ import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.BluetoothMetricsProto.BluetoothLog;
+import com.android.bluetooth.BluetoothMetricsProto.LatencyMetric;
 import com.android.bluetooth.BluetoothMetricsProto.ProfileConnectionStats;
 import com.android.bluetooth.BluetoothMetricsProto.ProfileId;
 
@@ -144,6 +145,32 @@ public class MetricsLoggerTest {
         Assert.assertEquals(0, metricsProtoAfterDump.getProfileConnectionStatsCount());
     }
 
+    /**
+     * Test that latencies are exported in their histogram and cleaned after a dump
+     */
+    @Test
+    public void testLogLatency() {
+        MetricsLogger.logLatency(LatencyMetric.LATENCY_GATT_OPERATION, 50);
+        MetricsLogger.logLatency(LatencyMetric.LATENCY_GATT_OPERATION, 20_000);
+        MetricsLogger.logLatency(LatencyMetric.LATENCY_GATT_OPERATION, -1);
+        BluetoothLog.Builder metricsBuilder = BluetoothLog.newBuilder();
+        MetricsLogger.dumpProto(metricsBuilder);
+        BluetoothLog metricsProto = metricsBuilder.build();
+        Assert.assertEquals(1, metricsProto.getLatencyHistogramCount());
+        com.android.bluetooth.BluetoothMetricsProto.LatencyHistogram histogram =
+                metricsProto.getLatencyHistogram(0);
+        Assert.assertEquals(LatencyMetric.LATENCY_GATT_OPERATION, histogram.getMetric());
+        Assert.assertEquals(histogram.getBucketUpperBoundMicrosCount() + 1,
+                histogram.getBucketCountCount());
+        Assert.assertEquals(1, histogram.getBucketCount(0));
+        Assert.assertEquals(20_050, histogram.getTotalLatencyMicros());
+        Assert.assertEquals(20_000, histogram.getMaxLatencyMicros());
+        // Verify that MetricsLogger's internal state is cleared after a dump
+        BluetoothLog.Builder metricsBuilderAfterDump = BluetoothLog.newBuilder();
+        MetricsLogger.dumpProto(metricsBuilderAfterDump);
+        Assert.assertEquals(0, metricsBuilderAfterDump.build().getLatencyHistogramCount());
+    }
+
     private static HashMap<ProfileId, ProfileConnectionStats> getProfileUsageStatsMap(
             List<ProfileConnectionStats> profileUsageStats) {
         HashMap<ProfileId, ProfileConnectionStats> profileUsageStatsMap = new HashMap<>();
@@ -21,10 +21,8 @@ import static com.android.bluetooth.TestUtils.waitForLooperToFinishScheduledTask
 
 import static org.mockito.Mockito.*;
 
-import android.bluetooth.BluetoothA2dp;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothHeadset;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.BluetoothUuid;
 import android.content.Intent;
@@ -69,6 +67,8 @@ public class PhonePolicyTest {
     @Mock private A2dpService mA2dpService;
     @Mock private DatabaseManager mDatabaseManager;
 
+    private final ProfileEventBus mProfileEventBus = new ProfileEventBus();
+
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
@@ -80,6 +80,7 @@ public class PhonePolicyTest {
         // Configure the maximum connected audio devices
         doReturn(MAX_CONNECTED_AUDIO_DEVICES).when(mAdapterService).getMaxConnectedAudioDevices();
         doReturn(mDatabaseManager).when(mAdapterService).getDatabase();
+        doReturn(mProfileEventBus).when(mAdapterService).getProfileEventBus();
         // Setup the mocked factory to return mocked services
         doReturn(mHeadsetService).when(mServiceFactory).getHeadsetService();
         doReturn(mA2dpService).when(mServiceFactory).getA2dpService();
@@ -94,10 +95,12 @@ public class PhonePolicyTest {
         mAdapter = BluetoothAdapter.getDefaultAdapter();
         PhonePolicy.sConnectOtherProfilesTimeoutMillis = CONNECT_OTHER_PROFILES_TIMEOUT_MILLIS;
         mPhonePolicy = new PhonePolicy(mAdapterService, mServiceFactory);
+        mPhonePolicy.start();
     }
 
     @After
     public void tearDown() throws Exception {
+        mPhonePolicy.cleanup();
         if (mHandlerThread != null) {
             mHandlerThread.quitSafely();
         }
@@ -203,10 +206,7 @@ public class PhonePolicyTest {
                 BluetoothProfile.CONNECTION_POLICY_FORBIDDEN);
 
         // Make one of the device active
-        Intent intent = new Intent(BluetoothA2dp.ACTION_ACTIVE_DEVICE_CHANGED);
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, connectionOrder.get(0));
-        intent.addFlags(Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
-        mPhonePolicy.getBroadcastReceiver().onReceive(null /* context */, intent);
+        mProfileEventBus.publishActiveDeviceChanged(BluetoothProfile.A2DP, connectionOrder.get(0));
         waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
 
         // Only calls setConnection on device connectionOrder.get(0) with STATE_CONNECTED
@@ -219,10 +219,7 @@ public class PhonePolicyTest {
         // Make another device active
         when(mHeadsetService.getConnectionState(connectionOrder.get(1))).thenReturn(
                 BluetoothProfile.STATE_CONNECTED);
-        intent = new Intent(BluetoothA2dp.ACTION_ACTIVE_DEVICE_CHANGED);
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, connectionOrder.get(1));
-        intent.addFlags(Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
-        mPhonePolicy.getBroadcastReceiver().onReceive(null /* context */, intent);
+        mProfileEventBus.publishActiveDeviceChanged(BluetoothProfile.A2DP, connectionOrder.get(1));
         waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
 
         // Only calls setConnection on device connectionOrder.get(1) with STATE_CONNECTED
@@ -236,12 +233,9 @@ public class PhonePolicyTest {
         // Disconnect a2dp for the device from previous STATE_CONNECTED
         when(mHeadsetService.getConnectionState(connectionOrder.get(1))).thenReturn(
                 BluetoothProfile.STATE_DISCONNECTED);
-        intent = new Intent(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, connectionOrder.get(1));
-        intent.putExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, BluetoothProfile.STATE_CONNECTED);
-        intent.putExtra(BluetoothProfile.EXTRA_STATE, BluetoothProfile.STATE_DISCONNECTED);
-        intent.addFlags(Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
-        mPhonePolicy.getBroadcastReceiver().onReceive(null /* context */, intent);
+        mProfileEventBus.publishConnectionStateChanged(BluetoothProfile.A2DP,
+                connectionOrder.get(1), BluetoothProfile.STATE_CONNECTED,
+                BluetoothProfile.STATE_DISCONNECTED);
         waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
 
         // Verify that we do not call setConnection, nor setDisconnection on disconnect
@@ -251,9 +245,9 @@ public class PhonePolicyTest {
         verify(mDatabaseManager, never()).setDisconnection(connectionOrder.get(1));
 
         // Disconnect a2dp for the device from previous STATE_DISCONNECTING
-        intent.putExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE,
-                BluetoothProfile.STATE_DISCONNECTING);
-        mPhonePolicy.getBroadcastReceiver().onReceive(null /* context */, intent);
+        mProfileEventBus.publishConnectionStateChanged(BluetoothProfile.A2DP,
+                connectionOrder.get(1), BluetoothProfile.STATE_DISCONNECTING,
+                BluetoothProfile.STATE_DISCONNECTED);
         waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
 
         // Verify that we do not call setConnection, but instead setDisconnection on disconnect
@@ -640,12 +634,8 @@ public class PhonePolicyTest {
 
         // We send a connection successful for one profile since the re-connect *only* works if we
         // have already connected successfully over one of the profiles
-        Intent intent = new Intent(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bondedDevices[0]);
-        intent.putExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, BluetoothProfile.STATE_DISCONNECTED);
-        intent.putExtra(BluetoothProfile.EXTRA_STATE, BluetoothProfile.STATE_CONNECTED);
-        intent.addFlags(Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
-        mPhonePolicy.getBroadcastReceiver().onReceive(null /* context */, intent);
+        mProfileEventBus.publishConnectionStateChanged(BluetoothProfile.HEADSET, bondedDevices[0],
+                BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.STATE_CONNECTED);
 
         // Check that we don't get any calls to reconnect
         verify(mA2dpService, after(CONNECT_OTHER_PROFILES_TIMEOUT_WAIT_MILLIS).never()).connect(
@@ -696,12 +686,8 @@ public class PhonePolicyTest {
 
         // We send a connection successful for one profile since the re-connect *only* works if we
         // have already connected successfully over one of the profiles
-        Intent intent = new Intent(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bondedDevices[0]);
-        intent.putExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, BluetoothProfile.STATE_DISCONNECTED);
-        intent.putExtra(BluetoothProfile.EXTRA_STATE, BluetoothProfile.STATE_CONNECTED);
-        intent.addFlags(Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
-        mPhonePolicy.getBroadcastReceiver().onReceive(null /* context */, intent);
+        mProfileEventBus.publishConnectionStateChanged(BluetoothProfile.HEADSET, bondedDevices[0],
+                BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.STATE_CONNECTED);
 
         // Check that we don't get any calls to reconnect
         verify(mA2dpService, after(CONNECT_OTHER_PROFILES_TIMEOUT_WAIT_MILLIS).never()).connect(
@@ -788,24 +774,16 @@ public class PhonePolicyTest {
 
     private void updateProfileConnectionStateHelper(BluetoothDevice device, int profileId,
             int nextState, int prevState) {
-        Intent intent;
         switch (profileId) {
             case BluetoothProfile.A2DP:
                 when(mA2dpService.getConnectionState(device)).thenReturn(nextState);
-                intent = new Intent(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
                 break;
             case BluetoothProfile.HEADSET:
                 when(mHeadsetService.getConnectionState(device)).thenReturn(nextState);
-                intent = new Intent(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
                 break;
             default:
-                intent = new Intent(BluetoothAdapter.ACTION_CONNECTION_STATE_CHANGED);
                 break;
         }
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
-        intent.putExtra(BluetoothProfile.EXTRA_PREVIOUS_STATE, prevState);
-        intent.putExtra(BluetoothProfile.EXTRA_STATE, nextState);
-        intent.addFlags(Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
-        mPhonePolicy.getBroadcastReceiver().onReceive(null /* context */, intent);
+        mProfileEventBus.publishConnectionStateChanged(profileId, device, prevState, nextState);
     }
 }
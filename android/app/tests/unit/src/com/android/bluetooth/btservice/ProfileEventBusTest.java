@@ -0,0 +1,162 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProfileEventBusTest {
+    private static final int TIMEOUT_MS = 1000;
+
+    private ProfileEventBus mProfileEventBus;
+    private BluetoothDevice mDevice;
+
+    @Before
+    public void setUp() {
+        mProfileEventBus = new ProfileEventBus();
+        mDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("11:22:33:44:55:66");
+    }
+
+    @Test
+    public void publish_deliversToListenerInOrder() {
+        ProfileEventBus.Listener listener = mock(ProfileEventBus.Listener.class);
+        mProfileEventBus.registerListener(listener, Runnable::run);
+
+        mProfileEventBus.publishConnectionStateChanged(BluetoothProfile.A2DP, mDevice,
+                BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.STATE_CONNECTED);
+        mProfileEventBus.publishActiveDeviceChanged(BluetoothProfile.A2DP, mDevice);
+
+        InOrder order = inOrder(listener);
+        order.verify(listener).onConnectionStateChanged(BluetoothProfile.A2DP, mDevice,
+                BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.STATE_CONNECTED);
+        order.verify(listener).onActiveDeviceChanged(BluetoothProfile.A2DP, mDevice);
+    }
+
+    @Test
+    public void publishConnectionStateChanged_sameState_isDropped() {
+        ProfileEventBus.Listener listener = mock(ProfileEventBus.Listener.class);
+        mProfileEventBus.registerListener(listener, Runnable::run);
+
+        mProfileEventBus.publishConnectionStateChanged(BluetoothProfile.HEADSET, mDevice,
+                BluetoothProfile.STATE_CONNECTED, BluetoothProfile.STATE_CONNECTED);
+        mProfileEventBus.publishConnectionStateChanged(BluetoothProfile.HEADSET, null,
+                BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.STATE_CONNECTED);
+
+        verify(listener, never()).onConnectionStateChanged(anyInt(), any(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void unregisterListener_stopsDelivery() {
+        ProfileEventBus.Listener listener = mock(ProfileEventBus.Listener.class);
+        mProfileEventBus.registerListener(listener, Runnable::run);
+        mProfileEventBus.unregisterListener(listener);
+
+        mProfileEventBus.publishActiveDeviceChanged(BluetoothProfile.LE_AUDIO, mDevice);
+
+        verify(listener, never()).onActiveDeviceChanged(anyInt(), any());
+    }
+
+    @Test
+    public void registerListener_twice_deliversOnce() {
+        ProfileEventBus.Listener listener = mock(ProfileEventBus.Listener.class);
+        mProfileEventBus.registerListener(listener, Runnable::run);
+        mProfileEventBus.registerListener(listener, Runnable::run);
+
+        mProfileEventBus.publishActiveDeviceChanged(BluetoothProfile.HEARING_AID, mDevice);
+
+        verify(listener).onActiveDeviceChanged(BluetoothProfile.HEARING_AID, mDevice);
+    }
+
+    @Test
+    public void publish_multiThreadedExecutor_preservesOrder() throws Exception {
+        final int eventCount = 200;
+        List<Integer> received = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(eventCount);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            mProfileEventBus.registerListener(new ProfileEventBus.Listener() {
+                @Override
+                public void onConnectionStateChanged(int profile, BluetoothDevice device,
+                        int fromState, int toState) {
+                    synchronized (received) {
+                        received.add(toState);
+                    }
+                    latch.countDown();
+                }
+            }, executor);
+
+            for (int i = 1; i <= eventCount; i++) {
+                mProfileEventBus.publishConnectionStateChanged(BluetoothProfile.A2DP, mDevice,
+                        i - 1, i);
+            }
+
+            assertThat(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+            synchronized (received) {
+                for (int i = 0; i < eventCount; i++) {
+                    assertThat(received.get(i)).isEqualTo(i + 1);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void publish_executorRejects_nextEventIsStillDelivered() {
+        ProfileEventBus.Listener listener = mock(ProfileEventBus.Listener.class);
+        boolean[] reject = {true};
+        mProfileEventBus.registerListener(listener, runnable -> {
+            if (reject[0]) {
+                throw new IllegalStateException("executor shut down");
+            }
+            runnable.run();
+        });
+
+        mProfileEventBus.publishActiveDeviceChanged(BluetoothProfile.A2DP, mDevice);
+        reject[0] = false;
+        mProfileEventBus.publishDeviceAvailable(BluetoothProfile.HAP_CLIENT, mDevice);
+
+        verify(listener).onActiveDeviceChanged(BluetoothProfile.A2DP, mDevice);
+        verify(listener).onDeviceAvailable(BluetoothProfile.HAP_CLIENT, mDevice);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.a2dp.A2dpService;
+import com.android.bluetooth.bass_client.BassClientService;
+import com.android.bluetooth.csip.CsipSetCoordinatorService;
+import com.android.bluetooth.hfp.HeadsetService;
+import com.android.bluetooth.le_audio.LeAudioService;
+import com.android.bluetooth.pan.PanService;
+import com.android.bluetooth.sap.SapService;
+import com.android.bluetooth.vc.VolumeControlService;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProfileStartupSchedulerTest {
+    private final List<Class> mStarted = new ArrayList<>();
+
+    @Test
+    public void computeWaves_ordersDependencies() {
+        Map<Class, Integer> waves = ProfileStartupScheduler.computeWaves(List.of(
+                BassClientService.class, LeAudioService.class, CsipSetCoordinatorService.class,
+                A2dpService.class));
+
+        assertThat(waves.get(A2dpService.class)).isEqualTo(0);
+        assertThat(waves.get(CsipSetCoordinatorService.class)).isEqualTo(0);
+        assertThat(waves.get(LeAudioService.class)).isEqualTo(1);
+        assertThat(waves.get(BassClientService.class)).isEqualTo(2);
+    }
+
+    @Test
+    public void computeWaves_ignoresUnsupportedDependencies() {
+        Map<Class, Integer> waves = ProfileStartupScheduler.computeWaves(List.of(
+                LeAudioService.class, HeadsetService.class));
+
+        assertThat(waves.get(LeAudioService.class)).isEqualTo(0);
+        assertThat(waves.get(HeadsetService.class)).isEqualTo(0);
+    }
+
+    @Test
+    public void start_dispatchesNextWaveOnceCurrentOneIsRunning() {
+        ProfileStartupScheduler scheduler = new ProfileStartupScheduler(mStarted::add, false);
+
+        scheduler.start(new Class[] {LeAudioService.class, CsipSetCoordinatorService.class,
+                VolumeControlService.class, A2dpService.class});
+        assertThat(mStarted).containsExactly(CsipSetCoordinatorService.class,
+                VolumeControlService.class, A2dpService.class);
+
+        scheduler.onProfileStarted(CsipSetCoordinatorService.class.getSimpleName());
+        scheduler.onProfileStarted(A2dpService.class.getSimpleName());
+        assertThat(mStarted).doesNotContain(LeAudioService.class);
+
+        scheduler.onProfileStarted(VolumeControlService.class.getSimpleName());
+        assertThat(mStarted).contains(LeAudioService.class);
+        assertThat(mStarted).hasSize(4);
+    }
+
+    @Test
+    public void start_deferEnabled_startsDeferredProfilesLast() {
+        ProfileStartupScheduler scheduler = new ProfileStartupScheduler(mStarted::add, true);
+
+        scheduler.start(new Class[] {PanService.class, A2dpService.class, SapService.class});
+        assertThat(mStarted).containsExactly(A2dpService.class);
+        assertThat(scheduler.getDeferredProfileCount()).isEqualTo(2);
+
+        scheduler.startDeferredProfiles();
+        assertThat(mStarted).containsExactly(A2dpService.class, PanService.class,
+                SapService.class);
+        // Only started once
+        scheduler.startDeferredProfiles();
+        assertThat(mStarted).hasSize(3);
+    }
+
+    @Test
+    public void start_deferDisabled_startsAllProfiles() {
+        ProfileStartupScheduler scheduler = new ProfileStartupScheduler(mStarted::add, false);
+
+        scheduler.start(new Class[] {PanService.class, A2dpService.class});
+
+        assertThat(mStarted).containsExactly(PanService.class, A2dpService.class);
+        assertThat(scheduler.getDeferredProfileCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void cancel_dropsProfilesNotDispatched() {
+        ProfileStartupScheduler scheduler = new ProfileStartupScheduler(mStarted::add, true);
+        scheduler.start(new Class[] {LeAudioService.class, CsipSetCoordinatorService.class,
+                PanService.class});
+
+        scheduler.cancel();
+        scheduler.onProfileStarted(CsipSetCoordinatorService.class.getSimpleName());
+        scheduler.startDeferredProfiles();
+
+        assertThat(mStarted).containsExactly(CsipSetCoordinatorService.class);
+    }
+
+    @Test
+    public void dump_containsStartupTrace() {
+        ProfileStartupScheduler scheduler = new ProfileStartupScheduler(mStarted::add, true);
+        scheduler.start(new Class[] {A2dpService.class, PanService.class});
+        scheduler.onProfileStarted(A2dpService.class.getSimpleName());
+
+        StringWriter out = new StringWriter();
+        scheduler.dump(new PrintWriter(out));
+
+        assertThat(out.toString()).contains("A2dpService: wave 0, dispatched +");
+        assertThat(out.toString()).contains("PanService: deferred, dispatched -, started -");
+    }
+}
@@ -7,6 +7,7 @@ import static org.mockito.Mockito.*;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothAssignedNumbers;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothDeviceSnapshot;
 import android.bluetooth.BluetoothHeadset;
 import android.bluetooth.BluetoothHeadsetClient;
 import android.bluetooth.BluetoothProfile;
@@ -35,6 +36,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
+import java.util.List;
 
 @MediumTest
 @RunWith(AndroidJUnit4.class)
@@ -115,6 +117,8 @@ public class RemoteDevicesTest {
         Assert.assertEquals(mRemoteDevices.getDeviceProperties(mDevice1).getBatteryLevel(),
                 batteryLevel);
 
+        verify(mAdapterService, times(2)).deviceSnapshotChanged(mDevice1,
+                BluetoothDeviceSnapshot.FIELD_BATTERY_LEVEL);
         verifyNoMoreInteractions(mAdapterService);
     }
 
@@ -209,6 +213,8 @@ public class RemoteDevicesTest {
         verifyBatteryLevelChangedIntent(mDevice1, batteryLevel, mIntentArgument);
         Assert.assertEquals(BLUETOOTH_CONNECT, mStringArgument.getValue());
 
+        verify(mAdapterService, times(3)).deviceSnapshotChanged(mDevice1,
+                BluetoothDeviceSnapshot.FIELD_BATTERY_LEVEL);
         verifyNoMoreInteractions(mAdapterService);
     }
 
@@ -254,6 +260,8 @@ public class RemoteDevicesTest {
         verifyBatteryLevelChangedIntent(mDevice1, batteryLevel, mIntentArgument);
         Assert.assertEquals(BLUETOOTH_CONNECT, mStringArgument.getValue());
 
+        verify(mAdapterService, times(3)).deviceSnapshotChanged(mDevice1,
+                BluetoothDeviceSnapshot.FIELD_BATTERY_LEVEL);
         verifyNoMoreInteractions(mAdapterService);
     }
 
@@ -484,6 +492,8 @@ public class RemoteDevicesTest {
         verifyBatteryLevelChangedIntent(mDevice1, batteryLevel, mIntentArgument);
         Assert.assertEquals(BLUETOOTH_CONNECT, mStringArgument.getValue());
 
+        verify(mAdapterService, times(3)).deviceSnapshotChanged(mDevice1,
+                BluetoothDeviceSnapshot.FIELD_BATTERY_LEVEL);
         verifyNoMoreInteractions(mAdapterService);
     }
 
@@ -539,6 +549,205 @@ public class RemoteDevicesTest {
                 .getHfAudioPolicyForRemoteAg());
     }
 
+    @Test
+    public void testPackAddress() {
+        Assert.assertEquals(0x001122334455L,
+                RemoteDevices.packAddress(Utils.getBytesFromAddress(TEST_BT_ADDR_1)));
+        Assert.assertEquals(0xFFFFFFFFFFFFL,
+                RemoteDevices.packAddress(Utils.getBytesFromAddress("FF:FF:FF:FF:FF:FF")));
+    }
+
+    @Test
+    public void testAddressConsolidate_identityAddressResolvesToMainDevice() {
+        byte[] mainAddress = Utils.getBytesFromAddress(TEST_BT_ADDR_1);
+        byte[] identityAddress = Utils.getBytesFromAddress("00:11:22:33:44:66");
+        mRemoteDevices.addDeviceProperties(mainAddress);
+
+        mRemoteDevices.addressConsolidateCallback(mainAddress, identityAddress);
+
+        Assert.assertEquals(mDevice1, mRemoteDevices.getDevice(identityAddress));
+        DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(mDevice1);
+        Assert.assertTrue(deviceProp.isConsolidated());
+        Assert.assertEquals(BluetoothDevice.DEVICE_TYPE_DUAL, deviceProp.getDeviceType());
+        Assert.assertEquals("00:11:22:33:44:66", deviceProp.getIdentityAddress());
+    }
+
+    @Test
+    public void testFillDeviceSnapshot_onlySelectedFields() {
+        byte[] address = Utils.getBytesFromAddress(TEST_BT_ADDR_1);
+        DeviceProperties deviceProp = mRemoteDevices.addDeviceProperties(address);
+        mRemoteDevices.devicePropertyChangedCallback(address,
+                new int[] {AbstractionLayer.BT_PROPERTY_BDNAME},
+                new byte[][] {"Headset".getBytes()});
+        deviceProp.setBatteryLevel(42);
+
+        BluetoothDeviceSnapshot.Builder builder = new BluetoothDeviceSnapshot.Builder(mDevice1,
+                BluetoothDeviceSnapshot.FIELD_NAME | BluetoothDeviceSnapshot.FIELD_BOND_STATE);
+        deviceProp.fillDeviceSnapshot(builder,
+                BluetoothDeviceSnapshot.FIELD_NAME | BluetoothDeviceSnapshot.FIELD_BOND_STATE);
+        BluetoothDeviceSnapshot snapshot = builder.build();
+
+        Assert.assertEquals(mDevice1, snapshot.getDevice());
+        Assert.assertEquals("Headset", snapshot.getName());
+        Assert.assertEquals(BluetoothDevice.BOND_NONE, snapshot.getBondState());
+        // Not selected
+        Assert.assertEquals(BluetoothDevice.BATTERY_LEVEL_UNKNOWN, snapshot.getBatteryLevel());
+        Assert.assertNull(snapshot.getBluetoothClass());
+    }
+
+    @Test
+    public void testDevicePropertyChanged_reportsChangedSnapshotFields() {
+        byte[] address = Utils.getBytesFromAddress(TEST_BT_ADDR_1);
+        mRemoteDevices.addDeviceProperties(address);
+
+        mRemoteDevices.devicePropertyChangedCallback(address,
+                new int[] {AbstractionLayer.BT_PROPERTY_BDNAME,
+                        AbstractionLayer.BT_PROPERTY_CLASS_OF_DEVICE},
+                new byte[][] {"Headset".getBytes(), {0x04, 0x04, 0x24, 0x00}});
+        verify(mAdapterService).deviceSnapshotChanged(mDevice1,
+                BluetoothDeviceSnapshot.FIELD_NAME | BluetoothDeviceSnapshot.FIELD_BLUETOOTH_CLASS);
+
+        // Unchanged values are not reported again
+        mRemoteDevices.devicePropertyChangedCallback(address,
+                new int[] {AbstractionLayer.BT_PROPERTY_BDNAME},
+                new byte[][] {"Headset".getBytes()});
+        verify(mAdapterService).deviceSnapshotChanged(any(), anyInt());
+    }
+
+    @Test
+    public void testConcurrentPropertyUpdates_noUpdateLost() throws Exception {
+        byte[] address = Utils.getBytesFromAddress(TEST_BT_ADDR_1);
+        DeviceProperties deviceProp = mRemoteDevices.addDeviceProperties(address);
+        int iterations = 1000;
+
+        Thread callbackThread = new Thread(() -> {
+            for (int i = 0; i < iterations; i++) {
+                mRemoteDevices.devicePropertyChangedCallback(address,
+                        new int[] {AbstractionLayer.BT_PROPERTY_REMOTE_RSSI},
+                        new byte[][] {{(byte) i}});
+            }
+        });
+        callbackThread.start();
+        for (int i = 0; i < iterations; i++) {
+            deviceProp.setBatteryLevel(i % 100);
+        }
+        callbackThread.join();
+
+        Assert.assertEquals((byte) (iterations - 1), deviceProp.getRssi());
+        Assert.assertEquals((iterations - 1) % 100, deviceProp.getBatteryLevel());
+    }
+
+    @Test
+    public void testEviction_leastRecentlySeenDeviceIsEvicted() {
+        for (int i = 0; i < RemoteDevices.MAX_DEVICE_QUEUE_SIZE; i++) {
+            seeDevice(getTestAddress(i));
+        }
+        // Device 0 is seen again, device 1 becomes the least recently seen one
+        seeDevice(getTestAddress(0));
+
+        seeDevice(getTestAddress(RemoteDevices.MAX_DEVICE_QUEUE_SIZE));
+
+        Assert.assertNotNull(mRemoteDevices.getDevice(getTestAddress(0)));
+        Assert.assertNull(mRemoteDevices.getDevice(getTestAddress(1)));
+        Assert.assertEquals(1, mRemoteDevices.getEvictedDeviceCount());
+    }
+
+    @Test
+    public void testEviction_bondedAndConnectedDevicesAreNeverEvicted() {
+        byte[] bondedAddress = getTestAddress(0);
+        byte[] connectedAddress = getTestAddress(1);
+        mRemoteDevices.addDeviceProperties(bondedAddress)
+                .setBondState(BluetoothDevice.BOND_BONDED);
+        mRemoteDevices.addDeviceProperties(connectedAddress);
+        mRemoteDevices.aclStateChangeCallback(0, connectedAddress,
+                AbstractionLayer.BT_ACL_STATE_CONNECTED, 2, 0);
+
+        for (int i = 2; i < 3 * RemoteDevices.MAX_DEVICE_QUEUE_SIZE; i++) {
+            seeDevice(getTestAddress(i));
+        }
+
+        Assert.assertNotNull(mRemoteDevices.getDevice(bondedAddress));
+        Assert.assertNotNull(mRemoteDevices.getDevice(connectedAddress));
+
+        // Once disconnected, the device can be evicted again
+        mRemoteDevices.aclStateChangeCallback(0, connectedAddress,
+                AbstractionLayer.BT_ACL_STATE_DISCONNECTED, 2, 19);
+        for (int i = 0; i < RemoteDevices.MAX_DEVICE_QUEUE_SIZE; i++) {
+            seeDevice(getTestAddress(3 * RemoteDevices.MAX_DEVICE_QUEUE_SIZE + i));
+        }
+        Assert.assertNull(mRemoteDevices.getDevice(connectedAddress));
+        Assert.assertNotNull(mRemoteDevices.getDevice(bondedAddress));
+    }
+
+    @Test
+    public void testEviction_memoryIsBounded() {
+        byte[] uuids = new byte[AbstractionLayer.BT_UUID_SIZE * 64];
+        for (int i = 0; i < RemoteDevices.MAX_DEVICE_QUEUE_SIZE; i++) {
+            mRemoteDevices.devicePropertyChangedCallback(getTestAddress(i),
+                    new int[] {AbstractionLayer.BT_PROPERTY_UUIDS}, new byte[][] {uuids});
+        }
+
+        Assert.assertTrue(mRemoteDevices.getEvictedDeviceCount() > 0);
+        Assert.assertTrue(mRemoteDevices.getDeviceQueueMemoryBytes()
+                <= RemoteDevices.MAX_DEVICE_QUEUE_MEMORY_BYTES);
+    }
+
+    /**
+     * Simulate a crowded scan: passers-by seen once, a few devices advertising all the time, and
+     * a bonded and a connected device. Only passers-by should be evicted.
+     */
+    @Test
+    public void testEviction_onlyPassersByAreEvicted() {
+        int passerByCount = 2 * RemoteDevices.MAX_DEVICE_QUEUE_SIZE;
+        int frequentDeviceCount = 5;
+        // Each frequent device is seen again after this number of passers-by
+        int frequentDevicePeriod = RemoteDevices.MAX_DEVICE_QUEUE_SIZE / 2;
+
+        List<byte[]> frequentDevices = new ArrayList<>();
+        for (int i = 0; i < frequentDeviceCount; i++) {
+            frequentDevices.add(getTestAddress(i));
+        }
+        byte[] bondedAddress = getTestAddress(frequentDeviceCount);
+        byte[] connectedAddress = getTestAddress(frequentDeviceCount + 1);
+        mRemoteDevices.addDeviceProperties(bondedAddress)
+                .setBondState(BluetoothDevice.BOND_BONDED);
+        mRemoteDevices.addDeviceProperties(connectedAddress);
+        mRemoteDevices.aclStateChangeCallback(0, connectedAddress,
+                AbstractionLayer.BT_ACL_STATE_CONNECTED, 2, 0);
+
+        int recreatedCount = 0;
+        for (int i = 0; i < passerByCount; i++) {
+            // Keep clear of the addresses of the other devices
+            seeDevice(getTestAddress(0x100 + i));
+
+            if (i % frequentDevicePeriod == 0) {
+                for (byte[] frequentAddress : frequentDevices) {
+                    if (i > 0 && mRemoteDevices.getDevice(frequentAddress) == null) {
+                        recreatedCount++;
+                    }
+                    seeDevice(frequentAddress);
+                }
+            }
+        }
+
+        Assert.assertEquals(0, recreatedCount);
+        Assert.assertEquals(passerByCount + frequentDeviceCount
+                - RemoteDevices.MAX_DEVICE_QUEUE_SIZE, mRemoteDevices.getEvictedDeviceCount());
+        Assert.assertNotNull(mRemoteDevices.getDevice(bondedAddress));
+        Assert.assertNotNull(mRemoteDevices.getDevice(connectedAddress));
+        Assert.assertTrue(mRemoteDevices.getDeviceQueueMemoryBytes()
+                <= RemoteDevices.MAX_DEVICE_QUEUE_MEMORY_BYTES);
+    }
+
+    private void seeDevice(byte[] address) {
+        mRemoteDevices.devicePropertyChangedCallback(address,
+                new int[] {AbstractionLayer.BT_PROPERTY_REMOTE_RSSI}, new byte[][] {{-50}});
+    }
+
+    private static byte[] getTestAddress(int index) {
+        return new byte[] {0x00, 0x11, 0x22, 0x33, (byte) (index >> 8), (byte) index};
+    }
+
     private static void verifyBatteryLevelChangedIntent(BluetoothDevice device, int batteryLevel,
             ArgumentCaptor<Intent> intentArgument) {
         verifyBatteryLevelChangedIntent(device, batteryLevel, intentArgument.getValue());
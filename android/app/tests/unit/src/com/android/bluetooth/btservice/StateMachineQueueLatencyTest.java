@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class StateMachineQueueLatencyTest {
+    private StateMachineQueueLatency mQueueLatency;
+    private BluetoothDevice mDevice1;
+    private BluetoothDevice mDevice2;
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mDevice1 = adapter.getRemoteDevice("00:01:02:03:04:05");
+        mDevice2 = adapter.getRemoteDevice("00:01:02:03:04:06");
+        mQueueLatency = new StateMachineQueueLatency("StateMachineQueueLatencyTest");
+    }
+
+    @Test
+    public void onMessageDispatched_recordsQueueLatency() {
+        mQueueLatency.onMessageDispatched(mDevice1, SystemClock.uptimeMillis() - 50);
+        mQueueLatency.onMessageDispatched(mDevice1, SystemClock.uptimeMillis());
+        mQueueLatency.onMessageDispatched(null, 0);
+
+        assertThat(mQueueLatency.getMaxQueueLatencyMs(mDevice1)).isAtLeast(50);
+        assertThat(mQueueLatency.getMaxQueueLatencyMs(mDevice2)).isEqualTo(0);
+    }
+
+    @Test
+    public void onMessageDispatched_futureMessage_recordsZero() {
+        mQueueLatency.onMessageDispatched(mDevice1, SystemClock.uptimeMillis() + 1000);
+
+        assertThat(mQueueLatency.getMaxQueueLatencyMs(mDevice1)).isEqualTo(0);
+    }
+
+    @Test
+    public void removeDevice_forgetsOnlyThatDevice() {
+        mQueueLatency.onMessageDispatched(mDevice1, SystemClock.uptimeMillis() - 50);
+        mQueueLatency.onMessageDispatched(mDevice2, SystemClock.uptimeMillis() - 50);
+
+        mQueueLatency.removeDevice(mDevice1);
+
+        assertThat(mQueueLatency.getMaxQueueLatencyMs(mDevice1)).isEqualTo(0);
+        assertThat(mQueueLatency.getMaxQueueLatencyMs(mDevice2)).isAtLeast(50);
+
+        mQueueLatency.clear();
+        assertThat(mQueueLatency.getMaxQueueLatencyMs(mDevice2)).isEqualTo(0);
+    }
+
+    @Test
+    public void dump_listsDevices() {
+        mQueueLatency.onMessageDispatched(mDevice1, SystemClock.uptimeMillis());
+        StringBuilder sb = new StringBuilder();
+
+        mQueueLatency.dump(sb);
+
+        assertThat(sb.toString()).contains(mDevice1.toString());
+        assertThat(sb.toString()).doesNotContain(mDevice2.toString());
+    }
+}
@@ -235,7 +235,7 @@ public final class BluetoothKeystoreServiceTest {
         // load config file and put the unencrypted key in to queue.
         testParserFile();
         // Wait for encryption to complete
-        mBluetoothKeystoreService.stopThread();
+        mBluetoothKeystoreService.waitForPendingCompute();
 
         Assert.assertTrue(doCompareKeySet(mNameDecryptKeyResult,
                 mBluetoothKeystoreService.getNameEncryptKey()));
@@ -251,12 +251,75 @@ public final class BluetoothKeystoreServiceTest {
         // load encryption file and do encryption.
         Assert.assertTrue(loadEncryptionFile(CONFIG_FILE_ENCRYPTION_PATH, true));
         // Wait for encryption to complete
-        mBluetoothKeystoreService.stopThread();
+        mBluetoothKeystoreService.waitForPendingCompute();
 
         Assert.assertTrue(doCompareMap(mNameDecryptKeyResult,
                 mBluetoothKeystoreService.getNameDecryptKey()));
     }
 
+    @Test
+    public void testDecrypt_keyUpdatedMeanwhile_notOverwritten() {
+        testEncrypt();
+        mBluetoothKeystoreService.saveEncryptedKey();
+        mBluetoothKeystoreService.cleanupMemory();
+        Map.Entry<String, String> key = mNameDecryptKeyResult.entrySet().iterator().next();
+        String newValue = key.getValue() + "0";
+
+        // Whether the decryption of the old value ends before or after the update, the new
+        // value is kept
+        Assert.assertTrue(loadEncryptionFile(CONFIG_FILE_ENCRYPTION_PATH, true));
+        Assert.assertTrue(setEncryptKeyOrRemoveKey(key.getKey(), newValue));
+        mBluetoothKeystoreService.waitForPendingCompute();
+
+        Assert.assertEquals(newValue,
+                mBluetoothKeystoreService.getNameDecryptKey().get(key.getKey()));
+    }
+
+    @Test
+    public void testDecryptManyDevices() {
+        List<String> configData = new ArrayList<>(mConfigTestData);
+        Map<String, String> expected = new HashMap<>(mNameDecryptKeyResult);
+        for (int i = 0; i < 64; i++) {
+            String address = String.format("00:11:22:33:44:%02x", i);
+            String linkKey = String.format("%032x", i);
+            configData.add("[" + address + "]");
+            configData.add("LinkKey = " + linkKey);
+            expected.put(address + "-LinkKey", linkKey);
+        }
+        overwriteConfigFile(configData);
+        Assert.assertTrue(parseConfigFile(CONFIG_FILE_PATH));
+        mBluetoothKeystoreService.saveEncryptedKey();
+        Assert.assertTrue(doCompareKeySet(expected,
+                mBluetoothKeystoreService.getNameEncryptKey()));
+
+        mBluetoothKeystoreService.cleanupMemory();
+        Assert.assertTrue(loadEncryptionFile(CONFIG_FILE_ENCRYPTION_PATH, true));
+        mBluetoothKeystoreService.waitForPendingCompute();
+
+        Assert.assertTrue(doCompareMap(expected, mBluetoothKeystoreService.getNameDecryptKey()));
+    }
+
+    @Test
+    public void testSaveEncryptedKey_keysUnchanged_keyFilesNotRewritten() throws IOException {
+        testEncrypt();
+        mBluetoothKeystoreService.saveEncryptedKey();
+        List<String> marker = List.of("not rewritten");
+        Files.write(Paths.get(CONFIG_FILE_ENCRYPTION_PATH), marker);
+        Map.Entry<String, String> key = mNameDecryptKeyResult.entrySet().iterator().next();
+
+        // Same value again, then a config save which also encrypts the checksums
+        Assert.assertTrue(setEncryptKeyOrRemoveKey(key.getKey(), key.getValue()));
+        Assert.assertTrue(setEncryptKeyOrRemoveKey(CONFIG_FILE_PREFIX, CONFIG_FILE_HASH));
+
+        Assert.assertEquals(marker, Files.readAllLines(Paths.get(CONFIG_FILE_ENCRYPTION_PATH)));
+
+        Assert.assertTrue(setEncryptKeyOrRemoveKey(key.getKey(), key.getValue() + "0"));
+        mBluetoothKeystoreService.saveEncryptedKey();
+
+        Assert.assertNotEquals(marker,
+                Files.readAllLines(Paths.get(CONFIG_FILE_ENCRYPTION_PATH)));
+    }
+
     @Test
     public void testCompareHashFile() {
         // save config checksum.
@@ -234,6 +234,36 @@ public final class DatabaseManagerTest {
                 badValue, BluetoothA2dp.OPTIONAL_CODECS_PREF_UNKNOWN);
     }
 
+    @Test
+    public void testSetGetGattDbCache() {
+        byte[] value = {0x01, 0x02, 0x03};
+
+        // Device not in database
+        mDatabaseManager.setGattDbCache(mTestDevice, value);
+        Assert.assertNull(mDatabaseManager.getGattDbCache(mTestDevice));
+
+        // Device in database
+        Metadata data = new Metadata(TEST_BT_ADDR);
+        mDatabaseManager.mMetadataCache.put(TEST_BT_ADDR, data);
+        mDatabase.insert(data);
+        mDatabaseManager.setGattDbCache(mTestDevice, value);
+        Assert.assertArrayEquals(value, mDatabaseManager.getGattDbCache(mTestDevice));
+        // Wait for database update
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+
+        // Check the value is persisted
+        restartDatabaseManagerHelper();
+        Assert.assertArrayEquals(value, mDatabaseManager.getGattDbCache(mTestDevice));
+
+        mDatabaseManager.setGattDbCache(mTestDevice, null);
+        Assert.assertNull(mDatabaseManager.getGattDbCache(mTestDevice));
+
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        // Wait for clear database
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+    }
+
     @Test
     public void testRemoveUnusedMetadata_WithSingleBondedDevice() {
         // Insert two devices to database and cache, only mTestDevice is
@@ -1309,6 +1339,28 @@ public final class DatabaseManagerTest {
         }
     }
 
+    @Test
+    public void testDatabaseMigration_117_118() throws IOException {
+        // Create a database with version 117
+        SupportSQLiteDatabase db = testHelper.createDatabase(DB_NAME, 117);
+        // insert a device to the database
+        ContentValues device = new ContentValues();
+        device.put("address", TEST_BT_ADDR);
+        device.put("migrated", false);
+        assertThat(db.insert("metadata", SQLiteDatabase.CONFLICT_IGNORE, device),
+                CoreMatchers.not(-1));
+        // Migrate database from 117 to 118
+        db.close();
+        db = testHelper.runMigrationsAndValidate(DB_NAME, 118, true,
+                MetadataDatabase.MIGRATION_117_118);
+        Cursor cursor = db.query("SELECT * FROM metadata");
+        assertHasColumn(cursor, "gatt_db_cache", true);
+        while (cursor.moveToNext()) {
+            // Check the new column was added with default value
+            assertColumnBlobData(cursor, "gatt_db_cache", null);
+        }
+    }
+
     /**
      * Helper function to check whether the database has the expected column
      */
@@ -37,6 +37,7 @@ import com.android.bluetooth.R;
 import com.android.bluetooth.TestUtils;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.DeviceGroupRegistry;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 
 import java.util.HashMap;
@@ -94,6 +95,7 @@ public class CsipSetCoordinatorServiceTest {
 
         TestUtils.setAdapterService(mAdapterService);
         doReturn(mDatabaseManager).when(mAdapterService).getDatabase();
+        doReturn(new DeviceGroupRegistry()).when(mAdapterService).getDeviceGroupRegistry();
         doReturn(true, false).when(mAdapterService).isStartedProfile(anyString());
 
         mAdapter = BluetoothAdapter.getDefaultAdapter();
@@ -508,6 +510,10 @@ public class CsipSetCoordinatorServiceTest {
         Assert.assertEquals(0, devices.indexOf(mTestDevice2));
         Assert.assertEquals(1, devices.indexOf(mTestDevice));
         Assert.assertEquals(2, devices.indexOf(mTestDevice3));
+
+        Assert.assertEquals(group_size, mService.getDesiredGroupSize(group_id));
+        Assert.assertEquals(group_id,
+                (int) mService.getGroupId(mTestDevice3, new ParcelUuid(uuid)));
     }
 
     /**
@@ -120,4 +120,66 @@ public class AppScanStatsTest {
 
         appScanStats.dumpToString(stringBuilder);
     }
+
+    @Test
+    public void addResult_countsPerScannerFromConcurrentThreads() throws Exception {
+        AppScanStats appScanStats = new AppScanStats("appName", null, map, mService);
+        ScanSettings settings = new ScanSettings.Builder().build();
+        int scannerId = 1;
+        int otherScannerId = 2;
+        appScanStats.recordScanStart(settings, new ArrayList<>(), false, true, scannerId);
+
+        int numThreads = 4;
+        int resultsPerThread = 250;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < resultsPerThread; j++) {
+                    appScanStats.addResult(scannerId);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // Results of a scanner that is not scanning are only counted in the total
+        appScanStats.addResult(otherScannerId);
+
+        int expected = numThreads * resultsPerThread;
+        assertThat(appScanStats.getScanFromScannerId(scannerId).results.sum())
+                .isEqualTo(expected);
+        assertThat(appScanStats.getUnreportedResults()).isEqualTo(expected);
+        StringBuilder sb = new StringBuilder();
+        appScanStats.dumpToString(sb);
+        assertThat(sb.toString()).contains(": " + (expected + 1) + "\n");
+        assertThat(sb.toString()).contains(expected + " results");
+
+        appScanStats.recordScanStop(scannerId);
+        assertThat(appScanStats.getUnreportedResults()).isEqualTo(0);
+    }
+
+    @Test
+    public void recordScanStop_onlyReportsResultsOfStoppedScan() {
+        AppScanStats appScanStats = new AppScanStats("appName", null, map, mService);
+        ScanSettings settings = new ScanSettings.Builder().build();
+        int scannerId = 1;
+        int otherScannerId = 2;
+        appScanStats.recordScanStart(settings, new ArrayList<>(), false, true, scannerId);
+        appScanStats.recordScanStart(settings, new ArrayList<>(), false, true, otherScannerId);
+        appScanStats.addResult(scannerId);
+        appScanStats.addResult(otherScannerId);
+        appScanStats.addResult(otherScannerId);
+
+        appScanStats.recordScanStop(scannerId);
+
+        assertThat(appScanStats.getUnreportedResults()).isEqualTo(2);
+
+        appScanStats.reportResults();
+
+        assertThat(appScanStats.getUnreportedResults()).isEqualTo(0);
+        assertThat(appScanStats.getScanFromScannerId(otherScannerId).results.sum())
+                .isEqualTo(2);
+    }
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.btservice.storage.DatabaseManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Test cases for {@link GattDbCache}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GattDbCacheTest {
+    private static final UUID UUID16 = UUID.fromString("0000180F-0000-1000-8000-00805F9B34FB");
+    private static final UUID UUID128 = UUID.fromString("E95D93AF-251D-470A-A062-FA1922DFA9A8");
+
+    @Mock private DatabaseManager mDatabaseManager;
+
+    private BluetoothDevice mDevice;
+    private GattDbCache mCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+        mCache = new GattDbCache(mDatabaseManager);
+    }
+
+    @Test
+    public void encodeDecode_roundTrip() {
+        List<GattDbElement> db = createDb();
+        byte[] hash = GattDbCache.computeHash(db);
+
+        byte[] data = GattDbCache.encode(hash, db);
+
+        assertThat(GattDbCache.getHash(data)).isEqualTo(hash);
+        List<GattDbElement> decoded = GattDbCache.decode(data);
+        assertThat(decoded).hasSize(db.size());
+        for (int i = 0; i < db.size(); i++) {
+            assertThat(decoded.get(i).type).isEqualTo(db.get(i).type);
+            assertThat(decoded.get(i).id).isEqualTo(db.get(i).id);
+            assertThat(decoded.get(i).uuid).isEqualTo(db.get(i).uuid);
+            assertThat(decoded.get(i).startHandle).isEqualTo(db.get(i).startHandle);
+            assertThat(decoded.get(i).properties).isEqualTo(db.get(i).properties);
+        }
+        assertThat(GattDbCache.computeHash(decoded)).isEqualTo(hash);
+    }
+
+    @Test
+    public void encode_storesBluetoothUuidsOn16Bits() {
+        List<GattDbElement> db16 = List.of(element(GattDbElement.TYPE_PRIMARY_SERVICE, 1, UUID16));
+        List<GattDbElement> db128 =
+                List.of(element(GattDbElement.TYPE_PRIMARY_SERVICE, 1, UUID128));
+        byte[] hash = new byte[GattDbCache.HASH_SIZE];
+
+        assertThat(GattDbCache.encode(hash, db128).length
+                - GattDbCache.encode(hash, db16).length).isEqualTo(14);
+    }
+
+    @Test
+    public void decode_malformedData_returnsNull() {
+        List<GattDbElement> db = createDb();
+        byte[] data = GattDbCache.encode(GattDbCache.computeHash(db), db);
+
+        assertThat(GattDbCache.decode(new byte[0])).isNull();
+        assertThat(GattDbCache.decode(Arrays.copyOf(data, data.length - 1))).isNull();
+        assertThat(GattDbCache.decode(Arrays.copyOf(data, data.length + 1))).isNull();
+        data[0] = (byte) 0xFF;
+        assertThat(GattDbCache.getHash(data)).isNull();
+        assertThat(GattDbCache.decode(data)).isNull();
+    }
+
+    @Test
+    public void computeHash_dependsOnDatabaseStructure() {
+        List<GattDbElement> db = createDb();
+        byte[] hash = GattDbCache.computeHash(db);
+
+        assertThat(GattDbCache.computeHash(createDb())).isEqualTo(hash);
+        db.get(db.size() - 1).id++;
+        assertThat(GattDbCache.computeHash(db)).isNotEqualTo(hash);
+    }
+
+    @Test
+    public void get_differentHash_returnsNull() {
+        List<GattDbElement> db = createDb();
+        GattDbCache.Entry entry = entry(db);
+        mCache.put(mDevice, entry, false);
+
+        assertThat(mCache.get(mDevice, entry.hash)).isSameInstanceAs(entry);
+        assertThat(mCache.get(mDevice, new byte[GattDbCache.HASH_SIZE])).isNull();
+        verify(mDatabaseManager, never()).setGattDbCache(any(), any());
+    }
+
+    @Test
+    public void put_bondedDevice_storesDatabase() {
+        List<GattDbElement> db = createDb();
+        GattDbCache.Entry entry = entry(db);
+
+        mCache.put(mDevice, entry, true);
+
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        verify(mDatabaseManager).setGattDbCache(eq(mDevice), captor.capture());
+        assertThat(GattDbCache.getHash(captor.getValue())).isEqualTo(entry.hash);
+    }
+
+    @Test
+    public void load_readsStoredDatabase() {
+        List<GattDbElement> db = createDb();
+        byte[] hash = GattDbCache.computeHash(db);
+        when(mDatabaseManager.getGattDbCache(mDevice)).thenReturn(GattDbCache.encode(hash, db));
+
+        GattDbCache.Entry entry = mCache.load(mDevice, (h, d) -> {
+            assertThat(d).hasSize(db.size());
+            return new GattDbCache.Entry(h, d, Collections.emptySet());
+        });
+
+        assertThat(entry.hash).isEqualTo(hash);
+        assertThat(mCache.get(mDevice, hash)).isSameInstanceAs(entry);
+    }
+
+    @Test
+    public void load_malformedStoredDatabase_isDropped() {
+        when(mDatabaseManager.getGattDbCache(mDevice)).thenReturn(new byte[] {0x01, 0x02});
+
+        assertThat(mCache.load(mDevice, (h, d) -> entry(d))).isNull();
+        verify(mDatabaseManager).setGattDbCache(eq(mDevice), isNull());
+    }
+
+    @Test
+    public void invalidate_onServiceChanged_forgetsDatabase() {
+        List<GattDbElement> db = createDb();
+        GattDbCache.Entry entry = entry(db);
+        mCache.put(mDevice, entry, true);
+
+        mCache.invalidate(mDevice);
+
+        assertThat(mCache.get(mDevice, entry.hash)).isNull();
+        verify(mDatabaseManager).setGattDbCache(eq(mDevice), isNull());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedDevice() {
+        List<GattDbElement> db = createDb();
+        GattDbCache.Entry entry = entry(db);
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        for (int i = 0; i <= GattDbCache.MAX_ENTRIES; i++) {
+            mCache.put(adapter.getRemoteDevice(String.format("00:01:02:03:05:%02X", i)), entry,
+                    false);
+        }
+
+        assertThat(mCache.get(adapter.getRemoteDevice("00:01:02:03:05:00"), entry.hash))
+                .isNull();
+        assertThat(mCache.get(adapter.getRemoteDevice("00:01:02:03:05:01"), entry.hash))
+                .isSameInstanceAs(entry);
+    }
+
+    private static GattDbCache.Entry entry(List<GattDbElement> db) {
+        return new GattDbCache.Entry(GattDbCache.computeHash(db), db, Collections.emptySet());
+    }
+
+    private static List<GattDbElement> createDb() {
+        List<GattDbElement> db = new ArrayList<>();
+        db.add(element(GattDbElement.TYPE_PRIMARY_SERVICE, 1, UUID16));
+        GattDbElement characteristic = element(GattDbElement.TYPE_CHARACTERISTIC, 3, UUID16);
+        characteristic.properties = 0x12;
+        db.add(characteristic);
+        db.add(element(GattDbElement.TYPE_DESCRIPTOR, 4,
+                UUID.fromString("00002902-0000-1000-8000-00805F9B34FB")));
+        db.add(element(GattDbElement.TYPE_PRIMARY_SERVICE, 0x10, UUID128));
+        GattDbElement included = element(GattDbElement.TYPE_INCLUDED_SERVICE, 0x11, UUID16);
+        included.startHandle = 1;
+        db.add(included);
+        return db;
+    }
+
+    private static GattDbElement element(int type, int id, UUID uuid) {
+        GattDbElement el = new GattDbElement();
+        el.type = type;
+        el.id = id;
+        el.uuid = uuid;
+        return el;
+    }
+}
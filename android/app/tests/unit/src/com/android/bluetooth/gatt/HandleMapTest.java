@@ -0,0 +1,221 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Test cases for {@link HandleMap}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class HandleMapTest {
+    private static final String TAG = "HandleMapTest";
+
+    private static final int SERVER_IF_1 = 1;
+    private static final int SERVER_IF_2 = 2;
+    private static final UUID SERVICE_UUID =
+            UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC_UUID =
+            UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID DESCRIPTOR_UUID =
+            UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    // 20 servers hosting a service of 8 characteristics with 2 descriptors each: 500 attributes
+    private static final int BENCHMARK_SERVER_COUNT = 20;
+    private static final int BENCHMARK_CHARACTERISTIC_COUNT = 8;
+    private static final int BENCHMARK_ATTRIBUTE_COUNT =
+            BENCHMARK_SERVER_COUNT * (1 + 3 * BENCHMARK_CHARACTERISTIC_COUNT);
+    private static final int BENCHMARK_ITERATIONS = 100;
+
+    private final HandleMap mHandleMap = new HandleMap();
+
+    @Test
+    public void getByHandle_returnsAttributesOfService() {
+        addService(SERVER_IF_1, 0x28);
+
+        HandleMap.Entry service = mHandleMap.getByHandle(0x28);
+        assertThat(service.type).isEqualTo(HandleMap.TYPE_SERVICE);
+        assertThat(service.serverIf).isEqualTo(SERVER_IF_1);
+        HandleMap.Entry descriptor = mHandleMap.getByHandle(0x2a);
+        assertThat(descriptor.type).isEqualTo(HandleMap.TYPE_DESCRIPTOR);
+        assertThat(descriptor.serviceHandle).isEqualTo(0x28);
+        assertThat(descriptor.charHandle).isEqualTo(0x29);
+        assertThat(mHandleMap.getByHandle(0x2b)).isNull();
+        assertThat(mHandleMap.checkServiceExists(SERVICE_UUID, 0x28)).isTrue();
+        assertThat(mHandleMap.checkServiceExists(SERVICE_UUID, 0x29)).isFalse();
+    }
+
+    @Test
+    public void getByRequestId_returnsRequestedAttribute() {
+        addService(SERVER_IF_1, 0x0100);
+        mHandleMap.addRequest(7, 0x0101);
+
+        assertThat(mHandleMap.getByRequestId(7).uuid).isEqualTo(CHARACTERISTIC_UUID);
+
+        mHandleMap.deleteRequest(7);
+
+        assertThat(mHandleMap.getByRequestId(7)).isNull();
+    }
+
+    @Test
+    public void deleteService_keepsOtherServices() {
+        addService(SERVER_IF_1, 0x10);
+        addService(SERVER_IF_1, 0x20);
+        addService(SERVER_IF_2, 0x30);
+        mHandleMap.setStarted(SERVER_IF_1, 0x20, true);
+
+        mHandleMap.deleteService(SERVER_IF_1, 0x10);
+
+        assertThat(mHandleMap.getByHandle(0x10)).isNull();
+        assertThat(mHandleMap.getByHandle(0x12)).isNull();
+        assertThat(mHandleMap.getByHandle(0x21)).isNotNull();
+        assertThat(mHandleMap.getEntries()).hasSize(6);
+        assertThat(mHandleMap.getServices(SERVER_IF_1)).hasSize(1);
+        assertThat(mHandleMap.getServices(SERVER_IF_1).get(0).started).isTrue();
+        assertThat(mHandleMap.getServices(SERVER_IF_2).get(0).handle).isEqualTo(0x30);
+    }
+
+    @Test
+    public void deleteService_ofOtherServer_isIgnored() {
+        addService(SERVER_IF_1, 0x10);
+
+        mHandleMap.deleteService(SERVER_IF_2, 0x10);
+
+        assertThat(mHandleMap.getByHandle(0x10)).isNotNull();
+    }
+
+    @Test
+    public void clear_removesAllAttributes() {
+        addService(SERVER_IF_1, 0xfff0);
+
+        mHandleMap.clear();
+
+        assertThat(mHandleMap.getByHandle(0xfff0)).isNull();
+        assertThat(mHandleMap.getEntries()).isEmpty();
+        assertThat(mHandleMap.getServices(SERVER_IF_1)).isEmpty();
+    }
+
+    @Test
+    public void getEntries_keepsInsertionOrderAcrossServers() {
+        addService(SERVER_IF_1, 0x10);
+        addService(SERVER_IF_2, 0x20);
+        addService(SERVER_IF_1, 0x30);
+
+        List<HandleMap.Entry> entries = mHandleMap.getEntries();
+
+        assertThat(entries).hasSize(9);
+        for (int i = 0; i < 3; i++) {
+            assertThat(entries.get(3 * i).handle).isEqualTo(0x10 * (i + 1));
+            assertThat(entries.get(3 * i + 2).handle).isEqualTo(0x10 * (i + 1) + 2);
+        }
+    }
+
+    @Test
+    public void add_reusedHandle_replacesPreviousEntry() {
+        addService(SERVER_IF_1, 0x10);
+
+        // The service of the first server is gone from the stack, its handles are reused
+        addService(SERVER_IF_2, 0x10);
+
+        assertThat(mHandleMap.getByHandle(0x11).serverIf).isEqualTo(SERVER_IF_2);
+        assertThat(mHandleMap.getEntries()).hasSize(3);
+        assertThat(mHandleMap.getServices(SERVER_IF_1)).isEmpty();
+        assertThat(mHandleMap.getServices(SERVER_IF_2)).hasSize(1);
+
+        // Deleting the stale service does not remove the attributes of the new one
+        mHandleMap.deleteService(SERVER_IF_1, 0x10);
+
+        assertThat(mHandleMap.getByHandle(0x10).serverIf).isEqualTo(SERVER_IF_2);
+        assertThat(mHandleMap.getEntries()).hasSize(3);
+    }
+
+    @Test
+    public void benchmark_500AttributesAcross20Servers() {
+        long startTime = SystemClock.elapsedRealtimeNanos();
+        int handle = 1;
+        for (int serverIf = 1; serverIf <= BENCHMARK_SERVER_COUNT; serverIf++) {
+            int serviceHandle = handle++;
+            mHandleMap.addService(serverIf, serviceHandle, SERVICE_UUID, 0, 0, false);
+            for (int i = 0; i < BENCHMARK_CHARACTERISTIC_COUNT; i++) {
+                mHandleMap.addCharacteristic(serverIf, handle++, CHARACTERISTIC_UUID,
+                        serviceHandle);
+                mHandleMap.addDescriptor(serverIf, handle++, DESCRIPTOR_UUID, serviceHandle);
+                mHandleMap.addDescriptor(serverIf, handle++, DESCRIPTOR_UUID, serviceHandle);
+            }
+        }
+        long addTime = SystemClock.elapsedRealtimeNanos() - startTime;
+        List<HandleMap.Entry> entries = mHandleMap.getEntries();
+        assertThat(entries).hasSize(BENCHMARK_ATTRIBUTE_COUNT);
+        for (int h = 1; h <= BENCHMARK_ATTRIBUTE_COUNT; h++) {
+            assertThat(entries.get(h - 1).handle).isEqualTo(h);
+        }
+
+        startTime = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (int h = 1; h <= BENCHMARK_ATTRIBUTE_COUNT; h++) {
+                assertThat(mHandleMap.getByHandle(h).handle).isEqualTo(h);
+            }
+        }
+        long handleLookupTime = SystemClock.elapsedRealtimeNanos() - startTime;
+
+        startTime = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (int h = 1; h <= BENCHMARK_ATTRIBUTE_COUNT; h++) {
+                mHandleMap.addRequest(h, h);
+                assertThat(mHandleMap.getByRequestId(h).handle).isEqualTo(h);
+                mHandleMap.deleteRequest(h);
+            }
+        }
+        long requestLookupTime = SystemClock.elapsedRealtimeNanos() - startTime;
+
+        startTime = SystemClock.elapsedRealtimeNanos();
+        for (int serverIf = 1; serverIf <= BENCHMARK_SERVER_COUNT; serverIf++) {
+            for (HandleMap.Entry service : mHandleMap.getServices(serverIf)) {
+                mHandleMap.deleteService(serverIf, service.handle);
+            }
+        }
+        long deleteTime = SystemClock.elapsedRealtimeNanos() - startTime;
+        assertThat(mHandleMap.getEntries()).isEmpty();
+
+        int lookupCount = BENCHMARK_ITERATIONS * BENCHMARK_ATTRIBUTE_COUNT;
+        Log.i(TAG, "benchmark: " + BENCHMARK_ATTRIBUTE_COUNT + " attributes, add "
+                + addTime / 1000 + " us, handle lookup " + handleLookupTime / lookupCount
+                + " ns, request lookup " + requestLookupTime / lookupCount
+                + " ns, delete " + deleteTime / 1000 + " us");
+    }
+
+    // Adds a service with a characteristic and its descriptor at the following handles
+    private void addService(int serverIf, int serviceHandle) {
+        mHandleMap.addService(serverIf, serviceHandle, SERVICE_UUID, 0, 0, false);
+        mHandleMap.addCharacteristic(serverIf, serviceHandle + 1, CHARACTERISTIC_UUID,
+                serviceHandle);
+        mHandleMap.addDescriptor(serverIf, serviceHandle + 2, DESCRIPTOR_UUID, serviceHandle);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.le.IPeriodicAdvertisingCallback;
+import android.bluetooth.le.PeriodicAdvertisingReport;
+import android.os.IBinder;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.TestUtils;
+import com.android.bluetooth.btservice.AdapterService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Test cases for {@link PeriodicScanManager}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PeriodicScanManagerTest {
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final int SID = 1;
+    private static final int SYNC_HANDLE = 7;
+    private static final int TX_POWER = 0;
+    private static final int RSSI = -50;
+    private static final int DATA_COMPLETE = PeriodicAdvertisingReport.DATA_COMPLETE;
+    private static final int DATA_INCOMPLETE_MORE = 1;
+    private static final int MAX_REPORT_DATA_LENGTH = 1650;
+
+    @Mock
+    private AdapterService mAdapterService;
+
+    @Mock
+    private IPeriodicAdvertisingCallback mCallback;
+
+    @Mock
+    private IBinder mBinder;
+
+    @Mock
+    private IPeriodicAdvertisingCallback mOtherCallback;
+
+    @Mock
+    private IBinder mOtherBinder;
+
+    private PeriodicScanManager mPeriodicScanManager;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        TestUtils.setAdapterService(mAdapterService);
+
+        doReturn(mBinder).when(mCallback).asBinder();
+        doReturn(mOtherBinder).when(mOtherCallback).asBinder();
+        mPeriodicScanManager = new PeriodicScanManager(mAdapterService);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.clearAdapterService(mAdapterService);
+    }
+
+    @Test
+    public void findAllSync_indexesSyncsById() throws Exception {
+        int regId = -5;
+        putSync(mCallback, regId);
+        putSync(mOtherCallback, regId);
+        assertThat(mPeriodicScanManager.findAllSync(regId)).hasSize(2);
+
+        mPeriodicScanManager.onSyncStarted(regId, SYNC_HANDLE, SID, 0, ADDRESS, 1, 100, 0);
+
+        assertThat(mPeriodicScanManager.findAllSync(regId)).isEmpty();
+        assertThat(mPeriodicScanManager.findAllSync(SYNC_HANDLE)).hasSize(2);
+        verify(mCallback).onSyncEstablished(eq(SYNC_HANDLE), any(), eq(SID), anyInt(), anyInt(),
+                eq(0));
+
+        mPeriodicScanManager.onSyncLost(SYNC_HANDLE);
+
+        assertThat(mPeriodicScanManager.findAllSync(SYNC_HANDLE)).isEmpty();
+        assertThat(mPeriodicScanManager.findSync(SYNC_HANDLE)).isNull();
+        verify(mCallback).onSyncLost(SYNC_HANDLE);
+        verify(mOtherCallback).onSyncLost(SYNC_HANDLE);
+    }
+
+    @Test
+    public void onSyncReport_fragments_deliveredOnceReassembled() throws Exception {
+        putSync(mCallback, SYNC_HANDLE);
+
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, TX_POWER, RSSI, DATA_INCOMPLETE_MORE,
+                new byte[] {2, 1});
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, TX_POWER, RSSI, DATA_INCOMPLETE_MORE,
+                new byte[] {6});
+        verify(mCallback, never()).onPeriodicAdvertisingReport(any());
+
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, TX_POWER, RSSI, DATA_COMPLETE,
+                new byte[] {2, 10, 0});
+
+        PeriodicAdvertisingReport report = captureReport(1);
+        assertThat(report.getSyncHandle()).isEqualTo(SYNC_HANDLE);
+        assertThat(report.getDataStatus()).isEqualTo(DATA_COMPLETE);
+        assertThat(report.getData().getBytes()).isEqualTo(new byte[] {2, 1, 6, 2, 10, 0});
+    }
+
+    @Test
+    public void onSyncReport_tooLong_truncatedAndRestDiscarded() throws Exception {
+        putSync(mCallback, SYNC_HANDLE);
+
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, TX_POWER, RSSI, DATA_INCOMPLETE_MORE,
+                new byte[1000]);
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, TX_POWER, RSSI, DATA_INCOMPLETE_MORE,
+                new byte[1000]);
+
+        PeriodicAdvertisingReport report = captureReport(1);
+        assertThat(report.getDataStatus())
+                .isEqualTo(PeriodicAdvertisingReport.DATA_INCOMPLETE_TRUNCATED);
+        assertThat(report.getData().getBytes()).hasLength(MAX_REPORT_DATA_LENGTH);
+
+        // The remaining fragments of the report are dropped up to the last one
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, TX_POWER, RSSI, DATA_INCOMPLETE_MORE,
+                new byte[] {2, 1});
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, TX_POWER, RSSI, DATA_COMPLETE,
+                new byte[] {6});
+        verify(mCallback, times(1)).onPeriodicAdvertisingReport(any());
+
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, TX_POWER, RSSI, DATA_COMPLETE,
+                new byte[] {2, 10, 0});
+
+        report = captureReport(2);
+        assertThat(report.getDataStatus()).isEqualTo(DATA_COMPLETE);
+        assertThat(report.getData().getBytes()).isEqualTo(new byte[] {2, 10, 0});
+    }
+
+    @Test
+    public void onSyncReport_sharedByListenersOfSync() throws Exception {
+        putSync(mCallback, SYNC_HANDLE);
+        putSync(mOtherCallback, SYNC_HANDLE);
+
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE, TX_POWER, RSSI, DATA_COMPLETE,
+                new byte[] {2, 10, 0});
+        mPeriodicScanManager.onSyncReport(SYNC_HANDLE + 1, TX_POWER, RSSI, DATA_COMPLETE,
+                new byte[] {2, 10, 0});
+
+        verify(mCallback, times(1)).onPeriodicAdvertisingReport(any());
+        verify(mOtherCallback, times(1)).onPeriodicAdvertisingReport(any());
+    }
+
+    private void putSync(IPeriodicAdvertisingCallback callback, int id) {
+        mPeriodicScanManager.putSync(callback.asBinder(), mPeriodicScanManager.new SyncInfo(
+                id, SID, ADDRESS, 0, 100, mPeriodicScanManager.new SyncDeathRecipient(callback),
+                callback));
+    }
+
+    // Returns the last report received by mCallback, which got count reports
+    private PeriodicAdvertisingReport captureReport(int count) throws Exception {
+        ArgumentCaptor<PeriodicAdvertisingReport> captor =
+                ArgumentCaptor.forClass(PeriodicAdvertisingReport.class);
+        verify(mCallback, times(count)).onPeriodicAdvertisingReport(captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanFilter;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Test cases for {@link ScanFilterAllocator}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterAllocatorTest {
+    private static final int DELIVERY_MODE = 0;
+    private static final int MATCH_MODE = 1;
+    private static final int SCANNER_1 = 1;
+    private static final int SCANNER_2 = 2;
+    private static final int SCANNER_3 = 3;
+    private static final ParcelUuid UUID_1 =
+            ParcelUuid.fromString("0000FE2C-0000-1000-8000-00805F9B34FB");
+    private static final ParcelUuid UUID_2 =
+            ParcelUuid.fromString("0000184E-0000-1000-8000-00805F9B34FB");
+
+    private ScanFilterAllocator mAllocator;
+
+    @Before
+    public void setUp() {
+        mAllocator = new ScanFilterAllocator();
+    }
+
+    @Test
+    public void allocate_identicalFilters_shareIndex() {
+        addFreeIndices(2);
+        ScanFilter filter = new ScanFilter.Builder().setServiceUuid(UUID_1).build();
+
+        List<ScanFilterAllocator.Allocation> first = allocate(SCANNER_1, filter);
+        List<ScanFilterAllocator.Allocation> second = allocate(SCANNER_2,
+                new ScanFilter.Builder().setServiceUuid(UUID_1).build());
+
+        assertThat(first.get(0).isNew).isTrue();
+        assertThat(second.get(0).isNew).isFalse();
+        assertThat(second.get(0).filterIndex).isEqualTo(first.get(0).filterIndex);
+        assertThat(mAllocator.getRefCount(first.get(0).filterIndex)).isEqualTo(2);
+        assertThat(mAllocator.getFreeIndexCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void allocate_differentParameters_doNotShareIndex() {
+        addFreeIndices(2);
+        List<ScanFilter> filters =
+                List.of(new ScanFilter.Builder().setServiceUuid(UUID_1).build());
+
+        ScanFilterAllocator.Allocation first = mAllocator.allocate(SCANNER_1, filters,
+                DELIVERY_MODE, MATCH_MODE, true).get(0);
+        ScanFilterAllocator.Allocation second = mAllocator.allocate(SCANNER_2, filters,
+                DELIVERY_MODE + 1, MATCH_MODE, true).get(0);
+
+        assertThat(second.isNew).isTrue();
+        assertThat(second.filterIndex).isNotEqualTo(first.filterIndex);
+    }
+
+    @Test
+    public void allocate_notShareable_doNotShareIndex() {
+        addFreeIndices(2);
+        List<ScanFilter> filters =
+                List.of(new ScanFilter.Builder().setServiceUuid(UUID_1).build());
+
+        mAllocator.allocate(SCANNER_1, filters, DELIVERY_MODE, MATCH_MODE, false);
+        ScanFilterAllocator.Allocation second = mAllocator.allocate(SCANNER_2, filters,
+                DELIVERY_MODE, MATCH_MODE, false).get(0);
+
+        assertThat(second.isNew).isTrue();
+        assertThat(mAllocator.allocate(SCANNER_3, filters, DELIVERY_MODE, MATCH_MODE, false))
+                .isNull();
+    }
+
+    @Test
+    public void release_freesIndexWhenLastReferenceIsReleased() {
+        addFreeIndices(1);
+        ScanFilter filter = new ScanFilter.Builder().setServiceUuid(UUID_1).build();
+        int filterIndex = allocate(SCANNER_1, filter).get(0).filterIndex;
+        allocate(SCANNER_2, filter);
+
+        assertThat(mAllocator.release(SCANNER_1)).isEmpty();
+        assertThat(mAllocator.getRefCount(filterIndex)).isEqualTo(1);
+        assertThat(mAllocator.release(SCANNER_2)).containsExactly(filterIndex);
+        assertThat(mAllocator.getFreeIndexCount()).isEqualTo(1);
+        assertThat(mAllocator.release(SCANNER_3)).isEmpty();
+    }
+
+    @Test
+    public void allocate_overflow_mergesIntoBroaderFilter() {
+        addFreeIndices(1);
+        ScanFilter filter1 = new ScanFilter.Builder()
+                .setManufacturerData(0x00E0, new byte[] {0x01, 0x02}).build();
+        ScanFilter filter2 = new ScanFilter.Builder()
+                .setManufacturerData(0x00E0, new byte[] {0x03}).build();
+
+        List<ScanFilterAllocator.Allocation> allocations = allocate(SCANNER_1, filter1, filter2);
+
+        assertThat(allocations).hasSize(2);
+        assertThat(allocations.get(0).filterIndex).isEqualTo(allocations.get(1).filterIndex);
+        assertThat(allocations.get(0).filter.getManufacturerId()).isEqualTo(0x00E0);
+        assertThat(allocations.get(0).filter.getManufacturerData()).isEmpty();
+        assertThat(allocations.get(0).isNew).isTrue();
+        assertThat(allocations.get(1).isNew).isFalse();
+
+        // A third scanner on the same manufacturer id reuses the broad filter
+        ScanFilter filter3 = new ScanFilter.Builder()
+                .setManufacturerData(0x00E0, new byte[] {0x04}).build();
+        assertThat(allocate(SCANNER_2, filter3).get(0).filterIndex)
+                .isEqualTo(allocations.get(0).filterIndex);
+    }
+
+    @Test
+    public void allocate_overflow_keepsExactFilterAlreadyOffloaded() {
+        addFreeIndices(2);
+        ScanFilter exact = new ScanFilter.Builder().setServiceUuid(UUID_1)
+                .setDeviceName("name").build();
+        int exactIndex = allocate(SCANNER_1, exact).get(0).filterIndex;
+
+        List<ScanFilterAllocator.Allocation> allocations = allocate(SCANNER_2, exact,
+                new ScanFilter.Builder().setServiceUuid(UUID_2).setDeviceName("a").build(),
+                new ScanFilter.Builder().setServiceUuid(UUID_2).setDeviceName("b").build());
+
+        assertThat(allocations.get(0).filterIndex).isEqualTo(exactIndex);
+        assertThat(allocations.get(1).filter)
+                .isEqualTo(new ScanFilter.Builder().setServiceUuid(UUID_2).build());
+        assertThat(allocations.get(2).filterIndex).isEqualTo(allocations.get(1).filterIndex);
+        assertThat(mAllocator.getFreeIndexCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void allocate_overflowNotBroadenable_returnsNull() {
+        addFreeIndices(1);
+        List<ScanFilterAllocator.Allocation> allocations = allocate(SCANNER_1,
+                new ScanFilter.Builder().setDeviceAddress("00:01:02:03:04:05").build(),
+                new ScanFilter.Builder().setDeviceAddress("00:01:02:03:04:06").build());
+
+        assertThat(allocations).isNull();
+        assertThat(mAllocator.getFreeIndexCount()).isEqualTo(1);
+        assertThat(mAllocator.release(SCANNER_1)).isEmpty();
+    }
+
+    @Test
+    public void broaden_keepsMostDiscriminatingField() {
+        ScanFilter serviceData = new ScanFilter.Builder()
+                .setServiceData(UUID_1, new byte[] {0x01}).setDeviceName("name").build();
+        assertThat(ScanFilterAllocator.broaden(serviceData)).isEqualTo(
+                new ScanFilter.Builder().setServiceData(UUID_1, new byte[0]).build());
+
+        ScanFilter address = new ScanFilter.Builder()
+                .setDeviceAddress("00:01:02:03:04:05").setServiceUuid(UUID_1).build();
+        assertThat(ScanFilterAllocator.broaden(address)).isSameInstanceAs(address);
+
+        ScanFilter empty = new ScanFilter.Builder().build();
+        assertThat(ScanFilterAllocator.broaden(empty)).isSameInstanceAs(empty);
+    }
+
+    private void addFreeIndices(int count) {
+        for (int i = 0; i < count; i++) {
+            mAllocator.addFreeIndex(4 + i);
+        }
+    }
+
+    private List<ScanFilterAllocator.Allocation> allocate(int scannerId, ScanFilter... filters) {
+        return mAllocator.allocate(scannerId, List.of(filters), DELIVERY_MODE, MATCH_MODE, true);
+    }
+}
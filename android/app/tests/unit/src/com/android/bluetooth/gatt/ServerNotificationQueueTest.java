@@ -0,0 +1,124 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for {@link ServerNotificationQueue}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ServerNotificationQueueTest {
+    private static final int SERVER_IF = 5;
+    private static final int CONN_ID_1 = 1;
+    private static final int CONN_ID_2 = 2;
+    private static final int HANDLE_1 = 0x10;
+    private static final int HANDLE_2 = 0x20;
+
+    private final List<String> mSent = new ArrayList<>();
+    private ServerNotificationQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mQueue = new ServerNotificationQueue((serverIf, connId, handle, value) ->
+                mSent.add(connId + ":" + handle + ":" + value[0]), 1);
+    }
+
+    @Test
+    public void enqueue_idleConnection_sendsRightAway() {
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_1, new byte[] {1}, true);
+        mQueue.enqueue(SERVER_IF, CONN_ID_2, HANDLE_1, new byte[] {1}, true);
+
+        assertThat(mSent).containsExactly(CONN_ID_1 + ":" + HANDLE_1 + ":1",
+                CONN_ID_2 + ":" + HANDLE_1 + ":1").inOrder();
+    }
+
+    @Test
+    public void enqueue_busyConnection_coalescesValuesOfSameHandle() {
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_1, new byte[] {1}, true);
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_1, new byte[] {2}, true);
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_2, new byte[] {3}, true);
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_1, new byte[] {4}, true);
+        assertThat(mQueue.getPendingCount(CONN_ID_1)).isEqualTo(2);
+
+        assertThat(mQueue.onNotificationSent(CONN_ID_1)).isTrue();
+        assertThat(mQueue.onNotificationSent(CONN_ID_1)).isTrue();
+        assertThat(mQueue.onNotificationSent(CONN_ID_1)).isTrue();
+
+        // Values go out in the order of their last update
+        assertThat(mSent).containsExactly(CONN_ID_1 + ":" + HANDLE_1 + ":1",
+                CONN_ID_1 + ":" + HANDLE_2 + ":3", CONN_ID_1 + ":" + HANDLE_1 + ":4").inOrder();
+        assertThat(mQueue.onNotificationSent(CONN_ID_1)).isFalse();
+    }
+
+    @Test
+    public void enqueue_busyConnection_sendsAllEvents() {
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_1, new byte[] {1}, false);
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_1, new byte[] {2}, false);
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_2, new byte[] {3}, true);
+        // A state value does not replace an event of the same handle
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_1, new byte[] {4}, true);
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_1, new byte[] {5}, false);
+        assertThat(mQueue.getPendingCount(CONN_ID_1)).isEqualTo(4);
+
+        while (mQueue.onNotificationSent(CONN_ID_1)) {}
+
+        assertThat(mSent).containsExactly(CONN_ID_1 + ":" + HANDLE_1 + ":1",
+                CONN_ID_1 + ":" + HANDLE_1 + ":2", CONN_ID_1 + ":" + HANDLE_2 + ":3",
+                CONN_ID_1 + ":" + HANDLE_1 + ":4", CONN_ID_1 + ":" + HANDLE_1 + ":5").inOrder();
+    }
+
+    @Test
+    public void onCongestionChanged_pausesAndResumesConnection() {
+        mQueue.onCongestionChanged(SERVER_IF, CONN_ID_1, true);
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_1, new byte[] {1}, true);
+        mQueue.enqueue(SERVER_IF, CONN_ID_2, HANDLE_1, new byte[] {2}, true);
+        assertThat(mSent).containsExactly(CONN_ID_2 + ":" + HANDLE_1 + ":2");
+
+        mQueue.onCongestionChanged(SERVER_IF, CONN_ID_1, false);
+
+        assertThat(mSent).contains(CONN_ID_1 + ":" + HANDLE_1 + ":1");
+    }
+
+    @Test
+    public void onNotificationSent_notFromQueue_isLeftToApplication() {
+        assertThat(mQueue.onNotificationSent(CONN_ID_1)).isFalse();
+    }
+
+    @Test
+    public void removeServer_dropsPendingNotifications() {
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_1, new byte[] {1}, true);
+        mQueue.enqueue(SERVER_IF, CONN_ID_1, HANDLE_2, new byte[] {2}, true);
+
+        mQueue.removeServer(SERVER_IF);
+
+        assertThat(mQueue.getPendingCount(CONN_ID_1)).isEqualTo(0);
+        assertThat(mQueue.onNotificationSent(CONN_ID_1)).isFalse();
+        assertThat(mSent).hasSize(1);
+    }
+}
@@ -19,7 +19,9 @@ package com.android.bluetooth.hid;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -106,6 +108,27 @@ public class BluetoothHidDeviceBinderTest {
         verify(mService).sendReport(mTestDevice, id, data);
     }
 
+    @Test
+    public void sendReportAsync() {
+        int id = 100;
+        byte[] data = new byte[] { 0x00,  0x01 };
+        long timestampNanos = 1234L;
+        mBinder.sendReportAsync(mTestDevice, id, data, timestampNanos, mAttributionSource);
+        verify(mService).sendReportAsync(mTestDevice, id, data, timestampNanos);
+        verify(mService).setAsyncReportPermitted(anyInt());
+    }
+
+    @Test
+    public void sendReportAsync_permitted_skipsPermissionCheck() {
+        int id = 100;
+        byte[] data = new byte[] { 0x00,  0x01 };
+        long timestampNanos = 1234L;
+        when(mService.isAsyncReportPermitted(anyInt())).thenReturn(true);
+        mBinder.sendReportAsync(mTestDevice, id, data, timestampNanos, mAttributionSource);
+        verify(mService).sendReportAsync(mTestDevice, id, data, timestampNanos);
+        verify(mService, never()).setAsyncReportPermitted(anyInt());
+    }
+
     @Test
     public void replyReport() {
         byte type = 0;
@@ -28,7 +28,9 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Binder;
 import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.test.InstrumentationRegistry;
 import androidx.test.filters.MediumTest;
@@ -47,6 +49,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -336,6 +339,81 @@ public class HidDeviceTest {
         Assert.assertEquals(true, mHidDeviceService.unregisterApp());
     }
 
+    /**
+     * Test the logic in sendReportAsync(). Reports are sent in order once the app is registered.
+     */
+    @Test
+    public void testSendReportAsync() throws Exception {
+        doReturn(true).when(mHidDeviceNativeInterface).sendReport(anyInt(), any(byte[].class));
+        long timestampNanos = SystemClock.elapsedRealtimeNanos();
+        // sendReportAsync() should fail without app registered
+        Assert.assertFalse(mHidDeviceService.sendReportAsync(mTestDevice, SAMPLE_REPORT_ID,
+                SAMPLE_HID_REPORT, timestampNanos));
+
+        // Register app
+        doReturn(true).when(mHidDeviceNativeInterface)
+                .registerApp(anyString(), anyString(), anyString(), anyByte(), any(byte[].class),
+                        isNull(), isNull());
+        BluetoothHidDeviceCallbackTestHelper helper = new BluetoothHidDeviceCallbackTestHelper();
+        Assert.assertTrue(mHidDeviceService.registerApp(mSettings, null, null, helper));
+        mHidDeviceService.onApplicationStateChangedFromNative(mTestDevice, true);
+        verifyCallback(TIMEOUT_MS, CALLBACK_APP_REGISTERED, mCallbackQueue);
+
+        // Stream reports, e.g. from a 1 kHz controller
+        int reportCount = 1000;
+        for (int i = 0; i < reportCount; i++) {
+            Assert.assertTrue(mHidDeviceService.sendReportAsync(mTestDevice, SAMPLE_REPORT_ID,
+                    new byte[] {(byte) i, (byte) (i >> 8)}, SystemClock.elapsedRealtimeNanos()));
+        }
+
+        InOrder order = inOrder(mHidDeviceNativeInterface);
+        for (int i = 0; i < reportCount; i++) {
+            order.verify(mHidDeviceNativeInterface).sendReport(eq((int) SAMPLE_REPORT_ID),
+                    eq(new byte[] {(byte) i, (byte) (i >> 8)}));
+        }
+        Assert.assertEquals(reportCount, mHidDeviceService.getAsyncReportCount());
+
+        // Timestamps that cannot be a send time do not drop the report
+        Assert.assertTrue(mHidDeviceService.sendReportAsync(mTestDevice, SAMPLE_REPORT_ID,
+                SAMPLE_HID_REPORT, -1));
+        Assert.assertTrue(mHidDeviceService.sendReportAsync(mTestDevice, SAMPLE_REPORT_ID,
+                SAMPLE_HID_REPORT, Long.MAX_VALUE));
+
+        // Unregister app
+        doReturn(true).when(mHidDeviceNativeInterface).unregisterApp();
+        Assert.assertEquals(true, mHidDeviceService.unregisterApp());
+    }
+
+    /**
+     * Test that the permissions checked for sendReportAsync() are only remembered for the
+     * registered app, until it is unregistered.
+     */
+    @Test
+    public void testAsyncReportPermitted() throws Exception {
+        int uid = Binder.getCallingUid();
+        // Not remembered without app registered
+        mHidDeviceService.setAsyncReportPermitted(uid);
+        Assert.assertFalse(mHidDeviceService.isAsyncReportPermitted(uid));
+
+        // Register app
+        doReturn(true).when(mHidDeviceNativeInterface)
+                .registerApp(anyString(), anyString(), anyString(), anyByte(), any(byte[].class),
+                        isNull(), isNull());
+        BluetoothHidDeviceCallbackTestHelper helper = new BluetoothHidDeviceCallbackTestHelper();
+        Assert.assertTrue(mHidDeviceService.registerApp(mSettings, null, null, helper));
+
+        Assert.assertFalse(mHidDeviceService.isAsyncReportPermitted(uid));
+        mHidDeviceService.setAsyncReportPermitted(uid + 1);
+        Assert.assertFalse(mHidDeviceService.isAsyncReportPermitted(uid + 1));
+        mHidDeviceService.setAsyncReportPermitted(uid);
+        Assert.assertTrue(mHidDeviceService.isAsyncReportPermitted(uid));
+
+        // Unregister app
+        doReturn(true).when(mHidDeviceNativeInterface).unregisterApp();
+        Assert.assertEquals(true, mHidDeviceService.unregisterApp());
+        Assert.assertFalse(mHidDeviceService.isAsyncReportPermitted(uid));
+    }
+
     /**
      * Test the logic in replyReport(). This should fail when the app is not registered.
      */
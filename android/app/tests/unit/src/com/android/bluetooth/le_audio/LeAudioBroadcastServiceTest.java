@@ -35,6 +35,7 @@ import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.TestUtils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ProfileEventBus;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 
 import org.junit.After;
@@ -65,6 +66,7 @@ public class LeAudioBroadcastServiceTest {
     private LinkedBlockingQueue<Intent> mIntentQueue;
     @Mock
     private AdapterService mAdapterService;
+    private final ProfileEventBus mProfileEventBus = new ProfileEventBus();
     @Mock
     private DatabaseManager mDatabaseManager;
     @Mock
@@ -169,6 +171,7 @@ public class LeAudioBroadcastServiceTest {
         }
 
         TestUtils.setAdapterService(mAdapterService);
+        doReturn(mProfileEventBus).when(mAdapterService).getProfileEventBus();
         doReturn(mDatabaseManager).when(mAdapterService).getDatabase();
         doReturn(true, false).when(mAdapterService).isStartedProfile(anyString());
         doReturn(true).when(mAdapterService).isLeAudioBroadcastSourceSupported();
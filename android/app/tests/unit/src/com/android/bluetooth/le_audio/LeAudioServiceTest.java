@@ -59,6 +59,7 @@ import androidx.test.runner.AndroidJUnit4;
 import com.android.bluetooth.R;
 import com.android.bluetooth.TestUtils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ProfileEventBus;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.bluetooth.hfp.HeadsetService;
@@ -111,6 +112,8 @@ public class LeAudioServiceTest {
 
     private BroadcastReceiver mLeAudioIntentReceiver;
 
+    private final ProfileEventBus mProfileEventBus = new ProfileEventBus();
+
     @Mock private AdapterService mAdapterService;
     @Mock private AudioManager mAudioManager;
     @Mock private DatabaseManager mDatabaseManager;
@@ -175,6 +178,14 @@ public class LeAudioServiceTest {
         doReturn(mTmapGattServer).when(mObjectsFactory).getTmapGattServer(any());
 
         TestUtils.setAdapterService(mAdapterService);
+        doReturn(mProfileEventBus).when(mAdapterService).getProfileEventBus();
+        doAnswer(invocation -> {
+            mProfileEventBus.publishConnectionStateChanged(invocation.getArgument(0),
+                    invocation.getArgument(1), invocation.getArgument(2),
+                    invocation.getArgument(3));
+            return null;
+        }).when(mAdapterService).notifyProfileConnectionStateChanged(anyInt(),
+                any(BluetoothDevice.class), anyInt(), anyInt());
         doReturn(MAX_LE_AUDIO_CONNECTIONS).when(mAdapterService).getMaxConnectedAudioDevices();
         doReturn(new ParcelUuid[]{BluetoothUuid.LE_AUDIO}).when(mAdapterService)
                 .getRemoteUuids(any(BluetoothDevice.class));
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.le_audio;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class LtvReaderTest {
+    private static final byte[] CODEC_CONFIG = new byte[] {
+            0x02, 0x01, 0x08, // Sampling Frequency: 48 kHz
+            0x02, 0x02, 0x01, // Frame Duration: 10 ms
+            0x05, 0x03, 0x03, 0x00, 0x00, 0x00, // Audio Channel Allocation: FL | FR
+            0x03, 0x04, 0x64, 0x00, // Octets Per Codec Frame: 100
+    };
+
+    @Test
+    public void next_iteratesAllEntriesInPlace() {
+        LtvReader reader = new LtvReader(CODEC_CONFIG);
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.getBuffer()).isSameInstanceAs(CODEC_CONFIG);
+        assertThat(reader.getType()).isEqualTo(LtvReader.CODEC_CONFIG_SAMPLING_FREQUENCY_TYPE);
+        assertThat(reader.getEntryOffset()).isEqualTo(0);
+        assertThat(reader.getValueOffset()).isEqualTo(2);
+        assertThat(reader.getValueLength()).isEqualTo(1);
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.getType()).isEqualTo(LtvReader.CODEC_CONFIG_FRAME_DURATION_TYPE);
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.getType())
+                .isEqualTo(LtvReader.CODEC_CONFIG_AUDIO_CHANNEL_ALLOCATION_TYPE);
+        assertThat(reader.getUnsignedValue(4)).isEqualTo(3);
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.getType()).isEqualTo(LtvReader.CODEC_CONFIG_OCTETS_PER_CODEC_FRAME_TYPE);
+        assertThat(reader.getUnsignedValue(2)).isEqualTo(100);
+        assertThat(reader.getUnsignedValue(3)).isEqualTo(LtvReader.VALUE_NOT_FOUND);
+
+        assertThat(reader.next()).isFalse();
+        assertThat(reader.isMalformed()).isFalse();
+    }
+
+    @Test
+    public void typedAccessors() {
+        int length = CODEC_CONFIG.length;
+        assertThat(LtvReader.getSamplingFrequency(CODEC_CONFIG, 0, length)).isEqualTo(0x08);
+        assertThat(LtvReader.getFrameDuration(CODEC_CONFIG, 0, length)).isEqualTo(0x01);
+        assertThat(LtvReader.getAudioLocation(CODEC_CONFIG, 0, length)).isEqualTo(3L);
+        assertThat(LtvReader.getOctetsPerFrame(CODEC_CONFIG, 0, length)).isEqualTo(100);
+
+        // Only the region is looked up
+        assertThat(LtvReader.getOctetsPerFrame(CODEC_CONFIG, 0, 12))
+                .isEqualTo(LtvReader.VALUE_NOT_FOUND);
+        assertThat(LtvReader.getFrameDuration(CODEC_CONFIG, 3, 3)).isEqualTo(0x01);
+    }
+
+    @Test
+    public void audioLocation_isUnsigned() {
+        byte[] config = new byte[] {0x05, 0x03, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF};
+        assertThat(LtvReader.getAudioLocation(config, 0, config.length)).isEqualTo(0xFFFFFFFFL);
+    }
+
+    @Test
+    public void typedAccessors_laterEntryOverrides() {
+        byte[] config = new byte[] {0x02, 0x01, 0x03, 0x02, 0x01, 0x08};
+        assertThat(LtvReader.getSamplingFrequency(config, 0, config.length)).isEqualTo(0x08);
+    }
+
+    @Test
+    public void next_skipsZeroLengthEntries() {
+        LtvReader reader = new LtvReader(new byte[] {0x00, 0x02, 0x01, 0x08, 0x00});
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.getType()).isEqualTo(LtvReader.CODEC_CONFIG_SAMPLING_FREQUENCY_TYPE);
+        assertThat(reader.next()).isFalse();
+        assertThat(reader.isMalformed()).isFalse();
+    }
+
+    @Test
+    public void next_truncatedEntry_isMalformed() {
+        byte[] config = new byte[] {0x02, 0x01, 0x08, 0x05, 0x03, 0x01};
+        LtvReader reader = new LtvReader(config);
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.next()).isFalse();
+        assertThat(reader.isMalformed()).isTrue();
+        assertThat(LtvReader.getAudioLocation(config, 0, config.length))
+                .isEqualTo(LtvReader.VALUE_NOT_FOUND);
+        assertThat(LtvReader.getSamplingFrequency(config, 0, config.length)).isEqualTo(0x08);
+    }
+
+    @Test
+    public void getEntry_staysValidAfterNext() {
+        LtvReader reader = new LtvReader(CODEC_CONFIG);
+        assertThat(reader.getEntry()).isNull();
+
+        reader.next();
+        reader.next();
+        LtvReader.Entry entry = reader.getEntry();
+        reader.next();
+
+        assertThat(entry.getBuffer()).isSameInstanceAs(CODEC_CONFIG);
+        assertThat(entry.getType()).isEqualTo(LtvReader.CODEC_CONFIG_FRAME_DURATION_TYPE);
+        assertThat(entry.getEntryOffset()).isEqualTo(3);
+        assertThat(entry.getEntryLength()).isEqualTo(3);
+        assertThat(entry.getValueOffset()).isEqualTo(5);
+        assertThat(entry.getValueLength()).isEqualTo(1);
+    }
+
+    @Test
+    public void findFirstEntry() {
+        assertThat(LtvReader.findFirstEntry(CODEC_CONFIG)).isEqualTo(0);
+        assertThat(LtvReader.findFirstEntry(new byte[] {0x00, 0x00, 0x02, 0x01, 0x08}))
+                .isEqualTo(2);
+        assertThat(LtvReader.findFirstEntry(new byte[] {0x05, 0x03, 0x01})).isEqualTo(-1);
+        assertThat(LtvReader.findFirstEntry(new byte[] {0x00})).isEqualTo(-1);
+        assertThat(LtvReader.findFirstEntry(null)).isEqualTo(-1);
+    }
+
+    @Test
+    public void typedAccessors_valueTooShort_notFound() {
+        byte[] config = new byte[] {0x02, 0x04, 0x64};
+        assertThat(LtvReader.getOctetsPerFrame(config, 0, config.length))
+                .isEqualTo(LtvReader.VALUE_NOT_FOUND);
+    }
+
+    @Test
+    public void nullOrInvalidRegion() {
+        assertThat(new LtvReader(null).next()).isFalse();
+        assertThat(new LtvReader().next()).isFalse();
+        assertThat(LtvReader.getSamplingFrequency(null, 0, 0))
+                .isEqualTo(LtvReader.VALUE_NOT_FOUND);
+        assertThat(LtvReader.getSamplingFrequency(CODEC_CONFIG, 10, CODEC_CONFIG.length))
+                .isEqualTo(LtvReader.VALUE_NOT_FOUND);
+        assertThrows(IllegalArgumentException.class,
+                () -> new LtvReader().reset(CODEC_CONFIG, 1, CODEC_CONFIG.length));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LtvReader().reset(CODEC_CONFIG, -1, 1));
+    }
+
+    @Test
+    public void fuzz_neverReadsOutOfBounds() {
+        Random random = new Random(0x4C5456);
+        LtvReader reader = new LtvReader();
+        for (int i = 0; i < 10000; i++) {
+            byte[] bytes = new byte[random.nextInt(32)];
+            random.nextBytes(bytes);
+            int offset = bytes.length == 0 ? 0 : random.nextInt(bytes.length);
+            int length = bytes.length - offset;
+
+            reader.reset(bytes, offset, length);
+            while (reader.next()) {
+                assertThat(reader.getValueOffset() + reader.getValueLength())
+                        .isAtMost(offset + length);
+                reader.getUnsignedValue(Math.min(4, reader.getValueLength()));
+            }
+            LtvReader.getSamplingFrequency(bytes, offset, length);
+            LtvReader.getFrameDuration(bytes, offset, length);
+            LtvReader.getAudioLocation(bytes, offset, length);
+            LtvReader.getOctetsPerFrame(bytes, offset, length);
+        }
+    }
+}
@@ -698,77 +698,89 @@ public class MediaControlGattServiceTest {
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updatePlayerNameChar(player_name, true);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(MediaControlGattService.UUID_TRACK_TITLE);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateTrackTitleChar(track_title, true);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(MediaControlGattService.UUID_TRACK_DURATION);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateTrackDurationChar(track_duration, true);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(MediaControlGattService.UUID_MEDIA_STATE);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateMediaStateChar(playback_state);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(MediaControlGattService.UUID_TRACK_POSITION);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateTrackPositionChar(track_position, false);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(MediaControlGattService.UUID_PLAYBACK_SPEED);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updatePlaybackSpeedChar(playback_speed, true);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(MediaControlGattService.UUID_SEEKING_SPEED);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateSeekingSpeedChar(seeking_speed, true);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(
                 MediaControlGattService.UUID_CURRENT_TRACK_OBJ_ID);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateObjectID(ObjectIds.CURRENT_TRACK_OBJ_ID, obj_id);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(MediaControlGattService.UUID_NEXT_TRACK_OBJ_ID);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateObjectID(ObjectIds.NEXT_TRACK_OBJ_ID, obj_id);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(
                 MediaControlGattService.UUID_CURRENT_GROUP_OBJ_ID);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateObjectID(ObjectIds.CURRENT_GROUP_OBJ_ID, obj_id);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(
                 MediaControlGattService.UUID_PARENT_GROUP_OBJ_ID);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateObjectID(ObjectIds.PARENT_GROUP_OBJ_ID, obj_id);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(MediaControlGattService.UUID_PLAYING_ORDER);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updatePlayingOrderSupportedChar(playing_order_supported);
         mMcpService.updatePlayingOrderChar(playing_order, true);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(
                 MediaControlGattService.UUID_MEDIA_CONTROL_POINT);
@@ -777,28 +789,32 @@ public class MediaControlGattServiceTest {
                 new Request(media_control_request_opcode, 0),
                 Request.Results.SUCCESS);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(false));
 
         characteristic = service.getCharacteristic(
                 MediaControlGattService.UUID_MEDIA_CONTROL_POINT_OPCODES_SUPPORTED);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateSupportedOpcodesChar(opcodes_supported, true);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(
                 MediaControlGattService.UUID_SEARCH_RESULT_OBJ_ID);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.updateObjectID(ObjectIds.SEARCH_RESULT_OBJ_ID, obj_id);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         characteristic = service.getCharacteristic(
                 MediaControlGattService.UUID_SEARCH_CONTROL_POINT);
         prepareConnectedDevicesCccVal(characteristic, ccc_val);
         mMcpService.setSearchRequestResult(null, SearchRequest.Results.SUCCESS, obj_id);
         verify(mMockGattServer, times(times_cnt))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(false));
     }
 
     @Test
@@ -869,7 +885,8 @@ public class MediaControlGattServiceTest {
                 characteristic, BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE.clone());
         mMcpService.updateSupportedOpcodesChar(opcodes_supported, true);
         verify(mMockGattServer, times(0))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         verifyMediaControlPointRequest(service, Request.Opcodes.PLAY, null,
                 expectedGattResult, invocation_count++);
@@ -973,7 +990,8 @@ public class MediaControlGattServiceTest {
                 mCurrentDevice, 1, characteristic, false, true, 0, bb.array());
 
         verify(mMockGattServer, times(1))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
     }
 
     @Test
@@ -1008,17 +1026,20 @@ public class MediaControlGattServiceTest {
 
         mMcpService.updateSupportedOpcodesChar(opcodes_supported, true);
         verify(mMockGattServer, times(1))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         // Verify if there will be no new notification triggered when nothing changes
         mMcpService.updateSupportedOpcodesChar(opcodes_supported, true);
         verify(mMockGattServer, times(1))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
 
         opcodes_supported = 0;
         mMcpService.updateSupportedOpcodesChar(opcodes_supported, true);
         verify(mMockGattServer, times(2))
-                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+                .notifyCharacteristicChanged(eq(List.of(mCurrentDevice)), eq(characteristic),
+                        eq(true));
     }
 
     @Test
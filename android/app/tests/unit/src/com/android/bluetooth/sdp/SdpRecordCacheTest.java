@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.sdp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothUuid;
+import android.bluetooth.SdpDipRecord;
+import android.os.Parcelable;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Test cases for {@link SdpRecordCache}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SdpRecordCacheTest {
+    private static final long TTL_MS = 1000;
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final String OTHER_ADDRESS = "00:01:02:03:04:06";
+
+    private final List<Parcelable> mRecords =
+            List.of(new SdpDipRecord(0x0103, 0x000F, 0x0001, 0x1234, 0x0100, true));
+    private SdpRecordCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new SdpRecordCache(TTL_MS);
+    }
+
+    @Test
+    public void get_beforeExpiry_returnsRecords() {
+        mCache.put(ADDRESS, BluetoothUuid.DIP, mRecords, 0);
+
+        assertThat(mCache.get(ADDRESS, BluetoothUuid.DIP, TTL_MS - 1)).isEqualTo(mRecords);
+        assertThat(mCache.get(ADDRESS, BluetoothUuid.PBAP_PSE, 0)).isNull();
+        assertThat(mCache.get(OTHER_ADDRESS, BluetoothUuid.DIP, 0)).isNull();
+    }
+
+    @Test
+    public void get_afterExpiry_dropsEntry() {
+        mCache.put(ADDRESS, BluetoothUuid.DIP, mRecords, 0);
+
+        assertThat(mCache.get(ADDRESS, BluetoothUuid.DIP, TTL_MS)).isNull();
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void invalidate_dropsEntriesOfDeviceOnly() {
+        mCache.put(ADDRESS, BluetoothUuid.DIP, mRecords, 0);
+        mCache.put(ADDRESS, BluetoothUuid.PBAP_PSE, mRecords, 0);
+        mCache.put(OTHER_ADDRESS, BluetoothUuid.DIP, mRecords, 0);
+
+        mCache.invalidate(ADDRESS);
+
+        assertThat(mCache.get(ADDRESS, BluetoothUuid.DIP, 0)).isNull();
+        assertThat(mCache.get(ADDRESS, BluetoothUuid.PBAP_PSE, 0)).isNull();
+        assertThat(mCache.get(OTHER_ADDRESS, BluetoothUuid.DIP, 0)).isEqualTo(mRecords);
+        assertThat(mCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void put_full_dropsExpiredEntriesFirst() {
+        for (int i = 0; i < SdpRecordCache.MAX_ENTRIES - 1; i++) {
+            mCache.put(String.format("00:01:02:03:05:%02X", i), BluetoothUuid.DIP, mRecords, 0);
+        }
+        mCache.put(ADDRESS, BluetoothUuid.DIP, mRecords, TTL_MS);
+        assertThat(mCache.size()).isEqualTo(SdpRecordCache.MAX_ENTRIES);
+
+        mCache.put(OTHER_ADDRESS, BluetoothUuid.DIP, mRecords, TTL_MS);
+
+        assertThat(mCache.size()).isEqualTo(2);
+        assertThat(mCache.get(ADDRESS, BluetoothUuid.DIP, TTL_MS)).isEqualTo(mRecords);
+    }
+
+    @Test
+    public void put_fullWithoutExpiredEntries_staysBounded() {
+        for (int i = 0; i <= SdpRecordCache.MAX_ENTRIES; i++) {
+            mCache.put(String.format("00:01:02:03:05:%02X", i), BluetoothUuid.DIP, mRecords, 0);
+        }
+
+        assertThat(mCache.size()).isAtMost(SdpRecordCache.MAX_ENTRIES);
+        assertThat(mCache.get(String.format("00:01:02:03:05:%02X", SdpRecordCache.MAX_ENTRIES),
+                BluetoothUuid.DIP, 0)).isEqualTo(mRecords);
+    }
+}
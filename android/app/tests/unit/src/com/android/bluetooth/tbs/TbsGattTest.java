@@ -288,8 +288,11 @@ public class TbsGattTest {
         }
 
         if (shouldNotify) {
-            verify(mMockGattServer).notifyCharacteristicChanged(eq(mCurrentDevice),
-                    eq(characteristic), eq(false));
+            // Events are never coalesced with a newer value
+            boolean coalesce = !characteristic.getUuid().equals(TbsGatt.UUID_TERMINATION_REASON)
+                    && !characteristic.getUuid().equals(TbsGatt.UUID_INCOMING_CALL);
+            verify(mMockGattServer).notifyCharacteristicChanged(eq(List.of(mCurrentDevice)),
+                    eq(characteristic), eq(coalesce));
         } else {
             verify(mMockGattServer, times(0)).notifyCharacteristicChanged(any(), any(),
                     anyBoolean());
@@ -466,8 +469,8 @@ public class TbsGattTest {
         Assert.assertTrue(Arrays.equals(characteristic.getValue(),
                 new byte[] {(byte) (requestedOpcode & 0xff), (byte) (callIndex & 0xff),
                         (byte) (result & 0xff)}));
-        verify(mMockGattServer, after(2000)).notifyCharacteristicChanged(eq(mCurrentDevice),
-                eq(characteristic), eq(false));
+        verify(mMockGattServer, after(2000)).notifyCharacteristicChanged(
+                eq(List.of(mCurrentDevice)), eq(characteristic), eq(false));
         reset(mMockGattServer);
 
         callIndex = 0x02;
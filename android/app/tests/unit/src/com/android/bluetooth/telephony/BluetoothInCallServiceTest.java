@@ -615,6 +615,42 @@ public class BluetoothInCallServiceTest {
         verify(mMockBluetoothHeadset, times(2)).clccResponse(0, 0, 0, 0, false, null, 0);
     }
 
+    @Test
+    public void testCallClccSnapshot_reusedUntilCallsChange() throws Exception {
+        ArrayList<BluetoothCall> calls = new ArrayList<>();
+        when(mMockCallInfo.getBluetoothCalls()).thenReturn(calls);
+        BluetoothCall activeCall = createActiveCall();
+        calls.add(activeCall);
+        mBluetoothInCallService.onCallAdded(activeCall);
+
+        when(activeCall.getState()).thenReturn(Call.STATE_ACTIVE);
+        when(activeCall.isIncoming()).thenReturn(false);
+        when(activeCall.isConference()).thenReturn(false);
+        when(activeCall.getHandle()).thenReturn(Uri.parse("tel:5550000"));
+        when(activeCall.getGatewayInfo()).thenReturn(
+                new GatewayInfo(null, null, Uri.parse("tel:5550000")));
+
+        clearInvocations(mMockBluetoothHeadset, mMockCallInfo);
+        mBluetoothInCallService.listCurrentCalls();
+        mBluetoothInCallService.listCurrentCalls();
+
+        // The second query is answered from the snapshot of the first one
+        verify(mMockCallInfo, times(1)).getBluetoothCalls();
+        verify(mMockBluetoothHeadset, times(2)).clccResponse(1, 0, CALL_STATE_ACTIVE, 0, false,
+                "5550000", PhoneNumberUtils.TOA_Unknown);
+        verify(mMockBluetoothHeadset, times(2)).clccResponse(0, 0, 0, 0, false, null, 0);
+
+        // A call change invalidates the snapshot
+        when(activeCall.getState()).thenReturn(Call.STATE_HOLDING);
+        mBluetoothInCallService.getCallback(activeCall)
+                .onStateChanged(activeCall, Call.STATE_HOLDING);
+        clearInvocations(mMockBluetoothHeadset);
+        mBluetoothInCallService.listCurrentCalls();
+
+        verify(mMockBluetoothHeadset).clccResponse(1, 0, CALL_STATE_HELD, 0, false,
+                "5550000", PhoneNumberUtils.TOA_Unknown);
+    }
+
     @Test
     public void testAlertingCallClccResponse() throws Exception {
         ArrayList<BluetoothCall> calls = new ArrayList<>();
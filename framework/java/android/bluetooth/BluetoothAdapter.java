@@ -820,6 +820,9 @@ public final class BluetoothAdapter {
                 mMetadataListeners = new HashMap<>();
     private final Map<BluetoothConnectionCallback, Executor>
             mBluetoothConnectionCallbackExecutorMap = new HashMap<>();
+    @GuardedBy("mDeviceSnapshotListeners")
+    private final Map<DeviceSnapshotCallback, DeviceSnapshotListener> mDeviceSnapshotListeners =
+            new HashMap<>();
 
     /**
      * Bluetooth metadata listener. Overrides the default BluetoothMetadataListener
@@ -2969,6 +2972,50 @@ public final class BluetoothAdapter {
         return null;
     }
 
+    /**
+     * Get the properties of several remote devices in a single call.
+     *
+     * <p>This is meant for the clients showing many devices at once, e.g. all the bonded
+     * devices: each property of each device is read consistently with the other properties of
+     * the same device, without a call to the Bluetooth service per device and per property.
+     *
+     * @param devices the remote devices
+     * @param fields the properties to read, as a combination of the
+     *        {@code BluetoothDeviceSnapshot.FIELD_} constants
+     * @return a snapshot of each device known by the Bluetooth service, in the order of the
+     *         given devices, or an empty list if Bluetooth is not enabled
+     * @hide
+     */
+    @SystemApi
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(allOf = {
+            android.Manifest.permission.BLUETOOTH_CONNECT,
+            android.Manifest.permission.BLUETOOTH_PRIVILEGED,
+    })
+    public @NonNull List<BluetoothDeviceSnapshot> getDeviceSnapshots(
+            @NonNull List<BluetoothDevice> devices, @BluetoothDeviceSnapshot.Fields int fields) {
+        requireNonNull(devices);
+        if (getState() != STATE_ON || devices.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            mServiceLock.readLock().lock();
+            if (mService != null) {
+                final SynchronousResultReceiver<List<BluetoothDeviceSnapshot>> recv =
+                        SynchronousResultReceiver.get();
+                mService.getDeviceSnapshots(devices, fields, mAttributionSource, recv);
+                return Attributable.setAttributionSource(
+                        recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(new ArrayList<>()),
+                        mAttributionSource);
+            }
+        } catch (RemoteException | TimeoutException e) {
+            Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+        } finally {
+            mServiceLock.readLock().unlock();
+        }
+        return new ArrayList<>();
+    }
+
     /**
      * Gets the currently supported profiles by the adapter.
      *
@@ -4217,6 +4264,20 @@ public final class BluetoothAdapter {
                             }
                         }
                     }
+                    synchronized (mDeviceSnapshotListeners) {
+                        for (DeviceSnapshotListener listener : mDeviceSnapshotListeners.values()) {
+                            try {
+                                final SynchronousResultReceiver recv =
+                                        SynchronousResultReceiver.get();
+                                mService.registerDeviceSnapshotListener(listener,
+                                        listener.mFields, mAttributionSource, recv);
+                                recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                            } catch (RemoteException | TimeoutException e) {
+                                Log.e(TAG, "onBluetoothServiceUp: Failed to register device"
+                                        + " snapshot listener", e);
+                            }
+                        }
+                    }
                 }
 
                 public void onBluetoothServiceDown() {
@@ -5321,6 +5382,135 @@ public final class BluetoothAdapter {
         }
     }
 
+    @SuppressLint("AndroidFrameworkBluetoothPermission")
+    private final class DeviceSnapshotListener extends IBluetoothDeviceSnapshotListener.Stub {
+        private final Executor mExecutor;
+        private final DeviceSnapshotCallback mCallback;
+        private final int mFields;
+
+        DeviceSnapshotListener(Executor executor, DeviceSnapshotCallback callback, int fields) {
+            mExecutor = executor;
+            mCallback = callback;
+            mFields = fields;
+        }
+
+        @Override
+        public void onDeviceSnapshotChanged(BluetoothDeviceSnapshot snapshot) {
+            Attributable.setAttributionSource(snapshot, mAttributionSource);
+            mExecutor.execute(() -> mCallback.onDeviceSnapshotChanged(snapshot));
+        }
+    }
+
+    /**
+     * Registers a callback receiving the properties of the bonded devices when they change, so
+     * that a client can keep the result of {@link #getDeviceSnapshots(List, int)} up to date
+     * without polling.
+     *
+     * @param executor the executor the callback is called on
+     * @param fields the properties to watch, as a combination of the
+     *        {@code BluetoothDeviceSnapshot.FIELD_} constants
+     * @param callback the callback to register
+     * @return true if the callback was registered successfully, false otherwise
+     * @throws IllegalArgumentException if the callback is already registered
+     * @hide
+     */
+    @SystemApi
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(allOf = {
+            android.Manifest.permission.BLUETOOTH_CONNECT,
+            android.Manifest.permission.BLUETOOTH_PRIVILEGED,
+    })
+    public boolean registerDeviceSnapshotCallback(@NonNull @CallbackExecutor Executor executor,
+            @BluetoothDeviceSnapshot.Fields int fields, @NonNull DeviceSnapshotCallback callback) {
+        if (DBG) Log.d(TAG, "registerDeviceSnapshotCallback()");
+        requireNonNull(executor);
+        requireNonNull(callback);
+
+        synchronized (mDeviceSnapshotListeners) {
+            if (mDeviceSnapshotListeners.containsKey(callback)) {
+                throw new IllegalArgumentException("This callback has already been registered");
+            }
+            DeviceSnapshotListener listener =
+                    new DeviceSnapshotListener(executor, callback, fields);
+            try {
+                mServiceLock.readLock().lock();
+                if (mService != null) {
+                    final SynchronousResultReceiver<Boolean> recv =
+                            SynchronousResultReceiver.get();
+                    mService.registerDeviceSnapshotListener(listener, fields, mAttributionSource,
+                            recv);
+                    if (!recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(false)) {
+                        return false;
+                    }
+                }
+            } catch (RemoteException | TimeoutException e) {
+                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+                return false;
+            } finally {
+                mServiceLock.readLock().unlock();
+            }
+            // Registered with the service when it comes up if it is not yet
+            mDeviceSnapshotListeners.put(callback, listener);
+        }
+        return true;
+    }
+
+    /**
+     * Unregisters a callback registered with
+     * {@link #registerDeviceSnapshotCallback(Executor, int, DeviceSnapshotCallback)}.
+     *
+     * @param callback the callback to unregister
+     * @return true if the callback was unregistered successfully, false otherwise
+     * @hide
+     */
+    @SystemApi
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(allOf = {
+            android.Manifest.permission.BLUETOOTH_CONNECT,
+            android.Manifest.permission.BLUETOOTH_PRIVILEGED,
+    })
+    public boolean unregisterDeviceSnapshotCallback(@NonNull DeviceSnapshotCallback callback) {
+        if (DBG) Log.d(TAG, "unregisterDeviceSnapshotCallback()");
+        requireNonNull(callback);
+
+        DeviceSnapshotListener listener;
+        synchronized (mDeviceSnapshotListeners) {
+            listener = mDeviceSnapshotListeners.remove(callback);
+        }
+        if (listener == null) {
+            return false;
+        }
+        try {
+            mServiceLock.readLock().lock();
+            if (mService != null) {
+                final SynchronousResultReceiver<Boolean> recv = SynchronousResultReceiver.get();
+                mService.unregisterDeviceSnapshotListener(listener, mAttributionSource, recv);
+                return recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(false);
+            }
+        } catch (RemoteException | TimeoutException e) {
+            Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+        } finally {
+            mServiceLock.readLock().unlock();
+        }
+        return false;
+    }
+
+    /**
+     * Callback for the changes of the properties of the bonded devices.
+     *
+     * @hide
+     */
+    @SystemApi
+    public abstract static class DeviceSnapshotCallback {
+        /**
+         * Called when watched properties of a bonded device changed, or when a device is bonded
+         * or unbonded.
+         *
+         * @param snapshot the watched properties of the device, including their new values
+         */
+        public void onDeviceSnapshotChanged(@NonNull BluetoothDeviceSnapshot snapshot) {}
+    }
+
     /**
      * Converts old constant of priority to the new for connection policy
      *
@@ -53,6 +53,7 @@ package android.bluetooth;
 
 import static android.bluetooth.BluetoothUtils.getSyncTimeout;
 
+import android.annotation.CallbackExecutor;
 import android.annotation.IntDef;
 import android.annotation.IntRange;
 import android.annotation.NonNull;
@@ -74,6 +75,7 @@ import android.content.Context;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IpcDataCache;
+import android.os.OutcomeReceiver;
 import android.os.Parcel;
 import android.os.ParcelUuid;
 import android.os.Parcelable;
@@ -89,7 +91,9 @@ import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -2415,6 +2419,31 @@ public final class BluetoothDevice implements Parcelable, Attributable {
         return defaultValue;
     }
 
+    /**
+     * Returns the supported features (UUIDs) of the remote device, without blocking the calling
+     * thread.
+     *
+     * <p>This is the asynchronous variant of {@link #getUuids()}, so that an application can
+     * query several devices at once. At most 4 asynchronous queries of an application run in
+     * parallel, the next ones wait for one of them to complete.
+     *
+     * @param executor the executor the receiver is called on
+     * @param receiver receives the supported features (UUIDs) of the remote device, which are
+     * empty on error, or the exception thrown by {@link #getUuids()}
+     */
+    @RequiresLegacyBluetoothPermission
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    public void getUuids(@NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<ParcelUuid[], RuntimeException> receiver) {
+        Objects.requireNonNull(executor, "executor cannot be null");
+        Objects.requireNonNull(receiver, "receiver cannot be null");
+        BluetoothUtils.callAsync(() -> {
+            ParcelUuid[] uuids = getUuids();
+            return uuids != null ? uuids : new ParcelUuid[0];
+        }, executor, receiver);
+    }
+
     /**
      * Perform a service discovery on the remote device to get the UUIDs supported.
      *
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import android.annotation.IntDef;
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.annotation.SystemApi;
+import android.content.AttributionSource;
+import android.os.Parcel;
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+import android.util.SparseArray;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The properties of a remote device, read at once by the Bluetooth service.
+ *
+ * <p>A snapshot only holds the properties selected by its {@link #getFields() fields}, the
+ * others are left to their default values.
+ *
+ * @see BluetoothAdapter#getDeviceSnapshots(List, int)
+ * @hide
+ */
+@SystemApi
+public final class BluetoothDeviceSnapshot implements Parcelable, Attributable {
+    /** The name of the device, see {@link BluetoothDevice#getName()}. */
+    public static final int FIELD_NAME = 1 << 0;
+    /** The alias of the device, see {@link BluetoothDevice#getAlias()}. */
+    public static final int FIELD_ALIAS = 1 << 1;
+    /** The bond state of the device, see {@link BluetoothDevice#getBondState()}. */
+    public static final int FIELD_BOND_STATE = 1 << 2;
+    /** The UUIDs of the device, see {@link BluetoothDevice#getUuids()}. */
+    public static final int FIELD_UUIDS = 1 << 3;
+    /** The class of the device, see {@link BluetoothDevice#getBluetoothClass()}. */
+    public static final int FIELD_BLUETOOTH_CLASS = 1 << 4;
+    /** The battery level of the device, see {@link BluetoothDevice#getBatteryLevel()}. */
+    public static final int FIELD_BATTERY_LEVEL = 1 << 5;
+    /** The metadata of the device, see {@link BluetoothDevice#getMetadata(int)}. */
+    public static final int FIELD_METADATA = 1 << 6;
+    /** All the properties of the device. */
+    public static final int FIELD_ALL = FIELD_NAME | FIELD_ALIAS | FIELD_BOND_STATE | FIELD_UUIDS
+            | FIELD_BLUETOOTH_CLASS | FIELD_BATTERY_LEVEL | FIELD_METADATA;
+
+    /** @hide */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(flag = true, prefix = "FIELD_", value = {
+            FIELD_NAME,
+            FIELD_ALIAS,
+            FIELD_BOND_STATE,
+            FIELD_UUIDS,
+            FIELD_BLUETOOTH_CLASS,
+            FIELD_BATTERY_LEVEL,
+            FIELD_METADATA,
+    })
+    public @interface Fields {}
+
+    private final BluetoothDevice mDevice;
+    private final int mFields;
+    private final String mName;
+    private final String mAlias;
+    private final int mBondState;
+    private final List<ParcelUuid> mUuids;
+    private final BluetoothClass mBluetoothClass;
+    private final int mBatteryLevel;
+    private final SparseArray<byte[]> mMetadata;
+
+    private BluetoothDeviceSnapshot(BluetoothDevice device, int fields, String name, String alias,
+            int bondState, List<ParcelUuid> uuids, BluetoothClass bluetoothClass,
+            int batteryLevel, SparseArray<byte[]> metadata) {
+        mDevice = device;
+        mFields = fields;
+        mName = name;
+        mAlias = alias;
+        mBondState = bondState;
+        mUuids = uuids;
+        mBluetoothClass = bluetoothClass;
+        mBatteryLevel = batteryLevel;
+        mMetadata = metadata;
+    }
+
+    private BluetoothDeviceSnapshot(@NonNull Parcel in) {
+        mDevice = in.readTypedObject(BluetoothDevice.CREATOR);
+        mFields = in.readInt();
+        mName = in.readString();
+        mAlias = in.readString();
+        mBondState = in.readInt();
+        mUuids = Collections.unmodifiableList(in.createTypedArrayList(ParcelUuid.CREATOR));
+        mBluetoothClass = in.readTypedObject(BluetoothClass.CREATOR);
+        mBatteryLevel = in.readInt();
+        int metadataCount = in.readInt();
+        mMetadata = new SparseArray<>(metadataCount);
+        for (int i = 0; i < metadataCount; i++) {
+            int key = in.readInt();
+            mMetadata.put(key, in.createByteArray());
+        }
+    }
+
+    /** {@hide} */
+    public void setAttributionSource(@NonNull AttributionSource attributionSource) {
+        Attributable.setAttributionSource(mDevice, attributionSource);
+    }
+
+    /**
+     * @return the device the properties belong to
+     */
+    public @NonNull BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * @return the properties held by this snapshot, as a combination of the {@code FIELD_}
+     *         constants
+     */
+    public @Fields int getFields() {
+        return mFields;
+    }
+
+    /**
+     * @return the name of the device, or null if unknown or not part of {@link #getFields()}
+     */
+    public @Nullable String getName() {
+        return mName;
+    }
+
+    /**
+     * @return the alias of the device, or null if unknown or not part of {@link #getFields()}
+     */
+    public @Nullable String getAlias() {
+        return mAlias;
+    }
+
+    /**
+     * @return the bond state of the device, {@link BluetoothDevice#BOND_NONE} if not part of
+     *         {@link #getFields()}
+     */
+    public int getBondState() {
+        return mBondState;
+    }
+
+    /**
+     * @return the UUIDs of the device, empty if unknown or not part of {@link #getFields()}
+     */
+    public @NonNull List<ParcelUuid> getUuids() {
+        return mUuids;
+    }
+
+    /**
+     * @return the class of the device, or null if not part of {@link #getFields()}
+     */
+    public @Nullable BluetoothClass getBluetoothClass() {
+        return mBluetoothClass;
+    }
+
+    /**
+     * @return the battery level of the device, {@link BluetoothDevice#BATTERY_LEVEL_UNKNOWN} if
+     *         unknown or not part of {@link #getFields()}
+     */
+    public int getBatteryLevel() {
+        return mBatteryLevel;
+    }
+
+    /**
+     * @param key a metadata key, see {@link BluetoothDevice#getMetadata(int)}
+     * @return the metadata value, or null if not set or not part of {@link #getFields()}
+     */
+    public @Nullable byte[] getMetadata(int key) {
+        return mMetadata.get(key);
+    }
+
+    public static final @NonNull Creator<BluetoothDeviceSnapshot> CREATOR =
+            new Creator<BluetoothDeviceSnapshot>() {
+                public BluetoothDeviceSnapshot createFromParcel(@NonNull Parcel in) {
+                    return new BluetoothDeviceSnapshot(in);
+                }
+
+                public BluetoothDeviceSnapshot[] newArray(int size) {
+                    return new BluetoothDeviceSnapshot[size];
+                }
+            };
+
+    /** @hide */
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel out, int flags) {
+        out.writeTypedObject(mDevice, 0);
+        out.writeInt(mFields);
+        out.writeString(mName);
+        out.writeString(mAlias);
+        out.writeInt(mBondState);
+        out.writeTypedList(mUuids);
+        out.writeTypedObject(mBluetoothClass, 0);
+        out.writeInt(mBatteryLevel);
+        int metadataCount = mMetadata.size();
+        out.writeInt(metadataCount);
+        for (int i = 0; i < metadataCount; i++) {
+            out.writeInt(mMetadata.keyAt(i));
+            out.writeByteArray(mMetadata.valueAt(i));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BluetoothDeviceSnapshot{device=" + mDevice + ", fields=0x"
+                + Integer.toHexString(mFields) + ", bondState=" + mBondState
+                + ", uuids=" + mUuids.size() + ", batteryLevel=" + mBatteryLevel
+                + ", metadata=" + mMetadata.size() + "}";
+    }
+
+    /**
+     * Builder for {@link BluetoothDeviceSnapshot}, used by the Bluetooth service.
+     *
+     * @hide
+     */
+    public static final class Builder {
+        private final BluetoothDevice mDevice;
+        private final int mFields;
+        private String mName;
+        private String mAlias;
+        private int mBondState = BluetoothDevice.BOND_NONE;
+        private List<ParcelUuid> mUuids = Collections.emptyList();
+        private BluetoothClass mBluetoothClass;
+        private int mBatteryLevel = BluetoothDevice.BATTERY_LEVEL_UNKNOWN;
+        private final SparseArray<byte[]> mMetadata = new SparseArray<>();
+
+        /**
+         * @param device the device the properties belong to
+         * @param fields the properties held by the snapshot
+         */
+        public Builder(@NonNull BluetoothDevice device, @Fields int fields) {
+            mDevice = Objects.requireNonNull(device);
+            mFields = fields;
+        }
+
+        public @NonNull Builder setName(@Nullable String name) {
+            mName = name;
+            return this;
+        }
+
+        public @NonNull Builder setAlias(@Nullable String alias) {
+            mAlias = alias;
+            return this;
+        }
+
+        public @NonNull Builder setBondState(int bondState) {
+            mBondState = bondState;
+            return this;
+        }
+
+        public @NonNull Builder setUuids(@Nullable ParcelUuid[] uuids) {
+            mUuids = uuids == null ? Collections.emptyList()
+                    : Collections.unmodifiableList(new ArrayList<>(Arrays.asList(uuids)));
+            return this;
+        }
+
+        public @NonNull Builder setBluetoothClass(@Nullable BluetoothClass bluetoothClass) {
+            mBluetoothClass = bluetoothClass;
+            return this;
+        }
+
+        public @NonNull Builder setBatteryLevel(int batteryLevel) {
+            mBatteryLevel = batteryLevel;
+            return this;
+        }
+
+        public @NonNull Builder setMetadata(int key, @Nullable byte[] value) {
+            if (value == null) {
+                mMetadata.remove(key);
+            } else {
+                mMetadata.put(key, value);
+            }
+            return this;
+        }
+
+        public @NonNull BluetoothDeviceSnapshot build() {
+            return new BluetoothDeviceSnapshot(mDevice, mFields, mName, mAlias, mBondState,
+                    mUuids, mBluetoothClass, mBatteryLevel, mMetadata.clone());
+        }
+    }
+}
@@ -68,13 +68,16 @@ import android.os.Handler;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.TimeoutException;
 
@@ -132,6 +135,14 @@ public final class BluetoothGatt implements BluetoothProfile {
 
     private List<BluetoothGattService> mServices;
 
+    // Characteristics and descriptors of mServices indexed by instance id (handle), replaced
+    // as a whole when mServices changes so that they can be read from any binder thread.
+    private volatile SparseArray<BluetoothGattCharacteristic> mCharacteristicsById =
+            new SparseArray<>();
+    private volatile SparseArray<BluetoothGattDescriptor> mDescriptorsById = new SparseArray<>();
+
+    private volatile CharacteristicChangedListener mCharacteristicChangedListener;
+
     /** A GATT operation completed successfully */
     public static final int GATT_SUCCESS = 0;
 
@@ -230,7 +241,7 @@ public final class BluetoothGatt implements BluetoothProfile {
      * Bluetooth GATT callbacks. Overrides the default BluetoothGattCallback implementation.
      */
     @SuppressLint("AndroidFrameworkBluetoothPermission")
-    private final IBluetoothGattCallback mBluetoothGattCallback =
+    /*package*/ final IBluetoothGattCallback mBluetoothGattCallback =
             new IBluetoothGattCallback.Stub() {
                 /**
                  * Application interface registered - app is ready to go
@@ -412,6 +423,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                             }
                         }
                     }
+                    updateAttributeIndex();
 
                     runOrQueueCallback(new Runnable() {
                         @Override
@@ -575,6 +587,13 @@ public final class BluetoothGatt implements BluetoothProfile {
                     runOrQueueCallback(new Runnable() {
                         @Override
                         public void run() {
+                            final CharacteristicChangedListener listener =
+                                    mCharacteristicChangedListener;
+                            if (listener != null) {
+                                listener.onCharacteristicChanged(characteristic,
+                                        ByteBuffer.wrap(value).asReadOnlyBuffer());
+                                return;
+                            }
                             final BluetoothGattCallback callback = mCallback;
                             if (callback != null) {
                                 characteristic.setValue(value);
@@ -910,14 +929,7 @@ public final class BluetoothGatt implements BluetoothProfile {
      */
     /*package*/ BluetoothGattCharacteristic getCharacteristicById(BluetoothDevice device,
             int instanceId) {
-        for (BluetoothGattService svc : mServices) {
-            for (BluetoothGattCharacteristic charac : svc.getCharacteristics()) {
-                if (charac.getInstanceId() == instanceId) {
-                    return charac;
-                }
-            }
-        }
-        return null;
+        return mCharacteristicsById.get(instanceId);
     }
 
     /**
@@ -926,16 +938,40 @@ public final class BluetoothGatt implements BluetoothProfile {
      * @hide
      */
     /*package*/ BluetoothGattDescriptor getDescriptorById(BluetoothDevice device, int instanceId) {
+        return mDescriptorsById.get(instanceId);
+    }
+
+    /**
+     * Rebuilds the instance id indexes of the characteristics and descriptors from
+     * {@link #mServices}. The first attribute with a given instance id wins.
+     */
+    private void updateAttributeIndex() {
+        SparseArray<BluetoothGattCharacteristic> characteristics = new SparseArray<>();
+        SparseArray<BluetoothGattDescriptor> descriptors = new SparseArray<>();
         for (BluetoothGattService svc : mServices) {
             for (BluetoothGattCharacteristic charac : svc.getCharacteristics()) {
+                if (characteristics.get(charac.getInstanceId()) == null) {
+                    characteristics.put(charac.getInstanceId(), charac);
+                }
                 for (BluetoothGattDescriptor desc : charac.getDescriptors()) {
-                    if (desc.getInstanceId() == instanceId) {
-                        return desc;
+                    if (descriptors.get(desc.getInstanceId()) == null) {
+                        descriptors.put(desc.getInstanceId(), desc);
                     }
                 }
             }
         }
-        return null;
+        mCharacteristicsById = characteristics;
+        mDescriptorsById = descriptors;
+    }
+
+    /**
+     * Clears {@link #mServices} and the instance id indexes, which must always be cleared
+     * together.
+     */
+    private void clearServices() {
+        mCharacteristicsById = new SparseArray<>();
+        mDescriptorsById = new SparseArray<>();
+        mServices.clear();
     }
 
     /**
@@ -1237,7 +1273,7 @@ public final class BluetoothGatt implements BluetoothProfile {
         if (DBG) Log.d(TAG, "discoverServices() - device: " + mDevice.getAddress());
         if (mService == null || mClientIf == 0) return false;
 
-        mServices.clear();
+        clearServices();
 
         try {
             final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
@@ -1266,7 +1302,7 @@ public final class BluetoothGatt implements BluetoothProfile {
         if (DBG) Log.d(TAG, "discoverServiceByUuid() - device: " + mDevice.getAddress());
         if (mService == null || mClientIf == 0) return false;
 
-        mServices.clear();
+        clearServices();
 
         try {
             final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
@@ -1834,6 +1870,54 @@ public final class BluetoothGatt implements BluetoothProfile {
         return true;
     }
 
+    /**
+     * Listener receiving the notifications and indications of the remote device without the
+     * value being copied into the characteristic.
+     *
+     * @see #setCharacteristicChangedListener
+     */
+    public interface CharacteristicChangedListener {
+        /**
+         * Called when a notification or indication is received for a characteristic.
+         *
+         * <p>The value of {@code characteristic} is not updated, and {@code value} is a read-only
+         * view on the received value that must not be kept after this method returns.
+         *
+         * @param characteristic Characteristic that has been updated
+         * @param value Read-only view on the notified value of the characteristic
+         */
+        void onCharacteristicChanged(@NonNull BluetoothGattCharacteristic characteristic,
+                @NonNull ByteBuffer value);
+    }
+
+    /**
+     * Sets a listener receiving the notifications and indications of the remote device instead
+     * of {@link BluetoothGattCallback#onCharacteristicChanged(BluetoothGatt,
+     * BluetoothGattCharacteristic, byte[])}.
+     *
+     * <p>This is intended for devices streaming notifications at a high rate: the value is not
+     * copied into the characteristic. The listener is invoked like the other callbacks, on the
+     * {@link Handler} this client was created with if any, so it stays ordered with them.
+     *
+     * <p>Notifications still need to be enabled with {@link #setCharacteristicNotification}.
+     *
+     * @param listener Listener receiving the notifications, replacing the previous one if any
+     */
+    @RequiresNoPermission
+    public void setCharacteristicChangedListener(@NonNull CharacteristicChangedListener listener) {
+        Objects.requireNonNull(listener, "listener cannot be null");
+        mCharacteristicChangedListener = listener;
+    }
+
+    /**
+     * Clears the listener set with {@link #setCharacteristicChangedListener}, notifications are
+     * delivered to {@link BluetoothGattCallback} again.
+     */
+    @RequiresNoPermission
+    public void clearCharacteristicChangedListener() {
+        mCharacteristicChangedListener = null;
+    }
+
     /**
      * Clears the internal cache and forces a refresh of the services from the
      * remote device.
@@ -872,6 +872,61 @@ public final class BluetoothGattServer implements BluetoothProfile {
         }
     }
 
+    /**
+     * Send a notification that a local characteristic has been updated to several remote
+     * devices at once.
+     *
+     * <p>The notifications are queued per remote device by the Bluetooth service and sent as the
+     * link allows it. When {@code coalesce} is set, a value that is not sent yet is replaced by
+     * a newer value of the same characteristic, so a remote device may only receive the latest
+     * value of a characteristic that changes quickly. Events such as control point results must
+     * not be coalesced. {@link BluetoothGattServerCallback#onNotificationSent} is not called for
+     * these notifications.
+     *
+     * @param devices the remote devices to receive the notification, the devices that are not
+     * connected are ignored
+     * @param characteristic the local characteristic that has been updated
+     * @param value the characteristic value
+     * @param coalesce whether the value is a state that may replace a value not sent yet
+     * @return whether the notifications have been queued
+     * @throws IllegalArgumentException if the characteristic value or service is null
+     * @hide
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    @NotifyCharacteristicReturnValues
+    public int notifyCharacteristicChanged(@NonNull List<BluetoothDevice> devices,
+            @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value,
+            boolean coalesce) {
+        if (VDBG) Log.d(TAG, "notifyCharacteristicChanged() - devices: " + devices.size());
+        if (mService == null || mServerIf == 0) {
+            return BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND;
+        }
+
+        if (characteristic == null) {
+            throw new IllegalArgumentException("characteristic must not be null");
+        }
+        if (characteristic.getService() == null) {
+            throw new IllegalArgumentException("Characteristic must have a non-null service");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Characteristic value must not be null");
+        }
+
+        List<String> addresses = new ArrayList<>(devices.size());
+        for (BluetoothDevice device : devices) {
+            addresses.add(device.getAddress());
+        }
+        try {
+            mService.sendMultiNotification(mServerIf, addresses, characteristic.getInstanceId(),
+                    value, coalesce, mAttributionSource);
+            return BluetoothStatusCodes.SUCCESS;
+        } catch (RemoteException e) {
+            Log.e(TAG, "", e);
+            throw e.rethrowFromSystemServer();
+        }
+    }
+
     /**
      * Add a service to the list of services to be hosted.
      *
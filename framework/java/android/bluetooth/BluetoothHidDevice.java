@@ -30,6 +30,7 @@ import android.content.AttributionSource;
 import android.content.Context;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.modules.utils.SynchronousResultReceiver;
@@ -646,6 +647,40 @@ public final class BluetoothHidDevice implements BluetoothProfile {
         return defaultValue;
     }
 
+    /**
+     * Sends report to remote host using interrupt channel, without waiting for the report to be
+     * handed to the Bluetooth stack.
+     *
+     * <p>This is intended for apps streaming reports at a high rate (e.g. game controllers or
+     * styluses): the reports sent with this method are delivered in order, but a report rejected
+     * by the Bluetooth service (e.g. because the device disconnected) is dropped silently. Use
+     * {@link #sendReport(BluetoothDevice, int, byte[])} to know whether a report was sent.
+     *
+     * @param id Report Id, as defined in descriptor. Can be 0 in case Report Id are not defined in
+     *     descriptor.
+     * @param data Report data, not including Report Id.
+     * @return true if the report is queued to the Bluetooth service; otherwise false.
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    public boolean sendReportAsync(@NonNull BluetoothDevice device, int id,
+            @NonNull byte[] data) {
+        final IBluetoothHidDevice service = getService();
+        if (service == null) {
+            Log.w(TAG, "Proxy not attached to service");
+            if (DBG) log(Log.getStackTraceString(new Throwable()));
+        } else if (isEnabled()) {
+            try {
+                service.sendReportAsync(device, id, data, SystemClock.elapsedRealtimeNanos(),
+                        mAttributionSource);
+                return true;
+            } catch (RemoteException e) {
+                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+            }
+        }
+        return false;
+    }
+
     /**
      * Sends report to remote host as reply for GET_REPORT request from {@link
      * Callback#onGetReport(BluetoothDevice, byte, byte, int)}.
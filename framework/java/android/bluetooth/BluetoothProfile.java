@@ -21,6 +21,7 @@
 
 package android.bluetooth;
 
+import android.annotation.CallbackExecutor;
 import android.annotation.IntDef;
 import android.annotation.NonNull;
 import android.annotation.RequiresNoPermission;
@@ -28,10 +29,13 @@ import android.annotation.SuppressLint;
 import android.annotation.SystemApi;
 import android.compat.annotation.UnsupportedAppUsage;
 import android.os.Build;
+import android.os.OutcomeReceiver;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
 
 /**
  * Public APIs for the Bluetooth Profiles.
@@ -425,6 +429,24 @@ public interface BluetoothProfile {
      */
     public List<BluetoothDevice> getConnectedDevices();
 
+    /**
+     * Get connected devices for this specific profile, without blocking the calling thread.
+     *
+     * <p>This is the asynchronous variant of {@link #getConnectedDevices()}, so that an
+     * application can query several profiles at once. At most 4 asynchronous queries of an
+     * application run in parallel, the next ones wait for one of them to complete.
+     *
+     * @param executor the executor the receiver is called on
+     * @param receiver receives the list of devices, which is empty on error, or the exception
+     * thrown by {@link #getConnectedDevices()} (e.g. a {@link SecurityException})
+     */
+    default void getConnectedDevices(@NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<List<BluetoothDevice>, RuntimeException> receiver) {
+        Objects.requireNonNull(executor, "executor cannot be null");
+        Objects.requireNonNull(receiver, "receiver cannot be null");
+        BluetoothUtils.callAsync(this::getConnectedDevices, executor, receiver);
+    }
+
     /**
      * Get a list of devices that match any of the given connection
      * states.
@@ -447,6 +469,27 @@ public interface BluetoothProfile {
      */
     @BtProfileState int getConnectionState(BluetoothDevice device);
 
+    /**
+     * Get the current connection state of the profile, without blocking the calling thread.
+     *
+     * <p>This is the asynchronous variant of {@link #getConnectionState(BluetoothDevice)}. At
+     * most 4 asynchronous queries of an application run in parallel, the next ones wait for one
+     * of them to complete.
+     *
+     * @param device Remote bluetooth device.
+     * @param executor the executor the receiver is called on
+     * @param receiver receives the state of the profile connection, or the exception thrown by
+     * {@link #getConnectionState(BluetoothDevice)} (e.g. a {@link SecurityException})
+     */
+    default void getConnectionState(@NonNull BluetoothDevice device,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<Integer, RuntimeException> receiver) {
+        Objects.requireNonNull(device, "device cannot be null");
+        Objects.requireNonNull(executor, "executor cannot be null");
+        Objects.requireNonNull(receiver, "receiver cannot be null");
+        BluetoothUtils.callAsync(() -> getConnectionState(device), executor, receiver);
+    }
+
     /**
      * An interface for notifying BluetoothProfile IPC clients when they have
      * been connected or disconnected to the service.
@@ -16,6 +16,7 @@
 
 package android.bluetooth;
 
+import android.annotation.NonNull;
 import android.annotation.RequiresNoPermission;
 import android.annotation.RequiresPermission;
 import android.bluetooth.annotations.RequiresBluetoothConnectPermission;
@@ -25,6 +26,10 @@ import android.os.Build;
 import android.os.ParcelFileDescriptor;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
 import android.util.Log;
 
 import java.io.Closeable;
@@ -36,6 +41,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.Objects;
 import java.util.UUID;
 
 /**
@@ -635,6 +641,164 @@ public final class BluetoothSocket implements Closeable {
         return length;
     }
 
+    /**
+     * Read data from this socket into a buffer.
+     *
+     * <p>For {@link #TYPE_L2CAP} sockets, a call returns the bytes of at most one received
+     * packet (SDU), so packet boundaries are preserved as long as {@code dst} has at least
+     * {@link #getMaxReceivePacketSize()} bytes remaining. The packet is then read straight into
+     * {@code dst}, without any intermediate copy when it is a direct buffer. Bytes of a packet
+     * left over by a previous read are returned first.
+     *
+     * <p>This method blocks until data is available, see {@link #waitForReadable}.
+     *
+     * @param dst the buffer to read into, its position is advanced by the number of bytes read
+     * @return the number of bytes read, or -1 if the end of the stream has been reached
+     * @throws IOException on error, for example if the socket is not connected
+     */
+    @RequiresNoPermission
+    public int read(@NonNull ByteBuffer dst) throws IOException {
+        Objects.requireNonNull(dst, "dst cannot be null");
+        FileDescriptor fd = getConnectedFileDescriptor();
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (!isL2cap()) {
+            return readFd(fd, dst);
+        }
+        if (mL2capBuffer == null) {
+            createL2capRxBuffer();
+        }
+        if (!mL2capBuffer.hasRemaining()) {
+            if (dst.remaining() >= mMaxRxPacketSize) {
+                return readFd(fd, dst);
+            }
+            if (fillL2capRxBuffer() == -1) {
+                return -1;
+            }
+        }
+        int count = Math.min(dst.remaining(), mL2capBuffer.remaining());
+        ByteBuffer packet = mL2capBuffer.slice();
+        packet.limit(count);
+        dst.put(packet);
+        mL2capBuffer.position(mL2capBuffer.position() + count);
+        return count;
+    }
+
+    /**
+     * Write the content of a buffer to this socket.
+     *
+     * <p>For {@link #TYPE_L2CAP} sockets, the content is sent as a single packet (SDU) and must
+     * not be larger than {@link #getMaxTransmitPacketSize()}. Unlike the output stream, larger
+     * writes are not split.
+     *
+     * @param src the buffer to write, its position is advanced to its limit
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the content does not fit in a packet
+     * @throws IOException on error, for example if the socket is not connected
+     */
+    @RequiresNoPermission
+    public int write(@NonNull ByteBuffer src) throws IOException {
+        Objects.requireNonNull(src, "src cannot be null");
+        FileDescriptor fd = getConnectedFileDescriptor();
+        checkPacketSize(src);
+        return writeFd(fd, src);
+    }
+
+    /**
+     * Write the content of several buffers to this socket.
+     *
+     * <p>For {@link #TYPE_L2CAP} sockets, each buffer is sent as one packet (SDU), see
+     * {@link #write(ByteBuffer)}. The sizes of all the packets are checked before any of them
+     * is sent.
+     *
+     * @param srcs the buffers to write, in order
+     * @return the total number of bytes written
+     * @throws IllegalArgumentException if the content of a buffer does not fit in a packet
+     * @throws IOException on error, for example if the socket is not connected
+     */
+    @RequiresNoPermission
+    public long write(@NonNull ByteBuffer[] srcs) throws IOException {
+        Objects.requireNonNull(srcs, "srcs cannot be null");
+        FileDescriptor fd = getConnectedFileDescriptor();
+        for (ByteBuffer src : srcs) {
+            Objects.requireNonNull(src, "srcs cannot contain null");
+            checkPacketSize(src);
+        }
+        long count = 0;
+        for (ByteBuffer src : srcs) {
+            count += writeFd(fd, src);
+        }
+        return count;
+    }
+
+    /**
+     * Wait until a read on this socket would not block, either because data is available or
+     * because the end of the stream has been reached.
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds, 0 to return immediately or a
+     * negative value to wait indefinitely. Values above {@link Integer#MAX_VALUE} are clamped.
+     * @return true if a read would not block, false if the timeout expired
+     * @throws IOException on error, for example if the socket is not connected
+     */
+    @RequiresNoPermission
+    public boolean waitForReadable(long timeoutMillis) throws IOException {
+        FileDescriptor fd = getConnectedFileDescriptor();
+        if (mL2capBuffer != null && mL2capBuffer.hasRemaining()) {
+            return true;
+        }
+        StructPollfd pollFd = new StructPollfd();
+        pollFd.fd = fd;
+        pollFd.events = (short) OsConstants.POLLIN;
+        try {
+            int timeout = (int) Math.max(-1, Math.min(timeoutMillis, Integer.MAX_VALUE));
+            return Os.poll(new StructPollfd[] {pollFd}, timeout) > 0;
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+    }
+
+    private boolean isL2cap() {
+        return (mType == TYPE_L2CAP) || (mType == TYPE_L2CAP_LE);
+    }
+
+    private FileDescriptor getConnectedFileDescriptor() throws IOException {
+        LocalSocket socket = mSocket;
+        if (mSocketState != SocketState.CONNECTED || socket == null) {
+            throw new IOException("bt socket not connected");
+        }
+        return socket.getFileDescriptor();
+    }
+
+    private void checkPacketSize(ByteBuffer src) {
+        if (isL2cap() && src.remaining() > mMaxTxPacketSize) {
+            throw new IllegalArgumentException("Packet of " + src.remaining()
+                    + " bytes larger than the maximum transmit packet size " + mMaxTxPacketSize);
+        }
+    }
+
+    private static int readFd(FileDescriptor fd, ByteBuffer dst) throws IOException {
+        try {
+            int ret = Os.read(fd, dst);
+            // Nothing read into a non empty buffer means the peer closed the connection
+            return ret == 0 ? -1 : ret;
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+    }
+
+    private static int writeFd(FileDescriptor fd, ByteBuffer src) throws IOException {
+        int count = src.remaining();
+        try {
+            while (src.hasRemaining()) {
+                Os.write(fd, src);
+            }
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        return count;
+    }
+
     @Override
     public void close() throws IOException {
         Log.d(TAG, "close() this: " + this + ", channel: " + mPort + ", mSocketIS: " + mSocketIS
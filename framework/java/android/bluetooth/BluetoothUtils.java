@@ -16,6 +16,7 @@
 
 package android.bluetooth;
 
+import android.os.OutcomeReceiver;
 import android.os.UserHandle;
 import android.util.Log;
 
@@ -23,6 +24,14 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * {@hide}
@@ -45,6 +54,70 @@ public final class BluetoothUtils {
         return SYNC_CALLS_TIMEOUT;
     }
 
+    /** Number of threads running the binder calls of the asynchronous methods */
+    private static final int ASYNC_CALLS_THREAD_COUNT = 4;
+    private static final long ASYNC_CALLS_KEEP_ALIVE_SECONDS = 10;
+
+    // Created on first use, the threads exit once idle for ASYNC_CALLS_KEEP_ALIVE_SECONDS
+    private static class AsyncCallsExecutorHolder {
+        static final ThreadPoolExecutor EXECUTOR = createAsyncCallsExecutor();
+
+        private static ThreadPoolExecutor createAsyncCallsExecutor() {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable,
+                        "BluetoothAsyncCalls-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_CALLS_THREAD_COUNT,
+                    ASYNC_CALLS_THREAD_COUNT, ASYNC_CALLS_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    /**
+     * Run a synchronous proxy call without blocking the calling thread.
+     *
+     * <p>The binder calls of the proxies wait for the Bluetooth service to reply, this runs them
+     * on a small shared pool of threads so that an application can issue several queries at once
+     * (e.g. to different profiles) and get the results on its own executor. At most
+     * {@code ASYNC_CALLS_THREAD_COUNT} calls run in parallel, the next ones wait for one of them
+     * to complete.
+     *
+     * <p>Anything thrown by the call is delivered to {@link OutcomeReceiver#onError}, wrapped in a
+     * {@link RuntimeException} if needed. If the executor rejects the delivery, the outcome is
+     * dropped and logged.
+     *
+     * @param call the synchronous call
+     * @param executor the executor the receiver is called on
+     * @param receiver receives the result of the call, or the exception it threw
+     */
+    static <T> void callAsync(Supplier<T> call, Executor executor,
+            OutcomeReceiver<T, RuntimeException> receiver) {
+        Objects.requireNonNull(call, "call cannot be null");
+        Objects.requireNonNull(executor, "executor cannot be null");
+        Objects.requireNonNull(receiver, "receiver cannot be null");
+        AsyncCallsExecutorHolder.EXECUTOR.execute(() -> {
+            Runnable outcome;
+            try {
+                T result = call.get();
+                outcome = () -> receiver.onResult(result);
+            } catch (Throwable t) {
+                RuntimeException e = t instanceof RuntimeException
+                        ? (RuntimeException) t : new RuntimeException(t);
+                outcome = () -> receiver.onError(e);
+            }
+            try {
+                executor.execute(outcome);
+            } catch (Throwable t) {
+                Log.e(TAG, "callAsync: executor failed to deliver the outcome", t);
+            }
+        });
+    }
+
     /**
      * Match with UserHandl.NULL but accessible inside bluetooth package
      */
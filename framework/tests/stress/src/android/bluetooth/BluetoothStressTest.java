@@ -17,8 +17,16 @@
 package android.bluetooth;
 
 import android.content.Context;
+import android.os.OutcomeReceiver;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.test.InstrumentationTestCase;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Stress test suite for Bluetooth related functions.
  *
@@ -34,6 +42,8 @@ public class BluetoothStressTest extends InstrumentationTestCase {
     private static final String OUTPUT_FILE = "BluetoothStressTestOutput.txt";
     /** The amount of time to sleep between issuing start/stop SCO in ms. */
     private static final long SCO_SLEEP_TIME = 2 * 1000;
+    /** The maximum amount of time to wait for the asynchronous queries in ms. */
+    private static final long ASYNC_QUERY_TIMEOUT = 10 * 1000;
 
     private BluetoothAdapter mAdapter;
     private BluetoothTestUtils mTestUtils;
@@ -112,6 +122,66 @@ public class BluetoothStressTest extends InstrumentationTestCase {
         }
     }
 
+    /**
+     * Stress test comparing blocking queries of the bonded devices with their asynchronous
+     * variants.
+     * <p>
+     * Each iteration queries the UUIDs of all the bonded devices, one after the other with the
+     * blocking calls, then all at once with the asynchronous calls.
+     */
+    public void testAsyncQueries() {
+        int iterations = BluetoothTestRunner.sAsyncQueryIterations;
+        if (iterations == 0) {
+            return;
+        }
+
+        mTestUtils.enable(mAdapter);
+        List<BluetoothDevice> devices = new ArrayList<>(mAdapter.getBondedDevices());
+        if (devices.isEmpty()) {
+            mTestUtils.writeOutput("asyncQueries skipped: no bonded device");
+            return;
+        }
+
+        long syncNanos = 0;
+        long asyncNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            mTestUtils.writeOutput("asyncQueries iteration " + (i + 1) + " of " + iterations);
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (BluetoothDevice device : devices) {
+                device.getUuids();
+            }
+            syncNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            CountDownLatch latch = new CountDownLatch(devices.size());
+            OutcomeReceiver<ParcelUuid[], RuntimeException> receiver =
+                    new OutcomeReceiver<ParcelUuid[], RuntimeException>() {
+                        @Override
+                        public void onResult(ParcelUuid[] uuids) {
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void onError(RuntimeException e) {
+                            latch.countDown();
+                        }
+                    };
+            start = SystemClock.elapsedRealtimeNanos();
+            for (BluetoothDevice device : devices) {
+                device.getUuids(Runnable::run, receiver);
+            }
+            try {
+                assertTrue(latch.await(ASYNC_QUERY_TIMEOUT, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                fail("asyncQueries interrupted");
+            }
+            asyncNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        mTestUtils.writeOutput(String.format("asyncQueries: %d devices, sync=%dus, async=%dus",
+                devices.size(), syncNanos / iterations / 1000, asyncNanos / iterations / 1000));
+    }
+
     /**
      * Stress test for enabling and disabling the PAN NAP profile.
      */
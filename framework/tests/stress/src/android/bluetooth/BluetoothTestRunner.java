@@ -33,6 +33,7 @@ import junit.framework.TestSuite;
  *     [-e enable_iterations <iterations>] \
  *     [-e discoverable_iterations <iterations>] \
  *     [-e scan_iterations <iterations>] \
+ *     [-e async_query_iterations <iterations>] \
  *     [-e enable_pan_iterations <iterations>] \
  *     [-e pair_iterations <iterations>] \
  *     [-e connect_a2dp_iterations <iterations>] \
@@ -58,6 +59,7 @@ public class BluetoothTestRunner extends InstrumentationTestRunner {
     public static int sEnableIterations = 100;
     public static int sDiscoverableIterations = 1000;
     public static int sScanIterations = 1000;
+    public static int sAsyncQueryIterations = 100;
     public static int sEnablePanIterations = 1000;
     public static int sPairIterations = 100;
     public static int sConnectHeadsetIterations = 100;
@@ -112,6 +114,15 @@ public class BluetoothTestRunner extends InstrumentationTestRunner {
             }
         }
 
+        val = arguments.getString("async_query_iterations");
+        if (val != null) {
+            try {
+                sAsyncQueryIterations = Integer.parseInt(val);
+            } catch (NumberFormatException e) {
+                // Invalid argument, fall back to default value
+            }
+        }
+
         val = arguments.getString("enable_pan_iterations");
         if (val != null) {
             try {
@@ -209,6 +220,7 @@ public class BluetoothTestRunner extends InstrumentationTestRunner {
         Log.i(TAG, String.format("enable_iterations=%d", sEnableIterations));
         Log.i(TAG, String.format("discoverable_iterations=%d", sDiscoverableIterations));
         Log.i(TAG, String.format("scan_iterations=%d", sScanIterations));
+        Log.i(TAG, String.format("async_query_iterations=%d", sAsyncQueryIterations));
         Log.i(TAG, String.format("pair_iterations=%d", sPairIterations));
         Log.i(TAG, String.format("connect_a2dp_iterations=%d", sConnectA2dpIterations));
         Log.i(TAG, String.format("connect_headset_iterations=%d", sConnectHeadsetIterations));
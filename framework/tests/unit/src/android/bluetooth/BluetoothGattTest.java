@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Test cases for {@link BluetoothGatt}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothGattTest {
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final UUID SERVICE_UUID =
+            UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC_UUID =
+            UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID DESCRIPTOR_UUID =
+            UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private BluetoothDevice mDevice;
+    private BluetoothGatt mGatt;
+
+    @Before
+    public void setUp() {
+        mDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(ADDRESS);
+        mGatt = new BluetoothGatt(null, mDevice, BluetoothDevice.TRANSPORT_LE, false,
+                BluetoothDevice.PHY_LE_1M_MASK, null);
+    }
+
+    @Test
+    public void onSearchComplete_indexesAttributesByInstanceId() throws Exception {
+        BluetoothGattService first = createService(0x10);
+        BluetoothGattService second = createService(0x20);
+        // An attribute reusing an instance id does not replace the first one
+        second.addCharacteristic(new BluetoothGattCharacteristic(CHARACTERISTIC_UUID, 0x11,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0));
+        List<BluetoothGattService> services = new ArrayList<>();
+        services.add(first);
+        services.add(second);
+
+        mGatt.mBluetoothGattCallback.onSearchComplete(ADDRESS, services,
+                BluetoothGatt.GATT_SUCCESS);
+
+        assertThat(mGatt.getCharacteristicById(mDevice, 0x11))
+                .isSameInstanceAs(first.getCharacteristics().get(0));
+        assertThat(mGatt.getCharacteristicById(mDevice, 0x21))
+                .isSameInstanceAs(second.getCharacteristics().get(0));
+        assertThat(mGatt.getDescriptorById(mDevice, 0x22))
+                .isSameInstanceAs(second.getCharacteristics().get(0).getDescriptors().get(0));
+        assertThat(mGatt.getCharacteristicById(mDevice, 0x12)).isNull();
+        assertThat(mGatt.getDescriptorById(mDevice, 0x11)).isNull();
+    }
+
+    @Test
+    public void onNotify_deliversReadOnlyViewToListener() throws Exception {
+        BluetoothGattService service = createService(0x10);
+        BluetoothGattCharacteristic characteristic = service.getCharacteristics().get(0);
+        List<BluetoothGattService> services = new ArrayList<>();
+        services.add(service);
+        mGatt.mBluetoothGattCallback.onSearchComplete(ADDRESS, services,
+                BluetoothGatt.GATT_SUCCESS);
+        List<BluetoothGattCharacteristic> notified = new ArrayList<>();
+        List<ByteBuffer> values = new ArrayList<>();
+        mGatt.setCharacteristicChangedListener((c, value) -> {
+            notified.add(c);
+            values.add(value);
+        });
+
+        mGatt.mBluetoothGattCallback.onNotify(ADDRESS, 0x11, new byte[] {0x01, 0x02});
+        // Not a characteristic of the remote device
+        mGatt.mBluetoothGattCallback.onNotify(ADDRESS, 0x30, new byte[] {0x03});
+
+        assertThat(notified).containsExactly(characteristic);
+        assertThat(values.get(0).isReadOnly()).isTrue();
+        assertThat(values.get(0).remaining()).isEqualTo(2);
+        assertThat(values.get(0).get(1)).isEqualTo((byte) 0x02);
+        assertThat(characteristic.getValue()).isNull();
+
+        mGatt.clearCharacteristicChangedListener();
+        mGatt.mBluetoothGattCallback.onNotify(ADDRESS, 0x11, new byte[] {0x04});
+
+        assertThat(notified).hasSize(1);
+    }
+
+    @Test
+    public void onNotify_otherDevice_isIgnored() throws Exception {
+        List<BluetoothGattService> services = new ArrayList<>();
+        services.add(createService(0x10));
+        mGatt.mBluetoothGattCallback.onSearchComplete(ADDRESS, services,
+                BluetoothGatt.GATT_SUCCESS);
+        List<BluetoothGattCharacteristic> notified = new ArrayList<>();
+        mGatt.setCharacteristicChangedListener((c, value) -> notified.add(c));
+
+        mGatt.mBluetoothGattCallback.onNotify("00:01:02:03:04:06", 0x11, new byte[] {0x01});
+
+        assertThat(notified).isEmpty();
+    }
+
+    // Service at the given handle with a characteristic and its descriptor at the next ones
+    private static BluetoothGattService createService(int handle) {
+        BluetoothGattService service = new BluetoothGattService(SERVICE_UUID, handle,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(
+                CHARACTERISTIC_UUID, handle + 1, BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        characteristic.addDescriptor(new BluetoothGattDescriptor(DESCRIPTOR_UUID, handle + 2, 0));
+        service.addCharacteristic(characteristic);
+        return service;
+    }
+}
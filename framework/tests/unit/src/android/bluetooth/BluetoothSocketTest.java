@@ -0,0 +1,203 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.os.ParcelFileDescriptor;
+import android.system.Os;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test cases for the {@link ByteBuffer} methods of {@link BluetoothSocket}, over a local socket
+ * pair standing for a connected RFCOMM socket.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothSocketTest {
+    private static final int TIMEOUT_MS = 1000;
+
+    private BluetoothSocket mSocket;
+    private ParcelFileDescriptor mPeer;
+
+    @Before
+    public void setUp() throws Exception {
+        ParcelFileDescriptor[] pair = ParcelFileDescriptor.createSocketPair();
+        mPeer = pair[1];
+        BluetoothDevice device =
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+        mSocket = BluetoothSocket.createSocketFromOpenFd(pair[0], device, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mSocket.close();
+        mPeer.close();
+    }
+
+    @Test
+    public void read_smallerBuffer_returnsPartialData() throws Exception {
+        writePeer(new byte[] {1, 2, 3, 4, 5});
+        ByteBuffer first = ByteBuffer.allocate(3);
+        ByteBuffer second = ByteBuffer.allocate(8);
+        second.position(4);
+
+        assertThat(mSocket.read(first)).isEqualTo(3);
+        assertThat(mSocket.read(second)).isEqualTo(2);
+
+        assertThat(first.array()).isEqualTo(new byte[] {1, 2, 3});
+        assertThat(second.position()).isEqualTo(6);
+        assertThat(second.get(4)).isEqualTo((byte) 4);
+        assertThat(second.get(5)).isEqualTo((byte) 5);
+    }
+
+    @Test
+    public void read_directBuffer() throws Exception {
+        writePeer(new byte[] {1, 2, 3});
+        ByteBuffer dst = ByteBuffer.allocateDirect(8);
+
+        assertThat(mSocket.read(dst)).isEqualTo(3);
+
+        assertThat(dst.position()).isEqualTo(3);
+        assertThat(dst.get(2)).isEqualTo((byte) 3);
+    }
+
+    @Test
+    public void read_fullBuffer_returnsZero() throws Exception {
+        assertThat(mSocket.read(ByteBuffer.allocate(0))).isEqualTo(0);
+    }
+
+    @Test
+    public void read_peerClosed_returnsEndOfStream() throws Exception {
+        mPeer.close();
+
+        assertThat(mSocket.read(ByteBuffer.allocate(4))).isEqualTo(-1);
+    }
+
+    @Test
+    public void write_sendsRemainingBytesOnly() throws Exception {
+        ByteBuffer src = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5});
+        src.position(1).limit(4);
+
+        assertThat(mSocket.write(src)).isEqualTo(3);
+
+        assertThat(src.position()).isEqualTo(4);
+        assertThat(readPeer(3)).isEqualTo(new byte[] {2, 3, 4});
+    }
+
+    @Test
+    public void write_buffersNotArrayBacked() throws Exception {
+        ByteBuffer readOnly = ByteBuffer.wrap(new byte[] {1, 2}).asReadOnlyBuffer();
+        ByteBuffer direct = ByteBuffer.allocateDirect(2).put(new byte[] {3, 4});
+        direct.flip();
+
+        assertThat(mSocket.write(new ByteBuffer[] {readOnly, direct})).isEqualTo(4);
+
+        assertThat(readOnly.hasRemaining()).isFalse();
+        assertThat(direct.hasRemaining()).isFalse();
+        assertThat(readPeer(4)).isEqualTo(new byte[] {1, 2, 3, 4});
+    }
+
+    @Test
+    public void write_largerThanSocketBuffer_writesEverything() throws Exception {
+        // Larger than the socket buffers so the kernel only accepts partial writes
+        int size = 4 * 1024 * 1024;
+        AtomicLong received = new AtomicLong();
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                int count;
+                while (received.get() < size
+                        && (count = Os.read(mPeer.getFileDescriptor(), buffer, 0,
+                                buffer.length)) > 0) {
+                    received.addAndGet(count);
+                }
+            } catch (Exception e) {
+                // The check of the received count below fails
+            }
+        });
+        reader.start();
+
+        assertThat(mSocket.write(ByteBuffer.allocateDirect(size))).isEqualTo(size);
+
+        reader.join(TIMEOUT_MS);
+        assertThat(received.get()).isEqualTo(size);
+    }
+
+    @Test
+    public void write_nullBuffer_throws() {
+        assertThrows(NullPointerException.class, () -> mSocket.write((ByteBuffer) null));
+        assertThrows(NullPointerException.class,
+                () -> mSocket.write(new ByteBuffer[] {ByteBuffer.allocate(1), null}));
+    }
+
+    @Test
+    public void waitForReadable_noData_timesOut() throws Exception {
+        assertThat(mSocket.waitForReadable(0)).isFalse();
+        assertThat(mSocket.waitForReadable(20)).isFalse();
+    }
+
+    @Test
+    public void waitForReadable_dataAvailable() throws Exception {
+        writePeer(new byte[] {1});
+
+        assertThat(mSocket.waitForReadable(Long.MAX_VALUE)).isTrue();
+        assertThat(mSocket.waitForReadable(0)).isTrue();
+    }
+
+    @Test
+    public void waitForReadable_peerClosed() throws Exception {
+        mPeer.close();
+
+        assertThat(mSocket.waitForReadable(TIMEOUT_MS)).isTrue();
+    }
+
+    @Test
+    public void notConnected_throws() throws Exception {
+        mSocket.close();
+
+        assertThrows(IOException.class, () -> mSocket.read(ByteBuffer.allocate(1)));
+        assertThrows(IOException.class, () -> mSocket.write(ByteBuffer.allocate(1)));
+        assertThrows(IOException.class, () -> mSocket.waitForReadable(0));
+    }
+
+    private void writePeer(byte[] data) throws Exception {
+        Os.write(mPeer.getFileDescriptor(), data, 0, data.length);
+    }
+
+    private byte[] readPeer(int length) throws Exception {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            offset += Os.read(mPeer.getFileDescriptor(), data, offset, length - offset);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.os.OutcomeReceiver;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link BluetoothUtils#callAsync} and the asynchronous queries built on it.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothUtilsTest {
+    private static final long TIMEOUT_MS = 1000;
+    private static final String EXECUTOR_THREAD_NAME = "BluetoothUtilsTest";
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newSingleThreadExecutor(
+                runnable -> new Thread(runnable, EXECUTOR_THREAD_NAME));
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void callAsync_deliversResultOnExecutor() throws Exception {
+        TestReceiver<String> receiver = new TestReceiver<>();
+
+        BluetoothUtils.callAsync(() -> "result", mExecutor, receiver);
+
+        receiver.await();
+        assertThat(receiver.mResult).isEqualTo("result");
+        assertThat(receiver.mError).isNull();
+        assertThat(receiver.mThreadName).isEqualTo(EXECUTOR_THREAD_NAME);
+    }
+
+    @Test
+    public void callAsync_runtimeException_deliveredToOnError() throws Exception {
+        TestReceiver<String> receiver = new TestReceiver<>();
+        SecurityException exception = new SecurityException("test");
+
+        BluetoothUtils.callAsync(() -> {
+            throw exception;
+        }, mExecutor, receiver);
+
+        receiver.await();
+        assertThat(receiver.mError).isSameInstanceAs(exception);
+        assertThat(receiver.mThreadName).isEqualTo(EXECUTOR_THREAD_NAME);
+    }
+
+    @Test
+    public void callAsync_error_deliveredWrappedToOnError() throws Exception {
+        TestReceiver<String> receiver = new TestReceiver<>();
+        AssertionError error = new AssertionError("test");
+
+        BluetoothUtils.callAsync(() -> {
+            throw error;
+        }, mExecutor, receiver);
+
+        receiver.await();
+        assertThat(receiver.mError).hasCauseThat().isSameInstanceAs(error);
+    }
+
+    @Test
+    public void callAsync_executorRejects_laterCallsStillDelivered() throws Exception {
+        CountDownLatch rejected = new CountDownLatch(1);
+        Executor rejectingExecutor = runnable -> {
+            rejected.countDown();
+            throw new RejectedExecutionException("test");
+        };
+        BluetoothUtils.callAsync(() -> "dropped", rejectingExecutor, new TestReceiver<>());
+        assertThat(rejected.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+
+        TestReceiver<String> receiver = new TestReceiver<>();
+        BluetoothUtils.callAsync(() -> "result", mExecutor, receiver);
+
+        receiver.await();
+        assertThat(receiver.mResult).isEqualTo("result");
+    }
+
+    @Test
+    public void callAsync_nullArguments_throw() {
+        assertThrows(NullPointerException.class,
+                () -> BluetoothUtils.callAsync(null, mExecutor, new TestReceiver<>()));
+        assertThrows(NullPointerException.class,
+                () -> BluetoothUtils.callAsync(() -> "result", null, new TestReceiver<>()));
+        assertThrows(NullPointerException.class,
+                () -> BluetoothUtils.callAsync(() -> "result", mExecutor, null));
+    }
+
+    @Test
+    public void getUuids_deliversResultOnExecutor() throws Exception {
+        BluetoothDevice device =
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+        TestReceiver<ParcelUuid[]> receiver = new TestReceiver<>();
+
+        device.getUuids(mExecutor, receiver);
+
+        receiver.await();
+        // Never null, even if the device is unknown or Bluetooth is off. Without the permission
+        // the SecurityException is delivered instead.
+        if (receiver.mError == null) {
+            assertThat(receiver.mResult).isNotNull();
+        } else {
+            assertThat(receiver.mError).isInstanceOf(SecurityException.class);
+        }
+        assertThat(receiver.mThreadName).isEqualTo(EXECUTOR_THREAD_NAME);
+    }
+
+    @Test
+    public void getUuids_nullArguments_throw() {
+        BluetoothDevice device =
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+
+        assertThrows(NullPointerException.class,
+                () -> device.getUuids(null, new TestReceiver<>()));
+        assertThrows(NullPointerException.class, () -> device.getUuids(mExecutor, null));
+    }
+
+    @Test
+    public void profileDefaults_deliverResultsOnExecutor() throws Exception {
+        BluetoothDevice device =
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+        TestProfile profile = new TestProfile();
+        profile.mConnectedDevices.add(device);
+        TestReceiver<List<BluetoothDevice>> devicesReceiver = new TestReceiver<>();
+        TestReceiver<Integer> stateReceiver = new TestReceiver<>();
+
+        profile.getConnectedDevices(mExecutor, devicesReceiver);
+        profile.getConnectionState(device, mExecutor, stateReceiver);
+
+        devicesReceiver.await();
+        assertThat(devicesReceiver.mResult).containsExactly(device);
+        assertThat(devicesReceiver.mThreadName).isEqualTo(EXECUTOR_THREAD_NAME);
+        stateReceiver.await();
+        assertThat(stateReceiver.mResult).isEqualTo(BluetoothProfile.STATE_CONNECTED);
+        assertThat(stateReceiver.mThreadName).isEqualTo(EXECUTOR_THREAD_NAME);
+    }
+
+    @Test
+    public void profileDefaults_runtimeException_deliveredToOnError() throws Exception {
+        TestProfile profile = new TestProfile();
+        profile.mException = new SecurityException("test");
+        TestReceiver<List<BluetoothDevice>> devicesReceiver = new TestReceiver<>();
+        TestReceiver<Integer> stateReceiver = new TestReceiver<>();
+
+        profile.getConnectedDevices(mExecutor, devicesReceiver);
+        profile.getConnectionState(
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05"),
+                mExecutor, stateReceiver);
+
+        devicesReceiver.await();
+        assertThat(devicesReceiver.mError).isSameInstanceAs(profile.mException);
+        stateReceiver.await();
+        assertThat(stateReceiver.mError).isSameInstanceAs(profile.mException);
+    }
+
+    @Test
+    public void profileDefaults_nullArguments_throw() {
+        TestProfile profile = new TestProfile();
+        BluetoothDevice device =
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+
+        assertThrows(NullPointerException.class,
+                () -> profile.getConnectedDevices(null, new TestReceiver<>()));
+        assertThrows(NullPointerException.class,
+                () -> profile.getConnectedDevices(mExecutor, null));
+        assertThrows(NullPointerException.class,
+                () -> profile.getConnectionState(null, mExecutor, new TestReceiver<>()));
+        assertThrows(NullPointerException.class,
+                () -> profile.getConnectionState(device, null, new TestReceiver<>()));
+        assertThrows(NullPointerException.class,
+                () -> profile.getConnectionState(device, mExecutor, null));
+    }
+
+    /** Records the outcome of an asynchronous call and the thread it was delivered on. */
+    private static class TestReceiver<T> implements OutcomeReceiver<T, RuntimeException> {
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        T mResult;
+        RuntimeException mError;
+        String mThreadName;
+
+        @Override
+        public void onResult(T result) {
+            mResult = result;
+            mThreadName = Thread.currentThread().getName();
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onError(RuntimeException error) {
+            mError = error;
+            mThreadName = Thread.currentThread().getName();
+            mLatch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertThat(mLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        }
+    }
+
+    /** Profile proxy answering its blocking queries locally. */
+    private static class TestProfile implements BluetoothProfile {
+        final List<BluetoothDevice> mConnectedDevices = new ArrayList<>();
+        RuntimeException mException;
+
+        @Override
+        public List<BluetoothDevice> getConnectedDevices() {
+            if (mException != null) {
+                throw mException;
+            }
+            return mConnectedDevices;
+        }
+
+        @Override
+        public List<BluetoothDevice> getDevicesMatchingConnectionStates(int[] states) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public int getConnectionState(BluetoothDevice device) {
+            if (mException != null) {
+                throw mException;
+            }
+            return mConnectedDevices.contains(device)
+                    ? BluetoothProfile.STATE_CONNECTED : BluetoothProfile.STATE_DISCONNECTED;
+        }
+    }
+}